@@ -38,6 +38,14 @@ import no.uib.cipr.matrix.Vector;
 /**
  * Algebraic multigrid preconditioner. Uses the smoothed aggregation method
  * described by Vanek, Mandel, and Brezina (1996).
+ * <p>
+ * By default, the whole hierarchy is rebuilt on every call to
+ * <code>setMatrix</code>. If the matrices change only slowly, the aggregates
+ * and interpolation operators may be kept for a number of setups, see
+ * {@link #setRebuildInterval(int)}. Then only the Galerkin operators, the
+ * coarse LU factorization and the smoothers are recomputed. A rebuild is
+ * also done if the matrix structure has changed, or after a call to
+ * {@link #invalidate()}.
  */
 public class AMG implements Preconditioner {
 
@@ -56,6 +64,11 @@ public class AMG implements Preconditioner {
      */
     private CompRowMatrix[] A;
 
+    /**
+     * System matrix at the coarsest level
+     */
+    private CompRowMatrix Ac;
+
     /**
      * LU factorization at the coarsest level
      */
@@ -71,6 +84,12 @@ public class AMG implements Preconditioner {
      */
     private CompColMatrix[] I;
 
+    /**
+     * The interpolation operators in row-major storage, for recomputing the
+     * Galerkin operators. Created on demand
+     */
+    private CompRowMatrix[] Ir;
+
     /**
      * Smallest matrix size before terminating the AMG setup phase. Matrices
      * smaller than this will be solved by a direct solver
@@ -109,6 +128,27 @@ public class AMG implements Preconditioner {
      */
     private boolean transpose;
 
+    /**
+     * Maximum number of setups using the same aggregates and interpolation
+     * operators
+     */
+    private int rebuildInterval = 1;
+
+    /**
+     * Number of setups since the hierarchy was last built
+     */
+    private int age;
+
+    /**
+     * If true, the hierarchy is rebuilt at the next setup
+     */
+    private boolean stale = true;
+
+    /**
+     * Total number of setups and hierarchy builds
+     */
+    private int setups, builds;
+
     /**
      * Sets up the algebraic multigrid preconditioner
      * 
@@ -225,7 +265,52 @@ public class AMG implements Preconditioner {
         return x.set(u[0]);
     }
 
+    /**
+     * Sets the maximum number of setups using the same aggregates and
+     * interpolation operators. The default of one rebuilds the hierarchy on
+     * every setup
+     */
+    public void setRebuildInterval(int rebuildInterval) {
+        if (rebuildInterval < 1)
+            throw new IllegalArgumentException("rebuildInterval < 1");
+        this.rebuildInterval = rebuildInterval;
+    }
+
+    /**
+     * Forces a rebuild of the whole hierarchy at the next setup. Typically
+     * called when the preconditioner has become less efficient
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Returns the number of calls to <code>setMatrix</code>
+     */
+    public int getNumberOfSetups() {
+        return setups;
+    }
+
+    /**
+     * Returns the number of times the hierarchy has been built
+     */
+    public int getNumberOfBuilds() {
+        return builds;
+    }
+
     public void setMatrix(Matrix A) {
+        setups++;
+
+        if (stale || age >= rebuildInterval || !update(A))
+            build(A);
+
+        age++;
+    }
+
+    /**
+     * Builds the whole hierarchy from scratch
+     */
+    private void build(Matrix A) {
         List<CompRowMatrix> Al = new LinkedList<CompRowMatrix>();
         List<CompColMatrix> Il = new LinkedList<CompColMatrix>();
 
@@ -266,9 +351,9 @@ public class AMG implements Preconditioner {
             this.A[i] = Al.get(i);
 
         // Create a LU decomposition of the smallest Galerkin matrix
-        DenseMatrix Ac = new DenseMatrix(Al.get(Al.size() - 1));
+        this.Ac = Al.get(Al.size() - 1);
         lu = new DenseLU(Ac.numRows(), Ac.numColumns());
-        lu.factor(Ac);
+        lu.factor(new DenseMatrix(Ac));
 
         // Allocate vectors at each level
         u = new DenseVector[m];
@@ -291,6 +376,131 @@ public class AMG implements Preconditioner {
             preM[k].setMatrix(Ak);
             postM[k].setMatrix(Ak);
         }
+
+        Ir = null;
+        stale = false;
+        age = 0;
+        builds++;
+    }
+
+    /**
+     * Recomputes the numerical values of the hierarchy, keeping the
+     * aggregates and interpolation operators
+     * 
+     * @return False if the new matrix does not fit in the current structure,
+     *         in which case the hierarchy must be rebuilt
+     */
+    private boolean update(Matrix A) {
+        CompRowMatrix A0 = level(0);
+
+        // The fine matrix must have the same sparsity pattern
+        if (!(A instanceof CompRowMatrix))
+            return false;
+        CompRowMatrix Anew = (CompRowMatrix) A;
+        if (!Arrays.equals(Anew.getRowPointers(), A0.getRowPointers())
+                || !Arrays.equals(Anew.getColumnIndices(), A0
+                        .getColumnIndices()))
+            return false;
+
+        System.arraycopy(Anew.getData(), 0, A0.getData(), 0,
+                A0.getData().length);
+
+        if (Ir == null) {
+            Ir = new CompRowMatrix[m - 1];
+            for (int k = 0; k < m - 1; ++k)
+                Ir[k] = new CompRowMatrix(I[k]);
+        }
+
+        // Galerkin operators
+        for (int k = 0; k < m - 1; ++k)
+            if (!galerkin(level(k), Ir[k], level(k + 1)))
+                return false;
+
+        // Coarse LU and smoothers
+        lu.factor(new DenseMatrix(Ac));
+        for (int k = 0; k < m - 1; ++k) {
+            preM[k].setMatrix(this.A[k]);
+            postM[k].setMatrix(this.A[k]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the system matrix at the given level
+     */
+    private CompRowMatrix level(int k) {
+        return k < m - 1 ? A[k] : Ac;
+    }
+
+    /**
+     * Computes the entries of the Galerkin operator
+     * <code>Ac = I<sup>T</sup> A I</code> into its existing structure
+     * 
+     * @return False if a non-zero entry falls outside the structure of Ac
+     */
+    private static boolean galerkin(CompRowMatrix A, CompRowMatrix I,
+            CompRowMatrix Ac) {
+        int n = A.numRows(), c = Ac.numRows();
+
+        int[] rowptr = A.getRowPointers();
+        int[] colind = A.getColumnIndices();
+        double[] data = A.getData();
+
+        int[] Irowptr = I.getRowPointers();
+        int[] Icolind = I.getColumnIndices();
+        double[] Idata = I.getData();
+
+        int[] Acrowptr = Ac.getRowPointers();
+        int[] Accolind = Ac.getColumnIndices();
+        double[] Acdata = Ac.getData();
+
+        // Row of A*I in dense storage, and its non-zero indices
+        double[] ai = new double[c];
+        boolean[] used = new boolean[c];
+        int[] nz = new int[c];
+
+        Ac.zero();
+
+        for (int i = 0; i < n; ++i) {
+
+            // Form row 'i' of A*I
+            int nnz = 0;
+            for (int j = rowptr[i]; j < rowptr[i + 1]; ++j) {
+                int col = colind[j];
+                for (int l = Irowptr[col]; l < Irowptr[col + 1]; ++l) {
+                    int q = Icolind[l];
+                    if (!used[q]) {
+                        used[q] = true;
+                        nz[nnz++] = q;
+                    }
+                    ai[q] += data[j] * Idata[l];
+                }
+            }
+
+            // Add I(i,p) times that row into row 'p' of Ac
+            for (int l = Irowptr[i]; l < Irowptr[i + 1]; ++l) {
+                int p = Icolind[l];
+                for (int t = 0; t < nnz; ++t) {
+                    int q = nz[t];
+                    double value = Idata[l] * ai[q];
+
+                    int index = no.uib.cipr.matrix.sparse.Arrays.binarySearch(
+                            Accolind, q, Acrowptr[p], Acrowptr[p + 1]);
+                    if (index >= 0)
+                        Acdata[index] += value;
+                    else if (value != 0)
+                        return false;
+                }
+            }
+
+            for (int t = 0; t < nnz; ++t) {
+                ai[nz[t]] = 0;
+                used[nz[t]] = false;
+            }
+        }
+
+        return true;
     }
 
     /**
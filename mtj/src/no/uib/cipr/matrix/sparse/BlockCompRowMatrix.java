@@ -0,0 +1,502 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import no.uib.cipr.matrix.AbstractMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.MatrixEntry;
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * Block compressed row storage (BSR) matrix. The matrix is divided into square
+ * blocks of a fixed size, and the non-zero blocks are stored as dense
+ * row-major arrays, one after the other. Only one column index is stored per
+ * block, which suits systems with several coupled unknowns per cell.
+ * <p>
+ * The block structure is fixed at construction. Setting an entry outside the
+ * stored blocks is an error, but all entries inside a stored block may be
+ * set.
+ */
+public class BlockCompRowMatrix extends AbstractMatrix {
+
+    /**
+     * Block data. Each block is stored row-wise
+     */
+    double[] data;
+
+    /**
+     * Block column indices. These are kept sorted within each block row
+     */
+    int[] columnIndex;
+
+    /**
+     * Indices to the first block of each block row
+     */
+    int[] rowPointer;
+
+    /**
+     * Number of rows and columns of each block
+     */
+    final int blockSize;
+
+    /**
+     * Number of entries in each block
+     */
+    final int blockLength;
+
+    /**
+     * Worker pool for the matrix-vector products. If null, the global pool is
+     * used
+     */
+    private WorkerPool pool;
+
+    /**
+     * Constructor for BlockCompRowMatrix
+     * 
+     * @param numBlockRows
+     *            Number of block rows
+     * @param numBlockColumns
+     *            Number of block columns
+     * @param blockSize
+     *            Number of rows and columns of each block
+     * @param nz
+     *            The non-zero block column indices on each block row
+     */
+    public BlockCompRowMatrix(int numBlockRows, int numBlockColumns,
+            int blockSize, int[][] nz) {
+        super(numBlockRows * checkBlockSize(blockSize), numBlockColumns
+                * blockSize);
+        this.blockSize = blockSize;
+        blockLength = blockSize * blockSize;
+        construct(nz);
+    }
+
+    /**
+     * Constructor for BlockCompRowMatrix. The blocks are those which contain
+     * an entry of the given matrix, and the values are copied over
+     * 
+     * @param A
+     *            Copies from this matrix. Its dimensions must be multiples of
+     *            the block size
+     * @param blockSize
+     *            Number of rows and columns of each block
+     */
+    public BlockCompRowMatrix(Matrix A, int blockSize) {
+        super(A);
+        this.blockSize = checkBlockSize(blockSize);
+        blockLength = blockSize * blockSize;
+
+        if (numRows % blockSize != 0 || numColumns % blockSize != 0)
+            throw new IllegalArgumentException("Matrix size " + numRows + "x"
+                    + numColumns + " is not divisible into blocks of size "
+                    + blockSize);
+
+        if (A instanceof BlockCompRowMatrix
+                && ((BlockCompRowMatrix) A).blockSize == blockSize) {
+            BlockCompRowMatrix Ab = (BlockCompRowMatrix) A;
+            data = Ab.data.clone();
+            columnIndex = Ab.columnIndex.clone();
+            rowPointer = Ab.rowPointer.clone();
+        } else {
+            int numBlockRows = numBlockRows();
+
+            List<Set<Integer>> rnz = new ArrayList<Set<Integer>>(numBlockRows);
+            for (int i = 0; i < numBlockRows; ++i)
+                rnz.add(new HashSet<Integer>());
+
+            for (MatrixEntry e : A)
+                rnz.get(e.row() / blockSize).add(e.column() / blockSize);
+
+            int[][] nz = new int[numBlockRows][];
+            for (int i = 0; i < numBlockRows; ++i) {
+                nz[i] = new int[rnz.get(i).size()];
+                int j = 0;
+                for (Integer colind : rnz.get(i))
+                    nz[i][j++] = colind;
+            }
+
+            construct(nz);
+
+            for (MatrixEntry e : A)
+                set(e.row(), e.column(), e.get());
+        }
+    }
+
+    /**
+     * Constructor for BlockCompRowMatrix. Copies a block matrix
+     * 
+     * @param A
+     *            Copies from this matrix
+     */
+    public BlockCompRowMatrix(BlockCompRowMatrix A) {
+        this(A, A.blockSize);
+    }
+
+    private static int checkBlockSize(int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("blockSize < 1");
+        return blockSize;
+    }
+
+    private void construct(int[][] nz) {
+        int numBlockRows = numBlockRows(), numBlockColumns = numBlockColumns();
+
+        if (nz.length != numBlockRows)
+            throw new IllegalArgumentException("nz.length != numBlockRows");
+
+        int nnz = 0;
+        for (int i = 0; i < nz.length; ++i)
+            nnz += nz[i].length;
+
+        rowPointer = new int[numBlockRows + 1];
+        columnIndex = new int[nnz];
+        data = new double[nnz * blockLength];
+
+        for (int i = 1; i <= numBlockRows; ++i) {
+            rowPointer[i] = rowPointer[i - 1] + nz[i - 1].length;
+
+            for (int j = rowPointer[i - 1], k = 0; j < rowPointer[i]; ++j, ++k) {
+                columnIndex[j] = nz[i - 1][k];
+                if (nz[i - 1][k] < 0 || nz[i - 1][k] >= numBlockColumns)
+                    throw new IllegalArgumentException("nz[" + (i - 1) + "]["
+                            + k + "]=" + nz[i - 1][k]
+                            + ", which is not a valid block column index");
+            }
+
+            Arrays.sort(columnIndex, rowPointer[i - 1], rowPointer[i]);
+        }
+    }
+
+    /**
+     * Returns the number of rows and columns of each block
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the number of block rows
+     */
+    public int numBlockRows() {
+        return numRows / blockSize;
+    }
+
+    /**
+     * Returns the number of block columns
+     */
+    public int numBlockColumns() {
+        return numColumns / blockSize;
+    }
+
+    /**
+     * Returns the block column indices
+     */
+    public int[] getColumnIndices() {
+        return columnIndex;
+    }
+
+    /**
+     * Returns the block row pointers
+     */
+    public int[] getRowPointers() {
+        return rowPointer;
+    }
+
+    /**
+     * Returns the internal data storage. Block <code>k</code> starts at
+     * <code>k*blockSize*blockSize</code>, and is stored row-wise
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    /**
+     * Sets the worker pool for the matrix-vector products of this matrix.
+     * Null reverts to the global pool of {@link WorkerPool#getDefault()}, and
+     * a pool with a single thread makes the products sequential
+     */
+    public void setWorkerPool(WorkerPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the worker pool set for this matrix, or null if it uses the
+     * global pool
+     */
+    public WorkerPool getWorkerPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the pool to multiply with, or null for a sequential product
+     */
+    private WorkerPool productPool() {
+        WorkerPool p = pool != null ? pool : WorkerPool.getDefault();
+        if (p != null && p.useFor(data.length))
+            return p;
+        else
+            return null;
+    }
+
+    @Override
+    public Vector multAdd(final double alpha, Vector x, Vector y) {
+        if (!(x instanceof DenseVector) || !(y instanceof DenseVector))
+            return super.multAdd(alpha, x, y);
+
+        checkMultAdd(x, y);
+
+        final double[] xd = ((DenseVector) x).getData();
+        final double[] yd = ((DenseVector) y).getData();
+
+        WorkerPool p = productPool();
+        if (p == null)
+            multAdd(alpha, xd, yd, 0, numBlockRows());
+        else {
+            final int[] begin = WorkerPool.partition(rowPointer, p
+                    .numThreads());
+            p.execute(p.numThreads(), new WorkerPool.Block() {
+                public void run(int block) {
+                    multAdd(alpha, xd, yd, begin[block], begin[block + 1]);
+                }
+            });
+        }
+
+        return y;
+    }
+
+    /**
+     * Computes <code>y = alpha*A*x + y</code> on the given block rows
+     */
+    private void multAdd(double alpha, double[] xd, double[] yd, int first,
+            int last) {
+        double[] dot = new double[blockSize];
+
+        for (int i = first; i < last; ++i) {
+            Arrays.fill(dot, 0);
+
+            for (int k = rowPointer[i]; k < rowPointer[i + 1]; ++k) {
+                int offset = k * blockLength, column = columnIndex[k]
+                        * blockSize;
+                for (int r = 0; r < blockSize; ++r, offset += blockSize) {
+                    double sum = 0;
+                    for (int c = 0; c < blockSize; ++c)
+                        sum += data[offset + c] * xd[column + c];
+                    dot[r] += sum;
+                }
+            }
+
+            for (int r = 0, row = i * blockSize; r < blockSize; ++r)
+                yd[row + r] += alpha * dot[r];
+        }
+    }
+
+    @Override
+    public Vector transMultAdd(double alpha, Vector x, Vector y) {
+        if (!(x instanceof DenseVector) || !(y instanceof DenseVector))
+            return super.transMultAdd(alpha, x, y);
+
+        checkTransMultAdd(x, y);
+
+        double[] xd = ((DenseVector) x).getData();
+        double[] yd = ((DenseVector) y).getData();
+
+        for (int i = 0; i < numBlockRows(); ++i)
+            for (int k = rowPointer[i]; k < rowPointer[i + 1]; ++k) {
+                int offset = k * blockLength, column = columnIndex[k]
+                        * blockSize;
+                for (int r = 0, row = i * blockSize; r < blockSize; ++r, offset += blockSize) {
+                    double xr = alpha * xd[row + r];
+                    for (int c = 0; c < blockSize; ++c)
+                        yd[column + c] += data[offset + c] * xr;
+                }
+            }
+
+        return y;
+    }
+
+    @Override
+    public void set(int row, int column, double value) {
+        check(row, column);
+
+        data[getIndex(row, column)] = value;
+    }
+
+    @Override
+    public void add(int row, int column, double value) {
+        check(row, column);
+
+        data[getIndex(row, column)] += value;
+    }
+
+    @Override
+    public double get(int row, int column) {
+        check(row, column);
+
+        int k = blockIndex(row / blockSize, column / blockSize);
+
+        if (k >= 0)
+            return data[k * blockLength + (row % blockSize) * blockSize
+                    + column % blockSize];
+        else
+            return 0;
+    }
+
+    /**
+     * Finds the index of the given block, or -1 if it is not stored
+     */
+    int blockIndex(int blockRow, int blockColumn) {
+        return no.uib.cipr.matrix.sparse.Arrays.binarySearch(columnIndex,
+                blockColumn, rowPointer[blockRow], rowPointer[blockRow + 1]);
+    }
+
+    /**
+     * Finds the data index of an entry in the structure
+     */
+    private int getIndex(int row, int column) {
+        int k = blockIndex(row / blockSize, column / blockSize);
+
+        if (k >= 0)
+            return k * blockLength + (row % blockSize) * blockSize + column
+                    % blockSize;
+        else
+            throw new IndexOutOfBoundsException("Entry (" + (row + 1) + ", "
+                    + (column + 1) + ") is not in the matrix structure");
+    }
+
+    @Override
+    public BlockCompRowMatrix copy() {
+        return new BlockCompRowMatrix(this);
+    }
+
+    @Override
+    public Iterator<MatrixEntry> iterator() {
+        return new BlockCompRowMatrixIterator();
+    }
+
+    @Override
+    public BlockCompRowMatrix zero() {
+        Arrays.fill(data, 0);
+        return this;
+    }
+
+    @Override
+    public Matrix set(Matrix B) {
+        if (!(B instanceof BlockCompRowMatrix))
+            return super.set(B);
+
+        checkSize(B);
+
+        BlockCompRowMatrix Bc = (BlockCompRowMatrix) B;
+        if (Bc.blockSize != blockSize)
+            return super.set(B);
+
+        // Reallocate matrix structure, if necessary
+        if (Bc.columnIndex.length != columnIndex.length) {
+            data = new double[Bc.data.length];
+            columnIndex = new int[Bc.columnIndex.length];
+        }
+
+        System.arraycopy(Bc.data, 0, data, 0, data.length);
+        System.arraycopy(Bc.columnIndex, 0, columnIndex, 0, columnIndex.length);
+        System.arraycopy(Bc.rowPointer, 0, rowPointer, 0, rowPointer.length);
+
+        return this;
+    }
+
+    /**
+     * Iterator over a block compressed row matrix. All the entries of the
+     * stored blocks are visited
+     */
+    private class BlockCompRowMatrixIterator implements Iterator<MatrixEntry> {
+
+        /**
+         * Current block row, and index into the data
+         */
+        private int blockRow, cursor;
+
+        private BlockCompRowMatrixEntry entry = new BlockCompRowMatrixEntry();
+
+        public boolean hasNext() {
+            return cursor < data.length;
+        }
+
+        public MatrixEntry next() {
+            // Skip to the block row of the current block
+            int k = cursor / blockLength;
+            while (rowPointer[blockRow + 1] <= k)
+                blockRow++;
+
+            int offset = cursor % blockLength;
+            entry.update(blockRow * blockSize + offset / blockSize,
+                    columnIndex[k] * blockSize + offset % blockSize, cursor);
+            cursor++;
+
+            return entry;
+        }
+
+        public void remove() {
+            entry.set(0);
+        }
+
+    }
+
+    /**
+     * Entry of a block compressed row matrix
+     */
+    private class BlockCompRowMatrixEntry implements MatrixEntry {
+
+        private int row, column, cursor;
+
+        /**
+         * Updates the entry
+         */
+        public void update(int row, int column, int cursor) {
+            this.row = row;
+            this.column = column;
+            this.cursor = cursor;
+        }
+
+        public int row() {
+            return row;
+        }
+
+        public int column() {
+            return column;
+        }
+
+        public double get() {
+            return data[cursor];
+        }
+
+        public void set(double value) {
+            data[cursor] = value;
+        }
+    }
+
+}
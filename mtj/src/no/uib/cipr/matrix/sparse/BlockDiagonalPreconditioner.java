@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * Block diagonal (block Jacobi) preconditioner. Uses the inverses of the
+ * diagonal blocks as preconditioner
+ */
+public class BlockDiagonalPreconditioner implements Preconditioner {
+
+    /**
+     * Size of the diagonal blocks
+     */
+    private final int blockSize;
+
+    /**
+     * This contains the inverses of the diagonal blocks, stored row-wise one
+     * after the other
+     */
+    private final double[] invdiag;
+
+    /**
+     * Constructor for BlockDiagonalPreconditioner
+     * 
+     * @param n
+     *            Problem size (number of rows)
+     * @param blockSize
+     *            Number of rows and columns of each diagonal block. Must
+     *            divide the problem size
+     */
+    public BlockDiagonalPreconditioner(int n, int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("blockSize < 1");
+        if (n % blockSize != 0)
+            throw new IllegalArgumentException("Problem size " + n
+                    + " is not divisible into blocks of size " + blockSize);
+
+        this.blockSize = blockSize;
+        invdiag = new double[n * blockSize];
+    }
+
+    public Vector apply(Vector b, Vector x) {
+        if (!(x instanceof DenseVector) || !(b instanceof DenseVector))
+            throw new IllegalArgumentException("Vector must be DenseVectors");
+
+        double[] xd = ((DenseVector) x).getData();
+        double[] bd = ((DenseVector) b).getData();
+        double[] t = new double[blockSize];
+
+        int bl = blockSize * blockSize;
+        for (int k = 0; k * blockSize < xd.length; ++k) {
+            Blocks.mult(blockSize, invdiag, k * bl, bd, k * blockSize, t, 0);
+            System.arraycopy(t, 0, xd, k * blockSize, blockSize);
+        }
+
+        return x;
+    }
+
+    public Vector transApply(Vector b, Vector x) {
+        if (!(x instanceof DenseVector) || !(b instanceof DenseVector))
+            throw new IllegalArgumentException("Vector must be DenseVectors");
+
+        double[] xd = ((DenseVector) x).getData();
+        double[] bd = ((DenseVector) b).getData();
+        double[] t = new double[blockSize];
+
+        int bl = blockSize * blockSize;
+        for (int k = 0; k * blockSize < xd.length; ++k) {
+            Blocks.transMult(blockSize, invdiag, k * bl, bd, k * blockSize, t,
+                    0);
+            System.arraycopy(t, 0, xd, k * blockSize, blockSize);
+        }
+
+        return x;
+    }
+
+    public void setMatrix(Matrix A) {
+        int n = invdiag.length / blockSize, bl = blockSize * blockSize;
+        if (A.numRows() != n)
+            throw new IllegalArgumentException(
+                    "Matrix size differs from preconditioner size");
+
+        double[] block = new double[bl], work = new double[bl];
+
+        for (int k = 0; k < n / blockSize; ++k) {
+            int offset = k * blockSize;
+
+            // Read the block directly from a matching block matrix
+            if (A instanceof BlockCompRowMatrix
+                    && ((BlockCompRowMatrix) A).blockSize == blockSize) {
+                BlockCompRowMatrix Ab = (BlockCompRowMatrix) A;
+                int index = Ab.blockIndex(k, k);
+                if (index < 0)
+                    throw new RuntimeException("Missing diagonal block on block row "
+                            + (k + 1));
+                System.arraycopy(Ab.data, index * bl, block, 0, bl);
+            } else
+                for (int i = 0; i < blockSize; ++i)
+                    for (int j = 0; j < blockSize; ++j)
+                        block[i * blockSize + j] = A.get(offset + i, offset
+                                + j);
+
+            if (!Blocks.invert(blockSize, block, 0, invdiag, k * bl, work))
+                throw new RuntimeException("Singular diagonal block on block row "
+                        + (k + 1));
+        }
+    }
+
+}
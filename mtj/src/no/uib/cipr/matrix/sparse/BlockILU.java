@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * Block ILU(0) preconditioner using a block compressed row matrix as internal
+ * storage. The factorisation is done on whole blocks, with the inverses of
+ * the diagonal blocks in place of the scalar pivots
+ */
+public class BlockILU implements Preconditioner {
+
+    /**
+     * Factorisation matrix
+     */
+    private final BlockCompRowMatrix LU;
+
+    /**
+     * Indices to the diagonal blocks
+     */
+    private int[] diagind;
+
+    /**
+     * Inverses of the diagonal blocks of U, one after the other
+     */
+    private final double[] invdiag;
+
+    /**
+     * Temporary vector for solving the factorised system
+     */
+    private final double[] y;
+
+    /**
+     * Sets up the block ILU preconditioner
+     * 
+     * @param LU
+     *            Matrix to use internally. For best performance, its block
+     *            pattern must conform to that of the system matrix
+     */
+    public BlockILU(BlockCompRowMatrix LU) {
+        if (!LU.isSquare())
+            throw new IllegalArgumentException(
+                    "BlockILU only applies to square matrices");
+
+        this.LU = LU;
+        invdiag = new double[LU.numBlockRows() * LU.blockLength];
+        y = new double[LU.numRows()];
+    }
+
+    public Vector apply(Vector b, Vector x) {
+        if (!(x instanceof DenseVector) || !(b instanceof DenseVector))
+            throw new IllegalArgumentException("Vector must be DenseVectors");
+
+        double[] bd = ((DenseVector) b).getData();
+        double[] xd = ((DenseVector) x).getData();
+
+        int n = LU.numBlockRows(), bs = LU.blockSize, bl = LU.blockLength;
+        int[] colind = LU.columnIndex, rowptr = LU.rowPointer;
+        double[] data = LU.data;
+
+        // Ly = b, with unit diagonal blocks
+        System.arraycopy(bd, 0, y, 0, y.length);
+        for (int k = 0; k < n; ++k)
+            for (int i = rowptr[k]; i < diagind[k]; ++i)
+                Blocks.multSubtract(bs, data, i * bl, y, colind[i] * bs, y, k
+                        * bs);
+
+        // Ux = y
+        for (int k = n - 1; k >= 0; --k) {
+            for (int i = diagind[k] + 1; i < rowptr[k + 1]; ++i)
+                Blocks.multSubtract(bs, data, i * bl, xd, colind[i] * bs, y, k
+                        * bs);
+            Blocks.mult(bs, invdiag, k * bl, y, k * bs, xd, k * bs);
+        }
+
+        return x;
+    }
+
+    public Vector transApply(Vector b, Vector x) {
+        if (!(x instanceof DenseVector) || !(b instanceof DenseVector))
+            throw new IllegalArgumentException("Vector must be DenseVectors");
+
+        double[] bd = ((DenseVector) b).getData();
+        double[] xd = ((DenseVector) x).getData();
+
+        int n = LU.numBlockRows(), bs = LU.blockSize, bl = LU.blockLength;
+        int[] colind = LU.columnIndex, rowptr = LU.rowPointer;
+        double[] data = LU.data;
+
+        // U'y = b, scattering each solved block onto the blocks below it
+        System.arraycopy(bd, 0, xd, 0, xd.length);
+        for (int k = 0; k < n; ++k) {
+            Blocks.transMult(bs, invdiag, k * bl, xd, k * bs, y, k * bs);
+            for (int i = diagind[k] + 1; i < rowptr[k + 1]; ++i)
+                Blocks.transMultSubtract(bs, data, i * bl, y, k * bs, xd,
+                        colind[i] * bs);
+        }
+
+        // L'x = y, with unit diagonal blocks
+        System.arraycopy(y, 0, xd, 0, xd.length);
+        for (int k = n - 1; k >= 0; --k)
+            for (int i = rowptr[k]; i < diagind[k]; ++i)
+                Blocks.transMultSubtract(bs, data, i * bl, xd, k * bs, xd,
+                        colind[i] * bs);
+
+        return x;
+    }
+
+    public void setMatrix(Matrix A) {
+        LU.set(A);
+
+        factor();
+    }
+
+    private void factor() {
+        int n = LU.numBlockRows(), bs = LU.blockSize, bl = LU.blockLength;
+
+        // Internal BSR matrix storage
+        int[] colind = LU.columnIndex;
+        int[] rowptr = LU.rowPointer;
+        double[] data = LU.data;
+
+        // Find the indices to the diagonal blocks
+        diagind = findDiagonalIndices(n, colind, rowptr);
+
+        double[] work = new double[bl], factor = new double[bl];
+
+        // Go down along the main diagonal
+        for (int k = 0; k < n; ++k) {
+            for (int i = rowptr[k]; i < diagind[k]; ++i) {
+
+                // Elimination factor, using the inverted diagonal block
+                int index = colind[i];
+                Blocks.multBlock(bs, data, i * bl, invdiag, index * bl, factor, 0);
+                System.arraycopy(factor, 0, data, i * bl, bl);
+
+                // Traverse the sparse block row i, reducing on block row k
+                for (int j = diagind[index] + 1, l = i + 1; j < rowptr[index + 1]; ++j) {
+
+                    while (l < rowptr[k + 1] && colind[l] < colind[j])
+                        l++;
+
+                    if (l < rowptr[k + 1] && colind[l] == colind[j])
+                        Blocks.multSubtractBlock(bs, factor, 0, data, j * bl,
+                                data, l * bl);
+                }
+            }
+
+            if (!Blocks.invert(bs, data, diagind[k] * bl, invdiag, k * bl,
+                    work))
+                throw new RuntimeException(
+                        "Singular pivot block encountered on block row "
+                                + (k + 1) + " during block ILU process");
+        }
+    }
+
+    private int[] findDiagonalIndices(int m, int[] colind, int[] rowptr) {
+        int[] diagind = new int[m];
+
+        for (int k = 0; k < m; ++k) {
+            diagind[k] = Arrays.binarySearch(colind, k, rowptr[k],
+                    rowptr[k + 1]);
+
+            if (diagind[k] < 0)
+                throw new RuntimeException("Missing diagonal block on block row "
+                        + (k + 1));
+        }
+
+        return diagind;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse;
+
+/**
+ * Dense kernels on the small square blocks of a block matrix. A block is
+ * stored row-wise in an array, starting at a given offset
+ */
+class Blocks {
+
+    private Blocks() {
+        // No need to instantiate
+    }
+
+    /**
+     * Inverts a block using Gaussian elimination with partial pivoting
+     * 
+     * @param n
+     *            Block size
+     * @param A
+     *            Block to invert. Not modified
+     * @param a
+     *            Offset of the block in <code>A</code>
+     * @param B
+     *            The inverse is stored here
+     * @param b
+     *            Offset of the inverse in <code>B</code>
+     * @param work
+     *            Work array of length at least <code>n*n</code>
+     * @return False if the block is singular
+     */
+    public static boolean invert(int n, double[] A, int a, double[] B, int b,
+            double[] work) {
+        System.arraycopy(A, a, work, 0, n * n);
+        java.util.Arrays.fill(B, b, b + n * n, 0);
+        for (int i = 0; i < n; ++i)
+            B[b + i * n + i] = 1;
+
+        for (int k = 0; k < n; ++k) {
+
+            // Find the pivot row
+            int p = k;
+            for (int i = k + 1; i < n; ++i)
+                if (Math.abs(work[i * n + k]) > Math.abs(work[p * n + k]))
+                    p = i;
+            if (work[p * n + k] == 0)
+                return false;
+
+            if (p != k)
+                for (int j = 0; j < n; ++j) {
+                    double t = work[k * n + j];
+                    work[k * n + j] = work[p * n + j];
+                    work[p * n + j] = t;
+                    t = B[b + k * n + j];
+                    B[b + k * n + j] = B[b + p * n + j];
+                    B[b + p * n + j] = t;
+                }
+
+            // Scale the pivot row, and eliminate the column from the others
+            double pivot = 1 / work[k * n + k];
+            for (int j = 0; j < n; ++j) {
+                work[k * n + j] *= pivot;
+                B[b + k * n + j] *= pivot;
+            }
+
+            for (int i = 0; i < n; ++i)
+                if (i != k && work[i * n + k] != 0) {
+                    double f = work[i * n + k];
+                    for (int j = 0; j < n; ++j) {
+                        work[i * n + j] -= f * work[k * n + j];
+                        B[b + i * n + j] -= f * B[b + k * n + j];
+                    }
+                }
+        }
+
+        return true;
+    }
+
+    /**
+     * <code>C = A*B</code>
+     */
+    public static void multBlock(int n, double[] A, int a, double[] B,
+            int b, double[] C, int c) {
+        for (int i = 0; i < n; ++i)
+            for (int j = 0; j < n; ++j) {
+                double dot = 0;
+                for (int k = 0; k < n; ++k)
+                    dot += A[a + i * n + k] * B[b + k * n + j];
+                C[c + i * n + j] = dot;
+            }
+    }
+
+    /**
+     * <code>C = C - A*B</code>
+     */
+    public static void multSubtractBlock(int n, double[] A, int a,
+            double[] B, int b, double[] C, int c) {
+        for (int i = 0; i < n; ++i)
+            for (int j = 0; j < n; ++j) {
+                double dot = 0;
+                for (int k = 0; k < n; ++k)
+                    dot += A[a + i * n + k] * B[b + k * n + j];
+                C[c + i * n + j] -= dot;
+            }
+    }
+
+    /**
+     * <code>y = A*x</code>, where <code>x</code> and <code>y</code> are
+     * segments of length <code>n</code>
+     */
+    public static void mult(int n, double[] A, int a, double[] x, int xi,
+            double[] y, int yi) {
+        for (int i = 0; i < n; ++i) {
+            double dot = 0;
+            for (int k = 0; k < n; ++k)
+                dot += A[a + i * n + k] * x[xi + k];
+            y[yi + i] = dot;
+        }
+    }
+
+    /**
+     * <code>y = y - A*x</code>, where <code>x</code> and <code>y</code>
+     * are segments of length <code>n</code>
+     */
+    public static void multSubtract(int n, double[] A, int a, double[] x,
+            int xi, double[] y, int yi) {
+        for (int i = 0; i < n; ++i) {
+            double dot = 0;
+            for (int k = 0; k < n; ++k)
+                dot += A[a + i * n + k] * x[xi + k];
+            y[yi + i] -= dot;
+        }
+    }
+
+    /**
+     * <code>y = A'*x</code>, where <code>x</code> and <code>y</code> are
+     * segments of length <code>n</code>
+     */
+    public static void transMult(int n, double[] A, int a, double[] x, int xi,
+            double[] y, int yi) {
+        for (int i = 0; i < n; ++i) {
+            double dot = 0;
+            for (int k = 0; k < n; ++k)
+                dot += A[a + k * n + i] * x[xi + k];
+            y[yi + i] = dot;
+        }
+    }
+
+    /**
+     * <code>y = y - A'*x</code>, where <code>x</code> and <code>y</code>
+     * are segments of length <code>n</code>
+     */
+    public static void transMultSubtract(int n, double[] A, int a,
+            double[] x, int xi, double[] y, int yi) {
+        for (int i = 0; i < n; ++i) {
+            double dot = 0;
+            for (int k = 0; k < n; ++k)
+                dot += A[a + k * n + i] * x[xi + k];
+            y[yi + i] -= dot;
+        }
+    }
+
+}
@@ -57,6 +57,17 @@ public class CompColMatrix extends AbstractMatrix {
      */
     int[] rowIndex;
 
+    /**
+     * Worker pool for the matrix-vector products. If null, the global pool is
+     * used
+     */
+    private WorkerPool pool;
+
+    /**
+     * Workspace of the parallel products
+     */
+    private final CompressedProducts products = new CompressedProducts();
+
     /**
      * Constructor for CompColMatrix
      * 
@@ -273,6 +284,34 @@ public class CompColMatrix extends AbstractMatrix {
         return data;
     }
 
+    /**
+     * Sets the worker pool for the matrix-vector products of this matrix.
+     * Null reverts to the global pool of {@link WorkerPool#getDefault()}, and
+     * a pool with a single thread makes the products sequential
+     */
+    public void setWorkerPool(WorkerPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the worker pool set for this matrix, or null if it uses the
+     * global pool
+     */
+    public WorkerPool getWorkerPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the pool to multiply with, or null for a sequential product
+     */
+    private WorkerPool productPool() {
+        WorkerPool p = pool != null ? pool : WorkerPool.getDefault();
+        if (p != null && p.useFor(data.length))
+            return p;
+        else
+            return null;
+    }
+
     @Override
     public Vector multAdd(double alpha, Vector x, Vector y) {
         if (!(x instanceof DenseVector) || !(y instanceof DenseVector))
@@ -283,6 +322,13 @@ public class CompColMatrix extends AbstractMatrix {
         double[] xd = ((DenseVector) x).getData(), yd = ((DenseVector) y)
                 .getData();
 
+        WorkerPool p = productPool();
+        if (p != null) {
+            products.scatter(p, columnPointer, rowIndex, data, xd, yd, alpha,
+                    true);
+            return y;
+        }
+
         // y = 1/alpha * y
         y.scale(1 / alpha);
 
@@ -305,6 +351,13 @@ public class CompColMatrix extends AbstractMatrix {
         double[] xd = ((DenseVector) x).getData();
         double[] yd = ((DenseVector) y).getData();
 
+        WorkerPool p = productPool();
+        if (p != null) {
+            CompressedProducts.dot(p, columnPointer, rowIndex, data, xd, yd, 1,
+                    false);
+            return y;
+        }
+
         for (int i = 0; i < numColumns; ++i) {
             double dot = 0;
             for (int j = columnPointer[i]; j < columnPointer[i + 1]; ++j)
@@ -325,6 +378,13 @@ public class CompColMatrix extends AbstractMatrix {
         double[] xd = ((DenseVector) x).getData();
         double[] yd = ((DenseVector) y).getData();
 
+        WorkerPool p = productPool();
+        if (p != null) {
+            CompressedProducts.dot(p, columnPointer, rowIndex, data, xd, yd,
+                    alpha, true);
+            return y;
+        }
+
         for (int i = 0; i < numColumns; ++i) {
             double dot = 0;
             for (int j = columnPointer[i]; j < columnPointer[i + 1]; ++j)
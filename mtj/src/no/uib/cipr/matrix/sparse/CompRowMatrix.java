@@ -59,6 +59,17 @@ public class CompRowMatrix extends AbstractMatrix {
      */
     int[] rowPointer;
 
+    /**
+     * Worker pool for the matrix-vector products. If null, the global pool is
+     * used
+     */
+    private WorkerPool pool;
+
+    /**
+     * Workspace of the parallel products
+     */
+    private final CompressedProducts products = new CompressedProducts();
+
     /**
      * Constructor for CompRowMatrix
      * 
@@ -276,6 +287,34 @@ public class CompRowMatrix extends AbstractMatrix {
         return data;
     }
 
+    /**
+     * Sets the worker pool for the matrix-vector products of this matrix.
+     * Null reverts to the global pool of {@link WorkerPool#getDefault()}, and
+     * a pool with a single thread makes the products sequential
+     */
+    public void setWorkerPool(WorkerPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the worker pool set for this matrix, or null if it uses the
+     * global pool
+     */
+    public WorkerPool getWorkerPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the pool to multiply with, or null for a sequential product
+     */
+    private WorkerPool productPool() {
+        WorkerPool p = pool != null ? pool : WorkerPool.getDefault();
+        if (p != null && p.useFor(data.length))
+            return p;
+        else
+            return null;
+    }
+
     @Override
 	public Matrix mult(Matrix B, Matrix C) {
     	checkMultAdd(B, C);
@@ -304,6 +343,14 @@ public class CompRowMatrix extends AbstractMatrix {
         // can't assume this, unfortunately
         y.zero();
         
+        WorkerPool p = productPool();
+        if (p != null && x instanceof DenseVector && y instanceof DenseVector) {
+            CompressedProducts.dot(p, rowPointer, columnIndex, data,
+                    ((DenseVector) x).getData(), ((DenseVector) y).getData(),
+                    1, false);
+            return y;
+        }
+
         if (x instanceof DenseVector) {
         	// DenseVector optimisations
         	double[] xd = ((DenseVector) x).getData();
@@ -342,6 +389,13 @@ public class CompRowMatrix extends AbstractMatrix {
         double[] xd = ((DenseVector) x).getData();
         double[] yd = ((DenseVector) y).getData();
 
+        WorkerPool p = productPool();
+        if (p != null) {
+            CompressedProducts.dot(p, rowPointer, columnIndex, data, xd, yd,
+                    alpha, true);
+            return y;
+        }
+
         for (int i = 0; i < numRows; ++i) {
             double dot = 0;
             for (int j = rowPointer[i]; j < rowPointer[i + 1]; ++j)
@@ -362,6 +416,13 @@ public class CompRowMatrix extends AbstractMatrix {
         double[] xd = ((DenseVector) x).getData();
         double[] yd = ((DenseVector) y).getData();
 
+        WorkerPool p = productPool();
+        if (p != null) {
+            products.scatter(p, rowPointer, columnIndex, data, xd, yd, 1,
+                    false);
+            return y;
+        }
+
         y.zero();
 
         for (int i = 0; i < numRows; ++i)
@@ -381,6 +442,13 @@ public class CompRowMatrix extends AbstractMatrix {
         double[] xd = ((DenseVector) x).getData();
         double[] yd = ((DenseVector) y).getData();
 
+        WorkerPool p = productPool();
+        if (p != null) {
+            products.scatter(p, rowPointer, columnIndex, data, xd, yd, alpha,
+                    true);
+            return y;
+        }
+
         // y = 1/alpha * y
         y.scale(1. / alpha);
 
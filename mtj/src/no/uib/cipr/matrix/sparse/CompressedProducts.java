@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse;
+
+/**
+ * Parallel matrix-vector products for compressed row and column storage. The
+ * rows (or columns) are split into blocks with about the same number of
+ * entries, one block per thread of the pool.
+ * <p>
+ * Products which form one dot product per stored row give the same result as
+ * the sequential loops. Products which scatter each stored row into the
+ * output accumulate into one partial result per block, which are then summed.
+ * These differ from the sequential loops only by rounding, and do not vary
+ * between runs with the same number of threads.
+ */
+class CompressedProducts {
+
+    /**
+     * Partial results of the scattering products, one per block. Reused
+     * between products
+     */
+    private double[][] partial = new double[0][];
+
+    /**
+     * Computes <code>y = A*x</code> or <code>y = alpha*A*x + y</code>
+     * where each stored row gives one entry of <code>y</code>
+     * 
+     * @param add
+     *            False to overwrite <code>y</code>, in which case
+     *            <code>alpha</code> is not used
+     */
+    static void dot(WorkerPool pool, final int[] pointer, final int[] index,
+            final double[] data, final double[] x, final double[] y,
+            final double alpha, final boolean add) {
+        int numBlocks = pool.numThreads();
+        final int[] begin = WorkerPool.partition(pointer, numBlocks);
+
+        pool.execute(numBlocks, new WorkerPool.Block() {
+            public void run(int block) {
+                for (int i = begin[block]; i < begin[block + 1]; ++i) {
+                    double dot = 0;
+                    for (int j = pointer[i]; j < pointer[i + 1]; ++j)
+                        dot += data[j] * x[index[j]];
+                    if (add)
+                        y[i] += alpha * dot;
+                    else
+                        y[i] = dot;
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes <code>y = A*x</code> or <code>y = alpha*A*x + y</code>
+     * where each stored row is scattered into <code>y</code>, scaled by the
+     * matching entry of <code>x</code>
+     * 
+     * @param add
+     *            False to overwrite <code>y</code>, in which case
+     *            <code>alpha</code> is not used
+     */
+    synchronized void scatter(WorkerPool pool, final int[] pointer,
+            final int[] index, final double[] data, final double[] x,
+            final double[] y, final double alpha, final boolean add) {
+        final int numBlocks = pool.numThreads();
+        final int[] begin = WorkerPool.partition(pointer, numBlocks);
+        final int m = y.length;
+
+        if (partial.length != numBlocks || partial[0].length != m) {
+            partial = new double[numBlocks][];
+            for (int b = 0; b < numBlocks; ++b)
+                partial[b] = new double[m];
+        }
+        final double[][] p = partial;
+
+        // Each block scatters into its own partial result
+        pool.execute(numBlocks, new WorkerPool.Block() {
+            public void run(int block) {
+                double[] pb = p[block];
+                java.util.Arrays.fill(pb, 0);
+                for (int i = begin[block]; i < begin[block + 1]; ++i)
+                    for (int j = pointer[i]; j < pointer[i + 1]; ++j)
+                        pb[index[j]] += data[j] * x[i];
+            }
+        });
+
+        // Sum the partial results, in block order for every entry
+        pool.execute(numBlocks, new WorkerPool.Block() {
+            public void run(int block) {
+                int first = (int) ((long) block * m / numBlocks);
+                int last = (int) ((long) (block + 1) * m / numBlocks);
+                for (int k = first; k < last; ++k) {
+                    double sum = 0;
+                    for (int b = 0; b < numBlocks; ++b)
+                        sum += p[b][k];
+                    if (add)
+                        y[k] += alpha * sum;
+                    else
+                        y[k] = sum;
+                }
+            }
+        });
+    }
+
+}
@@ -17,7 +17,6 @@
  * along with this library; if not, write to the Free Software Foundation,
  * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
  */
-
 package no.uib.cipr.matrix.sparse;
 
 import java.util.Arrays;
@@ -28,10 +27,30 @@ import no.uib.cipr.matrix.Vector;
 
 /**
  * Incomplete Cholesky preconditioner without fill-in using a compressed row
- * matrix as internal storage
+ * matrix as internal storage.
+ * <p>
+ * A row of the factor depends on every earlier row it reaches through the
+ * upper triangle. The sequential factorisation finds this reach set as each
+ * row is factored, so that it needs memory linear in the number of rows. The
+ * symbolic phase finds the diagonal indices, and is only redone by
+ * {@link #setMatrix(Matrix)} if the sparsity pattern changes.
+ * {@link #refactor(Matrix)} skips it altogether.
+ * <p>
+ * With a worker pool, the factorisation and the triangular solves are level
+ * scheduled, with identical results to the sequential ones. The reach sets of
+ * all the rows and their levels are then computed once per sparsity pattern.
+ * The reach sets grow with the bandwidth of the matrix, and if storing them
+ * would take many times the memory of the matrix, the factorisation stays
+ * sequential.
  */
 public class ICC implements Preconditioner {
 
+    /**
+     * Largest number of stored reach set indices per entry of the matrix. A
+     * parallel factorisation which needs more is done sequentially instead
+     */
+    private static final int MAX_REACH_PER_ENTRY = 32;
+
     /**
      * Factorisation matrix
      */
@@ -47,6 +66,57 @@ public class ICC implements Preconditioner {
      */
     private final Vector y;
 
+    /**
+     * Worker pool for the factorisation and solves. If null, the global pool
+     * is used
+     */
+    private WorkerPool pool;
+
+    /**
+     * Level scheduled solver for the current pattern. Null until a parallel
+     * factorisation has been done
+     */
+    private TriangularSolver solver;
+
+    /**
+     * Copies of the pattern the symbolic phase was done for
+     */
+    private int[] patternRowptr, patternColind;
+
+    /**
+     * Indices to the diagonal entries. Null until the symbolic phase has been
+     * done
+     */
+    private int[] diagind;
+
+    /**
+     * The earlier rows used when factoring each row, in increasing order.
+     * Null unless stored for a parallel factorisation
+     */
+    private int[] reachPointer, reach;
+
+    /**
+     * True if the reach sets of the current pattern are too large to store
+     */
+    private boolean reachTooLarge;
+
+    /**
+     * Workspace for finding the reach set of a single row: the row each index
+     * was last visited for, a depth-first stack, and the reach set itself
+     */
+    private int[] marker, stack, rowReach;
+
+    /**
+     * Level schedule of the factorisation. Null until a parallel
+     * factorisation has been done
+     */
+    private LevelSchedule schedule;
+
+    /**
+     * Dense row storage for each thread, kept zero between rows
+     */
+    private double[][] work;
+
     /**
      * Sets up the ICC preconditioner
      * 
@@ -62,9 +132,41 @@ public class ICC implements Preconditioner {
         this.R = R;
         int n = R.numRows();
         y = new DenseVector(n);
+        work = new double[1][n];
+    }
+
+    /**
+     * Sets the worker pool for the factorisation and the triangular solves.
+     * Null reverts to the global pool of {@link WorkerPool#getDefault()}, and
+     * a pool with a single thread makes everything sequential
+     */
+    public void setWorkerPool(WorkerPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the pool to work on, or null for sequential work
+     */
+    private WorkerPool workerPool() {
+        WorkerPool p = pool != null ? pool : WorkerPool.getDefault();
+        if (p != null && p.useFor(R.getData().length))
+            return p;
+        else
+            return null;
     }
 
     public Vector apply(Vector b, Vector x) {
+        WorkerPool p = workerPool();
+        if (p != null && solver != null && b instanceof DenseVector
+                && x instanceof DenseVector) {
+            double[] yd = ((DenseVector) y).getData();
+            solver.transSolveUpper(p, R.getData(), ((DenseVector) b)
+                    .getData(), yd);
+            solver.solveUpper(p, R.getData(), yd, ((DenseVector) x)
+                    .getData());
+            return x;
+        }
+
         // R'y = b, y = R'\b
         Rt.transSolve(b, y);
 
@@ -79,63 +181,229 @@ public class ICC implements Preconditioner {
     public void setMatrix(Matrix A) {
         R.set(A);
 
+        if (diagind == null
+                || !Arrays.equals(R.getRowPointers(), patternRowptr)
+                || !Arrays.equals(R.getColumnIndices(), patternColind))
+            analyse();
+
+        factor();
+    }
+
+    /**
+     * Redoes the numeric factorisation only, reusing the symbolic phase of
+     * the last call to {@link #setMatrix(Matrix)}. The sparsity pattern of
+     * the matrix must be the same as then. No memory is allocated for
+     * compressed row matrices, and the first call falls back to
+     * <code>setMatrix</code>
+     */
+    public void refactor(Matrix A) {
+        if (diagind == null) {
+            setMatrix(A);
+            return;
+        }
+
+        if (A instanceof CompRowMatrix) {
+            double[] Ad = ((CompRowMatrix) A).getData(), data = R.getData();
+            if (Ad.length != data.length)
+                throw new IllegalArgumentException(
+                        "Sparsity pattern differs from that of the last setMatrix");
+            System.arraycopy(Ad, 0, data, 0, data.length);
+        } else
+            R.set(A);
+
         factor();
     }
 
+    /**
+     * Symbolic phase. Finds the diagonal indices. The reach sets and the
+     * levels are found by the first parallel factorisation
+     */
+    private void analyse() {
+        int n = R.numRows();
+        int[] colind = R.getColumnIndices();
+        int[] rowptr = R.getRowPointers();
+
+        this.diagind = null;
+        int[] diagind = findDiagonalIndices(n, colind, rowptr);
+
+        this.diagind = diagind;
+        patternRowptr = rowptr.clone();
+        patternColind = colind.clone();
+
+        marker = new int[n];
+        stack = new int[n];
+        rowReach = new int[n];
+
+        Rt = new UpperCompRowMatrix(R, diagind);
+        reachPointer = reach = null;
+        reachTooLarge = false;
+        schedule = null;
+        solver = null;
+    }
+
+    /**
+     * Numeric phase. Each row is reduced by the rows in its reach set in
+     * increasing order, which are exactly the rows which can give a non-zero
+     * elimination factor
+     */
     private void factor() {
         int n = R.numRows();
 
-        // Internal CRS matrix storage
+        WorkerPool p = workerPool();
+        if (p != null) {
+            if (solver == null)
+                solver = new TriangularSolver(R.getRowPointers(), R
+                        .getColumnIndices(), diagind);
+            if (schedule == null && !reachTooLarge) {
+                storeReach(n);
+                if (!reachTooLarge)
+                    schedule = new LevelSchedule(reachPointer, reach, true);
+            }
+            if (schedule != null && work.length < p.numThreads())
+                work = new double[p.numThreads()][n];
+        }
+
+        try {
+            if (p != null && schedule != null)
+                schedule.run(p, new LevelSchedule.Sweep() {
+                    public void row(int k, int block) {
+                        factorRow(k, work[block], reach, reachPointer[k],
+                                reachPointer[k + 1]);
+                    }
+                });
+            else {
+                Arrays.fill(marker, -1);
+                for (int k = 0; k < n; ++k)
+                    factorRow(k, work[0], rowReach, 0, findReach(k));
+            }
+        } catch (RuntimeException e) {
+            // A failed row leaves its work array dirty
+            for (double[] Rk : work)
+                Arrays.fill(Rk, 0);
+            throw e;
+        }
+    }
+
+    /**
+     * Factors row <code>k</code> using the dense work array
+     * <code>Rk</code>, which is zero on entry and exit. Only the rows in the
+     * reach set, given by <code>rows[begin:end]</code>, are read, and only
+     * row <code>k</code> is written to
+     */
+    private void factorRow(int k, double[] Rk, int[] rows, int begin, int end) {
         int[] colind = R.getColumnIndices();
         int[] rowptr = R.getRowPointers();
         double[] data = R.getData();
 
-        // Temporary storage of a dense row
-        double[] Rk = new double[n];
+        // Expand current row to dense storage
+        for (int i = rowptr[k]; i < rowptr[k + 1]; ++i)
+            Rk[colind[i]] = data[i];
 
-        // Find the indices to the diagonal entries
-        int[] diagind = findDiagonalIndices(n, colind, rowptr);
+        for (int r = begin; r < end; ++r) {
+            int i = rows[r];
 
-        // Go down along the main diagonal
-        for (int k = 0; k < n; ++k) {
+            // Get the current diagonal entry
+            double Rii = data[diagind[i]];
+
+            if (Rii == 0)
+                throw new RuntimeException("Zero pivot encountered on row "
+                        + (i + 1) + " during ICC process");
 
-            // Expand current row to dense storage
-            Arrays.fill(Rk, 0);
-            for (int i = rowptr[k]; i < rowptr[k + 1]; ++i)
-                Rk[colind[i]] = data[i];
+            // Elimination factor
+            double Rki = Rk[i] / Rii;
 
-            for (int i = 0; i < k; ++i) {
+            if (Rki == 0)
+                continue;
 
-                // Get the current diagonal entry
-                double Rii = data[diagind[i]];
+            // Traverse the sparse row i, reducing on row k
+            for (int j = diagind[i] + 1; j < rowptr[i + 1]; ++j)
+                Rk[colind[j]] -= Rki * data[j];
+        }
 
-                if (Rii == 0)
-                    throw new RuntimeException("Zero pivot encountered on row "
-                            + (i + 1) + " during ICC process");
+        // Store the row back into the factorisation matrix
+        if (Rk[k] == 0)
+            throw new RuntimeException(
+                    "Zero diagonal entry encountered on row " + (k + 1)
+                            + " during ICC process");
+        double sqRkk = Math.sqrt(Rk[k]);
+
+        for (int i = diagind[k]; i < rowptr[k + 1]; ++i)
+            data[i] = Rk[colind[i]] / sqRkk;
+
+        // Clear all the entries touched
+        for (int i = rowptr[k]; i < rowptr[k + 1]; ++i)
+            Rk[colind[i]] = 0;
+        for (int r = begin; r < end; ++r) {
+            int i = rows[r];
+            Rk[i] = 0;
+            for (int j = diagind[i] + 1; j < rowptr[i + 1]; ++j)
+                Rk[colind[j]] = 0;
+        }
+    }
 
-                // Elimination factor
-                double Rki = Rk[i] / Rii;
+    /**
+     * Stores the reach sets of all the rows, unless they would take more than
+     * <code>MAX_REACH_PER_ENTRY</code> indices per matrix entry. Then
+     * <code>reachTooLarge</code> is set instead
+     */
+    private void storeReach(int n) {
+        long limit = Math.min((long) MAX_REACH_PER_ENTRY * R.getData().length,
+                Integer.MAX_VALUE - 8);
+
+        // Count the indices first, stopping as soon as the limit is passed
+        long size = 0;
+        Arrays.fill(marker, -1);
+        for (int k = 0; k < n && size <= limit; ++k)
+            size += findReach(k);
+
+        if (size > limit) {
+            reachTooLarge = true;
+            return;
+        }
 
-                if (Rki == 0)
-                    continue;
+        reachPointer = new int[n + 1];
+        reach = new int[(int) size];
 
-                // Traverse the sparse row i, reducing on row k
-                for (int j = diagind[i] + 1; j < rowptr[i + 1]; ++j)
-                    Rk[colind[j]] -= Rki * data[j];
-            }
+        Arrays.fill(marker, -1);
+        for (int k = 0; k < n; ++k) {
+            int length = findReach(k);
+            System.arraycopy(rowReach, 0, reach, reachPointer[k], length);
+            reachPointer[k + 1] = reachPointer[k] + length;
+        }
+    }
+
+    /**
+     * Finds the reach set of row <code>k</code>: the earlier rows which are
+     * left of the diagonal on the row, and recursively those left of row
+     * <code>k</code> in the upper triangle of a row already in the set. They
+     * are put in increasing order at the start of <code>rowReach</code>, and
+     * their number is returned. The markers must not hold <code>k</code> on
+     * entry
+     */
+    private int findReach(int k) {
+        int[] colind = R.getColumnIndices();
+        int[] rowptr = R.getRowPointers();
 
-            // Store the row back into the factorisation matrix
-            if (Rk[k] == 0)
-                throw new RuntimeException(
-                        "Zero diagonal entry encountered on row " + (k + 1)
-                                + " during ICC process");
-            double sqRkk = Math.sqrt(Rk[k]);
+        int top = 0, size = 0;
 
-            for (int i = diagind[k]; i < rowptr[k + 1]; ++i)
-                data[i] = Rk[colind[i]] / sqRkk;
+        for (int j = rowptr[k]; j < diagind[k]; ++j) {
+            marker[colind[j]] = k;
+            stack[top++] = colind[j];
         }
 
-        Rt = new UpperCompRowMatrix(R, diagind);
+        while (top > 0) {
+            int i = stack[--top];
+            rowReach[size++] = i;
+
+            for (int j = diagind[i] + 1; j < rowptr[i + 1]; ++j)
+                if (colind[j] < k && marker[colind[j]] != k) {
+                    marker[colind[j]] = k;
+                    stack[top++] = colind[j];
+                }
+        }
+
+        Arrays.sort(rowReach, 0, size);
+        return size;
     }
 
     private int[] findDiagonalIndices(int m, int[] colind, int[] rowptr) {
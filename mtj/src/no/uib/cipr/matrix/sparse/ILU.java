@@ -17,7 +17,6 @@
  * along with this library; if not, write to the Free Software Foundation,
  * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
  */
-
 package no.uib.cipr.matrix.sparse;
 
 import no.uib.cipr.matrix.DenseVector;
@@ -25,7 +24,23 @@ import no.uib.cipr.matrix.Matrix;
 import no.uib.cipr.matrix.Vector;
 
 /**
- * ILU(0) preconditioner using a compressed row matrix as internal storage
+ * ILU(k) preconditioner using a compressed row matrix as internal storage.
+ * The default is ILU(0), which keeps the sparsity pattern of the system
+ * matrix. A positive level of fill adds the entries of the exact
+ * factorisation which are at most that many elimination steps away from the
+ * original pattern.
+ * <p>
+ * The factorisation is split into a symbolic phase, which finds the fill
+ * pattern and the diagonal indices, and a numeric phase. The symbolic phase
+ * is only redone by {@link #setMatrix(Matrix)} if the sparsity pattern of
+ * the system matrix changes, and {@link #refactor(Matrix)} skips it
+ * altogether.
+ * <p>
+ * With a worker pool, the factorisation and the triangular solves are level
+ * scheduled: the rows are grouped into levels which only depend on earlier
+ * levels, and the rows of a level are processed in parallel. The levels are
+ * computed once per sparsity pattern, and the results are identical to the
+ * sequential ones.
  */
 public class ILU implements Preconditioner {
 
@@ -34,6 +49,11 @@ public class ILU implements Preconditioner {
      */
     private final CompRowMatrix LU;
 
+    /**
+     * Level of fill
+     */
+    private final int fillLevel;
+
     /**
      * The L and U factors
      */
@@ -45,23 +65,100 @@ public class ILU implements Preconditioner {
     private final Vector y;
 
     /**
-     * Sets up the ILU preconditioner
+     * Worker pool for the factorisation and solves. If null, the global pool
+     * is used
+     */
+    private WorkerPool pool;
+
+    /**
+     * Level scheduled solver for the current pattern. Null until a parallel
+     * factorisation has been done
+     */
+    private TriangularSolver solver;
+
+    /**
+     * Copies of the pattern the symbolic phase was done for
+     */
+    private int[] patternRowptr, patternColind;
+
+    /**
+     * Indices to the diagonal entries of the factor. Null until the symbolic
+     * phase has been done
+     */
+    private int[] diagind;
+
+    /**
+     * Positions in the factor of the entries of the system matrix. Null when
+     * there is no fill
+     */
+    private int[] map;
+
+    /**
+     * Sets up the ILU(0) preconditioner
      * 
      * @param LU
      *            Matrix to use internally. For best performance, its non-zero
      *            pattern must conform to that of the system matrix
      */
     public ILU(CompRowMatrix LU) {
+        this(LU, 0);
+    }
+
+    /**
+     * Sets up the ILU(k) preconditioner
+     * 
+     * @param LU
+     *            Matrix to use internally. Its sparsity pattern is replaced
+     *            by that of the factor
+     * @param fillLevel
+     *            Level of fill. Zero keeps the pattern of the system matrix
+     */
+    public ILU(CompRowMatrix LU, int fillLevel) {
         if (!LU.isSquare())
             throw new IllegalArgumentException(
                     "ILU only applies to square matrices");
+        if (fillLevel < 0)
+            throw new IllegalArgumentException(
+                    "Level of fill cannot be negative");
 
         this.LU = LU;
+        this.fillLevel = fillLevel;
         int n = LU.numRows();
         y = new DenseVector(n);
     }
 
+    /**
+     * Sets the worker pool for the factorisation and the triangular solves.
+     * Null reverts to the global pool of {@link WorkerPool#getDefault()}, and
+     * a pool with a single thread makes everything sequential
+     */
+    public void setWorkerPool(WorkerPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the pool to work on, or null for sequential work
+     */
+    private WorkerPool workerPool() {
+        WorkerPool p = pool != null ? pool : WorkerPool.getDefault();
+        if (p != null && p.useFor(LU.getData().length))
+            return p;
+        else
+            return null;
+    }
+
     public Vector apply(Vector b, Vector x) {
+        WorkerPool p = workerPool();
+        if (p != null && solver != null && b instanceof DenseVector
+                && x instanceof DenseVector) {
+            double[] yd = ((DenseVector) y).getData();
+            solver.solveUnitLower(p, LU.getData(), ((DenseVector) b)
+                    .getData(), yd);
+            solver.solveUpper(p, LU.getData(), yd, ((DenseVector) x)
+                    .getData());
+            return x;
+        }
+
         // Ly = b, y = L\b
         L.solve(b, y);
 
@@ -70,6 +167,17 @@ public class ILU implements Preconditioner {
     }
 
     public Vector transApply(Vector b, Vector x) {
+        WorkerPool p = workerPool();
+        if (p != null && solver != null && b instanceof DenseVector
+                && x instanceof DenseVector) {
+            double[] yd = ((DenseVector) y).getData();
+            solver.transSolveUpper(p, LU.getData(), ((DenseVector) b)
+                    .getData(), yd);
+            solver.transSolveUnitLower(p, LU.getData(), yd,
+                    ((DenseVector) x).getData());
+            return x;
+        }
+
         // U'y = b, y = U'\b
         U.transSolve(b, y);
 
@@ -78,50 +186,234 @@ public class ILU implements Preconditioner {
     }
 
     public void setMatrix(Matrix A) {
-        LU.set(A);
+        if (A instanceof CompRowMatrix) {
+            CompRowMatrix Ac = (CompRowMatrix) A;
+            if (!java.util.Arrays.equals(Ac.getRowPointers(), patternRowptr)
+                    || !java.util.Arrays.equals(Ac.getColumnIndices(),
+                            patternColind))
+                analyse(Ac.getRowPointers(), Ac.getColumnIndices());
+        } else if (diagind == null)
+            analyse(LU.getRowPointers(), LU.getColumnIndices());
+
+        refactor(A);
+    }
+
+    /**
+     * Redoes the numeric factorisation only, reusing the symbolic phase of
+     * the last call to {@link #setMatrix(Matrix)}. The sparsity pattern of
+     * the matrix must be the same as then. No memory is allocated for
+     * compressed row matrices, and the first call falls back to
+     * <code>setMatrix</code>
+     */
+    public void refactor(Matrix A) {
+        if (diagind == null) {
+            setMatrix(A);
+            return;
+        }
+
+        double[] data = LU.getData();
+        if (A instanceof CompRowMatrix) {
+            double[] Ad = ((CompRowMatrix) A).getData();
+            if (Ad.length != (map == null ? data.length : map.length))
+                throw new IllegalArgumentException(
+                        "Sparsity pattern differs from that of the last setMatrix");
+
+            if (map == null)
+                System.arraycopy(Ad, 0, data, 0, Ad.length);
+            else {
+                java.util.Arrays.fill(data, 0);
+                for (int i = 0; i < Ad.length; ++i)
+                    data[map[i]] = Ad[i];
+            }
+        } else
+            LU.set(A);
 
         factor();
     }
 
-    private void factor() {
+    /**
+     * Symbolic phase. Sets up the pattern of the factor from that of the
+     * system matrix, and finds its diagonal
+     */
+    private void analyse(int[] rowptr, int[] colind) {
         int n = LU.numRows();
 
-        // Internal CRS matrix storage
-        int[] colind = LU.getColumnIndices();
-        int[] rowptr = LU.getRowPointers();
-        double[] data = LU.getData();
+        // Forget the old pattern in case this one turns out to be invalid
+        patternRowptr = patternColind = diagind = null;
+
+        // The pattern may be that of LU itself, so copy it first
+        rowptr = rowptr.clone();
+        colind = colind.clone();
+
+        if (fillLevel == 0) {
+            map = null;
+            setPattern(rowptr.clone(), colind.clone());
+        } else
+            fill(n, rowptr, colind);
 
-        // Find the indices to the diagonal entries
-        int[] diagind = findDiagonalIndices(n, colind, rowptr);
+        diagind = findDiagonalIndices(n, LU.getColumnIndices(), LU
+                .getRowPointers());
+        patternRowptr = rowptr;
+        patternColind = colind;
 
-        // Go down along the main diagonal
-        for (int k = 1; k < n; ++k)
-            for (int i = rowptr[k]; i < diagind[k]; ++i) {
+        L = new UnitLowerCompRowMatrix(LU, diagind);
+        U = new UpperCompRowMatrix(LU, diagind);
+        solver = null;
+    }
 
-                // Get the current diagonal entry
-                int index = colind[i];
-                double LUii = data[diagind[index]];
+    /**
+     * Gives the factorisation matrix a new pattern
+     */
+    private void setPattern(int[] rowptr, int[] colind) {
+        LU.rowPointer = rowptr;
+        LU.columnIndex = colind;
+        if (LU.data.length != colind.length)
+            LU.data = new double[colind.length];
+    }
+
+    /**
+     * Finds the level of fill pattern. An original entry has level zero, and
+     * eliminating entry (i,k) with entry (k,j) gives entry (i,j) the level
+     * lev(i,k)+lev(k,j)+1 unless it already is lower. Entries above the level
+     * of fill are dropped
+     */
+    private void fill(int n, int[] rowptr, int[] colind) {
+        int[] frowptr = new int[n + 1];
+        int[] fcolind = new int[rowptr[n]], flevel = new int[rowptr[n]];
 
-                if (LUii == 0)
-                    throw new RuntimeException("Zero pivot encountered on row "
-                            + (i + 1) + " during ILU process");
+        // Start of the upper triangle of each row of the factor
+        int[] fupper = new int[n];
 
-                // Elimination factor
-                double LUki = (data[i] /= LUii);
+        // Current row as a sorted linked list terminated by n, and its levels
+        int[] next = new int[n + 1], level = new int[n];
 
-                // Traverse the sparse row i, reducing on row k
-                for (int j = diagind[index] + 1, l = rowptr[k] + 1; j < rowptr[index + 1]; ++j) {
+        map = new int[rowptr[n]];
 
-                    while (l < rowptr[k + 1] && colind[l] < colind[j])
-                        l++;
+        for (int i = 0; i < n; ++i) {
 
-                    if (colind[l] == colind[j])
-                        data[l] -= LUki * data[j];
+            // Original entries
+            int head = n;
+            for (int j = rowptr[i + 1] - 1; j >= rowptr[i]; --j) {
+                next[colind[j]] = head;
+                head = colind[j];
+                level[head] = 0;
+            }
+
+            // Fill from each row above, in increasing order
+            for (int k = head; k < i; k = next[k])
+                for (int j = fupper[k], prev = k; j < frowptr[k + 1]; ++j) {
+                    int lev = level[k] + flevel[j] + 1;
+                    if (lev > fillLevel)
+                        continue;
+
+                    int c = fcolind[j];
+                    while (next[prev] < c)
+                        prev = next[prev];
+
+                    if (next[prev] == c)
+                        level[c] = Math.min(level[c], lev);
+                    else {
+                        next[c] = next[prev];
+                        next[prev] = c;
+                        level[c] = lev;
+                        prev = c;
+                    }
                 }
+
+            // Store the row
+            int size = frowptr[i];
+            for (int c = head; c < n; c = next[c])
+                size++;
+            if (size > fcolind.length) {
+                int length = Math.max(size, 2 * fcolind.length);
+                fcolind = copyOf(fcolind, length);
+                flevel = copyOf(flevel, length);
             }
 
-        L = new UnitLowerCompRowMatrix(LU, diagind);
-        U = new UpperCompRowMatrix(LU, diagind);
+            fupper[i] = size;
+            for (int c = head, l = frowptr[i]; c < n; c = next[c], ++l) {
+                fcolind[l] = c;
+                flevel[l] = level[c];
+                if (c > i && fupper[i] == size)
+                    fupper[i] = l;
+            }
+            frowptr[i + 1] = size;
+
+            // Position of each original entry in the factor
+            for (int j = rowptr[i], l = frowptr[i]; j < rowptr[i + 1]; ++j) {
+                while (fcolind[l] < colind[j])
+                    l++;
+                map[j] = l;
+            }
+        }
+
+        setPattern(frowptr, copyOf(fcolind, frowptr[n]));
+    }
+
+    private static int[] copyOf(int[] a, int length) {
+        int[] b = new int[length];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, length));
+        return b;
+    }
+
+    /**
+     * Numeric phase
+     */
+    private void factor() {
+        int n = LU.numRows();
+
+        // Internal CRS matrix storage
+        final int[] colind = LU.getColumnIndices();
+        final int[] rowptr = LU.getRowPointers();
+        final double[] data = LU.getData();
+        final int[] diagind = this.diagind;
+
+        // Go down along the main diagonal, level by level if in parallel
+        WorkerPool p = workerPool();
+        if (p != null) {
+            if (solver == null)
+                solver = new TriangularSolver(rowptr, colind, diagind);
+
+            solver.lowerSchedule().run(p, new LevelSchedule.Sweep() {
+                public void row(int k, int block) {
+                    factorRow(k, colind, rowptr, data, diagind);
+                }
+            });
+        } else
+            for (int k = 1; k < n; ++k)
+                factorRow(k, colind, rowptr, data, diagind);
+    }
+
+    /**
+     * Eliminates the entries left of the diagonal on row <code>k</code>,
+     * using the rows above. Only those rows are read, and only row
+     * <code>k</code> is written to
+     */
+    private void factorRow(int k, int[] colind, int[] rowptr, double[] data,
+            int[] diagind) {
+        for (int i = rowptr[k]; i < diagind[k]; ++i) {
+
+            // Get the current diagonal entry
+            int index = colind[i];
+            double LUii = data[diagind[index]];
+
+            if (LUii == 0)
+                throw new RuntimeException("Zero pivot encountered on row "
+                        + (i + 1) + " during ILU process");
+
+            // Elimination factor
+            double LUki = (data[i] /= LUii);
+
+            // Traverse the sparse row i, reducing on row k
+            for (int j = diagind[index] + 1, l = rowptr[k] + 1; j < rowptr[index + 1]; ++j) {
+
+                while (l < rowptr[k + 1] && colind[l] < colind[j])
+                    l++;
+
+                if (l < rowptr[k + 1] && colind[l] == colind[j])
+                    data[l] -= LUki * data[j];
+            }
+        }
     }
 
     private int[] findDiagonalIndices(int m, int[] colind, int[] rowptr) {
@@ -17,22 +17,22 @@
  * along with this library; if not, write to the Free Software Foundation,
  * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
  */
-
 package no.uib.cipr.matrix.sparse;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 
 import no.uib.cipr.matrix.AbstractMatrix;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Matrix;
 import no.uib.cipr.matrix.Vector;
-import no.uib.cipr.matrix.VectorEntry;
 
 /**
  * ILU preconditioner with fill-in. Uses the dual threshold approach of Saad.
+ * <p>
+ * The fill pattern depends on the values, so every factorisation is done
+ * from scratch. The rows of the factor and the work arrays are reused
+ * between factorisations, and are only reallocated if a row grows beyond
+ * its earlier size.
  */
 public class ILUT implements Preconditioner {
 
@@ -62,11 +62,16 @@ public class ILUT implements Preconditioner {
     private final int[] diagind;
 
     /**
-     * Stores entries in the lower and upper part of the matrix. Used by the
-     * dropping rule to determine the largest entries in the two parts of the
-     * matrix
+     * Dense storage of the row being factored
      */
-    private final List<IntDoubleEntry> lower, upper;
+    private final double[] LUi;
+
+    /**
+     * Indices of the entries kept on the row being factored. Also used as
+     * heap storage by the dropping rule to find the largest entries in the
+     * lower and upper parts of the row
+     */
+    private final int[] kept;
 
     /**
      * Number of additional entries to keep in the lower and upper part of the
@@ -98,10 +103,13 @@ public class ILUT implements Preconditioner {
         this.p = p;
 
         int n = LU.numRows();
-        lower = new ArrayList<IntDoubleEntry>(n);
-        upper = new ArrayList<IntDoubleEntry>(n);
         y = new DenseVector(n);
         diagind = new int[n];
+        LUi = new double[n];
+        kept = new int[n];
+
+        L = new UnitLowerFlexCompRowMatrix(LU, diagind);
+        U = new UpperFlexCompRowMatrix(LU, diagind);
     }
 
     /**
@@ -134,16 +142,59 @@ public class ILUT implements Preconditioner {
     }
 
     public void setMatrix(Matrix A) {
-        LU.set(A);
-        LU.compact();
+        load(A);
 
         factor();
     }
 
-    private void factor() {
+    /**
+     * Replaces the rows of the factorisation matrix by those of the given
+     * matrix, discarding the fill of the last factorisation
+     */
+    private void load(Matrix A) {
         int n = LU.numRows();
 
-        double[] LUi = new double[n];
+        if (A.numRows() != n || A.numColumns() != n)
+            throw new IndexOutOfBoundsException("A.numRows != LU.numRows ("
+                    + A.numRows() + " != " + n + ") or A.numColumns != "
+                    + "LU.numColumns (" + A.numColumns() + " != " + n + ")");
+
+        if (A instanceof CompRowMatrix) {
+            CompRowMatrix Ac = (CompRowMatrix) A;
+            int[] rowptr = Ac.getRowPointers();
+            int[] colind = Ac.getColumnIndices();
+            double[] data = Ac.getData();
+
+            for (int i = 0; i < n; ++i)
+                setRow(LU.getRow(i), colind, data, rowptr[i], rowptr[i + 1]
+                        - rowptr[i]);
+        } else if (A instanceof FlexCompRowMatrix) {
+            FlexCompRowMatrix Af = (FlexCompRowMatrix) A;
+
+            for (int i = 0; i < n; ++i) {
+                SparseVector row = Af.getRow(i);
+                setRow(LU.getRow(i), row.getIndexArray(), row.getData(), 0,
+                        row.getUsed());
+            }
+        } else {
+            for (int i = 0; i < n; ++i)
+                LU.getRow(i).setUsed(0);
+            LU.set(A);
+        }
+    }
+
+    /**
+     * Sets the sparse row to <code>length</code> entries of the given arrays
+     */
+    private void setRow(SparseVector row, int[] index, double[] data,
+            int offset, int length) {
+        row.setUsed(length);
+        System.arraycopy(index, offset, row.getIndexArray(), 0, length);
+        System.arraycopy(data, offset, row.getData(), 0, length);
+    }
+
+    private void factor() {
+        int n = LU.numRows();
 
         // Find the indices to the diagonal entries
         for (int k = 0; k < n; ++k) {
@@ -169,7 +220,7 @@ public class ILUT implements Preconditioner {
 
                 // Get row k
                 SparseVector rowk = LU.getRow(k);
-                int[] rowIndex = rowk.getIndex();
+                int[] rowIndex = rowk.getIndexArray();
                 int rowUsed = rowk.getUsed();
                 double[] rowData = rowk.getData();
 
@@ -193,30 +244,19 @@ public class ILUT implements Preconditioner {
 
             // Store back into the LU matrix, dropping as needed
             gather(LUi, rowi, taui, i);
-
-            // Update diagonal index on row i if it is outdated
-            if (rowi.getIndex()[diagind[i]] != i) {
-                diagind[i] = findDiagonalIndex(rowi, i);
-                if (diagind[i] < 0)
-                    throw new RuntimeException("Missing diagonal entry on row "
-                            + (i + 1) + " during ILU process");
-            }
         }
-
-        L = new UnitLowerFlexCompRowMatrix(LU, diagind);
-        U = new UpperFlexCompRowMatrix(LU, diagind);
     }
 
     private int findDiagonalIndex(SparseVector v, int k) {
-        return no.uib.cipr.matrix.sparse.Arrays.binarySearch(v.getIndex(), k,
-                0, v.getUsed());
+        return no.uib.cipr.matrix.sparse.Arrays.binarySearch(v
+                .getIndexArray(), k, 0, v.getUsed());
     }
 
     /**
      * Copies the sparse vector into a dense array
      */
     private void scatter(SparseVector v, double[] z) {
-        int[] index = v.getIndex();
+        int[] index = v.getIndexArray();
         int used = v.getUsed();
         double[] data = v.getData();
         Arrays.fill(z, 0);
@@ -230,78 +270,94 @@ public class ILUT implements Preconditioner {
      */
     private void gather(double[] z, SparseVector v, double taui, int d) {
         // Number of entries in the lower and upper part of the original matrix
+        int[] index = v.getIndexArray();
         int nl = 0, nu = 0;
-        for (VectorEntry e : v) {
-            if (e.index() < d)
+        for (int i = 0; i < v.getUsed(); ++i) {
+            if (index[i] < d)
                 nl++;
-            else if (e.index() > d)
+            else if (index[i] > d)
                 nu++;
         }
-        v.zero();
-
-        // Entries in the L part of the vector
-        lower.clear();
-        for (int i = 0; i < d; ++i)
-            if (Math.abs(z[i]) > taui)
-                lower.add(new IntDoubleEntry(i, z[i]));
-
-        // Entries in the U part of the vector
-        upper.clear();
-        for (int i = d + 1; i < z.length; ++i)
-            if (Math.abs(z[i]) > taui)
-                upper.add(new IntDoubleEntry(i, z[i]));
-
-        // Sort in descending order
-        Collections.sort(lower);
-        Collections.sort(upper);
-
-        // Always keep the diagonal
-        v.set(d, z[d]);
-
-        // Keep at most nl+p lower entries
-        for (int i = 0; i < Math.min(nl + p, lower.size()); ++i) {
-            IntDoubleEntry e = lower.get(i);
-            v.set(e.index, e.value);
-        }
 
-        // Keep at most nu+p upper entries
-        for (int i = 0; i < Math.min(nu + p, upper.size()); ++i) {
-            IntDoubleEntry e = upper.get(i);
-            v.set(e.index, e.value);
+        // Keep at most nl+p lower entries and nu+p upper entries, and always
+        // the diagonal
+        int ml = select(z, 0, d, taui, nl + p, 0);
+        kept[ml] = d;
+        int mu = select(z, d + 1, z.length, taui, nu + p, ml + 1);
+
+        int used = ml + 1 + mu;
+        v.setUsed(used);
+        index = v.getIndexArray();
+        double[] data = v.getData();
+        for (int i = 0; i < used; ++i) {
+            index[i] = kept[i];
+            data[i] = z[kept[i]];
         }
+
+        diagind[d] = ml;
     }
 
     /**
-     * Stores an integer/value pair, sorted by descending order according to the
-     * value
+     * Finds the at most <code>max</code> entries of <code>z[from:to]</code>
+     * which are larger than <code>taui</code> in magnitude. The largest ones
+     * are preferred, and then those of lowest index. Their indices are stored
+     * in increasing order from <code>kept[offset]</code>, and their number is
+     * returned
      */
-    private static class IntDoubleEntry implements Comparable<IntDoubleEntry> {
-
-        public int index;
-
-        public double value;
-
-        public IntDoubleEntry(int index, double value) {
-            this.index = index;
-            this.value = value;
+    private int select(double[] z, int from, int to, double taui, int max,
+            int offset) {
+        if (max <= 0)
+            return 0;
+
+        // Min-heap with the least preferred entry on top
+        int size = 0;
+        for (int i = from; i < to; ++i) {
+            if (!(Math.abs(z[i]) > taui))
+                continue;
+
+            if (size < max) {
+                // Sift up
+                int c = size++;
+                while (c > 0) {
+                    int parent = (c - 1) / 2;
+                    if (!less(z, i, kept[offset + parent]))
+                        break;
+                    kept[offset + c] = kept[offset + parent];
+                    c = parent;
+                }
+                kept[offset + c] = i;
+            } else if (Math.abs(z[i]) > Math.abs(z[kept[offset]])) {
+                // Replace the top and sift down
+                int c = 0;
+                while (2 * c + 1 < size) {
+                    int child = 2 * c + 1;
+                    if (child + 1 < size
+                            && less(z, kept[offset + child + 1], kept[offset
+                                    + child]))
+                        child++;
+                    if (!less(z, kept[offset + child], i))
+                        break;
+                    kept[offset + c] = kept[offset + child];
+                    c = child;
+                }
+                kept[offset + c] = i;
+            }
         }
 
-        public int compareTo(IntDoubleEntry o) {
-            // Descending order, so keep the largest entries first
-            if (Math.abs(value) < Math.abs(o.value))
-                return 1;
-            else if (Math.abs(value) == Math.abs(o.value))
-                return 0;
-            else
-                return -1;
-        }
+        Arrays.sort(kept, offset, offset + size);
+        return size;
+    }
 
-        @Override
-        public String toString() {
-            return "(" + index + "=" + value + ")";
-        }
+    /**
+     * True if entry <code>i</code> is less preferred than entry
+     * <code>j</code>
+     */
+    private static boolean less(double[] z, int i, int j) {
+        double zi = Math.abs(z[i]), zj = Math.abs(z[j]);
+        return zi < zj || (zi == zj && i > j);
     }
 
+
     /**
      * Unit lower triangular flex-CRS matrix. Only used for triangular solves
      */
@@ -329,7 +385,7 @@ public class ILUT implements Preconditioner {
 
                 // Get row i
                 SparseVector row = LU.getRow(i);
-                int[] index = row.getIndex();
+                int[] index = row.getIndexArray();
                 double[] data = row.getData();
 
                 // xi = bi - sum[j<i] Lij * xj
@@ -356,7 +412,7 @@ public class ILUT implements Preconditioner {
 
                 // Get row i
                 SparseVector row = LU.getRow(i);
-                int[] index = row.getIndex();
+                int[] index = row.getIndexArray();
                 double[] data = row.getData();
 
                 // At this stage, x[i] is known, so move it over to the right
@@ -398,7 +454,7 @@ public class ILUT implements Preconditioner {
 
                 // Get row i
                 SparseVector row = LU.getRow(i);
-                int[] index = row.getIndex();
+                int[] index = row.getIndexArray();
                 int used = row.getUsed();
                 double[] data = row.getData();
 
@@ -426,7 +482,7 @@ public class ILUT implements Preconditioner {
 
                 // Get row i
                 SparseVector row = LU.getRow(i);
-                int[] index = row.getIndex();
+                int[] index = row.getIndexArray();
                 int used = row.getUsed();
                 double[] data = row.getData();
 
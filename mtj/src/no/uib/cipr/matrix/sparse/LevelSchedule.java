@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse;
+
+/**
+ * Level schedule of a triangular dependency structure. Each row depends on
+ * some rows before it (or after it, for backward sweeps), and is placed on
+ * the level after the highest of those. The rows of a level are independent
+ * of each other, so a level can be processed in parallel once all the
+ * previous levels are done.
+ */
+class LevelSchedule {
+
+    /**
+     * Work on a single row of a sweep
+     */
+    interface Sweep {
+
+        /**
+         * Processes a row
+         * 
+         * @param row
+         *            The row
+         * @param block
+         *            Number of the thread block doing the row, less than the
+         *            number of threads of the pool. Can be used to select a
+         *            workspace
+         */
+        void row(int row, int block);
+    }
+
+    /**
+     * Levels with fewer rows than this per thread are run on the calling
+     * thread, as splitting them costs more than it gains
+     */
+    private static final int MIN_ROWS_PER_THREAD = 64;
+
+    /**
+     * Indices to the start of each level in <code>order</code>
+     */
+    private final int[] levelPointer;
+
+    /**
+     * The rows sorted by level, and increasing within each level
+     */
+    private final int[] order;
+
+    /**
+     * Sets up the schedule
+     * 
+     * @param pointer
+     *            Indices to the start of the dependencies of each row
+     * @param dependency
+     *            The rows each row depends on. These are all before the row
+     *            if <code>forward</code>, else all after it
+     * @param forward
+     *            True if the rows are to be solved from first to last, as
+     *            for a lower triangular matrix
+     */
+    LevelSchedule(int[] pointer, int[] dependency, boolean forward) {
+        int n = pointer.length - 1;
+
+        // The level of a row is one past the highest level it depends on
+        int[] level = new int[n];
+        int numLevels = 0;
+        for (int k = 0; k < n; ++k) {
+            int i = forward ? k : n - 1 - k;
+            int l = 0;
+            for (int j = pointer[i]; j < pointer[i + 1]; ++j)
+                l = Math.max(l, level[dependency[j]] + 1);
+            level[i] = l;
+            numLevels = Math.max(numLevels, l + 1);
+        }
+
+        // Counting sort of the rows by level
+        levelPointer = new int[numLevels + 1];
+        for (int i = 0; i < n; ++i)
+            levelPointer[level[i] + 1]++;
+        for (int l = 0; l < numLevels; ++l)
+            levelPointer[l + 1] += levelPointer[l];
+
+        order = new int[n];
+        int[] next = levelPointer.clone();
+        for (int i = 0; i < n; ++i)
+            order[next[level[i]]++] = i;
+    }
+
+    /**
+     * Lower triangular schedule, where row <code>i</code> depends on the
+     * columns of the entries before <code>diagind[i]</code>
+     */
+    static LevelSchedule lower(int[] rowptr, int[] colind, int[] diagind) {
+        int n = diagind.length;
+        int[] pointer = new int[n + 1];
+        for (int i = 0; i < n; ++i)
+            pointer[i + 1] = pointer[i] + diagind[i] - rowptr[i];
+
+        int[] dependency = new int[pointer[n]];
+        for (int i = 0; i < n; ++i)
+            System.arraycopy(colind, rowptr[i], dependency, pointer[i],
+                    diagind[i] - rowptr[i]);
+
+        return new LevelSchedule(pointer, dependency, true);
+    }
+
+    /**
+     * Upper triangular schedule, where row <code>i</code> depends on the
+     * columns of the entries after <code>diagind[i]</code>
+     */
+    static LevelSchedule upper(int[] rowptr, int[] colind, int[] diagind) {
+        int n = diagind.length;
+        int[] pointer = new int[n + 1];
+        for (int i = 0; i < n; ++i)
+            pointer[i + 1] = pointer[i] + rowptr[i + 1] - diagind[i] - 1;
+
+        int[] dependency = new int[pointer[n]];
+        for (int i = 0; i < n; ++i)
+            System.arraycopy(colind, diagind[i] + 1, dependency, pointer[i],
+                    rowptr[i + 1] - diagind[i] - 1);
+
+        return new LevelSchedule(pointer, dependency, false);
+    }
+
+    /**
+     * Gets the number of levels
+     */
+    int numLevels() {
+        return levelPointer.length - 1;
+    }
+
+    /**
+     * Runs the sweep over all the rows, level by level
+     * 
+     * @param pool
+     *            Pool to split each level over. Null to run everything on
+     *            the calling thread
+     */
+    void run(WorkerPool pool, final Sweep sweep) {
+        final int numThreads = pool != null ? pool.numThreads() : 1;
+
+        for (int l = 0; l < numLevels(); ++l) {
+            final int begin = levelPointer[l], end = levelPointer[l + 1];
+
+            if (pool == null || end - begin < numThreads * MIN_ROWS_PER_THREAD)
+                for (int k = begin; k < end; ++k)
+                    sweep.row(order[k], 0);
+
+            else
+                pool.execute(numThreads, new WorkerPool.Block() {
+                    public void run(int block) {
+                        int first = begin + (int) ((long) block
+                                * (end - begin) / numThreads);
+                        int last = begin + (int) ((long) (block + 1)
+                                * (end - begin) / numThreads);
+                        for (int k = first; k < last; ++k)
+                            sweep.row(order[k], block);
+                    }
+                });
+        }
+    }
+
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import no.uib.cipr.matrix.AbstractMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.MatrixEntry;
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * Sliced ELLPACK (SELL-C-sigma) matrix. The rows are grouped into slices of
+ * <code>C</code> rows, and every row of a slice is padded to the length of
+ * the longest one. A slice is stored column-wise, so the product loops over
+ * the <code>C</code> rows of a slice with unit stride, which the JIT can
+ * unroll and vectorise. To reduce the padding, the rows are sorted by length
+ * within windows of <code>sigma</code> rows before they are sliced.
+ * <p>
+ * The structure is fixed once the matrix is created, typically by
+ * conversion from a <code>CompRowMatrix</code>. It suits matrices with
+ * fairly uniform row lengths, such as those of finite volume stencils.
+ */
+public class SlicedEllMatrix extends AbstractMatrix {
+
+    /**
+     * Default number of rows in a slice
+     */
+    public static final int DEFAULT_SLICE_HEIGHT = 8;
+
+    /**
+     * Default size of the sorting window
+     */
+    public static final int DEFAULT_SORTING_WINDOW = 256;
+
+    /**
+     * Number of rows in each slice
+     */
+    private final int sliceHeight;
+
+    /**
+     * Matrix data, padded with zeros. A slice is stored column-wise
+     */
+    double[] data;
+
+    /**
+     * Column indices. Padding repeats the last column of a row
+     */
+    int[] columnIndex;
+
+    /**
+     * Indices to the start of each slice
+     */
+    int[] slicePointer;
+
+    /**
+     * Number of stored entries on each row
+     */
+    int[] rowLength;
+
+    /**
+     * The row stored at each position, in sorted order
+     */
+    int[] permutation;
+
+    /**
+     * The position of each row, inverse of the permutation
+     */
+    int[] position;
+
+    /**
+     * Worker pool for the matrix-vector products. If null, the global pool is
+     * used
+     */
+    private WorkerPool pool;
+
+    /**
+     * Constructor for SlicedEllMatrix, using the default slice height and
+     * sorting window
+     * 
+     * @param A
+     *            Copies the structure and values from this matrix
+     */
+    public SlicedEllMatrix(Matrix A) {
+        this(A, DEFAULT_SLICE_HEIGHT, DEFAULT_SORTING_WINDOW);
+    }
+
+    /**
+     * Constructor for SlicedEllMatrix
+     * 
+     * @param A
+     *            Copies the structure and values from this matrix. A
+     *            <code>CompRowMatrix</code> is converted directly, other
+     *            matrices go through one
+     * @param sliceHeight
+     *            Number of rows in each slice, <code>C</code>
+     * @param sortingWindow
+     *            Number of rows sorted by length together,
+     *            <code>sigma</code>. Use 1 to keep the original row order
+     */
+    public SlicedEllMatrix(Matrix A, int sliceHeight, int sortingWindow) {
+        super(A);
+
+        if (sliceHeight < 1)
+            throw new IllegalArgumentException("sliceHeight < 1");
+        if (sortingWindow < 1)
+            throw new IllegalArgumentException("sortingWindow < 1");
+
+        this.sliceHeight = sliceHeight;
+
+        construct(A instanceof CompRowMatrix ? (CompRowMatrix) A
+                : new CompRowMatrix(A), sortingWindow);
+    }
+
+    /**
+     * Constructor for SlicedEllMatrix. Makes a deep copy
+     * 
+     * @param A
+     *            Copies from this matrix
+     */
+    public SlicedEllMatrix(SlicedEllMatrix A) {
+        super(A);
+
+        sliceHeight = A.sliceHeight;
+        data = A.data.clone();
+        columnIndex = A.columnIndex.clone();
+        slicePointer = A.slicePointer.clone();
+        rowLength = A.rowLength.clone();
+        permutation = A.permutation.clone();
+        position = A.position.clone();
+    }
+
+    private void construct(CompRowMatrix A, int sortingWindow) {
+        final int[] rowptr = A.getRowPointers();
+        int[] colind = A.getColumnIndices();
+        double[] values = A.getData();
+
+        rowLength = new int[numRows];
+        for (int i = 0; i < numRows; ++i)
+            rowLength[i] = rowptr[i + 1] - rowptr[i];
+
+        // Sort the rows by decreasing length within each window
+        Integer[] order = new Integer[numRows];
+        for (int i = 0; i < numRows; ++i)
+            order[i] = i;
+        Comparator<Integer> longestFirst = new Comparator<Integer>() {
+            public int compare(Integer i, Integer j) {
+                return rowLength[j] - rowLength[i];
+            }
+        };
+        for (int w = 0; w < numRows; w += sortingWindow)
+            Arrays.sort(order, w, Math.min(numRows, w + sortingWindow),
+                    longestFirst);
+
+        permutation = new int[numRows];
+        position = new int[numRows];
+        for (int p = 0; p < numRows; ++p) {
+            permutation[p] = order[p];
+            position[order[p]] = p;
+        }
+
+        // Each slice is as wide as its longest row
+        int numSlices = (numRows + sliceHeight - 1) / sliceHeight;
+        slicePointer = new int[numSlices + 1];
+        for (int s = 0; s < numSlices; ++s) {
+            int width = 0;
+            for (int p = s * sliceHeight; p < Math.min(numRows, (s + 1)
+                    * sliceHeight); ++p)
+                width = Math.max(width, rowLength[permutation[p]]);
+            slicePointer[s + 1] = slicePointer[s] + width * sliceHeight;
+        }
+
+        data = new double[slicePointer[numSlices]];
+        columnIndex = new int[slicePointer[numSlices]];
+
+        for (int p = 0; p < numRows; ++p) {
+            int s = p / sliceHeight, r = p % sliceHeight, row = permutation[p];
+            int width = (slicePointer[s + 1] - slicePointer[s]) / sliceHeight;
+
+            for (int j = 0, column = 0; j < width; ++j) {
+                int index = slicePointer[s] + j * sliceHeight + r;
+                if (j < rowLength[row]) {
+                    column = colind[rowptr[row] + j];
+                    data[index] = values[rowptr[row] + j];
+                }
+                columnIndex[index] = column;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows in each slice
+     */
+    public int getSliceHeight() {
+        return sliceHeight;
+    }
+
+    /**
+     * Returns the number of stored entries, including the padding
+     */
+    public int getStorageSize() {
+        return data.length;
+    }
+
+    /**
+     * Sets the worker pool for the matrix-vector products of this matrix.
+     * Null reverts to the global pool of {@link WorkerPool#getDefault()}, and
+     * a pool with a single thread makes the products sequential
+     */
+    public void setWorkerPool(WorkerPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the worker pool set for this matrix, or null if it uses the
+     * global pool
+     */
+    public WorkerPool getWorkerPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the pool to multiply with, or null for a sequential product
+     */
+    private WorkerPool productPool() {
+        WorkerPool p = pool != null ? pool : WorkerPool.getDefault();
+        if (p != null && p.useFor(data.length))
+            return p;
+        else
+            return null;
+    }
+
+    @Override
+    public Vector multAdd(final double alpha, Vector x, Vector y) {
+        if (!(x instanceof DenseVector) || !(y instanceof DenseVector))
+            return super.multAdd(alpha, x, y);
+
+        checkMultAdd(x, y);
+
+        final double[] xd = ((DenseVector) x).getData();
+        final double[] yd = ((DenseVector) y).getData();
+
+        WorkerPool p = productPool();
+        if (p == null)
+            multAdd(alpha, xd, yd, 0, slicePointer.length - 1);
+        else {
+            final int[] begin = WorkerPool.partition(slicePointer, p
+                    .numThreads());
+            p.execute(p.numThreads(), new WorkerPool.Block() {
+                public void run(int block) {
+                    multAdd(alpha, xd, yd, begin[block], begin[block + 1]);
+                }
+            });
+        }
+
+        return y;
+    }
+
+    /**
+     * Computes <code>y = alpha*A*x + y</code> on the given slices
+     */
+    private void multAdd(double alpha, double[] xd, double[] yd, int first,
+            int last) {
+        final int C = sliceHeight;
+        double[] dot = new double[C];
+
+        for (int s = first; s < last; ++s) {
+            Arrays.fill(dot, 0);
+
+            // Unit stride over the rows of the slice
+            for (int index = slicePointer[s]; index < slicePointer[s + 1]; index += C)
+                for (int r = 0; r < C; ++r)
+                    dot[r] += data[index + r] * xd[columnIndex[index + r]];
+
+            for (int r = 0, p = s * C; r < C && p < numRows; ++r, ++p)
+                yd[permutation[p]] += alpha * dot[r];
+        }
+    }
+
+    @Override
+    public Vector transMultAdd(double alpha, Vector x, Vector y) {
+        if (!(x instanceof DenseVector) || !(y instanceof DenseVector))
+            return super.transMultAdd(alpha, x, y);
+
+        checkTransMultAdd(x, y);
+
+        double[] xd = ((DenseVector) x).getData();
+        double[] yd = ((DenseVector) y).getData();
+
+        for (int p = 0; p < numRows; ++p) {
+            int row = permutation[p], index = slicePointer[p / sliceHeight] + p
+                    % sliceHeight;
+            double xr = alpha * xd[row];
+            for (int j = 0; j < rowLength[row]; ++j, index += sliceHeight)
+                yd[columnIndex[index]] += data[index] * xr;
+        }
+
+        return y;
+    }
+
+    @Override
+    public void set(int row, int column, double value) {
+        check(row, column);
+
+        data[getIndex(row, column)] = value;
+    }
+
+    @Override
+    public void add(int row, int column, double value) {
+        check(row, column);
+
+        data[getIndex(row, column)] += value;
+    }
+
+    @Override
+    public double get(int row, int column) {
+        check(row, column);
+
+        int index = findIndex(row, column);
+        if (index >= 0)
+            return data[index];
+        else
+            return 0;
+    }
+
+    /**
+     * Finds the data index of an entry, or -1 if it is not stored
+     */
+    private int findIndex(int row, int column) {
+        int p = position[row];
+        int index = slicePointer[p / sliceHeight] + p % sliceHeight;
+
+        for (int j = 0; j < rowLength[row]; ++j, index += sliceHeight)
+            if (columnIndex[index] == column)
+                return index;
+            else if (columnIndex[index] > column)
+                break;
+
+        return -1;
+    }
+
+    /**
+     * Finds the data index of an entry in the structure
+     */
+    private int getIndex(int row, int column) {
+        int index = findIndex(row, column);
+
+        if (index >= 0)
+            return index;
+        else
+            throw new IndexOutOfBoundsException("Entry (" + (row + 1) + ", "
+                    + (column + 1) + ") is not in the matrix structure");
+    }
+
+    @Override
+    public SlicedEllMatrix copy() {
+        return new SlicedEllMatrix(this);
+    }
+
+    @Override
+    public Iterator<MatrixEntry> iterator() {
+        return new SlicedEllMatrixIterator();
+    }
+
+    @Override
+    public SlicedEllMatrix zero() {
+        Arrays.fill(data, 0);
+        return this;
+    }
+
+    /**
+     * Iterator over a sliced ELLPACK matrix. Visits the stored entries row by
+     * row in the sorted order, skipping the padding
+     */
+    private class SlicedEllMatrixIterator implements Iterator<MatrixEntry> {
+
+        /**
+         * Current position, and entry on the row
+         */
+        private int p, j;
+
+        private SlicedEllMatrixEntry entry = new SlicedEllMatrixEntry();
+
+        public SlicedEllMatrixIterator() {
+            nextNonEmptyRow();
+        }
+
+        /**
+         * Locates the first non-empty row, starting at the current position
+         */
+        private void nextNonEmptyRow() {
+            while (p < numRows && rowLength[permutation[p]] == 0)
+                p++;
+        }
+
+        public boolean hasNext() {
+            return p < numRows;
+        }
+
+        public MatrixEntry next() {
+            entry.update(permutation[p], slicePointer[p / sliceHeight] + j
+                    * sliceHeight + p % sliceHeight);
+
+            // Next entry is on the same row, or on the following one
+            if (++j == rowLength[permutation[p]]) {
+                j = 0;
+                p++;
+                nextNonEmptyRow();
+            }
+
+            return entry;
+        }
+
+        public void remove() {
+            entry.set(0);
+        }
+
+    }
+
+    /**
+     * Entry of a sliced ELLPACK matrix
+     */
+    private class SlicedEllMatrixEntry implements MatrixEntry {
+
+        private int row, index;
+
+        /**
+         * Updates the entry
+         */
+        public void update(int row, int index) {
+            this.row = row;
+            this.index = index;
+        }
+
+        public int row() {
+            return row;
+        }
+
+        public int column() {
+            return columnIndex[index];
+        }
+
+        public double get() {
+            return data[index];
+        }
+
+        public void set(double value) {
+            data[index] = value;
+        }
+    }
+
+}
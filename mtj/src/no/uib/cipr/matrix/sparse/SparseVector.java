@@ -336,6 +336,30 @@ public class SparseVector extends AbstractVector implements ISparseVector {
         return used;
     }
 
+    /**
+     * Returns the internal index array. Only the first {@link #getUsed()}
+     * indices are valid
+     */
+    int[] getIndexArray() {
+        return index;
+    }
+
+    /**
+     * Discards the current entries and makes room for the given number of
+     * new ones. The storage is only reallocated if it is too small. The caller
+     * must then fill in the first <code>used</code> indices in increasing
+     * order, along with their values
+     */
+    void setUsed(int used) {
+        if (used > data.length) {
+            data = new double[used];
+            index = new int[used];
+        } else
+            java.util.Arrays.fill(data, used, data.length, 0);
+
+        this.used = used;
+    }
+
     /**
      * Compacts the vector
      */
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse;
+
+/**
+ * Level scheduled triangular solves with the factors of an incomplete
+ * factorisation stored in a compressed row matrix. Every sweep is written as
+ * one gather per row, and the transposed sweeps use a column index of the
+ * factors for this. Each entry of the solution sees the same operations in
+ * the same order as in the sequential solves of
+ * <code>UnitLowerCompRowMatrix</code> and <code>UpperCompRowMatrix</code>,
+ * so the results are identical.
+ * <p>
+ * The schedules depend only on the sparsity pattern, and are built when
+ * first needed.
+ */
+class TriangularSolver {
+
+    /**
+     * The sparsity pattern of the factors
+     */
+    private final int[] rowptr, colind, diagind;
+
+    /**
+     * Schedules of the lower and upper solves
+     */
+    private LevelSchedule lower, upper;
+
+    /**
+     * Schedules of the transposed solves
+     */
+    private LevelSchedule lowerTrans, upperTrans;
+
+    /**
+     * Column index of the strictly lower triangle. For each column, the rows
+     * with an entry in it, in increasing order, and the data index of the
+     * entry
+     */
+    private int[] lowerColptr, lowerRow, lowerIndex;
+
+    /**
+     * Column index of the strictly upper triangle, as for the lower triangle
+     */
+    private int[] upperColptr, upperRow, upperIndex;
+
+    /**
+     * Sets up the solver for the given pattern
+     * 
+     * @param diagind
+     *            Indices to the diagonal entries
+     */
+    TriangularSolver(int[] rowptr, int[] colind, int[] diagind) {
+        this.rowptr = rowptr;
+        this.colind = colind;
+        this.diagind = diagind;
+    }
+
+    /**
+     * Gets the schedule of the lower triangle, where each row depends on
+     * the rows of its entries left of the diagonal
+     */
+    synchronized LevelSchedule lowerSchedule() {
+        if (lower == null)
+            lower = LevelSchedule.lower(rowptr, colind, diagind);
+        return lower;
+    }
+
+    /**
+     * Gets the schedule of the upper triangle, where each row depends on the
+     * rows of its entries right of the diagonal
+     */
+    synchronized LevelSchedule upperSchedule() {
+        if (upper == null)
+            upper = LevelSchedule.upper(rowptr, colind, diagind);
+        return upper;
+    }
+
+    private synchronized LevelSchedule lowerTransSchedule() {
+        if (lowerTrans == null) {
+            int n = diagind.length;
+            lowerColptr = new int[n + 1];
+            for (int i = 0; i < n; ++i)
+                for (int j = rowptr[i]; j < diagind[i]; ++j)
+                    lowerColptr[colind[j] + 1]++;
+            lowerRow = new int[transpose(lowerColptr)];
+            lowerIndex = new int[lowerRow.length];
+
+            int[] next = lowerColptr.clone();
+            for (int i = 0; i < n; ++i)
+                for (int j = rowptr[i]; j < diagind[i]; ++j) {
+                    lowerRow[next[colind[j]]] = i;
+                    lowerIndex[next[colind[j]]++] = j;
+                }
+
+            lowerTrans = new LevelSchedule(lowerColptr, lowerRow, false);
+        }
+        return lowerTrans;
+    }
+
+    private synchronized LevelSchedule upperTransSchedule() {
+        if (upperTrans == null) {
+            int n = diagind.length;
+            upperColptr = new int[n + 1];
+            for (int i = 0; i < n; ++i)
+                for (int j = diagind[i] + 1; j < rowptr[i + 1]; ++j)
+                    upperColptr[colind[j] + 1]++;
+            upperRow = new int[transpose(upperColptr)];
+            upperIndex = new int[upperRow.length];
+
+            int[] next = upperColptr.clone();
+            for (int i = 0; i < n; ++i)
+                for (int j = diagind[i] + 1; j < rowptr[i + 1]; ++j) {
+                    upperRow[next[colind[j]]] = i;
+                    upperIndex[next[colind[j]]++] = j;
+                }
+
+            upperTrans = new LevelSchedule(upperColptr, upperRow, true);
+        }
+        return upperTrans;
+    }
+
+    /**
+     * Turns counts into pointers, and returns the total
+     */
+    private static int transpose(int[] colptr) {
+        for (int i = 1; i < colptr.length; ++i)
+            colptr[i] += colptr[i - 1];
+        return colptr[colptr.length - 1];
+    }
+
+    /**
+     * Solves <code>Lx = b</code>, with a unit diagonal in <code>L</code>
+     */
+    void solveUnitLower(WorkerPool pool, final double[] data,
+            final double[] bd, final double[] xd) {
+        lowerSchedule().run(pool, new LevelSchedule.Sweep() {
+            public void row(int i, int block) {
+
+                // xi = bi - sum[j<i] Lij * xj
+                double sum = 0;
+                for (int j = rowptr[i]; j < diagind[i]; ++j)
+                    sum += data[j] * xd[colind[j]];
+
+                xd[i] = bd[i] - sum;
+            }
+        });
+    }
+
+    /**
+     * Solves <code>Ux = b</code>
+     */
+    void solveUpper(WorkerPool pool, final double[] data, final double[] bd,
+            final double[] xd) {
+        upperSchedule().run(pool, new LevelSchedule.Sweep() {
+            public void row(int i, int block) {
+
+                // xi = (bi - sum[j>i] Uij * xj) / Uii
+                double sum = 0;
+                for (int j = diagind[i] + 1; j < rowptr[i + 1]; ++j)
+                    sum += data[j] * xd[colind[j]];
+
+                xd[i] = (bd[i] - sum) / data[diagind[i]];
+            }
+        });
+    }
+
+    /**
+     * Solves <code>L'x = b</code>, with a unit diagonal in <code>L</code>
+     */
+    void transSolveUnitLower(WorkerPool pool, final double[] data,
+            final double[] bd, final double[] xd) {
+        lowerTransSchedule().run(pool, new LevelSchedule.Sweep() {
+            public void row(int i, int block) {
+
+                // The sequential solve subtracts the later rows first
+                double xi = bd[i];
+                for (int k = lowerColptr[i + 1] - 1; k >= lowerColptr[i]; --k)
+                    xi -= data[lowerIndex[k]] * xd[lowerRow[k]];
+
+                xd[i] = xi;
+            }
+        });
+    }
+
+    /**
+     * Solves <code>U'x = b</code>
+     */
+    void transSolveUpper(WorkerPool pool, final double[] data,
+            final double[] bd, final double[] xd) {
+        upperTransSchedule().run(pool, new LevelSchedule.Sweep() {
+            public void row(int i, int block) {
+                double xi = bd[i];
+                for (int k = upperColptr[i]; k < upperColptr[i + 1]; ++k)
+                    xi -= data[upperIndex[k]] * xd[upperRow[k]];
+
+                xd[i] = xi / data[diagind[i]];
+            }
+        });
+    }
+
+}
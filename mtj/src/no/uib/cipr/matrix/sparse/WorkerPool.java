@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Persistent pool of worker threads for the sparse matrix kernels. A pool can
+ * be installed globally with {@link #setDefault(WorkerPool)}, or per matrix
+ * with <code>setWorkerPool</code> on the matrix. Without a pool, all
+ * products are computed sequentially.
+ * <p>
+ * Work is split into blocks, one per thread. The calling thread runs the
+ * first block itself, and the workers run the others. Blocks submitted from
+ * within one of the pool's own workers are run sequentially, so the pool may
+ * safely be used from code which is itself running on the pool.
+ */
+public class WorkerPool {
+
+    /**
+     * A numbered block of work
+     */
+    public interface Block {
+
+        /**
+         * Runs the given block
+         */
+        void run(int block);
+    }
+
+    /**
+     * Default number of matrix entries below which products are sequential
+     */
+    public static final int DEFAULT_THRESHOLD = 20000;
+
+    /**
+     * The global pool. Null for sequential products
+     */
+    private static volatile WorkerPool global;
+
+    /**
+     * Number of threads, including the calling thread
+     */
+    private final int numThreads;
+
+    /**
+     * Minimum number of matrix entries to use the pool for
+     */
+    private final int threshold;
+
+    /**
+     * The worker threads. Null for a single thread
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Sets up a pool with the default threshold
+     * 
+     * @param numThreads
+     *            Number of threads, at least one
+     */
+    public WorkerPool(int numThreads) {
+        this(numThreads, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Sets up the worker threads
+     * 
+     * @param numThreads
+     *            Number of threads, at least one. The calling thread is
+     *            counted, so <code>numThreads-1</code> workers are started
+     * @param threshold
+     *            Matrices with fewer entries than this are multiplied
+     *            sequentially, as the overhead of the pool then dominates
+     */
+    public WorkerPool(int numThreads, int threshold) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("numThreads < 1");
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold < 0");
+
+        this.numThreads = numThreads;
+        this.threshold = threshold;
+
+        // Daemon threads do not keep the program alive after main has exited
+        if (numThreads > 1)
+            executor = Executors.newFixedThreadPool(numThreads - 1,
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Worker(r);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        else
+            executor = null;
+    }
+
+    /**
+     * Sets the global pool, used by all matrices which do not have a pool of
+     * their own. Null turns off parallel products
+     */
+    public static void setDefault(WorkerPool pool) {
+        global = pool;
+    }
+
+    /**
+     * Gets the global pool. Null if none has been set
+     */
+    public static WorkerPool getDefault() {
+        return global;
+    }
+
+    /**
+     * Gets the number of threads
+     */
+    public int numThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Gets the minimum number of matrix entries to use the pool for
+     */
+    public int threshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns true if a matrix with the given number of entries should be
+     * multiplied on the pool
+     */
+    boolean useFor(int entries) {
+        return executor != null && entries >= threshold
+                && !(Thread.currentThread() instanceof Worker);
+    }
+
+    /**
+     * Stops the worker threads. The pool must not be used afterwards
+     */
+    public void shutdown() {
+        if (global == this)
+            global = null;
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * Runs the blocks <code>0</code> to <code>numBlocks-1</code>, and
+     * waits for all of them to finish. If any block fails, its exception is
+     * rethrown once all the blocks are done
+     */
+    public void execute(int numBlocks, final Block block) {
+        if (executor == null || numBlocks < 2
+                || Thread.currentThread() instanceof Worker) {
+            for (int b = 0; b < numBlocks; ++b)
+                block.run(b);
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(numBlocks - 1);
+        for (int b = 1; b < numBlocks; ++b) {
+            final int current = b;
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    block.run(current);
+                }
+            }));
+        }
+
+        // The calling thread does the first block while the workers run
+        Throwable failure = null;
+        try {
+            block.run(0);
+        } catch (RuntimeException e) {
+            failure = e;
+        } catch (Error e) {
+            failure = e;
+        }
+
+        join(futures, failure);
+    }
+
+    /**
+     * Splits the rows of a compressed matrix into <code>numBlocks</code>
+     * contiguous blocks with about the same number of entries each
+     * 
+     * @param pointer
+     *            Indices to the start of each row, with the total number of
+     *            entries last
+     * @param numBlocks
+     *            Number of blocks
+     * @return Start row of each block, followed by the number of rows
+     */
+    static int[] partition(int[] pointer, int numBlocks) {
+        int n = pointer.length - 1, nnz = pointer[n];
+        int[] begin = new int[numBlocks + 1];
+
+        for (int b = 1; b < numBlocks; ++b) {
+            int target = (int) ((long) b * nnz / numBlocks);
+            int row = Arrays.binarySearchGreater(pointer, target, begin[b - 1],
+                    n);
+            begin[b] = Math.max(begin[b - 1], Math.min(row, n));
+        }
+        begin[numBlocks] = n;
+
+        return begin;
+    }
+
+    /**
+     * Waits on all the submitted blocks, and rethrows the first failure
+     */
+    private void join(List<Future<?>> futures, Throwable failure) {
+        for (Future<?> future : futures)
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        else if (failure instanceof Error)
+            throw (Error) failure;
+        else if (failure != null)
+            throw new RuntimeException(failure);
+    }
+
+    /**
+     * Thread of a worker pool
+     */
+    private static class Worker extends Thread {
+
+        Worker(Runnable r) {
+            super(r, "mtj-worker");
+        }
+
+    }
+
+}
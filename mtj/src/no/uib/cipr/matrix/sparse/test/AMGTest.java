@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse.test;
+
+import junit.framework.TestCase;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.AMG;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.FlexCompRowMatrix;
+
+/**
+ * Test of reusing the AMG hierarchy
+ */
+public class AMGTest extends TestCase {
+
+    /**
+     * Five-point Laplacian on an n by n grid
+     */
+    private CompRowMatrix laplacian(int n) {
+        FlexCompRowMatrix A = new FlexCompRowMatrix(n * n, n * n);
+
+        for (int i = 0; i < n; ++i)
+            for (int j = 0; j < n; ++j) {
+                int k = i * n + j;
+                A.set(k, k, 4);
+                if (i > 0)
+                    A.set(k, k - n, -1);
+                if (i < n - 1)
+                    A.set(k, k + n, -1);
+                if (j > 0)
+                    A.set(k, k - 1, -1);
+                if (j < n - 1)
+                    A.set(k, k + 1, -1);
+            }
+
+        return new CompRowMatrix(A);
+    }
+
+    private Vector ones(int n) {
+        Vector x = new DenseVector(n);
+        for (int i = 0; i < n; ++i)
+            x.set(i, 1);
+        return x;
+    }
+
+    public void testDefaultRebuilds() {
+        CompRowMatrix A = laplacian(20);
+        AMG amg = new AMG();
+
+        amg.setMatrix(A);
+        amg.setMatrix(A);
+
+        assertEquals(2, amg.getNumberOfSetups());
+        assertEquals(2, amg.getNumberOfBuilds());
+    }
+
+    public void testReuse() {
+        CompRowMatrix A = laplacian(20);
+        Vector b = ones(A.numRows());
+
+        AMG reused = new AMG();
+        reused.setRebuildInterval(10);
+        reused.setMatrix(A);
+
+        // Scaling does not change the aggregates nor the interpolation
+        A.scale(2);
+        reused.setMatrix(A);
+        assertEquals(1, reused.getNumberOfBuilds());
+
+        AMG fresh = new AMG();
+        fresh.setMatrix(A);
+
+        Vector x = reused.apply(b, new DenseVector(b.size()));
+        Vector y = fresh.apply(b, new DenseVector(b.size()));
+
+        assertEquals(0, x.add(-1, y).norm(Vector.Norm.Two), 1e-12 * y
+                .norm(Vector.Norm.Two));
+    }
+
+    public void testRebuildInterval() {
+        CompRowMatrix A = laplacian(20);
+        AMG amg = new AMG();
+        amg.setRebuildInterval(2);
+
+        for (int i = 0; i < 5; ++i)
+            amg.setMatrix(A);
+
+        assertEquals(5, amg.getNumberOfSetups());
+        assertEquals(3, amg.getNumberOfBuilds());
+    }
+
+    public void testInvalidate() {
+        CompRowMatrix A = laplacian(20);
+        AMG amg = new AMG();
+        amg.setRebuildInterval(10);
+
+        amg.setMatrix(A);
+        amg.setMatrix(A);
+        amg.invalidate();
+        amg.setMatrix(A);
+
+        assertEquals(2, amg.getNumberOfBuilds());
+    }
+
+    public void testChangedStructure() {
+        AMG amg = new AMG();
+        amg.setRebuildInterval(10);
+
+        amg.setMatrix(laplacian(20));
+        amg.setMatrix(laplacian(21));
+
+        assertEquals(2, amg.getNumberOfBuilds());
+    }
+}
@@ -36,10 +36,13 @@ public class AllTests {
         suite.addTestSuite(ChebyshevSSORTest.class);
         suite.addTestSuite(CompDiagMatrixTest.class);
         suite.addTestSuite(CompColMatrixTest.class);
+        suite.addTestSuite(ParallelCompColMatrixTest.class);
         suite.addTestSuite(ICCTest.class);
         suite.addTestSuite(CGSDiagonalTest.class);
         suite.addTestSuite(SparseVectorTest.class);
         suite.addTestSuite(ILUTest.class);
+        suite.addTestSuite(ILUkTest.class);
+        suite.addTestSuite(ParallelIncompleteFactorizationTest.class);
         suite.addTestSuite(CGSSORTest.class);
         suite.addTestSuite(QMRILUTTest.class);
         suite.addTestSuite(ChebyshevICCTest.class);
@@ -58,10 +61,19 @@ public class AllTests {
         suite.addTestSuite(CGSILUTTest.class);
         suite.addTestSuite(CGSTest.class);
         suite.addTestSuite(CGAMGTest.class);
+        suite.addTestSuite(AMGTest.class);
         suite.addTestSuite(FlexCompRowMatrixTest.class);
         suite.addTestSuite(FlexCompColMatrixTest.class);
         suite.addTestSuite(BiCGstabTest.class);
         suite.addTestSuite(CompRowMatrixTest.class);
+        suite.addTestSuite(ParallelCompRowMatrixTest.class);
+        suite.addTestSuite(BlockCompRowMatrixTest.class);
+        suite.addTestSuite(ParallelBlockCompRowMatrixTest.class);
+        suite.addTestSuite(SlicedEllMatrixTest.class);
+        suite.addTestSuite(BiCGstabBlockILUTest.class);
+        suite.addTestSuite(GMRESBlockILUTest.class);
+        suite.addTestSuite(GMRESBlockDiagonalTest.class);
+        suite.addTestSuite(CGBlockDiagonalTest.class);
         suite.addTestSuite(QMRILUTest.class);
         suite.addTestSuite(GMRESTest.class);
         suite.addTestSuite(BiCGDiagonalTest.class);
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse.test;
+
+import no.uib.cipr.matrix.sparse.BlockCompRowMatrix;
+import no.uib.cipr.matrix.test.Utilities;
+
+/**
+ * Test of BlockCompRowMatrix
+ */
+public class BlockCompRowMatrixTest extends SparseStructImmutableMatrixTest {
+
+    public BlockCompRowMatrixTest(String arg0) {
+        super(arg0);
+    }
+
+    @Override
+    protected void createPrimary() throws Exception {
+        int bs = Utilities.getInt(1, 5);
+        int n = Utilities.getInt(1, max / bs);
+        int m = Utilities.getInt(1, max / bs);
+        int b = Utilities.getInt(Math.min(bmax, m));
+        int[][] nz = Utilities.getRowPattern(n, m, b);
+        A = new BlockCompRowMatrix(n, m, bs, nz);
+
+        // Every entry of a stored block is part of the structure
+        Ad = new double[n * bs][m * bs];
+        for (int i = 0; i < n; ++i)
+            for (int j : nz[i])
+                for (int k = 0; k < bs; ++k)
+                    for (int l = 0; l < bs; ++l) {
+                        double value = Math.random();
+                        Ad[i * bs + k][j * bs + l] = value;
+                        A.set(i * bs + k, j * bs + l, value);
+                    }
+    }
+
+}
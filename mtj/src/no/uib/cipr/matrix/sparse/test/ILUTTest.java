@@ -20,10 +20,16 @@
 
 package no.uib.cipr.matrix.sparse.test;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import no.uib.cipr.matrix.Matrix;
 import no.uib.cipr.matrix.Vector;
 import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.FlexCompRowMatrix;
 import no.uib.cipr.matrix.sparse.ILU;
+import no.uib.cipr.matrix.sparse.ILUT;
+import no.uib.cipr.matrix.sparse.SparseVector;
 
 /**
  * Test of ILU with thresholding
@@ -43,4 +49,61 @@ public class ILUTTest extends IncompleteFactorizationTest {
         assertEquals(0, r.norm(Vector.Norm.TwoRobust), 1e-5);
     }
 
+    /**
+     * Factoring matrices of different patterns and values one after another
+     * with the same ILUT gives the same factors as fresh factorisations
+     */
+    public void testReuse() {
+        Random random = new Random(7);
+        int n = 60;
+        CompRowMatrix A = random(n, random), B = random(n, random);
+
+        FlexCompRowMatrix LU = new FlexCompRowMatrix(n, n);
+        ILUT ilut = new ILUT(LU, 1e-3, 4);
+
+        for (CompRowMatrix C : new CompRowMatrix[] { A, B, A, B }) {
+            ilut.setMatrix(C);
+
+            FlexCompRowMatrix expected = new FlexCompRowMatrix(n, n);
+            new ILUT(expected, 1e-3, 4).setMatrix(C);
+
+            for (int i = 0; i < n; ++i) {
+                SparseVector row = LU.getRow(i), fresh = expected.getRow(i);
+                assertEquals(fresh.getUsed(), row.getUsed());
+                assertTrue(Arrays.equals(fresh.getIndex(), row.getIndex()));
+                assertTrue(Arrays.equals(Arrays.copyOf(fresh.getData(), fresh
+                        .getUsed()), Arrays.copyOf(row.getData(), row
+                        .getUsed())));
+            }
+        }
+    }
+
+    /**
+     * Random non-symmetrical matrix with a dominant diagonal and a few
+     * entries off the diagonal on each row
+     */
+    private CompRowMatrix random(int n, Random random) {
+        int[][] nz = new int[n][];
+        for (int i = 0; i < n; ++i) {
+            boolean[] used = new boolean[n];
+            used[i] = true;
+            for (int k = 0; k < 4; ++k)
+                used[random.nextInt(n)] = true;
+
+            int c = 0;
+            nz[i] = new int[n];
+            for (int j = 0; j < n; ++j)
+                if (used[j])
+                    nz[i][c++] = j;
+            nz[i] = Arrays.copyOf(nz[i], c);
+        }
+
+        CompRowMatrix A = new CompRowMatrix(n, n, nz);
+        for (int i = 0; i < n; ++i)
+            for (int j : nz[i])
+                A.set(i, j, j == i ? 10 : random.nextDouble() - 1);
+
+        return A;
+    }
+
 }
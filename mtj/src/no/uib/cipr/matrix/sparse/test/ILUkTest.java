@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package no.uib.cipr.matrix.sparse.test;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.ILU;
+import no.uib.cipr.matrix.test.Utilities;
+
+/**
+ * Test of ILU(k)
+ */
+public class ILUkTest extends IncompleteFactorizationTest {
+
+    @Override
+    void testFactorization(Matrix A, Vector x) {
+        Vector b = A.mult(x, x.copy());
+
+        ILU ilu = new ILU(new CompRowMatrix(A), 1);
+        ilu.setMatrix(A);
+        ilu.apply(b, x);
+
+        Vector r = A.multAdd(-1, x, b.copy());
+
+        assertEquals(0, r.norm(Vector.Norm.TwoRobust), 1e-5);
+    }
+
+    /**
+     * With enough fill, the factorisation of a five-point Laplacian is exact
+     */
+    public void testCompleteFill() {
+        int m = Utilities.getInt(2, 8), n = m * m;
+        CompRowMatrix A = laplacian(m);
+
+        ILU ilu = new ILU(new CompRowMatrix(A), n);
+        ilu.setMatrix(A);
+
+        Vector b = new DenseVector(n), x = new DenseVector(n);
+        for (int i = 0; i < n; ++i)
+            b.set(i, i + 1);
+        ilu.apply(b, x);
+
+        Vector r = A.multAdd(-1, x, b.copy());
+        assertEquals(0, r.norm(Vector.Norm.TwoRobust), 1e-10);
+    }
+
+    /**
+     * ILU(1) of a five-point Laplacian adds the (i,i-m+1) and (i,i+m-1)
+     * diagonals, and every further level adds more fill
+     */
+    public void testFillPattern() {
+        int m = 6, n = m * m;
+        CompRowMatrix A = laplacian(m);
+
+        CompRowMatrix LU = new CompRowMatrix(A);
+        new ILU(LU, 1).setMatrix(A);
+        assertEquals(5 * n - 4 * m + 2 * (m - 1) * (m - 1),
+                LU.getData().length);
+        for (int i = m; i < n; ++i)
+            if (i % m != m - 1) {
+                assertTrue(contains(LU, i, i - m + 1));
+                assertTrue(contains(LU, i - m + 1, i));
+            }
+
+        int previous = LU.getData().length;
+        for (int k = 2; k <= 3; ++k) {
+            LU = new CompRowMatrix(A);
+            new ILU(LU, k).setMatrix(A);
+            assertTrue(LU.getData().length > previous);
+            previous = LU.getData().length;
+        }
+    }
+
+    /**
+     * Refactoring gives the same factor as setting up from scratch
+     */
+    public void testRefactor() {
+        CompRowMatrix A = laplacian(5), B = A.copy();
+        B.scale(2).add(3, 4, 0.5);
+
+        CompRowMatrix LU = new CompRowMatrix(A), expected = new CompRowMatrix(
+                A);
+        ILU ilu = new ILU(LU, 2);
+        ilu.setMatrix(A);
+        ilu.refactor(B);
+        new ILU(expected, 2).setMatrix(B);
+
+        assertTrue(java.util.Arrays.equals(expected.getRowPointers(), LU
+                .getRowPointers()));
+        assertTrue(java.util.Arrays.equals(expected.getData(), LU.getData()));
+    }
+
+    private boolean contains(CompRowMatrix A, int row, int column) {
+        int[] rowptr = A.getRowPointers(), colind = A.getColumnIndices();
+        for (int j = rowptr[row]; j < rowptr[row + 1]; ++j)
+            if (colind[j] == column)
+                return true;
+        return false;
+    }
+
+    /**
+     * Five-point Laplacian on an m*m grid
+     */
+    private CompRowMatrix laplacian(int m) {
+        int n = m * m;
+        int[][] nz = new int[n][];
+        for (int j = 0, i = 0; j < m; ++j)
+            for (int l = 0; l < m; ++l, ++i) {
+                int c = 1 + (j > 0 ? 1 : 0) + (l > 0 ? 1 : 0)
+                        + (l < m - 1 ? 1 : 0) + (j < m - 1 ? 1 : 0);
+                nz[i] = new int[c];
+                c = 0;
+                if (j > 0)
+                    nz[i][c++] = i - m;
+                if (l > 0)
+                    nz[i][c++] = i - 1;
+                nz[i][c++] = i;
+                if (l < m - 1)
+                    nz[i][c++] = i + 1;
+                if (j < m - 1)
+                    nz[i][c++] = i + m;
+            }
+
+        CompRowMatrix A = new CompRowMatrix(n, n, nz);
+        for (int i = 0; i < n; ++i)
+            for (int c = 0; c < nz[i].length; ++c)
+                A.set(i, nz[i][c], nz[i][c] == i ? 4 : -1);
+
+        return A;
+    }
+
+}
@@ -46,6 +46,11 @@ public abstract class IterativeSolverTest extends TestCase {
      */
     protected int max = 50, bmax = 10;
 
+    /**
+     * The size of the system matrix is a multiple of this
+     */
+    protected int blockSize = 1;
+
     /**
      * Numerical tolerance
      */
@@ -119,7 +124,7 @@ public abstract class IterativeSolverTest extends TestCase {
 
     protected void createMatrix() throws Exception {
         // Create an arbitrary matrix
-        int n = Utilities.getInt(1, max);
+        int n = blockSize * Utilities.getInt(1, max / blockSize);
         int b = Utilities.getInt(Math.min(bmax, n));
         A = new FlexCompRowMatrix(n, n);
         Utilities.rowPopulate(A, b);
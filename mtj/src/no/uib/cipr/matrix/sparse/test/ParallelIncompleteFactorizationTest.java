@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse.test;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrices;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.ICC;
+import no.uib.cipr.matrix.sparse.ILU;
+import no.uib.cipr.matrix.sparse.WorkerPool;
+
+/**
+ * Test of the level scheduled incomplete factorisations. These must give the
+ * same results as the sequential ones
+ */
+public class ParallelIncompleteFactorizationTest extends TestCase {
+
+    /**
+     * Pool without a threshold
+     */
+    private static final WorkerPool pool = new WorkerPool(3, 0);
+
+    /**
+     * Grid size. Large enough for some levels to be split between threads
+     */
+    private int m = 20;
+
+    private CompRowMatrix A;
+
+    private DenseVector b;
+
+    @Override
+    protected void setUp() throws Exception {
+        A = laplacian(m);
+        b = (DenseVector) Matrices.random(A.numRows());
+    }
+
+    public void testILU() {
+        // Perturb the off-diagonals to make the matrix non-symmetrical
+        for (int i = 0; i < A.numRows(); ++i)
+            for (int j = A.getRowPointers()[i]; j < A.getRowPointers()[i + 1]; ++j)
+                if (A.getColumnIndices()[j] != i)
+                    A.getData()[j] -= 0.5 * Math.random();
+
+        CompRowMatrix LUs = new CompRowMatrix(A), LUp = new CompRowMatrix(A);
+        ILU sequential = new ILU(LUs), parallel = new ILU(LUp);
+        sequential.setWorkerPool(new WorkerPool(1));
+        parallel.setWorkerPool(pool);
+
+        sequential.setMatrix(A);
+        parallel.setMatrix(A);
+        assertTrue(Arrays.equals(LUs.getData(), LUp.getData()));
+
+        // Refactoring reuses the schedule
+        parallel.setMatrix(A);
+        assertTrue(Arrays.equals(LUs.getData(), LUp.getData()));
+        parallel.refactor(A);
+        assertTrue(Arrays.equals(LUs.getData(), LUp.getData()));
+
+        DenseVector xs = new DenseVector(b.size()), xp = new DenseVector(b
+                .size());
+        sequential.apply(b, xs);
+        parallel.apply(b, xp);
+        assertTrue(Arrays.equals(xs.getData(), xp.getData()));
+
+        sequential.transApply(b, xs);
+        parallel.transApply(b, xp);
+        assertTrue(Arrays.equals(xs.getData(), xp.getData()));
+    }
+
+    public void testICC() {
+        CompRowMatrix Rs = new CompRowMatrix(A), Rp = new CompRowMatrix(A);
+        ICC sequential = new ICC(Rs), parallel = new ICC(Rp);
+        sequential.setWorkerPool(new WorkerPool(1));
+        parallel.setWorkerPool(pool);
+
+        sequential.setMatrix(A);
+        parallel.setMatrix(A);
+        assertTrue(Arrays.equals(Rs.getData(), Rp.getData()));
+
+        // Refactoring reuses the reach sets and the schedule
+        parallel.refactor(A);
+        assertTrue(Arrays.equals(Rs.getData(), Rp.getData()));
+
+        DenseVector xs = new DenseVector(b.size()), xp = new DenseVector(b
+                .size());
+        sequential.apply(b, xs);
+        parallel.apply(b, xp);
+        assertTrue(Arrays.equals(xs.getData(), xp.getData()));
+    }
+
+    /**
+     * A grid wide enough that the reach sets are too large to store, so the
+     * factorisation with a pool is done sequentially
+     */
+    public void testICCLargeReach() {
+        A = laplacian(32);
+        b = (DenseVector) Matrices.random(A.numRows());
+        testICC();
+    }
+
+    /**
+     * Seven-point Laplacian on an m*m*m grid, with a dominant diagonal
+     */
+    private CompRowMatrix laplacian(int m) {
+        int n = m * m * m;
+        int[][] nz = new int[n][];
+        int[] row = new int[7];
+        for (int k = 0, i = 0; k < m; ++k)
+            for (int j = 0; j < m; ++j)
+                for (int l = 0; l < m; ++l, ++i) {
+                    int c = 0;
+                    if (k > 0)
+                        row[c++] = i - m * m;
+                    if (j > 0)
+                        row[c++] = i - m;
+                    if (l > 0)
+                        row[c++] = i - 1;
+                    row[c++] = i;
+                    if (l < m - 1)
+                        row[c++] = i + 1;
+                    if (j < m - 1)
+                        row[c++] = i + m;
+                    if (k < m - 1)
+                        row[c++] = i + m * m;
+                    nz[i] = new int[c];
+                    System.arraycopy(row, 0, nz[i], 0, c);
+                }
+
+        CompRowMatrix A = new CompRowMatrix(n, n, nz);
+        for (int i = 0; i < n; ++i)
+            for (int c = 0; c < nz[i].length; ++c)
+                A.set(i, nz[i][c], nz[i][c] == i ? 6.5 : -1);
+
+        return A;
+    }
+
+}
@@ -36,7 +36,7 @@ public abstract class SPDIterativeSolverTest extends IterativeSolverTest {
     @Override
     protected void createMatrix() throws Exception {
         // Create a symmetrical matrix
-        int n = Utilities.getInt(1, max);
+        int n = blockSize * Utilities.getInt(1, max / blockSize);
         int b = Utilities.getInt(Math.min(bmax, n));
         A = new FlexCompRowMatrix(n, n);
         Utilities.symmetryPopulate(A, b);
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse.test;
+
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.SlicedEllMatrix;
+import no.uib.cipr.matrix.test.Utilities;
+
+/**
+ * Test of SlicedEllMatrix
+ */
+public class SlicedEllMatrixTest extends SparseStructImmutableMatrixTest {
+
+    public SlicedEllMatrixTest(String arg0) {
+        super(arg0);
+    }
+
+    @Override
+    protected void createPrimary() throws Exception {
+        int n = Utilities.getInt(1, max);
+        int m = Utilities.getInt(1, max);
+        int b = Utilities.getInt(Math.min(bmax, m));
+        int[][] nz = Utilities.getRowPattern(n, m, b);
+        CompRowMatrix B = new CompRowMatrix(n, m, nz);
+        Ad = Utilities.rowPopulate(B, nz);
+        A = new SlicedEllMatrix(B, Utilities.getInt(1, 9), Utilities.getInt(
+                1, 20));
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2003-2006 Bjørn-Ove Heimsund
+ * 
+ * This file is part of MTJ.
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package no.uib.cipr.matrix.sparse.test;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.SlicedEllMatrix;
+import no.uib.cipr.matrix.sparse.WorkerPool;
+
+/**
+ * Times the parallel sparse matrix-vector products on a seven-point
+ * Laplacian, for an increasing number of threads. The compressed row
+ * products are compared with the sliced ELLPACK product. Usage:
+ * 
+ * <pre>
+ * SpMVBenchmark [rows [maxThreads [repetitions]]]
+ * </pre>
+ * 
+ * The default is a five million row matrix, of the size of a typical
+ * pressure system.
+ */
+public class SpMVBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+                .getRuntime().availableProcessors();
+        int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        CompRowMatrix A = laplacian(n);
+        SlicedEllMatrix S = new SlicedEllMatrix(A);
+        DenseVector x = new DenseVector(A.numColumns()), y = new DenseVector(
+                A.numRows());
+        for (int i = 0; i < x.size(); ++i)
+            x.set(i, 1 + i % 7);
+
+        System.out.println("rows = " + A.numRows() + ", entries = "
+                + A.getData().length + ", padded SELL entries = "
+                + S.getStorageSize());
+        System.out.println("threads\tmult [ms]\tspeedup\ttransMult [ms]\t"
+                + "speedup\tSELL mult [ms]\tspeedup");
+
+        double mult1 = 0, trans1 = 0, sell1 = 0;
+        for (int t = 1; t <= maxThreads; t *= 2) {
+            WorkerPool pool = new WorkerPool(t);
+            A.setWorkerPool(pool);
+            S.setWorkerPool(pool);
+
+            double mult = time(A, x, y, repetitions, false);
+            double trans = time(A, x, y, repetitions, true);
+            double sell = time(S, x, y, repetitions, false);
+            if (t == 1) {
+                mult1 = mult;
+                trans1 = trans;
+                sell1 = sell;
+            }
+
+            System.out.printf("%d\t%.2f\t\t%.2f\t%.2f\t\t%.2f\t%.2f\t\t%.2f%n",
+                    t, mult, mult1 / mult, trans, trans1 / trans, sell, sell1
+                            / sell);
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Average time in milliseconds of a product, after one warm-up product
+     */
+    private static double time(Matrix A, DenseVector x, DenseVector y,
+            int repetitions, boolean transpose) {
+        long start = 0;
+        for (int r = 0; r <= repetitions; ++r) {
+            if (r == 1)
+                start = System.nanoTime();
+            if (transpose)
+                A.transMult(x, y);
+            else
+                A.mult(x, y);
+        }
+        return (System.nanoTime() - start) / 1e6 / repetitions;
+    }
+
+    /**
+     * Seven-point Laplacian on a cubic grid with about <code>n</code> cells
+     */
+    private static CompRowMatrix laplacian(int n) {
+        int m = Math.max(1, (int) Math.round(Math.cbrt(n))), size = m * m * m;
+
+        int[][] nz = new int[size][];
+        int[] row = new int[7];
+        for (int k = 0, i = 0; k < m; ++k)
+            for (int j = 0; j < m; ++j)
+                for (int l = 0; l < m; ++l, ++i) {
+                    int c = 0;
+                    if (k > 0)
+                        row[c++] = i - m * m;
+                    if (j > 0)
+                        row[c++] = i - m;
+                    if (l > 0)
+                        row[c++] = i - 1;
+                    row[c++] = i;
+                    if (l < m - 1)
+                        row[c++] = i + 1;
+                    if (j < m - 1)
+                        row[c++] = i + m;
+                    if (k < m - 1)
+                        row[c++] = i + m * m;
+                    nz[i] = new int[c];
+                    System.arraycopy(row, 0, nz[i], 0, c);
+                }
+
+        CompRowMatrix A = new CompRowMatrix(size, size, nz);
+        for (int i = 0; i < size; ++i)
+            for (int c = 0; c < nz[i].length; ++c)
+                A.set(i, nz[i][c], nz[i][c] == i ? 6 : -1);
+
+        return A;
+    }
+
+}
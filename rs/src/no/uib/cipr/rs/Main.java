@@ -8,6 +8,7 @@ import java.util.Arrays;
 import java.util.Date;
 
 import no.uib.cipr.rs.fluid.PVT;
+import no.uib.cipr.rs.fluid.PhaseEnvelope;
 import no.uib.cipr.rs.numerics.PotentialCalculator;
 import no.uib.cipr.rs.output.GMVExport;
 import no.uib.cipr.rs.output.GMVFieldExport;
@@ -28,6 +29,7 @@ public class Main {
         String mesh_gmv = String.format(format, Paths.MESH_FILE + "_gmv");
         String run = String.format(format, Paths.RUN_FILE);
         String pvt = String.format(format, Paths.PVT_FILE);
+        String envelope = String.format(format, Paths.ENVELOPE_FILE);
         String upscale = String.format(format, Paths.UPSCALE_FILE);
         String run_gmv = String.format(format, Paths.RUN_FILE + "_gmv");
         String potential = String.format(format, Paths.POTENTIAL_FILE);
@@ -39,6 +41,8 @@ public class Main {
                     .println("\t" + mesh_gmv + "- Visualize a mesh using GMV");
             System.err.println("\t" + run + "- Run a simulation");
             System.err.println("\t" + pvt + "- Calculate PVT properties");
+            System.err.println("\t" + envelope
+                    + "- Calculate a phase envelope and PVT tables");
             System.err.println("\t" + upscale + "- Perform upscaling");
             System.err.println("\t" + run_gmv
                     + "- Visualize simulation results using GMV");
@@ -62,6 +66,8 @@ public class Main {
             no.uib.cipr.rs.numerics.Main.main(appArgs);
         else if (mode.equals(pvt.trim()))
             PVT.main(appArgs);
+        else if (mode.equals(envelope.trim()))
+            PhaseEnvelope.main(appArgs);
         else if (mode.equals(upscale.trim()))
             no.uib.cipr.rs.upscale.Main.main(appArgs);
         else if (mode.equals(run_gmv.trim()))
@@ -9,6 +9,7 @@ import java.io.ObjectInputStream;
 import java.util.Locale;
 
 import no.uib.cipr.rs.geometry.Mesh;
+import no.uib.cipr.rs.geometry.MeshFile;
 
 /**
  * Directory paths and file names used by the different parts of the simulation
@@ -52,6 +53,11 @@ public final class Paths {
         return String.format(Locale.US, "%014.6f", timeStep);
     }
 
+    /**
+     * Timings of each timestep, in the simulation output directory
+     */
+    public static final String TELEMETRY_FILE = "telemetry.csv";
+
     /**
      * Name of the fine mesh. The subdomain meshes have an integer suffix
      * denoting the subdomain rank
@@ -63,6 +69,11 @@ public final class Paths {
      */
     public static final String PVT_FILE = "pvt";
 
+    /**
+     * Phase property tables written by the phase envelope calculation
+     */
+    public static final String ENVELOPE_FILE = "envelope";
+
     /**
      * File for upscaling
      */
@@ -81,7 +92,8 @@ public final class Paths {
     }
 
     /**
-     * Reads in the mesh
+     * Reads in the mesh. Both the binary mesh format and serialized meshes
+     * from earlier versions are accepted
      */
     public static Mesh readMesh() {
 
@@ -89,10 +101,19 @@ public final class Paths {
         String meshFile = Paths.GRIDDING_OUTPUT + "/" + Paths.MESH_FILE;
         Paths.checkPresence(meshFile);
 
-        // Read in the mesh
+        return readMesh(new File(meshFile));
+    }
+
+    /**
+     * Reads in the mesh from the given file, in either format
+     */
+    public static Mesh readMesh(File file) {
         try {
+            if (MeshFile.isMeshFile(file))
+                return MeshFile.read(file);
+
             ObjectInput in = new ObjectInputStream(new BufferedInputStream(
-                    new FileInputStream(meshFile)));
+                    new FileInputStream(file)));
 
             Mesh mesh = (Mesh) in.readObject();
 
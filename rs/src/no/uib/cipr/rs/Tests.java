@@ -16,6 +16,8 @@ import org.junit.runners.Suite;
      * Each package should contain a Tests class which defines the
      * suite of tests for that package.
      */
+    no.uib.cipr.rs.field.Tests.class,
+    no.uib.cipr.rs.fluid.Tests.class,
     no.uib.cipr.rs.geometry.Tests.class,
     no.uib.cipr.rs.util.Tests.class
 } )
@@ -86,35 +86,35 @@ public class CS implements Serializable {
     /**
      * Calculates secondary variables associated with a control surface
      * 
-     * @param cv
-     *                All the control volumes. Only the control volumes in the
-     *                flux molecules are actually accessed, and the access is
-     *                just for reading, not writing
+     * @param state
+     *                State of all the control volumes. Only the control
+     *                volumes in the flux molecules are actually accessed, and
+     *                the access is just for reading, not writing
      */
-    void calculateSecondaries(CV[] cv, Mesh mesh) {
+    void calculateSecondaries(CVState state, Mesh mesh) {
         // Calculates the average rho
-        calculateMassDensity(cv);
+        calculateMassDensity(state);
 
         // Calculates the Darcy phase fluxes and upstream direction
-        calculateDarcyFlux(cv, mesh);
+        calculateDarcyFlux(state, mesh);
     }
 
     /**
      * Calculates the average phase mass density
      */
-    private void calculateMassDensity(CV[] cv) {
-        CV here = cv[c.hereElement];
-        CV there = cv[c.thereElement];
-
+    private void calculateMassDensity(CVState state) {
         rho.zero();
 
         for (Phase phase : Phase.all()) {
-            double Shere = here.getSaturation(phase);
-            double Sthere = there.getSaturation(phase);
+            int here = CVState.phase(c.hereElement, phase);
+            int there = CVState.phase(c.thereElement, phase);
+
+            double Shere = state.S[here];
+            double Sthere = state.S[there];
 
             double S = Shere + Sthere;
-            double rhoHere = here.getMassDensity(phase);
-            double rhoThere = there.getMassDensity(phase);
+            double rhoHere = state.rho[here];
+            double rhoThere = state.rho[there];
 
             double av_rho = (Shere * rhoHere + Sthere * rhoThere) / S;
 
@@ -127,7 +127,7 @@ public class CS implements Serializable {
     /**
      * Calculates the volumetric Darcy phase fluxes
      */
-    private void calculateDarcyFlux(CV[] cv, Mesh mesh) {
+    private void calculateDarcyFlux(CVState state, Mesh mesh) {
         for (Phase phase : Phase.all()) {
 
             double D = 0;
@@ -137,7 +137,7 @@ public class CS implements Serializable {
                 double tk = t.k;
 
                 // Phase potential
-                double psi = cv[ek.index].getPhasePressure(phase)
+                double psi = state.getPhasePressure(ek.index, phase)
                         + rho.get(phase) * bodyForce(ek);
 
                 D += tk * psi;
@@ -148,7 +148,7 @@ public class CS implements Serializable {
             upstream.set(phase, up);
 
             // Upstream mobility
-            double lambda = cv[up.index].getPhaseMobility(phase);
+            double lambda = state.lambda[CVState.phase(up.index, phase)];
 
             u.set(phase, lambda * D);
         }
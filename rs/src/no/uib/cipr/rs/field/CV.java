@@ -7,10 +7,9 @@ import no.uib.cipr.rs.fluid.Component;
 import no.uib.cipr.rs.fluid.Components;
 import no.uib.cipr.rs.fluid.Composition;
 import no.uib.cipr.rs.fluid.EquationOfState;
-import no.uib.cipr.rs.fluid.EquationOfStateData;
 import no.uib.cipr.rs.fluid.Phase;
-import no.uib.cipr.rs.fluid.PhaseData;
 import no.uib.cipr.rs.fluid.PhaseDataDouble;
+import no.uib.cipr.rs.fluid.PhaseStates;
 import no.uib.cipr.rs.geometry.Element;
 import no.uib.cipr.rs.rock.Rock;
 import no.uib.cipr.rs.rock.RockFluid;
@@ -20,7 +19,7 @@ import no.uib.cipr.rs.rock.RockFluid;
  */
 public class CV implements Serializable {
 
-    private static final long serialVersionUID = 9113207757638598174L;
+    private static final long serialVersionUID = -6409271541330825187L;
 
     /**
      * Associated grid element
@@ -37,110 +36,25 @@ public class CV implements Serializable {
      */
     private final transient RockFluid rockFluid;
 
-    /**
-     * Equation of state for fluid property calculations
-     */
-    private final transient EquationOfState eos;
-
     /**
      * Fluid components
      */
     private final transient Components components;
 
     /**
-     * Equation of state data for each phase
-     */
-    private final PhaseData<EquationOfStateData> eosData = new PhaseData<EquationOfStateData>();
-
-    /**
-     * Oil phase pressure [Pa]
-     */
-    private double p;
-
-    /**
-     * Overall mass composition [mol]
+     * Overall mass composition [mol]. A view of the numerical state
      */
     private final Composition N;
 
     /**
-     * System temperature [K]
-     */
-    private double T;
-
-    /**
-     * Effective porosity [-]
-     */
-    private double phi;
-
-    /**
-     * Initial fluid pressure, for use with compaction [Pa]
-     */
-    private double p0;
-
-    /**
-     * Oil/water capillary pressure [Pa]
-     */
-    private double pcow;
-
-    /**
-     * Gas/oil capillary pressure [Pa]
-     */
-    private double pcgo;
-
-    /**
-     * Relative permeabilities [-]
-     */
-    private final PhaseDataDouble kr = new PhaseDataDouble();
-
-    /**
-     * Phase saturations [-]
-     */
-    private final PhaseDataDouble S = new PhaseDataDouble();
-
-    /**
-     * Phase mass densities [kg/m^3]
-     */
-    private final PhaseDataDouble rho = new PhaseDataDouble();
-
-    /**
-     * Heat capacity summed over phases and the rock [J/K]
-     */
-    private double delta;
-
-    /**
-     * Phase mobilities [1/(Pa*s)]
-     */
-    private final PhaseDataDouble lambda = new PhaseDataDouble();
-
-    /**
-     * Residual volume [m^3]
-     */
-    private double R;
-
-    /**
-     * Residual volume derivative with pressure [m^3/Pa]
-     */
-    private transient double dRdp;
-
-    /**
-     * Residual volume derivative with temperature [m^3/K]
-     */
-    private transient double dRdT;
-
-    /**
-     * Residual volume derivative with molar masses [m^3/mol]
-     */
-    private final transient double[] dRdN;
-
-    /**
-     * The component mobilities. [mol/(m^3*Pa*s)]
+     * Numerical state of all the control volumes
      */
-    private final PhaseDataDouble[] compMob;
+    private final CVState state;
 
     /**
-     * The energy mobilities. [J/(m^3*Pa*s)]
+     * Index of this control volume into the state
      */
-    private final PhaseDataDouble energyMob = new PhaseDataDouble();
+    private final int i;
 
     /**
      * Thermal run or not
@@ -154,54 +68,62 @@ public class CV implements Serializable {
      *                Associated grid element
      * @param rockFluid
      *                Rock/fluid properties
-     * @param eos
-     *                Equation of state
      * @param components
      *                Components database
      * @param thermal
      *                For a thermal run
+     * @param state
+     *                Storage for the numerical state, indexed by the element
      */
-    public CV(Element el, RockFluid rockFluid, EquationOfState eos,
-            Components components, boolean thermal) {
+    public CV(Element el, RockFluid rockFluid, Components components,
+            boolean thermal, CVState state) {
 
         this.el = el;
         rock = el.rock;
         this.rockFluid = rockFluid;
-        this.eos = eos;
         this.components = components;
         this.thermal = thermal;
+        this.state = state;
+        i = el.index;
 
-        N = new Composition(components);
+        N = new Composition(components, state.N, state.NT, i);
+    }
 
-        int numComponents = components.numComponents();
-        dRdN = new double[numComponents];
-        compMob = new PhaseDataDouble[numComponents];
-        for (Component nu : components.all())
-            compMob[nu.index()] = new PhaseDataDouble();
+    /**
+     * Scratch space for calculating the secondary variables. Control volumes
+     * updated concurrently must use different workspaces
+     */
+    static class Workspace {
 
-        for (Phase phase : Phase.all())
-            eosData.set(phase, new EquationOfStateData(components, phase));
+        /**
+         * Equation of state. It is safe for concurrent use
+         */
+        final EquationOfState eos;
+
+        /**
+         * Saturations and relative permeabilities, as passed to the rock/fluid
+         * functions
+         */
+        final PhaseDataDouble S = new PhaseDataDouble(),
+                kr = new PhaseDataDouble();
+
+        Workspace(EquationOfState eos) {
+            this.eos = eos;
+        }
     }
 
     /**
      * Sets the oil phase pressure
      */
     public void setPressure(double p) {
-        this.p = p;
+        state.p[i] = p;
     }
 
     /**
      * Sets the reference pressure, for use in compaction
      */
     void setReferencePressure(double p0) {
-        this.p0 = p0;
-    }
-
-    /**
-     * Gets the reference pressure, for use with restarts
-     */
-    double getReferencePressure() {
-        return p0;
+        state.p0[i] = p0;
     }
 
     /**
@@ -210,7 +132,7 @@ public class CV implements Serializable {
      * @return [Pa]
      */
     public double getPressure() {
-        return p;
+        return state.p[i];
     }
 
     /**
@@ -219,23 +141,14 @@ public class CV implements Serializable {
      * @return [Pa]
      */
     public double getPhasePressure(Phase phase) {
-        switch (phase) {
-        case WATER:
-            return p - pcow;
-        case OIL:
-            return p;
-        case GAS:
-            return p + pcgo;
-        default:
-            throw new RuntimeException();
-        }
+        return state.getPhasePressure(i, phase);
     }
 
     /**
      * Sets the temperature
      */
     public void setTemperature(double T) {
-        this.T = T;
+        state.T[i] = T;
     }
 
     /**
@@ -244,7 +157,7 @@ public class CV implements Serializable {
      * @return [K]
      */
     public double getTemperature() {
-        return T;
+        return state.T[i];
     }
 
     /**
@@ -257,10 +170,21 @@ public class CV implements Serializable {
     }
 
     /**
-     * Gets the equation of state data for a phase
+     * Gets the molar density of a phase
+     * 
+     * @return [mol/m^3]
+     */
+    public double getMolarDensity(Phase phase) {
+        return state.phases.xi[CVState.phase(i, phase)];
+    }
+
+    /**
+     * Gets the mole fraction of a component in a phase
+     * 
+     * @return [-]
      */
-    public EquationOfStateData getEquationOfStateData(Phase phase) {
-        return eosData.get(phase);
+    public double getMoleFraction(Phase phase, Component nu) {
+        return state.phases.getMoleFraction(i, phase, nu);
     }
 
     /**
@@ -269,7 +193,7 @@ public class CV implements Serializable {
      * @return [-]
      */
     public double getSaturation(Phase phase) {
-        return S.get(phase);
+        return state.S[CVState.phase(i, phase)];
     }
 
     /**
@@ -278,7 +202,7 @@ public class CV implements Serializable {
      * @return [kg/m^3]
      */
     public double getMassDensity(Phase phase) {
-        return rho.get(phase);
+        return state.rho[CVState.phase(i, phase)];
     }
 
     /**
@@ -287,7 +211,7 @@ public class CV implements Serializable {
      * @return [J/K]
      */
     public double getHeatCapacity() {
-        return delta;
+        return state.delta[i];
     }
 
     /**
@@ -296,7 +220,7 @@ public class CV implements Serializable {
      * @return [-]
      */
     public double getPorosity() {
-        return phi;
+        return state.phi[i];
     }
 
     /**
@@ -305,7 +229,7 @@ public class CV implements Serializable {
      * @return [1/(Pa*s)]
      */
     public double getPhaseMobility(Phase phase) {
-        return lambda.get(phase);
+        return state.lambda[CVState.phase(i, phase)];
     }
 
     /**
@@ -314,7 +238,7 @@ public class CV implements Serializable {
      * @return [mol/(m^3*Pa*s)]
      */
     public double getComponentMobility(Phase phase, Component nu) {
-        return compMob[nu.index()].get(phase);
+        return state.compMob[state.component(i, phase, nu)];
     }
 
     /**
@@ -323,7 +247,7 @@ public class CV implements Serializable {
      * @return [J/(m^3*Pa*s)]
      */
     public double getEnergyMobility(Phase phase) {
-        return energyMob.get(phase);
+        return state.energyMob[CVState.phase(i, phase)];
     }
 
     /**
@@ -332,7 +256,7 @@ public class CV implements Serializable {
      * @return [m^3]
      */
     public double getResidualVolume() {
-        return R;
+        return state.R[i];
     }
 
     /**
@@ -341,7 +265,7 @@ public class CV implements Serializable {
      * @return [m^3/Pa]
      */
     public double getResidualVolumeDerivativePressure() {
-        return dRdp;
+        return state.dRdp[i];
     }
 
     /**
@@ -350,7 +274,7 @@ public class CV implements Serializable {
      * @return [m^3/K]
      */
     public double getResidualVolumeDerivativeTemperature() {
-        return dRdT;
+        return state.dRdT[i];
     }
 
     /**
@@ -359,29 +283,30 @@ public class CV implements Serializable {
      * @return [m^3/mol]
      */
     public double getResidualVolumeDerivativeMolarMass(Component nu) {
-        return dRdN[nu.index()];
+        return state.dRdN[state.component(i, nu)];
     }
 
     /**
      * Checks if a given phase is present
      */
     public boolean isPhasePresent(Phase phase) {
-        return eosData.get(phase).isPresent();
+        return state.present[CVState.phase(i, phase)];
     }
 
     /**
-     * Calculates all secondary variables (fluid, rock, rock/fluid)
+     * Calculates all secondary variables (fluid, rock, rock/fluid). The phase
+     * states must have been calculated by the equation of state first
      */
-    void calculateSecondaries() {
+    void calculateSecondaries(Workspace work) {
 
-        // Phase equilibrium
+        // Phase densities and heat capacity
         calculateFluidProperties();
 
         // Porosity and saturations
-        calculateRockProperties();
+        calculateRockProperties(work.S);
 
         // Relative permeability and capillary pressures
-        calculateRockFluidProperties();
+        calculateRockFluidProperties(work.S, work.kr);
 
         // Residual volume and its derivatives
         calculateResidualVolume();
@@ -398,42 +323,41 @@ public class CV implements Serializable {
     }
 
     /**
-     * Performs the phase flashing
+     * Calculates the phase mass densities and the heat capacity from the phase
+     * states
      */
     private void calculateFluidProperties() {
-        // Perform phase equilibrium calculations (flash)
-        eos.calculatePhaseState(p, N, T, eosData);
+        PhaseStates phases = state.phases;
 
         // The porous media heat capacity
-        delta = el.volume * rock.getRockHeatCapacity();
+        double delta = el.volume * rock.getRockHeatCapacity();
 
-        double[] dkgdN = new double[components.numComponents()];
         for (Phase phase : Phase.all()) {
-            EquationOfStateData phaseEosData = eosData.get(phase);
+            int l = CVState.phase(i, phase);
 
             // Phase presence
-            if (!phaseEosData.isPresent()) {
-                rho.set(phase, 0);
+            if (!phases.present[l]) {
+                state.rho[l] = 0;
                 continue;
             }
 
             // Heat capacity
-            delta += phaseEosData.getVolume() * phaseEosData.getHeatCapacity();
+            delta += phases.V[l] * phases.dhdT[l];
 
             // Phase weight
             double kg = 0;
-            Arrays.fill(dkgdN, 0);
-            Composition N = phaseEosData.getComposition();
             for (Component nu : components.all()) {
                 double Mw = nu.getMolecularWeight();
-                kg += Mw * N.getMoles(nu);
+                kg += Mw * phases.N[state.component(i, phase, nu)];
             }
 
             // Mass density
-            double Vl = phaseEosData.getVolume();
-            rho.set(phase, kg / Vl);
+            double Vl = phases.V[l];
+            state.rho[l] = kg / Vl;
         }
 
+        state.delta[i] = delta;
+
         if (thermal && delta <= 0)
             throw new RuntimeException("Heat capacity in element "
                     + (el.index + 1) + " is " + delta
@@ -443,56 +367,73 @@ public class CV implements Serializable {
     /**
      * Calculates porosity and saturations
      */
-    private void calculateRockProperties() {
+    private void calculateRockProperties(PhaseDataDouble S) {
         double cr = rock.getRockCompaction();
-        double dp = p - p0;
-        phi = rock.getInitialPorosity() * (1 + cr * dp + cr * cr * dp * dp / 2);
+        double dp = state.p[i] - state.p0[i];
+        state.phi[i] = rock.getInitialPorosity()
+                * (1 + cr * dp + cr * cr * dp * dp / 2);
+
+        double[] V = state.phases.V;
 
         // Total fluid volume
         double Vf = 0;
         for (Phase phase : Phase.all())
-            Vf += eosData.get(phase).getVolume();
+            Vf += V[CVState.phase(i, phase)];
 
         // Saturations
-        for (Phase phase : Phase.all())
-            S.set(phase, eosData.get(phase).getVolume() / Vf);
+        for (Phase phase : Phase.all()) {
+            double Sl = V[CVState.phase(i, phase)] / Vf;
+            S.set(phase, Sl);
+            state.S[CVState.phase(i, phase)] = Sl;
+        }
     }
 
     /**
      * Calculates rock/fluid properties (relative permeability, capillary
      * pressures)
      */
-    private void calculateRockFluidProperties() {
+    private void calculateRockFluidProperties(PhaseDataDouble S,
+            PhaseDataDouble kr) {
         rockFluid.calculateRelativePermeability(S, el, kr);
+        for (Phase phase : Phase.all())
+            state.kr[CVState.phase(i, phase)] = kr.get(phase);
 
-        pcow = rockFluid.calculateOilWaterCapillaryPressure(S, el);
-        pcgo = rockFluid.calculateGasOilCapillaryPressure(S, el);
+        state.pcow[i] = rockFluid.calculateOilWaterCapillaryPressure(S, el);
+        state.pcgo[i] = rockFluid.calculateGasOilCapillaryPressure(S, el);
     }
 
     /**
      * Calculates the residual volume and all associated derivatives
      */
     private void calculateResidualVolume() {
+        PhaseStates phases = state.phases;
         double V = el.volume;
-        double Vp = phi * V;
+        double Vp = state.phi[i] * V;
 
-        R = Vp;
+        double R = Vp;
 
-        dRdp = rock.getRockCompaction() * Vp;
-        dRdT = 0;
-        Arrays.fill(dRdN, 0);
+        double dRdp = rock.getRockCompaction() * Vp;
+        double dRdT = 0;
+        double[] dRdN = state.dRdN;
+        int offset = i * state.numComponents;
+        Arrays.fill(dRdN, offset, offset + state.numComponents, 0);
 
         for (Phase phase : Phase.all()) {
-            EquationOfStateData phaseEosData = eosData.get(phase);
+            int l = CVState.phase(i, phase);
 
-            R -= phaseEosData.getVolume();
+            R -= phases.V[l];
 
-            dRdp -= phaseEosData.getdVdp();
-            dRdT -= phaseEosData.getdVdT();
+            dRdp -= phases.dVdp[l];
+            dRdT -= phases.dVdT[l];
             for (Component nu : components.all())
-                dRdN[nu.index()] -= phaseEosData.getdVdN(nu);
+                dRdN[offset + nu.index()] -= phases.dVdN[state.component(i,
+                        phase, nu)];
         }
 
+        state.R[i] = R;
+        state.dRdp[i] = dRdp;
+        state.dRdT[i] = dRdT;
+
         // Increasing the pressure must decrease the overall volume
         if (dRdp <= 0)
             throw new RuntimeException("dR/dp is " + dRdp + " in element "
@@ -504,14 +445,12 @@ public class CV implements Serializable {
      * Calculates phase mobilities
      */
     private void calculatePhaseMobility() {
-        lambda.zero();
-
         for (Phase phase : Phase.all()) {
-            double krl = kr.get(phase);
-            double mul = eosData.get(phase).getViscosity();
+            int l = CVState.phase(i, phase);
+            double krl = state.kr[l];
+            double mul = state.phases.mu[l];
 
-            if (mul != 0)
-                lambda.set(phase, krl / mul);
+            state.lambda[l] = mul != 0 ? krl / mul : 0;
         }
     }
 
@@ -519,18 +458,18 @@ public class CV implements Serializable {
      * Calculates component mobilities
      */
     private void calculateComponentMobility() {
+        PhaseStates phases = state.phases;
+
         for (Phase phase : Phase.all()) {
-            EquationOfStateData phaseEosData = eosData.get(phase);
+            int l = CVState.phase(i, phase);
 
-            Composition N = phaseEosData.getComposition();
-            double xi = phaseEosData.getMolarDensity();
-            double phaseLambda = lambda.get(phase);
+            double xi = phases.xi[l];
+            double phaseLambda = state.lambda[l];
 
             for (Component nu : components.all()) {
-                int index = nu.index();
-
-                double C = N.getMoleFraction(nu);
-                compMob[index].set(phase, C * xi * phaseLambda);
+                double C = phases.getMoleFraction(i, phase, nu);
+                state.compMob[state.component(i, phase, nu)] = C * xi
+                        * phaseLambda;
             }
         }
     }
@@ -540,12 +479,11 @@ public class CV implements Serializable {
      */
     private void calculateEnergyMobility() {
         for (Phase phase : Phase.all()) {
-            EquationOfStateData phaseEosData = eosData.get(phase);
+            int l = CVState.phase(i, phase);
 
-            double hrho = phaseEosData.getEnthalpyDensity();
-            double phaseLambda = lambda.get(phase);
+            double hrho = state.phases.h[l];
 
-            energyMob.set(phase, hrho * phaseLambda);
+            state.energyMob[l] = hrho * state.lambda[l];
         }
     }
 
@@ -553,8 +491,8 @@ public class CV implements Serializable {
     public String toString() {
         StringBuilder string = new StringBuilder();
 
-        string.append(String.format("%-12s%15g\n", "pressure", p));
-        string.append(String.format("%-12s%15g\n", "temperature", T));
+        string.append(String.format("%-12s%15g\n", "pressure", state.p[i]));
+        string.append(String.format("%-12s%15g\n", "temperature", state.T[i]));
         string.append(N.toString());
 
         return string.toString();
@@ -0,0 +1,218 @@
+package no.uib.cipr.rs.field;
+
+import java.io.Serializable;
+
+import no.uib.cipr.rs.fluid.Component;
+import no.uib.cipr.rs.fluid.Components;
+import no.uib.cipr.rs.fluid.Phase;
+import no.uib.cipr.rs.fluid.PhaseStates;
+
+/**
+ * The numerical state of all the control volumes, stored as one primitive
+ * array per variable. A control volume only holds its index into these arrays,
+ * and the discretisation loops read them directly. Phase quantities are
+ * stored element by element, with the phases in the order water, oil, gas.
+ * Component quantities are stored likewise, with the components innermost.
+ */
+public class CVState implements Serializable {
+
+    private static final long serialVersionUID = -2430452851186375614L;
+
+    /**
+     * Number of control volumes
+     */
+    public final int numElements;
+
+    /**
+     * Number of fluid components
+     */
+    public final int numComponents;
+
+    /**
+     * Oil phase pressure [Pa]
+     */
+    public final double[] p;
+
+    /**
+     * System temperature [K]
+     */
+    public final double[] T;
+
+    /**
+     * Overall component moles [mol]. Indexed by
+     * {@link #component(int, Component)}
+     */
+    public final double[] N;
+
+    /**
+     * Total moles [mol]
+     */
+    public final double[] NT;
+
+    /**
+     * Equation of state results of each phase
+     */
+    public final PhaseStates phases;
+
+    /**
+     * Effective porosity [-]
+     */
+    public final double[] phi;
+
+    /**
+     * Initial fluid pressure, for use with compaction [Pa]
+     */
+    public final double[] p0;
+
+    /**
+     * Oil/water capillary pressure [Pa]
+     */
+    public final double[] pcow;
+
+    /**
+     * Gas/oil capillary pressure [Pa]
+     */
+    public final double[] pcgo;
+
+    /**
+     * Heat capacity summed over phases and the rock [J/K]
+     */
+    public final double[] delta;
+
+    /**
+     * Residual volume [m^3]
+     */
+    public final double[] R;
+
+    /**
+     * Residual volume derivative with pressure [m^3/Pa]
+     */
+    public final transient double[] dRdp;
+
+    /**
+     * Residual volume derivative with temperature [m^3/K]
+     */
+    public final transient double[] dRdT;
+
+    /**
+     * Residual volume derivative with molar masses [m^3/mol]. Indexed by
+     * {@link #component(int, Component)}
+     */
+    public final transient double[] dRdN;
+
+    /**
+     * Phase presence. Indexed by {@link #phase(int, Phase)}, and shared with
+     * the phase states
+     */
+    public final boolean[] present;
+
+    /**
+     * Relative permeabilities [-]. Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] kr;
+
+    /**
+     * Phase saturations [-]. Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] S;
+
+    /**
+     * Phase mass densities [kg/m^3]. Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] rho;
+
+    /**
+     * Phase mobilities [1/(Pa*s)]. Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] lambda;
+
+    /**
+     * Energy mobilities [J/(m^3*Pa*s)]. Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] energyMob;
+
+    /**
+     * Component mobilities [mol/(m^3*Pa*s)]. Indexed by
+     * {@link #component(int, Phase, Component)}
+     */
+    public final double[] compMob;
+
+    /**
+     * Allocates zeroed storage
+     *
+     * @param numElements
+     *                Number of control volumes
+     * @param components
+     *                Fluid components
+     */
+    public CVState(int numElements, Components components) {
+        this.numElements = numElements;
+        this.numComponents = components.numComponents();
+
+        int numPhases = Phase.all().size();
+
+        p = new double[numElements];
+        T = new double[numElements];
+        N = new double[numElements * numComponents];
+        NT = new double[numElements];
+        phases = new PhaseStates(numElements, components);
+        phi = new double[numElements];
+        p0 = new double[numElements];
+        pcow = new double[numElements];
+        pcgo = new double[numElements];
+        delta = new double[numElements];
+        R = new double[numElements];
+        dRdp = new double[numElements];
+        dRdT = new double[numElements];
+        dRdN = new double[numElements * numComponents];
+
+        present = phases.present;
+        kr = new double[numElements * numPhases];
+        S = new double[numElements * numPhases];
+        rho = new double[numElements * numPhases];
+        lambda = new double[numElements * numPhases];
+        energyMob = new double[numElements * numPhases];
+
+        compMob = new double[numElements * numPhases * numComponents];
+    }
+
+    /**
+     * Index of a phase quantity of the given element
+     */
+    public static int phase(int i, Phase phase) {
+        return 3 * i + phase.ordinal();
+    }
+
+    /**
+     * Index of a component quantity of the given element
+     */
+    public int component(int i, Component nu) {
+        return i * numComponents + nu.index();
+    }
+
+    /**
+     * Index of a component quantity of a phase in the given element. The
+     * components of a phase are consecutive
+     */
+    public int component(int i, Phase phase, Component nu) {
+        return phase(i, phase) * numComponents + nu.index();
+    }
+
+    /**
+     * Gets a phase pressure, taking capillary pressures into account
+     *
+     * @return [Pa]
+     */
+    public double getPhasePressure(int i, Phase phase) {
+        switch (phase) {
+        case WATER:
+            return p[i] - pcow[i];
+        case OIL:
+            return p[i];
+        case GAS:
+            return p[i] + pcgo[i];
+        default:
+            throw new RuntimeException();
+        }
+    }
+}
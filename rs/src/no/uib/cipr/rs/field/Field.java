@@ -22,6 +22,7 @@ import no.uib.cipr.rs.geometry.Element;
 import no.uib.cipr.rs.geometry.Mesh;
 import no.uib.cipr.rs.rock.RockFluid;
 import no.uib.cipr.rs.util.Configuration;
+import no.uib.cipr.rs.util.Parallel;
 import no.uib.cipr.rs.util.Tolerances;
 
 /**
@@ -30,7 +31,7 @@ import no.uib.cipr.rs.util.Tolerances;
  */
 public class Field implements Serializable, Comparable<Field> {
 
-    private static final long serialVersionUID = 9069550493378350020L;
+    private static final long serialVersionUID = -3914284473920358112L;
 
     /**
      * Don't serialize the mesh along with the field
@@ -42,6 +43,11 @@ public class Field implements Serializable, Comparable<Field> {
      */
     private final CV[] cv;
 
+    /**
+     * Numerical state of the control volumes, stored as primitive arrays
+     */
+    private final CVState state;
+
     /**
      * Control surfaces for storing fluxes. One for each connection
      */
@@ -62,6 +68,17 @@ public class Field implements Serializable, Comparable<Field> {
      */
     private double t;
 
+    /**
+     * Worker threads for the flash calculations. Null until set, in which case
+     * the control volumes are updated serially
+     */
+    private transient Parallel parallel;
+
+    /**
+     * One workspace per worker thread. The equation of state is shared
+     */
+    private transient CV.Workspace[] work;
+
     /**
      * Sets up the field data, and calculates a pressure to fulfill local volume
      * balance
@@ -73,9 +90,11 @@ public class Field implements Serializable, Comparable<Field> {
         this.components = new Components(config);
         this.sources = readSources(config);
 
-        EquationOfState eos = EquationOfState.create(config, components);
+        work = new CV.Workspace[] { new CV.Workspace(EquationOfState.create(
+                config, components)) };
 
-        cv = allocateControlVolumes(config, eos, thermal);
+        state = new CVState(mesh.elements.length, components);
+        cv = allocateControlVolumes(config, thermal);
         cs = allocateControlSurfaces(config);
 
         /*
@@ -143,8 +162,7 @@ public class Field implements Serializable, Comparable<Field> {
     /**
      * Allocates the control volumes, without initialisation
      */
-    private CV[] allocateControlVolumes(Configuration config,
-            EquationOfState eos, boolean thermal) {
+    private CV[] allocateControlVolumes(Configuration config, boolean thermal) {
 
         Map<String, RockFluid> rockFluid = readRockFluids(config);
 
@@ -158,8 +176,8 @@ public class Field implements Serializable, Comparable<Field> {
                 throw new IllegalArgumentException("Region \"" + region
                         + "\" has no associated rock/fluid properties");
 
-            cv[el.index] = new CV(el, rockFluid.get(region), eos, components,
-                    thermal);
+            cv[el.index] = new CV(el, rockFluid.get(region), components,
+                    thermal, state);
         }
 
         return cv;
@@ -202,21 +220,24 @@ public class Field implements Serializable, Comparable<Field> {
     }
 
     /**
-     * Constructs a new field based on the restart data of the given field
+     * Constructs a new field based on the restart data of the given snapshot
      */
-    public Field(Field field, Configuration config, Mesh mesh, boolean thermal) {
+    public Field(Snapshot restart, Configuration config, Mesh mesh,
+            boolean thermal) {
 
         this.mesh = mesh;
 
         this.components = new Components(config);
         this.sources = readSources(config);
 
-        EquationOfState eos = EquationOfState.create(config, components);
+        work = new CV.Workspace[] { new CV.Workspace(EquationOfState.create(
+                config, components)) };
 
-        cv = allocateControlVolumes(config, eos, thermal);
+        state = new CVState(mesh.elements.length, components);
+        cv = allocateControlVolumes(config, thermal);
         cs = allocateControlSurfaces(config);
 
-        copyPrimary(field);
+        copyPrimary(restart);
         calculateSecondaries();
 
         /*
@@ -235,22 +256,30 @@ public class Field implements Serializable, Comparable<Field> {
     }
 
     /**
-     * Copy the state of the given field into this field
+     * Copy the primary variables of the given snapshot into this field. The
+     * components are matched by name
      */
-    private void copyPrimary(Field field) {
-        t = field.t;
+    private void copyPrimary(Snapshot restart) {
+        if (restart.numElements() != cv.length)
+            throw new IllegalArgumentException("Restart data has "
+                    + restart.numElements() + " elements, but the mesh has "
+                    + cv.length);
+
+        t = restart.getTime();
+
+        String[] names = restart.getComponentNames();
+        Component[] old = new Component[names.length];
+        for (int j = 0; j < names.length; ++j)
+            old[j] = components.getComponent(names[j]);
 
         for (int i = 0; i < cv.length; ++i) {
-            cv[i].setPressure(field.cv[i].getPressure());
-            cv[i].setReferencePressure(field.cv[i].getReferencePressure());
-            cv[i].setTemperature(field.cv[i].getTemperature());
-
-            Composition Nnew = cv[i].getComposition();
-            Composition Nold = field.cv[i].getComposition();
-            Components old = field.getComponents();
-            for (Component nu : old)
-                Nnew.setMoles(components.getComponent(nu.name()), Nold
-                        .getMoles(nu));
+            cv[i].setPressure(restart.getPressure(i));
+            cv[i].setReferencePressure(restart.getReferencePressure(i));
+            cv[i].setTemperature(restart.getTemperature(i));
+
+            Composition N = cv[i].getComposition();
+            for (int j = 0; j < old.length; ++j)
+                N.setMoles(old[j], restart.getMoles(i, j));
         }
     }
 
@@ -397,7 +426,7 @@ public class Field implements Serializable, Comparable<Field> {
         int i = el.index;
         double dz = (el.center.z() - init.getDatumDepth());
 
-        cv[i].calculateSecondaries();
+        calculateSecondaries(i, i + 1, work[0]);
 
         Composition N = cv[i].getComposition();
 
@@ -434,7 +463,7 @@ public class Field implements Serializable, Comparable<Field> {
             cv[i].setPressure(p);
             cv[i].setReferencePressure(p);
 
-            cv[i].calculateSecondaries();
+            calculateSecondaries(i, i + 1, work[0]);
 
             iters++;
 
@@ -460,6 +489,13 @@ public class Field implements Serializable, Comparable<Field> {
         return components;
     }
 
+    /**
+     * Gets the equation of state. It is shared by all the worker threads
+     */
+    public EquationOfState getEquationOfState() {
+        return work[0].eos;
+    }
+
     /**
      * Gets the control volume for the given element
      */
@@ -467,6 +503,14 @@ public class Field implements Serializable, Comparable<Field> {
         return cv[el.index];
     }
 
+    /**
+     * Gets the numerical state of all the control volumes. It is shared with
+     * the control volumes, and is updated along with them
+     */
+    public CVState getState() {
+        return state;
+    }
+
     /**
      * Gets the control surface for the given connection
      */
@@ -481,18 +525,38 @@ public class Field implements Serializable, Comparable<Field> {
         return sources;
     }
 
+    /**
+     * Sets the worker threads used for calculating the secondary variables.
+     * Each thread is given its own workspace
+     */
+    public void setParallel(Parallel parallel) {
+        CV.Workspace[] copies = new CV.Workspace[parallel.numThreads()];
+        copies[0] = work[0];
+        for (int i = 1; i < copies.length; ++i)
+            copies[i] = new CV.Workspace(work[0].eos);
+
+        this.parallel = parallel;
+        this.work = copies;
+    }
+
     /**
      * Calculates all secondary variables in both the control volumes, on the
      * control surfaces, and in the sources
      */
     public void calculateSecondaries() {
         // Perform flash calculations and find new rock/fluid parameters
-        for (CV CV : cv)
-            CV.calculateSecondaries();
+        if (parallel != null)
+            parallel.execute(cv.length, new Parallel.Range() {
+                public void run(int range, int begin, int end) {
+                    calculateSecondaries(begin, end, work[range]);
+                }
+            });
+        else
+            calculateSecondaries(0, cv.length, work[0]);
 
         // Calculate Darcy fluxes
         for (CS CS : cs)
-            CS.calculateSecondaries(cv, mesh);
+            CS.calculateSecondaries(state, mesh);
 
         // Update outlet sources
         for (Source q : sources)
@@ -500,6 +564,18 @@ public class Field implements Serializable, Comparable<Field> {
                 ((OutletSource) q).update(cv, mesh);
     }
 
+    /**
+     * Calculates the secondary variables of a block of control volumes. The
+     * phase states of the whole block are calculated first
+     */
+    private void calculateSecondaries(int begin, int end, CV.Workspace work) {
+        work.eos.calculatePhaseStates(begin, end, state.p, state.T, state.N,
+                state.NT, state.phases);
+
+        for (int i = begin; i < end; ++i)
+            cv[i].calculateSecondaries(work);
+    }
+
     /**
      * Gets field time
      * 
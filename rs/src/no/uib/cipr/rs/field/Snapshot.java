@@ -0,0 +1,337 @@
+package no.uib.cipr.rs.field;
+
+import java.io.File;
+import java.io.IOException;
+
+import no.uib.cipr.rs.fluid.Component;
+import no.uib.cipr.rs.fluid.Components;
+import no.uib.cipr.rs.fluid.Phase;
+import no.uib.cipr.rs.geometry.Connection;
+import no.uib.cipr.rs.geometry.Mesh;
+import no.uib.cipr.rs.util.ArrayOutput;
+import no.uib.cipr.rs.util.MappedInput;
+
+/**
+ * Copy of the reported field state, stored column by column. This is what is
+ * saved in the restart and report files. The primary variables are enough to
+ * restart a run, while the secondary variables are kept for the output
+ * filters. Phase quantities are stored as in {@link CVState}.
+ */
+public class Snapshot {
+
+    /**
+     * Identifies the file format ("RSFS")
+     */
+    private static final int MAGIC = 0x52534653;
+
+    /**
+     * Incremented on incompatible changes to the format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Number of integers in the file header
+     */
+    private static final int HEADER = 5;
+
+    private double t;
+
+    private int numElements, numConnections;
+
+    private String[] names;
+
+    /**
+     * Oil pressure, reference pressure, temperature, total moles, residual
+     * volume and capillary pressures
+     */
+    private double[] p, p0, T, NT, R, pcow, pcgo;
+
+    /**
+     * Component moles. Indexed element by element, with the components
+     * innermost
+     */
+    private double[] N;
+
+    /**
+     * Saturations, phase mobilities and phase molar densities
+     */
+    private double[] S, lambda, xi;
+
+    /**
+     * Darcy phase fluxes, for each connection
+     */
+    private double[] u;
+
+    /**
+     * Creates an empty snapshot, to be filled by {@link #copy(Field)}
+     */
+    public Snapshot() {
+        names = new String[0];
+        allocate(0, 0);
+    }
+
+    private void allocate(int numElements, int numConnections) {
+        int numComponents = names.length;
+
+        this.numElements = numElements;
+        this.numConnections = numConnections;
+
+        p = new double[numElements];
+        p0 = new double[numElements];
+        T = new double[numElements];
+        NT = new double[numElements];
+        R = new double[numElements];
+        pcow = new double[numElements];
+        pcgo = new double[numElements];
+        N = new double[numElements * numComponents];
+        S = new double[3 * numElements];
+        lambda = new double[3 * numElements];
+        xi = new double[3 * numElements];
+        u = new double[3 * numConnections];
+    }
+
+    /**
+     * Copies the current state of the field. The storage is reused if the
+     * field is of the same size as before
+     */
+    public void copy(Field field) {
+        Mesh mesh = field.getMesh();
+        CVState state = field.getState();
+        Components components = field.getComponents();
+
+        if (mesh.elements.length != numElements
+                || mesh.connections.length != numConnections
+                || components.numComponents() != names.length) {
+            names = new String[components.numComponents()];
+            for (Component nu : components)
+                names[nu.index()] = nu.name();
+            allocate(mesh.elements.length, mesh.connections.length);
+        }
+
+        t = field.getTime();
+
+        System.arraycopy(state.p, 0, p, 0, numElements);
+        System.arraycopy(state.p0, 0, p0, 0, numElements);
+        System.arraycopy(state.T, 0, T, 0, numElements);
+        System.arraycopy(state.R, 0, R, 0, numElements);
+        System.arraycopy(state.pcow, 0, pcow, 0, numElements);
+        System.arraycopy(state.pcgo, 0, pcgo, 0, numElements);
+        System.arraycopy(state.NT, 0, NT, 0, numElements);
+        System.arraycopy(state.N, 0, N, 0, N.length);
+        System.arraycopy(state.S, 0, S, 0, S.length);
+        System.arraycopy(state.lambda, 0, lambda, 0, lambda.length);
+        System.arraycopy(state.phases.xi, 0, xi, 0, xi.length);
+
+        for (Connection c : mesh.connections) {
+            CS cs = field.getControlSurface(c);
+            for (Phase phase : Phase.all())
+                u[CVState.phase(c.index, phase)] = cs.getDarcyFlux(phase);
+        }
+    }
+
+    /**
+     * Writes the snapshot to the given file
+     */
+    public void write(File file) throws IOException {
+        ArrayOutput out = new ArrayOutput(file);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numElements);
+            out.writeInt(names.length);
+            out.writeInt(numConnections);
+            out.writeDouble(t);
+            out.writeStrings(names);
+
+            for (double[] column : new double[][] { p, p0, T, NT, R, pcow,
+                    pcgo, N, S, lambda, xi, u })
+                out.writeDoubles(column);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(File)}
+     *
+     * @throws IOException
+     *                 If the file is not a snapshot, or is truncated
+     */
+    public static Snapshot read(File file) throws IOException {
+        MappedInput in = new MappedInput(file);
+        try {
+            int[] header = in.readInts(HEADER);
+            if (header[0] != MAGIC)
+                throw new IOException("Not a field snapshot");
+            if (header[1] != VERSION)
+                throw new IOException("Unsupported snapshot version "
+                        + header[1] + ", expected " + VERSION);
+
+            Snapshot snapshot = new Snapshot();
+            int n = header[2], nc = header[3], m = header[4];
+
+            snapshot.t = in.readDoubles(1)[0];
+            snapshot.names = in.readStrings(nc);
+            snapshot.numElements = n;
+            snapshot.numConnections = m;
+
+            snapshot.p = in.readDoubles(n);
+            snapshot.p0 = in.readDoubles(n);
+            snapshot.T = in.readDoubles(n);
+            snapshot.NT = in.readDoubles(n);
+            snapshot.R = in.readDoubles(n);
+            snapshot.pcow = in.readDoubles(n);
+            snapshot.pcgo = in.readDoubles(n);
+            snapshot.N = in.readDoubles(n * nc);
+            snapshot.S = in.readDoubles(3 * n);
+            snapshot.lambda = in.readDoubles(3 * n);
+            snapshot.xi = in.readDoubles(3 * n);
+            snapshot.u = in.readDoubles(3 * m);
+
+            return snapshot;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Gets the field time
+     *
+     * @return [s]
+     */
+    public double getTime() {
+        return t;
+    }
+
+    /**
+     * Gets the number of control volumes
+     */
+    public int numElements() {
+        return numElements;
+    }
+
+    /**
+     * Gets the names of the components, in index order
+     */
+    public String[] getComponentNames() {
+        return names.clone();
+    }
+
+    /**
+     * Gets the oil phase pressure
+     *
+     * @return [Pa]
+     */
+    public double getPressure(int i) {
+        return p[i];
+    }
+
+    /**
+     * Gets the reference pressure used in compaction
+     *
+     * @return [Pa]
+     */
+    public double getReferencePressure(int i) {
+        return p0[i];
+    }
+
+    /**
+     * Gets a phase pressure, taking capillary pressures into account
+     *
+     * @return [Pa]
+     */
+    public double getPhasePressure(int i, Phase phase) {
+        switch (phase) {
+        case WATER:
+            return p[i] - pcow[i];
+        case OIL:
+            return p[i];
+        case GAS:
+            return p[i] + pcgo[i];
+        default:
+            throw new RuntimeException();
+        }
+    }
+
+    /**
+     * Gets the temperature
+     *
+     * @return [K]
+     */
+    public double getTemperature(int i) {
+        return T[i];
+    }
+
+    /**
+     * Gets the total number of moles
+     *
+     * @return [mol]
+     */
+    public double getMoles(int i) {
+        return NT[i];
+    }
+
+    /**
+     * Gets the moles of the component with the given index
+     *
+     * @return [mol]
+     */
+    public double getMoles(int i, int nu) {
+        return N[i * names.length + nu];
+    }
+
+    /**
+     * Gets the mole fraction of the component with the given index. If there
+     * are no moles, 0 is returned
+     *
+     * @return [-]
+     */
+    public double getMoleFraction(int i, int nu) {
+        return NT[i] > 0 ? getMoles(i, nu) / NT[i] : 0;
+    }
+
+    /**
+     * Gets the saturation of a phase
+     *
+     * @return [-]
+     */
+    public double getSaturation(int i, Phase phase) {
+        return S[CVState.phase(i, phase)];
+    }
+
+    /**
+     * Gets the phase mobility
+     *
+     * @return [1/(Pa*s)]
+     */
+    public double getPhaseMobility(int i, Phase phase) {
+        return lambda[CVState.phase(i, phase)];
+    }
+
+    /**
+     * Gets the molar density of a phase
+     *
+     * @return [mol/m^3]
+     */
+    public double getMolarDensity(int i, Phase phase) {
+        return xi[CVState.phase(i, phase)];
+    }
+
+    /**
+     * Gets the residual volume
+     *
+     * @return [m^3]
+     */
+    public double getResidualVolume(int i) {
+        return R[i];
+    }
+
+    /**
+     * Gets the surface integrated Darcy phase flux of a connection
+     *
+     * @return [m^3/s]
+     */
+    public double getDarcyFlux(int c, Phase phase) {
+        return u[CVState.phase(c, phase)];
+    }
+}
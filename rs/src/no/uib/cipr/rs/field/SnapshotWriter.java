@@ -0,0 +1,119 @@
+package no.uib.cipr.rs.field;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes field snapshots on a background thread, so that the timestepping can
+ * continue while a report is saved. The field is copied into one of two
+ * snapshot buffers, which are used in turn. A buffer is only reused once its
+ * previous write is done, so at most one report is copied while another is
+ * being written.
+ */
+public class SnapshotWriter {
+
+    /**
+     * The writer thread
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Double buffer of snapshots
+     */
+    private final Snapshot[] buffer = { new Snapshot(), new Snapshot() };
+
+    /**
+     * Pending writes of each buffer. Null if the buffer is free
+     */
+    private final Future<?>[] pending = new Future<?>[buffer.length];
+
+    /**
+     * Buffer to use for the next write
+     */
+    private int next;
+
+    /**
+     * Starts the writer thread
+     */
+    public SnapshotWriter() {
+        // A daemon thread does not keep the program alive after a failure
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SnapshotWriter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Copies the current state of the field, and writes it to the given file
+     * in the background. Blocks only if both buffers are still being written
+     *
+     * @throws IOException
+     *                 If an earlier write from the same buffer failed
+     */
+    public void write(Field field, final File file) throws IOException {
+        final Snapshot snapshot = buffer[next];
+        await(next);
+
+        snapshot.copy(field);
+        pending[next] = executor.submit(new Callable<Object>() {
+            public Object call() throws IOException {
+                snapshot.write(file);
+                return null;
+            }
+        });
+
+        next = (next + 1) % buffer.length;
+    }
+
+    /**
+     * Waits for all pending writes to finish, and stops the writer thread
+     *
+     * @throws IOException
+     *                 If any of the pending writes failed
+     */
+    public void close() throws IOException {
+        try {
+            for (int i = 0; i < buffer.length; ++i)
+                await(i);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the pending write of the given buffer, and rethrows its
+     * failure
+     */
+    private void await(int i) throws IOException {
+        Future<?> future = pending[i];
+        if (future == null)
+            return;
+        pending[i] = null;
+
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            else if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new RuntimeException(cause);
+        }
+    }
+}
@@ -6,7 +6,6 @@ import java.util.Map;
 
 import no.uib.cipr.rs.fluid.Component;
 import no.uib.cipr.rs.fluid.Components;
-import no.uib.cipr.rs.fluid.Composition;
 import no.uib.cipr.rs.fluid.Phase;
 import no.uib.cipr.rs.fluid.PhaseData;
 import no.uib.cipr.rs.fluid.PhaseDataDouble;
@@ -304,11 +303,9 @@ public abstract class Source implements Serializable {
                     double[] qnu = q.get(phase)[map.get(i)];
                     Arrays.fill(qnu, 0);
 
-                    Composition N = CV.getEquationOfStateData(phase)
-                            .getComposition();
                     for (Component nu : components.all()) {
                         int index = nu.index();
-                        double C = N.getMoleFraction(nu);
+                        double C = CV.getMoleFraction(phase, nu);
                         qnu[index] += C * lambda.get(phase) * qt / lambdaT;
                     }
                 }
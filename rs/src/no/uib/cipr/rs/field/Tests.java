@@ -0,0 +1,22 @@
+package no.uib.cipr.rs.field;
+
+import junit.framework.JUnit4TestAdapter;
+import junit.framework.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+/**
+ * Suite containing unit tests for this package. Refer to this suite
+ * in the program over-all Tests class, and let this class refer to
+ * all the individual test classes in the package.
+ */
+@RunWith(Suite.class)
+@Suite.SuiteClasses( {
+    no.uib.cipr.rs.field.test.SnapshotTest.class
+} )
+public class Tests {
+    public Tests() {}
+    public static Test suite() { 
+        return new JUnit4TestAdapter(Tests.class); 
+    }
+}
@@ -0,0 +1,257 @@
+package no.uib.cipr.rs.field.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.TestCase;
+import no.uib.cipr.rs.field.CVState;
+import no.uib.cipr.rs.field.Field;
+import no.uib.cipr.rs.field.Snapshot;
+import no.uib.cipr.rs.field.SnapshotWriter;
+import no.uib.cipr.rs.fluid.Component;
+import no.uib.cipr.rs.fluid.Components;
+import no.uib.cipr.rs.fluid.Composition;
+import no.uib.cipr.rs.geometry.Connection;
+import no.uib.cipr.rs.geometry.Mesh;
+import no.uib.cipr.rs.geometry.flux.AbsolutePermeability;
+import no.uib.cipr.rs.geometry.flux.Transmissibility;
+import no.uib.cipr.rs.geometry.flux.TransmissibilityComputer;
+import no.uib.cipr.rs.meshgen.MeshGenerator;
+import no.uib.cipr.rs.util.Configuration;
+
+/**
+ * Writes a snapshot of a small field, restarts a field from it, and compares
+ * their states. Also checks that failed writes are reported
+ */
+public class SnapshotTest extends TestCase {
+
+    /**
+     * Component names of the original field
+     */
+    private static final String[] NAMES = { "H2O", "C1", "C10" };
+
+    private Mesh mesh;
+
+    private Field field;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        File config = File.createTempFile("mesh", null);
+        try {
+            PrintWriter out = new PrintWriter(config);
+            out.println("begin MeshGenerator");
+            out.println("  type StructuredMeshGenerator");
+            out.println("  dimension 2");
+            out.println("  begin Geometry");
+            out.println("    X0 0.0  Y0 0.0");
+            out.println("    array Nx 3 end  array Dx 10.0 end");
+            out.println("    array Ny 2 end  array Dy 10.0 end");
+            out.println("    RegionMappingType uniform");
+            out.println("  end");
+            out.println("  begin RockRegionMap array Rock 1 end end");
+            out.println("  begin RockData");
+            out.println("    type Global");
+            out.println("    array poro 0.2 end");
+            out.println("    array permx 1e-12 end");
+            out.println("    array permy 1e-12 end");
+            out.println("    array permz 1e-12 end");
+            out.println("  end");
+            out.println("end");
+            out.println("begin TransmissibilityMethod type O_MPFA end");
+            out.close();
+
+            Configuration configuration = new Configuration(config.getPath());
+            mesh = MeshGenerator.generate(configuration);
+
+            TransmissibilityComputer tc = TransmissibilityComputer
+                    .create(configuration);
+            List<? extends Collection<Transmissibility>> M = tc
+                    .calculateTransmissibilities(mesh,
+                            new AbsolutePermeability());
+            for (Connection c : mesh.neighbourConnections())
+                c.setDarcyTransmissibilities(M.get(c.index));
+        } finally {
+            config.delete();
+        }
+
+        field = new Field(configuration(NAMES), mesh, false);
+
+        // Give each control volume its own state, at a later time
+        int n = mesh.elements.length;
+        double[] p = new double[n], T = new double[n];
+        Composition[] N = new Composition[n];
+        Components components = field.getComponents();
+        for (int i = 0; i < n; ++i) {
+            p[i] = 1e+7 * (1 + 0.1 * i);
+            T[i] = 350 + 5 * i;
+            N[i] = new Composition(components);
+            N[i].setMoles(components.getComponent("H2O"), 1 + i);
+            N[i].setMoles(components.getComponent("C1"), 0.5 * (i % 3));
+            N[i].setMoles(components.getComponent("C10"), 2);
+        }
+        field.retract(3600, p, T, N);
+
+        file = File.createTempFile("snapshot", null);
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Configuration of the field, with the components in the given order
+     */
+    private static Configuration configuration(String[] names)
+            throws IOException {
+        File file = File.createTempFile("run", null);
+        try {
+            PrintWriter out = new PrintWriter(file);
+            out.println("begin Components");
+            for (String name : names)
+                out.println("  begin " + name + " end");
+            out.println("end");
+            out.println("begin EquationOfState");
+            out.println("  type CubicEquationOfState");
+            out.println("  begin WaterMolarDensity type ConstantValue "
+                    + "value 55000 end");
+            out.println("  begin WaterViscosity type ConstantValue "
+                    + "value 1e-3 end");
+            out.println("end");
+            out.println("begin InitialValues");
+            out.println("  DatumDepth 0  DatumPressure 1e+7");
+            out.println("  Temperature 350  H2O 1  C1 1  C10 2");
+            out.println("end");
+            out.println("begin RockFluid begin Rock end end");
+            out.close();
+
+            return new Configuration(file.getPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testRestart() throws IOException {
+        compare(restart(NAMES));
+    }
+
+    /**
+     * Restarts with an extra component, which shifts the indices of the
+     * others, so they must be matched by name. The new component is left
+     * without moles
+     */
+    public void testRestartExtraComponent() throws IOException {
+        Field restart = restart(new String[] { "H2O", "C1", "C3", "C10" });
+        compare(restart);
+
+        CVState a = restart.getState();
+        Component C3 = restart.getComponents().getComponent("C3");
+        for (int i = 0; i < a.numElements; ++i)
+            assertEquals(0., a.N[a.component(i, C3)]);
+    }
+
+    /**
+     * Compares the state of a restarted field with that of the original. The
+     * primary variables must be restored exactly, while the secondaries are
+     * recalculated by flashes which iterate to a tolerance from other starting
+     * points
+     */
+    private void compare(Field restart) {
+        CVState e = field.getState(), a = restart.getState();
+
+        assertEquals(e.p, a.p, 0);
+        assertEquals(e.p0, a.p0, 0);
+        assertEquals(e.T, a.T, 0);
+        for (Component nu : field.getComponents()) {
+            Component mu = restart.getComponents().getComponent(nu.name());
+            for (int i = 0; i < e.numElements; ++i)
+                assertEquals(e.N[e.component(i, nu)], a.N[a.component(i, mu)],
+                        0);
+        }
+
+        assertEquals(e.NT, a.NT, 1e-8);
+        assertEquals(e.S, a.S, 1e-8);
+        assertEquals(e.lambda, a.lambda, 1e-8);
+        assertEquals(e.phases.xi, a.phases.xi, 1e-8);
+        assertEquals(e.R, a.R, 1e-8);
+        assertEquals(e.pcow, a.pcow, 1e-8);
+        assertEquals(e.pcgo, a.pcgo, 1e-8);
+    }
+
+    /**
+     * Writes the field in the background, reads the snapshot back, and
+     * restarts a field with the given components from it
+     */
+    private Field restart(String[] names) throws IOException {
+        SnapshotWriter writer = new SnapshotWriter();
+        writer.write(field, file);
+        writer.close();
+
+        Snapshot snapshot = Snapshot.read(file);
+        assertEquals(field.getTime(), snapshot.getTime(), 0);
+
+        Field restart = new Field(snapshot, configuration(names), mesh, false);
+        assertEquals(field.getTime(), restart.getTime(), 0);
+        return restart;
+    }
+
+    /**
+     * A failed write is reported when its buffer is next used
+     */
+    public void testFailedWriteOnReuse() throws IOException {
+        SnapshotWriter writer = new SnapshotWriter();
+        writer.write(field, missing());
+        writer.write(field, file);
+        try {
+            writer.write(field, file);
+            fail("The failed write was not reported");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // The failure is only reported once
+        writer.close();
+    }
+
+    /**
+     * A failed write is reported when the writer is closed
+     */
+    public void testFailedWriteOnClose() throws IOException {
+        SnapshotWriter writer = new SnapshotWriter();
+        writer.write(field, missing());
+        try {
+            writer.close();
+            fail("The failed write was not reported");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * A file in a directory which does not exist
+     */
+    private File missing() {
+        return new File(new File(file.getPath() + ".missing"), "snapshot");
+    }
+
+    /**
+     * Compares arrays within a tolerance relative to the largest magnitude of
+     * the expected values
+     */
+    private static void assertEquals(double[] expected, double[] actual,
+            double tolerance) {
+        assertEquals(expected.length, actual.length);
+
+        double scale = 0;
+        for (double value : expected)
+            scale = Math.max(scale, Math.abs(value));
+
+        for (int i = 0; i < expected.length; ++i)
+            assertEquals(expected[i], actual[i], tolerance * scale);
+    }
+}
@@ -196,7 +196,7 @@ public class BlackOilEquationOfState extends WaterEquationOfState {
             double Zo = No / NHC, Zg = Ng / NHC;
 
             // Single-phase oil
-            if (Zg <= (Cb = bubblePoint.get(p, T))) {
+            if (Zg <= (Cb = bubblePoint.get2(p, T))) {
                 oil.setPresent();
                 gas.setNotPresent();
 
@@ -204,7 +204,7 @@ public class BlackOilEquationOfState extends WaterEquationOfState {
             }
 
             // Single-phase gas
-            else if (Zo <= (Cd = dewPoint.get(p, T))) {
+            else if (Zo <= (Cd = dewPoint.get2(p, T))) {
                 oil.setNotPresent();
                 gas.setPresent();
 
@@ -236,7 +236,7 @@ public class BlackOilEquationOfState extends WaterEquationOfState {
 
         double NHC = No + Ng;
         double Cgo = Ng / NHC;
-        double xio = oilMolarDensity.get(p, Cgo, T);
+        double xio = oilMolarDensity.get3(p, Cgo, T);
         double Vo = (No + Ng) / xio;
 
         oil.setMolarDensity(xio);
@@ -291,7 +291,7 @@ public class BlackOilEquationOfState extends WaterEquationOfState {
 
         double NHC = No + Ng;
         double Cog = No / NHC;
-        double xig = gasMolarDensity.get(p, Cog, T);
+        double xig = gasMolarDensity.get3(p, Cog, T);
         double Vg = (No + Ng) / xig;
 
         gas.setMolarDensity(xig);
@@ -358,8 +358,8 @@ public class BlackOilEquationOfState extends WaterEquationOfState {
          * Volume and density
          */
 
-        double xio = oilMolarDensity.get(p, Cgo, T);
-        double xig = gasMolarDensity.get(p, Cog, T);
+        double xio = oilMolarDensity.get3(p, Cgo, T);
+        double xig = gasMolarDensity.get3(p, Cog, T);
 
         double Vo = (Noo + Ngo) / xio;
         double Vg = (Nog + Ngg) / xig;
@@ -513,7 +513,7 @@ public class BlackOilEquationOfState extends WaterEquationOfState {
             EquationOfStateData eos) {
 
         // Enthalpy density
-        double hbar = enthalpy.get(p, C, T);
+        double hbar = enthalpy.get3(p, C, T);
         eos.setEnthalpyDensity(hbar * xi);
 
         double dhbar_dT = enthalpy.deriv(2, p, C, T);
@@ -532,7 +532,7 @@ public class BlackOilEquationOfState extends WaterEquationOfState {
      */
     private void calculateViscosity(double p, double T, double C,
             Function viscosity, EquationOfStateData eos) {
-        double mu = viscosity.get(p, C, T);
+        double mu = viscosity.get3(p, C, T);
         eos.setViscosity(mu);
     }
 
@@ -6,7 +6,9 @@ import java.util.Arrays;
 import no.uib.cipr.rs.util.Configuration;
 
 /**
- * Holds a chemical composition
+ * Holds a chemical composition. The mole numbers may be stored in arrays
+ * shared with other compositions, in which case the composition is a view of
+ * one slice of them
  */
 public class Composition implements Serializable {
 
@@ -18,14 +20,16 @@ public class Composition implements Serializable {
     private final Components components;
 
     /**
-     * Number of moles of each component. [mol]
+     * Number of moles of each component, starting at the offset. [mol]
      */
-    private double[] N;
+    private final double[] N;
 
     /**
-     * Total number of moles. [mol]
+     * Total number of moles, at the given index. [mol]
      */
-    private double NT;
+    private final double[] NT;
+
+    private int offset, total;
 
     /**
      * Reads in a composition from the given configuration
@@ -36,8 +40,7 @@ public class Composition implements Serializable {
      *            Component database
      */
     public Composition(Configuration config, Components components) {
-        this.components = components;
-        N = new double[components.numComponents()];
+        this(components);
         for (Component nu : components.all())
             setMoles(nu, config.getDouble(nu.name(), 0));
     }
@@ -49,8 +52,36 @@ public class Composition implements Serializable {
      *            Components data base
      */
     public Composition(Components components) {
+        this(components, new double[components.numComponents()],
+                new double[1], 0);
+    }
+
+    /**
+     * Sets up a view of a composition stored in shared arrays
+     * 
+     * @param components
+     *            Components data base
+     * @param N
+     *            Mole numbers, with the components of each composition
+     *            consecutive
+     * @param NT
+     *            Total mole numbers of each composition
+     * @param i
+     *            Index of the composition in the arrays
+     */
+    public Composition(Components components, double[] N, double[] NT, int i) {
         this.components = components;
-        N = new double[components.numComponents()];
+        this.N = N;
+        this.NT = NT;
+        moveTo(i);
+    }
+
+    /**
+     * Moves the view to another composition in the shared arrays
+     */
+    void moveTo(int i) {
+        offset = i * components.numComponents();
+        total = i;
     }
 
     /**
@@ -62,8 +93,8 @@ public class Composition implements Serializable {
      *            Number of moles
      */
     public void setMoles(Component nu, double N) {
-        int index = nu.index();
-        NT += N - this.N[index];
+        int index = offset + nu.index();
+        NT[total] += N - this.N[index];
         this.N[index] = N;
     }
 
@@ -76,8 +107,8 @@ public class Composition implements Serializable {
      *            Number of moles to add
      */
     public void addMoles(Component nu, double N) {
-        NT += N;
-        this.N[nu.index()] += N;
+        NT[total] += N;
+        this.N[offset + nu.index()] += N;
     }
 
     /**
@@ -88,7 +119,7 @@ public class Composition implements Serializable {
      * @return Number of moles
      */
     public double getMoles(Component nu) {
-        return N[nu.index()];
+        return N[offset + nu.index()];
     }
 
     /**
@@ -100,8 +131,9 @@ public class Composition implements Serializable {
      * @return Component mole fraction
      */
     public double getMoleFraction(Component nu) {
+        double NT = this.NT[total];
         if (NT > 0)
-            return N[nu.index()] / NT;
+            return N[offset + nu.index()] / NT;
         else
             return 0;
     }
@@ -112,30 +144,31 @@ public class Composition implements Serializable {
      * @return Total mole number
      */
     public double getMoles() {
-        return NT;
+        return NT[total];
     }
 
     /**
      * Sets this composition equal the given composition
      */
     public void set(Composition composition) {
-        System.arraycopy(composition.N, 0, N, 0, N.length);
-        NT = composition.getMoles();
+        System.arraycopy(composition.N, composition.offset, N, offset,
+                numComponents());
+        NT[total] = composition.getMoles();
     }
 
     /**
      * Zeros the composition
      */
     public void zero() {
-        Arrays.fill(N, 0);
-        NT = 0;
+        Arrays.fill(N, offset, offset + numComponents(), 0);
+        NT[total] = 0;
     }
 
     /**
      * Number of components
      */
     public int numComponents() {
-        return N.length;
+        return components.numComponents();
     }
 
     @Override
@@ -143,7 +176,7 @@ public class Composition implements Serializable {
         StringBuilder string = new StringBuilder();
 
         for (Component c : components)
-            string.append(String.format("%-12s%15g\n", c, N[c.index()]));
+            string.append(String.format("%-12s%15g\n", c, getMoles(c)));
 
         return string.toString();
     }
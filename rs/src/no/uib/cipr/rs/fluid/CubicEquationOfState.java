@@ -1,6 +1,10 @@
 package no.uib.cipr.rs.fluid;
 
 import static no.uib.cipr.rs.util.Constants.R;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import no.uib.cipr.matrix.DenseLU;
 import no.uib.cipr.matrix.DenseMatrix;
 import no.uib.cipr.matrix.DenseVector;
@@ -9,7 +13,9 @@ import no.uib.cipr.rs.util.Configuration;
 import no.uib.cipr.rs.util.CubicEquation;
 
 /**
- * Cubic equation of state for an oil/gas mixture
+ * Cubic equation of state for an oil/gas mixture. The component data is shared
+ * by all threads, while the flash and phase calculations use a workspace
+ * private to each thread, so one instance may be used concurrently.
  */
 public class CubicEquationOfState extends WaterEquationOfState {
 
@@ -87,19 +93,47 @@ public class CubicEquationOfState extends WaterEquationOfState {
     final EOS eos;
 
     /**
-     * Parameters for all the components
+     * Switching criteria between sucessive substitution and Newton-Raphson in
+     * the flash [Pa]
+     */
+    private final double criteria;
+
+    /**
+     * Convergence tolerance of the flash [Pa]
+     */
+    private final double tolerance;
+
+    /**
+     * Prints some debugging information during the flash
+     */
+    private final boolean verbose;
+
+    /**
+     * Start the flash of a cell from the K-values cached by its last flash
+     */
+    private final boolean cache;
+
+    /**
+     * Cached K-values are only used to skip the stability test of a single
+     * phase cell if they give a Rachford-Rice residual of at least this
      */
-    final ComponentParameters componentParameters;
+    private final double stabilityMargin;
 
     /**
-     * Parameters for the oil and gas phases
+     * Tabulated phase splits shared by all cells, or null if not used
      */
-    final PhaseParameters oilParameters, gasParameters;
+    private final FlashTable table;
 
     /**
-     * Flash algorithm
+     * Scratch space of the flash and phase calculations, one for each thread
+     * using this equation of state. The component data is shared
      */
-    private final Flash flash;
+    private final ThreadLocal<Workspace> workspace;
+
+    /**
+     * All the workspaces created, for summing up the flash statistics
+     */
+    private final List<Workspace> workspaces = new ArrayList<Workspace>();
 
     /**
      * Viscosity calculation
@@ -132,15 +166,26 @@ public class CubicEquationOfState extends WaterEquationOfState {
         System.out.println(config.trace() + "Using " + eos
                 + " cubic equation of state");
 
-        componentParameters = new ComponentParameters();
-        oilParameters = new PhaseParameters(Phase.OIL);
-        gasParameters = new PhaseParameters(Phase.GAS);
-
         /*
          * Flash algorithm
          */
 
-        flash = new Flash(config);
+        criteria = config.getDouble("FlashSwitchingCriteria", 1e+4);
+        tolerance = config.getDouble("FlashTolerance", 1e-1);
+        verbose = config.getBoolean("FlashVerbose", false);
+        cache = config.getBoolean("FlashCache", true);
+        stabilityMargin = config.getDouble("FlashStabilityMargin", 0.1);
+
+        if (tolerance <= 0)
+            throw new IllegalArgumentException(config.trace()
+                    + "FlashTolerance must be positive");
+
+        if (stabilityMargin < 0)
+            throw new IllegalArgumentException(config.trace()
+                    + "FlashStabilityMargin cannot be negative");
+
+        table = config.getBoolean("FlashTable", false) ? new FlashTable(
+                config, components) : null;
 
         /*
          * Read EOS specific component data
@@ -153,6 +198,52 @@ public class CubicEquationOfState extends WaterEquationOfState {
          */
 
         viscosity = new HydrocarbonViscosity(config);
+
+        workspace = new ThreadLocal<Workspace>() {
+            @Override
+            protected Workspace initialValue() {
+                Workspace work = new Workspace();
+                synchronized (workspaces) {
+                    workspaces.add(work);
+                }
+                return work;
+            }
+        };
+    }
+
+    /**
+     * Scratch space for the flash and phase calculations
+     */
+    private class Workspace {
+
+        /**
+         * Parameters for all the components
+         */
+        final ComponentParameters componentParameters;
+
+        /**
+         * Parameters for the oil and gas phases
+         */
+        final PhaseParameters oilParameters, gasParameters;
+
+        /**
+         * Flash algorithm
+         */
+        final Flash flash;
+
+        /**
+         * Temperature of the current component parameters. They are only
+         * recalculated when it changes, which is seldom from one cell to the
+         * next
+         */
+        double T = Double.NaN;
+
+        Workspace() {
+            componentParameters = new ComponentParameters();
+            oilParameters = new PhaseParameters(Phase.OIL, componentParameters);
+            gasParameters = new PhaseParameters(Phase.GAS, componentParameters);
+            flash = new Flash(oilParameters, gasParameters);
+        }
     }
 
     /**
@@ -187,6 +278,38 @@ public class CubicEquationOfState extends WaterEquationOfState {
     @Override
     public void calculatePhaseState(double p, Composition N, double T,
             PhaseData<EquationOfStateData> data) {
+        calculatePhaseState(p, N, T, data, null, 0);
+    }
+
+    /**
+     * Flashes the cells one by one. Each flash may start from the K-values
+     * cached by the last flash of the same cell
+     */
+    @Override
+    public void calculatePhaseStates(int begin, int end, double[] p,
+            double[] T, double[] N, double[] NT, PhaseStates states) {
+        Composition Ni = new Composition(components, N, NT, begin);
+        PhaseData<EquationOfStateData> data = states.view();
+        PhaseStates cached = cache ? states : null;
+
+        for (int i = begin; i < end; ++i) {
+            Ni.moveTo(i);
+            PhaseStates.moveTo(data, i);
+            calculatePhaseState(p[i], Ni, T[i], data, cached, i);
+        }
+    }
+
+    /**
+     * Calculates the phase states of a cell
+     * 
+     * @param cache
+     *            Holds the cached K-values of the cell. Null if they are not
+     *            used
+     * @param cell
+     *            Index of the cell in the cache
+     */
+    private void calculatePhaseState(double p, Composition N, double T,
+            PhaseData<EquationOfStateData> data, PhaseStates cache, int cell) {
 
         /*
          * Calculate the properties of the water phase
@@ -201,12 +324,19 @@ public class CubicEquationOfState extends WaterEquationOfState {
         EquationOfStateData oilEosData = data.oil;
         EquationOfStateData gasEosData = data.gas;
 
+        Workspace work = workspace.get();
+        PhaseParameters oilParameters = work.oilParameters;
+        PhaseParameters gasParameters = work.gasParameters;
+
         Composition oil = oilEosData.getComposition();
         Composition gas = gasEosData.getComposition();
 
-        componentParameters.update(T);
+        if (T != work.T) {
+            work.componentParameters.update(T);
+            work.T = T;
+        }
 
-        flash.flash(p, T, N, oil, gas);
+        work.flash.flash(p, T, N, oil, gas, cache, cell);
 
         // Due to round-offs, globally non-present components may appear in the
         // oil and gas phases
@@ -234,7 +364,8 @@ public class CubicEquationOfState extends WaterEquationOfState {
 
         // The derivatives
         if (oilPresent && gasPresent)
-            calculateVolumeDerivativesTwoPhase(p, T, N, oilEosData, gasEosData);
+            calculateVolumeDerivativesTwoPhase(p, T, N, oilEosData, gasEosData,
+                    work);
         else if (oilPresent)
             calculateVolumeDerivativesSinglePhase(p, T, oilParameters,
                     oilEosData);
@@ -265,6 +396,46 @@ public class CubicEquationOfState extends WaterEquationOfState {
         // TODO
     }
 
+    /**
+     * Sums up the flashes of all the threads
+     */
+    @Override
+    public String getStatistics() {
+        long flashes = 0, wilson = 0, cached = 0, tieLine = 0, warm = 0;
+        long substitution = 0, newton = 0;
+        long singleHits = 0, tieLineHits = 0, lookups = 0;
+        synchronized (workspaces) {
+            for (Workspace work : workspaces) {
+                singleHits += work.flash.tableSingleHits;
+                tieLineHits += work.flash.tableTieLineHits;
+                lookups += work.flash.tableLookups;
+                flashes += work.flash.flashes;
+                wilson += work.flash.wilsonStarts;
+                cached += work.flash.cachedStarts;
+                tieLine += work.flash.tieLineStarts;
+                warm += work.flash.warmStarts;
+                substitution += work.flash.substitutionSteps;
+                newton += work.flash.newtonSteps;
+            }
+        }
+
+        String format = "\t  %-40s%12d\n";
+        return String.format("\n\t%d hydrocarbon flashes, started from\n",
+                flashes)
+                + String.format(format, "Wilson's K-values", wilson)
+                + String.format(format, "cached K-values (stability skipped)",
+                        cached)
+                + String.format(format, "last tie-line (shadow region)",
+                        tieLine)
+                + String.format(format, "phase compositions present", warm)
+                + String.format(format, "tabulated K-values", singleHits
+                        + tieLineHits)
+                + String.format("\t%d successive substitution and %d "
+                        + "Newton-Raphson steps\n", substitution, newton)
+                + (table != null ? table.getStatistics(singleHits,
+                        tieLineHits, lookups) : "");
+    }
+
     /**
      * Calculates phase properties and derivatives after a phase-split
      */
@@ -309,7 +480,10 @@ public class CubicEquationOfState extends WaterEquationOfState {
      */
     private void calculateVolumeDerivativesTwoPhase(double p, double T,
             Composition N, EquationOfStateData oilEosData,
-            EquationOfStateData gasEosData) {
+            EquationOfStateData gasEosData, Workspace work) {
+        Flash flash = work.flash;
+        PhaseParameters oilParameters = work.oilParameters;
+        PhaseParameters gasParameters = work.gasParameters;
 
         /*
          * Calculate the molar mass derivatives of the oil phase
@@ -482,8 +656,15 @@ public class CubicEquationOfState extends WaterEquationOfState {
 
         double[][] dfdN;
 
-        public PhaseParameters(Phase phase) {
+        /**
+         * Parameters of the components at the current temperature
+         */
+        private final ComponentParameters componentParameters;
+
+        public PhaseParameters(Phase phase,
+                ComponentParameters componentParameters) {
             this.phase = phase;
+            this.componentParameters = componentParameters;
 
             int num = components.numComponents();
 
@@ -792,51 +973,46 @@ public class CubicEquationOfState extends WaterEquationOfState {
         final double[][] dNodN;
 
         /**
-         * Switching criteria between sucessive substitution and Newton-Raphson
-         * [Pa]
+         * Oil and gas phase parameters, updated during the flash
          */
-        private final double criteria;
+        private final PhaseParameters oilParameters, gasParameters;
 
         /**
-         * Convergence tolerance [Pa]
+         * Number of flashes, and how their K-values were started: from
+         * Wilson's correlation, from cached Wilson K-values, from the last
+         * tie-line of the cell, or from the phase compositions already present
          */
-        private final double tolerance;
+        long flashes, wilsonStarts, cachedStarts, tieLineStarts, warmStarts;
 
         /**
-         * Prints some debugging information
+         * Number of successive substitution and Newton-Raphson steps
          */
-        private final boolean verbose;
+        long substitutionSteps, newtonSteps;
 
         /**
-         * Allocates datastructures for the flash calculations
+         * Number of lookups in the flash table, and how many gave K-values
+         * which skipped the stability test or started a two-phase split
          */
-        public Flash(Configuration config) {
-            int num = components.numComponents();
+        long tableLookups, tableSingleHits, tableTieLineHits;
 
-            C = new double[num];
-            K = new double[num];
-
-            F = new DenseMatrix(num - 1, num - 1);
-            R = new DenseMatrix(num - 1, num + 1); // pressure and temperature
-
-            lu = new DenseLU(num - 1, num - 1);
-            r = new DenseVector(num - 1);
-            x = new DenseVector(num - 1);
-
-            dNodp = new double[num];
-            dNodT = new double[num];
-            dNodN = new double[num][num];
+        /**
+         * Key for looking up the current state in the flash table
+         */
+        private final FlashTable.Key key;
 
-            criteria = config.getDouble("FlashSwitchingCriteria", 1e+4);
-            tolerance = config.getDouble("FlashTolerance", 1e-1);
-            verbose = config.getBoolean("FlashVerbose", false);
+        /**
+         * True if the current flash started from the flash table
+         */
+        private boolean tabulated;
 
-            if (tolerance <= 0)
-                throw new IllegalArgumentException(config.trace()
-                        + "FlashTolerance must be positive");
-        }
+        /**
+         * Allocates datastructures for the flash calculations
+         */
+        public Flash(PhaseParameters oilParameters,
+                PhaseParameters gasParameters) {
+            this.oilParameters = oilParameters;
+            this.gasParameters = gasParameters;
 
-        public Flash(Flash flash) {
             int num = components.numComponents();
 
             C = new double[num];
@@ -853,9 +1029,7 @@ public class CubicEquationOfState extends WaterEquationOfState {
             dNodT = new double[num];
             dNodN = new double[num][num];
 
-            criteria = flash.criteria;
-            tolerance = flash.tolerance;
-            verbose = flash.verbose;
+            key = table != null ? table.createKey() : null;
         }
 
         /**
@@ -867,27 +1041,38 @@ public class CubicEquationOfState extends WaterEquationOfState {
          *                Resulting oil composition
          * @param gas
          *                Resulting gas composition
+         * @param cache
+         *                Cached K-values, updated by the flash. Null if there
+         *                are none
+         * @param cell
+         *                Index into the cache
          */
         public void flash(double p, double T, Composition N, Composition oil,
-                Composition gas) {
+                Composition gas, PhaseStates cache, int cell) {
             setHydrocarbonFractions(N);
+            flashes++;
 
             double residual = Double.MAX_VALUE;
             double L = 0.5;
 
             // Use Wilson's K-value estimate initially, unless both phases are
             // already present, in which K-values are found from fugacities
+            byte start = PhaseStates.NONE;
+            tabulated = false;
             if (oil.getMoles() == 0 || gas.getMoles() == 0)
-                calculateInitialK(p, T);
+                start = setInitialK(p, T, cache, cell);
             else {
                 oilParameters.calculate(p, T, oil);
                 gasParameters.calculate(p, T, gas);
 
                 setK();
                 L = oil.getMoles() / (oil.getMoles() + gas.getMoles());
+                start = PhaseStates.TIE_LINE;
+                warmStarts++;
             }
 
             do {
+
                 if (residual > criteria) {
 
                     /*
@@ -896,6 +1081,7 @@ public class CubicEquationOfState extends WaterEquationOfState {
 
                     if (verbose)
                         System.err.format("%10e (%s)\n", residual, "SS");
+                    substitutionSteps++;
 
                     // Find the liquid mole fraction using K
                     L = solveRachfordRice(L);
@@ -929,6 +1115,7 @@ public class CubicEquationOfState extends WaterEquationOfState {
 
                     if (verbose)
                         System.err.format("%10e (%s)\n", residual, "NR");
+                    newtonSteps++;
 
                     // Perform fugacity linearisation
                     buildJacobian(N);
@@ -970,6 +1157,167 @@ public class CubicEquationOfState extends WaterEquationOfState {
                 }
 
             } while ((residual = calculateResidual()) > tolerance);
+
+            if (cache != null)
+                updateCache(p, T, oil, gas, start, cache, cell);
+
+            // New results are tabulated for nearby states. Repeated single
+            // phase results of a cell are already there
+            if (table != null && !tabulated && start != PhaseStates.SINGLE)
+                tabulate(p, T, oil, gas);
+        }
+
+        /**
+         * Sets the K-values at the start of a flash in which at most one
+         * hydrocarbon phase is present
+         * 
+         * @return The origin of the K-values, if they can be cached for the
+         *         next flash
+         */
+        private byte setInitialK(double p, double T, PhaseStates cache,
+                int cell) {
+            if (cache != null) {
+                byte start = setCachedK(p, T, cache, cell);
+                if (start != PhaseStates.NONE)
+                    return start;
+            }
+
+            if (table != null && setTabulatedK(p, T)) {
+                tabulated = true;
+                return PhaseStates.NONE;
+            }
+
+            calculateInitialK(p, T);
+            wilsonStarts++;
+            return PhaseStates.NONE;
+        }
+
+        /**
+         * Sets the K-values from the cache of the cell, if they are usable
+         * 
+         * @return The origin of the K-values, or none
+         */
+        private byte setCachedK(double p, double T, PhaseStates cache,
+                int cell) {
+            int offset = cell * components.numComponents();
+
+            // Outside the shadow region of the phase boundary, the K-values
+            // which last gave a single phase are reused, scaled inversely
+            // with pressure. If they still clearly give a single phase, the
+            // stability test is not redone
+            if (cache.Ksource[cell] == PhaseStates.SINGLE
+                    && cache.KT[cell] == T) {
+                double scale = cache.Kp[cell] / p;
+                for (Component nu : components.hc()) {
+                    int i = nu.index();
+                    K[i] = cache.K[offset + i] * scale;
+                }
+
+                if (isSinglePhase(stabilityMargin)) {
+                    cachedStarts++;
+                    return PhaseStates.SINGLE;
+                }
+            }
+
+            // Inside the shadow region, start from the last tie-line unless
+            // it gives a single phase
+            else if (cache.Ksource[cell] == PhaseStates.TIE_LINE) {
+                for (Component nu : components.hc()) {
+                    int i = nu.index();
+                    K[i] = cache.K[offset + i];
+                }
+
+                if (!isSinglePhase(0)) {
+                    tieLineStarts++;
+                    return PhaseStates.TIE_LINE;
+                }
+            }
+
+            return PhaseStates.NONE;
+        }
+
+        /**
+         * Sets the K-values from the flash table, using the same criteria as
+         * for the cached K-values of a cell
+         * 
+         * @return True if the tabulated K-values are used
+         */
+        private boolean setTabulatedK(double p, double T) {
+            tableLookups++;
+            key.set(p, T, C);
+            FlashTable.Split split = table.get(key);
+            if (split == null)
+                return false;
+
+            double scale = split.single ? split.p / p : 1;
+            for (Component nu : components.hc()) {
+                int i = nu.index();
+                K[i] = split.K[i] * scale;
+            }
+
+            if (split.single && isSinglePhase(stabilityMargin)) {
+                tableSingleHits++;
+                return true;
+            } else if (!split.single && !isSinglePhase(0)) {
+                tableTieLineHits++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Stores the result of the flash in the flash table
+         */
+        private void tabulate(double p, double T, Composition oil,
+                Composition gas) {
+            boolean single = oil.getMoles() == 0 || gas.getMoles() == 0;
+            if (!single)
+                setK();
+
+            key.set(p, T, C);
+            table.put(key, K, single, p);
+        }
+
+        /**
+         * True if the Rachford-Rice equation has no solution between zero and
+         * one with the current K-values, by more than the given margin
+         */
+        private boolean isSinglePhase(double margin) {
+            return f(0) > margin || f(1) < -margin;
+        }
+
+        /**
+         * Caches the K-values for the next flash of the cell
+         * 
+         * @param start
+         *                The origin of the initial K-values
+         */
+        private void updateCache(double p, double T, Composition oil,
+                Composition gas, byte start, PhaseStates cache, int cell) {
+            int offset = cell * components.numComponents();
+
+            // The converged tie-line
+            if (oil.getMoles() > 0 && gas.getMoles() > 0) {
+                setK();
+                for (Component nu : components.hc()) {
+                    int i = nu.index();
+                    cache.K[offset + i] = K[i];
+                }
+                cache.Ksource[cell] = PhaseStates.TIE_LINE;
+            }
+
+            // The K-values which gave a single phase. When they were reused,
+            // the original values are kept, so that round-off from the
+            // rescaling does not accumulate
+            else if (start != PhaseStates.SINGLE) {
+                for (Component nu : components.hc()) {
+                    int i = nu.index();
+                    cache.K[offset + i] = K[i];
+                }
+                cache.Ksource[cell] = PhaseStates.SINGLE;
+                cache.Kp[cell] = p;
+                cache.KT[cell] = T;
+            }
         }
 
         /**
@@ -1262,18 +1610,6 @@ public class CubicEquationOfState extends WaterEquationOfState {
             }
         }
 
-        public HydrocarbonViscosity(HydrocarbonViscosity viscosity) {
-            a1 = viscosity.a1;
-            a2 = viscosity.a2;
-            a3 = viscosity.a3;
-            a4 = viscosity.a4;
-            a5 = viscosity.a5;
-
-            int num = components.numComponents();
-            System.arraycopy(viscosity.sqrtM, 0, sqrtM, 0, num);
-            System.arraycopy(viscosity.zeta_inv, 0, zeta_inv, 0, num);
-        }
-
         /**
          * Calculates the viscosity of a hydrocarbon phase using the
          * Lohrenz-Bray-Clark correlation
@@ -3,7 +3,8 @@ package no.uib.cipr.rs.fluid;
 import no.uib.cipr.rs.util.Configuration;
 
 /**
- * General equation of state
+ * General equation of state. Implementations must allow concurrent calls from
+ * different threads, as the flash calculations are done in parallel
  */
 public abstract class EquationOfState {
 
@@ -22,6 +23,40 @@ public abstract class EquationOfState {
     public abstract void calculatePhaseState(double p, Composition N, double T,
             PhaseData<EquationOfStateData> data);
 
+    /**
+     * Calculates the phase states of a block of cells. The system state of
+     * cell <code>i</code> is given by <code>p[i]</code>, <code>T[i]</code>,
+     * the component moles <code>N[i*nc + nu]</code> and the total moles
+     * <code>NT[i]</code>, with <code>nc</code> the number of components. The
+     * results are stored for the same cells in <code>states</code>, and the
+     * phase compositions already there are used as the starting point of any
+     * iterative phase split.
+     * 
+     * @param begin
+     *            First cell (inclusive)
+     * @param end
+     *            Last cell (exclusive)
+     */
+    public void calculatePhaseStates(int begin, int end, double[] p,
+            double[] T, double[] N, double[] NT, PhaseStates states) {
+        Composition Ni = new Composition(states.components, N, NT, begin);
+        PhaseData<EquationOfStateData> data = states.view();
+
+        for (int i = begin; i < end; ++i) {
+            Ni.moveTo(i);
+            PhaseStates.moveTo(data, i);
+            calculatePhaseState(p[i], Ni, T[i], data);
+        }
+    }
+
+    /**
+     * Gets a summary of the work done by the equation of state, or null if
+     * none is kept. It must not be called while a calculation is running
+     */
+    public String getStatistics() {
+        return null;
+    }
+
     /**
      * Creates an equation of state from the given configuration
      */
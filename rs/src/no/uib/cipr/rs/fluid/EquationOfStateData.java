@@ -4,17 +4,18 @@ import java.io.Serializable;
 import java.util.Arrays;
 
 /**
- * Stores output data from an equation of state calculation. One such
- * data-object is needed for each phase in each gridblock.
+ * Output data from an equation of state calculation for one phase. The data
+ * is either stored on its own, or is a view of one phase of a cell in
+ * {@link PhaseStates}.
  */
 public class EquationOfStateData implements Serializable {
 
     private static final long serialVersionUID = -7956439176327014930L;
 
     /**
-     * Components database
+     * Storage of the properties
      */
-    private final Components components;
+    private final PhaseStates states;
 
     /**
      * The phase these properties are stored for
@@ -22,54 +23,19 @@ public class EquationOfStateData implements Serializable {
     private final Phase phase;
 
     /**
-     * Phase presence or absence
+     * Index of the phase into the storage
      */
-    private boolean present;
+    private int l;
 
     /**
-     * Volume [m^3]
+     * Offset of the phase components into the storage
      */
-    private double V;
+    private int offset;
 
     /**
      * Composition [mol]
      */
-    private Composition N;
-
-    /**
-     * Molar density [mol/m^3]
-     */
-    private double xi;
-
-    /**
-     * Phase volume derivative with pressure [m^3/Pa]
-     */
-    private double dVdp;
-
-    /**
-     * Phase volume derivative with temperature [m^3/K]
-     */
-    private double dVdT;
-
-    /**
-     * Phase volume derivative with masses [m^3/mol]
-     */
-    private double[] dVdN;
-
-    /**
-     * Enthalpy density [J/m^3]
-     */
-    private double h;
-
-    /**
-     * Enthalpy density derivatives with temperature (heat capacity) [J/(K*m^3)]
-     */
-    private double dhdT;
-
-    /**
-     * Viscosity [Pa*s]
-     */
-    private double mu;
+    private final Composition N;
 
     /**
      * Allocates equation of state data
@@ -80,13 +46,28 @@ public class EquationOfStateData implements Serializable {
      *                The phase the properties are stored for
      */
     public EquationOfStateData(Components components, Phase phase) {
-        this.components = components;
+        this(new PhaseStates(1, components), phase);
+    }
+
+    /**
+     * Sets up a view of the properties of a phase stored in the given arrays.
+     * It starts at the first cell
+     */
+    EquationOfStateData(PhaseStates states, Phase phase) {
+        this.states = states;
         this.phase = phase;
 
-        int nc = components.numComponents();
+        N = new Composition(states.components, states.N, states.NT, 0);
+        moveTo(0);
+    }
 
-        N = new Composition(components);
-        dVdN = new double[nc];
+    /**
+     * Moves the view to the same phase in another cell
+     */
+    void moveTo(int i) {
+        l = PhaseStates.phase(i, phase);
+        offset = l * states.components.numComponents();
+        N.moveTo(l);
     }
 
     /**
@@ -95,7 +76,7 @@ public class EquationOfStateData implements Serializable {
      * @return True if present, else false
      */
     public boolean isPresent() {
-        return present;
+        return states.present[l];
     }
 
     /**
@@ -120,20 +101,21 @@ public class EquationOfStateData implements Serializable {
      *                True if the phase should be present, false if not
      */
     void setPresent(boolean exists) {
-        present = exists;
+        states.present[l] = exists;
         if (!exists) {
-            V = 0;
+            states.V[l] = 0;
             N.zero();
-            xi = 0;
+            states.xi[l] = 0;
 
-            dVdp = 0;
-            dVdT = 0;
+            states.dVdp[l] = 0;
+            states.dVdT[l] = 0;
 
-            h = 0;
-            dhdT = 0;
-            mu = 0;
+            states.h[l] = 0;
+            states.dhdT[l] = 0;
+            states.mu[l] = 0;
 
-            Arrays.fill(dVdN, 0);
+            Arrays.fill(states.dVdN, offset, offset
+                    + states.components.numComponents(), 0);
         }
     }
 
@@ -152,7 +134,7 @@ public class EquationOfStateData implements Serializable {
      * @return Phase volume. [m^3]
      */
     public double getVolume() {
-        return V;
+        return states.V[l];
     }
 
     /**
@@ -162,8 +144,8 @@ public class EquationOfStateData implements Serializable {
      *                New phase volume. [m^3]
      */
     void setVolume(double V) {
-        if (present)
-            this.V = V;
+        if (states.present[l])
+            states.V[l] = V;
     }
 
     /**
@@ -172,7 +154,7 @@ public class EquationOfStateData implements Serializable {
      * @return Phase molar density. [mol/m^3]
      */
     public double getMolarDensity() {
-        return xi;
+        return states.xi[l];
     }
 
     /**
@@ -182,11 +164,11 @@ public class EquationOfStateData implements Serializable {
      *                New phase molar density. [mol/m^3]
      */
     void setMolarDensity(double xi) {
-        if (present) {
+        if (states.present[l]) {
             if (xi <= 0)
                 throw new IllegalArgumentException(phase
                         + " molar density cannot be negative, but was " + xi);
-            this.xi = xi;
+            states.xi[l] = xi;
         }
     }
 
@@ -196,7 +178,7 @@ public class EquationOfStateData implements Serializable {
      * @return dVdp [m^3/Pa]
      */
     public double getdVdp() {
-        return dVdp;
+        return states.dVdp[l];
     }
 
     /**
@@ -206,8 +188,8 @@ public class EquationOfStateData implements Serializable {
      *                dVdp [m^3/Pa]
      */
     void setdVdp(double dVdp) {
-        if (present)
-            this.dVdp = dVdp;
+        if (states.present[l])
+            states.dVdp[l] = dVdp;
     }
 
     /**
@@ -218,7 +200,7 @@ public class EquationOfStateData implements Serializable {
      * @return dVdN. [m^3/mol]
      */
     public double getdVdN(Component component) {
-        return dVdN[component.index()];
+        return states.dVdN[offset + component.index()];
     }
 
     /**
@@ -230,8 +212,8 @@ public class EquationOfStateData implements Serializable {
      *                The dVdN derivative. [m^3/mol]
      */
     void setdVdN(Component component, double dVdN) {
-        if (present)
-            this.dVdN[component.index()] = dVdN;
+        if (states.present[l])
+            states.dVdN[offset + component.index()] = dVdN;
     }
 
     /**
@@ -240,7 +222,7 @@ public class EquationOfStateData implements Serializable {
      * @return dVdT. [m^3/K]
      */
     public double getdVdT() {
-        return dVdT;
+        return states.dVdT[l];
     }
 
     /**
@@ -250,8 +232,8 @@ public class EquationOfStateData implements Serializable {
      *                dVdT. [m^3/K]
      */
     void setdVdT(double dVdT) {
-        if (present)
-            this.dVdT = dVdT;
+        if (states.present[l])
+            states.dVdT[l] = dVdT;
     }
 
     /**
@@ -260,7 +242,7 @@ public class EquationOfStateData implements Serializable {
      * @return Enthalpy density [J/m^3]
      */
     public double getEnthalpyDensity() {
-        return h;
+        return states.h[l];
     }
 
     /**
@@ -274,8 +256,8 @@ public class EquationOfStateData implements Serializable {
             throw new IllegalArgumentException(phase
                     + " enthalpy density cannot be negative, but was " + h);
 
-        if (present)
-            this.h = h;
+        if (states.present[l])
+            states.h[l] = h;
     }
 
     /**
@@ -284,7 +266,7 @@ public class EquationOfStateData implements Serializable {
      * @return Volumetric heat capacity [J/(K*m^3)]
      */
     public double getHeatCapacity() {
-        return dhdT;
+        return states.dhdT[l];
     }
 
     /**
@@ -296,8 +278,8 @@ public class EquationOfStateData implements Serializable {
     void setHeatCapacity(double c) {
         // Could check for negative heat capacity, but that's more suitable
         // for the temperature solver, which can check for a negative diagonal
-        if (present)
-            this.dhdT = c;
+        if (states.present[l])
+            states.dhdT[l] = c;
     }
 
     /**
@@ -311,8 +293,8 @@ public class EquationOfStateData implements Serializable {
             throw new IllegalArgumentException(phase
                     + " viscosity cannot be negative, but was " + mu);
 
-        if (present)
-            this.mu = mu;
+        if (states.present[l])
+            states.mu[l] = mu;
     }
 
     /**
@@ -321,7 +303,7 @@ public class EquationOfStateData implements Serializable {
      * @return Phase viscosity [Pa*s]
      */
     public double getViscosity() {
-        return mu;
+        return states.mu[l];
     }
 
     @Override
@@ -333,25 +315,29 @@ public class EquationOfStateData implements Serializable {
         String numberFormat = "%-16s%15g\n";
 
         string.append(String.format(stringFormat, "Phase", phase.toString()));
-        string.append(String.format(boolFormat, "Present", present));
+        string.append(String.format(boolFormat, "Present", isPresent()));
 
-        if (!present)
+        if (!isPresent())
             return string.toString();
 
-        string.append(String.format(numberFormat, "Volume", V));
-        string.append(String.format(numberFormat, "Molar density", xi));
+        string.append(String.format(numberFormat, "Volume", getVolume()));
+        string.append(String.format(numberFormat, "Molar density",
+                getMolarDensity()));
         string.append(N);
 
-        string.append(String.format(numberFormat, "Enthalpy", h));
-        string.append(String.format(numberFormat, "Heat capacity", dhdT));
+        string.append(String.format(numberFormat, "Enthalpy",
+                getEnthalpyDensity()));
+        string.append(String.format(numberFormat, "Heat capacity",
+                getHeatCapacity()));
 
-        string.append(String.format(numberFormat, "Viscosity", mu));
+        string.append(String.format(numberFormat, "Viscosity",
+                getViscosity()));
 
-        string.append(String.format(numberFormat, "dV/dp", dVdp));
-        string.append(String.format(numberFormat, "dV/dT", dVdT));
-        for (Component nu : components)
+        string.append(String.format(numberFormat, "dV/dp", getdVdp()));
+        string.append(String.format(numberFormat, "dV/dT", getdVdT()));
+        for (Component nu : states.components)
             string.append(String.format(numberFormat, String.format(
-                    "dV/dN(%s)", nu), dVdN[nu.index()]));
+                    "dV/dN(%s)", nu), getdVdN(nu)));
 
         return string.toString();
     }
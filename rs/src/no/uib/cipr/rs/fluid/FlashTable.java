@@ -0,0 +1,250 @@
+package no.uib.cipr.rs.fluid;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import no.uib.cipr.rs.util.Configuration;
+
+/**
+ * Adaptive tabulation of hydrocarbon phase splits in compositional space.
+ * Pressure, temperature and the hydrocarbon mole fractions are discretised
+ * into boxes, and each box holds the K-values of the last flash which fell
+ * into it: either a converged tie-line, or K-values which gave a single
+ * phase. Flashes of nearby states start from these instead of from Wilson's
+ * correlation. The table is bounded, and the least recently used boxes are
+ * evicted first. It is safe for concurrent use
+ */
+class FlashTable {
+
+    /**
+     * Number of independently locked segments, to reduce contention between
+     * threads
+     */
+    private static final int numSegments = 16;
+
+    /**
+     * The segments, each an access ordered map of its boxes
+     */
+    private final Segment[] segments;
+
+    /**
+     * Box sizes of pressure [Pa], temperature [K] and mole fractions [-]
+     */
+    private final double dp, dT, dC;
+
+    /**
+     * Number of hydrocarbon mole fractions in a key
+     */
+    private final int numFractions;
+
+    /**
+     * Reads the table parameters
+     *
+     * @param config
+     *                Configuration of the equation of state
+     * @param components
+     *                Components database
+     */
+    FlashTable(Configuration config, Components components) {
+        int size = config.getInt("FlashTableSize", 100000);
+        dp = config.getDouble("FlashTablePressureStep", 1e+5);
+        dT = config.getDouble("FlashTableTemperatureStep", 1);
+        dC = config.getDouble("FlashTableCompositionStep", 1e-3);
+
+        if (size < numSegments)
+            throw new IllegalArgumentException(config.trace()
+                    + "FlashTableSize must be at least " + numSegments);
+        if (dp <= 0 || dT <= 0 || dC <= 0)
+            throw new IllegalArgumentException(config.trace()
+                    + "FlashTable steps must be positive");
+
+        numFractions = components.numComponents() - 1;
+
+        segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; ++i)
+            segments[i] = new Segment(size / numSegments);
+    }
+
+    /**
+     * Discretised system state
+     */
+    class Key {
+
+        /**
+         * Box indices of pressure, temperature, and the mole fractions
+         */
+        private final int[] box = new int[2 + numFractions];
+
+        private int hash;
+
+        /**
+         * Sets the key to the box of the given state
+         *
+         * @param C
+         *                Hydrocarbon mole fractions, indexed by component.
+         *                The water entry is ignored
+         */
+        void set(double p, double T, double[] C) {
+            box[0] = (int) Math.floor(p / dp);
+            box[1] = (int) Math.floor(T / dT);
+            for (int i = 0; i < numFractions; ++i)
+                box[2 + i] = (int) Math.floor(C[i + 1] / dC);
+
+            hash = 1;
+            for (int b : box)
+                hash = 31 * hash + b;
+        }
+
+        /**
+         * Copies this key, for storage in the table
+         */
+        private Key copy() {
+            Key key = new Key();
+            System.arraycopy(box, 0, key.box, 0, box.length);
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            int[] other = ((Key) obj).box;
+            for (int i = 0; i < box.length; ++i)
+                if (box[i] != other[i])
+                    return false;
+            return true;
+        }
+    }
+
+    /**
+     * Tabulated K-values of a box. Entries are not changed once stored
+     */
+    static class Split {
+
+        /**
+         * K-values, indexed by component
+         */
+        final double[] K;
+
+        /**
+         * True if the K-values gave a single phase, false for a tie-line
+         */
+        final boolean single;
+
+        /**
+         * Pressure of the K-values [Pa]
+         */
+        final double p;
+
+        Split(double[] K, boolean single, double p) {
+            this.K = K.clone();
+            this.single = single;
+            this.p = p;
+        }
+    }
+
+    /**
+     * A part of the table with its own lock and least recently used order
+     */
+    private static class Segment extends LinkedHashMap<Key, Split> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        /**
+         * Number of entries stored and evicted
+         */
+        long insertions, evictions;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Split> eldest) {
+            if (size() > capacity) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Creates a key for lookups, which may be reused
+     */
+    Key createKey() {
+        return new Key();
+    }
+
+    private Segment segment(Key key) {
+        return segments[(key.hash & 0x7fffffff) % numSegments];
+    }
+
+    /**
+     * Gets the entry of a box, or null if there is none
+     */
+    Split get(Key key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Stores K-values in a box, unless it already has an entry of the same
+     * kind. A tie-line replaces K-values which gave a single phase
+     *
+     * @param single
+     *                True if the K-values gave a single phase
+     */
+    void put(Key key, double[] K, boolean single, double p) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Split entry = segment.get(key);
+            if (entry != null && (single || !entry.single))
+                return;
+
+            segment.put(key.copy(), new Split(K, single, p));
+            segment.insertions++;
+        }
+    }
+
+    /**
+     * Gets a summary of the table use. It must not be called while the table
+     * is in use
+     *
+     * @param singleHits
+     *                Lookups which skipped the stability test
+     * @param tieLineHits
+     *                Lookups which gave a two-phase starting point
+     * @param lookups
+     *                All the lookups
+     */
+    String getStatistics(long singleHits, long tieLineHits, long lookups) {
+        long insertions = 0, evictions = 0, size = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                insertions += segment.insertions;
+                evictions += segment.evictions;
+                size += segment.size();
+            }
+
+        String format = "\t  %-40s%12d\n";
+        return String.format("\t%d flash table lookups\n", lookups)
+                + String.format(format, "single phase hits", singleHits)
+                + String.format(format, "tie-line hits", tieLineHits)
+                + String.format(format, "misses or rejected", lookups
+                        - singleHits - tieLineHits)
+                + String.format("\t%d table entries stored, %d evicted, "
+                        + "%d held\n", insertions, evictions, size);
+    }
+}
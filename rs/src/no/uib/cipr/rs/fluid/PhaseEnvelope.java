@@ -1,27 +1,117 @@
 package no.uib.cipr.rs.fluid;
 
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
 
 import no.uib.cipr.rs.Paths;
 import no.uib.cipr.rs.util.Configuration;
+import no.uib.cipr.rs.util.Parallel;
 
 /**
- * Simple phase-envelope calculator
+ * Phase-envelope and PVT table generator. Flashes the composition given in
+ * the PVT file on a regular pressure/temperature grid, prints a map of the
+ * phase states, and writes the phase densities and viscosities as lookup
+ * tables which can be included in a black-oil equation of state.
+ * <p>
+ * The grid is split into blocks of pressure rows, which are flashed in
+ * parallel. Within a block, each cell starts from the phase split of the
+ * same temperature in the row above. The blocks are the same for any number
+ * of threads, so the results do not depend on it, unless the flash table of
+ * the cubic equation of state is used. That table is shared by the threads,
+ * and the flash starting points then depend on the order they fill it in.
  */
 public class PhaseEnvelope {
 
+    /**
+     * Number of pressure rows flashed one after another from a cold start
+     */
+    private static final int rowsPerBlock = 16;
+
+    /**
+     * Components database
+     */
+    private final Components components;
+
+    /**
+     * Equation of state
+     */
+    private final EquationOfState eos;
+
+    /**
+     * The flashed composition, repeated for each temperature [mol]
+     */
+    private final double[] N, NT;
+
+    /**
+     * Pressures, from the highest to the lowest [Pa]
+     */
+    private final double[] p;
+
+    /**
+     * Temperatures, from the lowest to the highest [K]
+     */
+    private final double[] T;
+
+    /**
+     * Results, indexed by pressure and temperature
+     */
+    private final double[][] xiOil, xiGas, muOil, muGas;
+
+    /**
+     * Phase state at each pressure and temperature, as printed
+     */
+    private final char[][] state;
+
     public static void main(String[] args) throws FileNotFoundException,
             IOException {
-        System.out.println("\tPVT property calculation\n");
+        System.out.println("\tPhase envelope calculation\n");
 
         Paths.checkPresence(Paths.PVT_FILE);
         Configuration config = new Configuration(Paths.PVT_FILE);
 
-        Components components = new Components(config);
-        EquationOfState eos = EquationOfState.create(config, components);
+        long start = System.currentTimeMillis();
 
-        Composition N = new Composition(config, components);
+        PhaseEnvelope envelope = new PhaseEnvelope(config);
+
+        int numThreads = config.getInt("NumberOfThreads", 1);
+        if (numThreads < 1)
+            throw new IllegalArgumentException(config.trace()
+                    + "NumberOfThreads must be positive");
+
+        config.ensureEmpty();
+
+        Parallel parallel = new Parallel(numThreads);
+        try {
+            envelope.calculate(parallel);
+        } finally {
+            parallel.shutdown();
+        }
+
+        System.out.format("\tCalculated in %.1f seconds\n",
+                (System.currentTimeMillis() - start) / 1000.);
+
+        String statistics = envelope.eos.getStatistics();
+        if (statistics != null)
+            System.out.println(statistics);
+
+        envelope.print();
+
+        envelope.write(Paths.ENVELOPE_FILE);
+        System.out.println("\n\tTables written to '" + Paths.ENVELOPE_FILE
+                + "'");
+    }
+
+    /**
+     * Reads the fluid, the composition and the grid
+     */
+    private PhaseEnvelope(Configuration config) {
+        components = new Components(config);
+        eos = EquationOfState.create(config, components);
+
+        Composition composition = new Composition(config, components);
 
         // Initial pressure and temperature
         double p0 = config.getDouble("Pressure", 1e+6);
@@ -32,39 +122,221 @@ public class PhaseEnvelope {
         double maxT = config.getDouble("MaximumTemperature", 600);
         double dT = config.getDouble("DT", 2.5);
 
-        /*
-         * Start the iteration
-         */
+        if (dP <= 0 || dT <= 0)
+            throw new IllegalArgumentException(config.trace()
+                    + "DP and DT must be positive");
 
-        System.out.println();
+        int np = (int) Math.floor((maxP - p0) / dP + 1e-9) + 1;
+        int nT = (int) Math.floor((maxT - T0) / dT + 1e-9) + 1;
 
-        for (double p = maxP; p >= p0; p -= dP) {
-            for (double T = T0; T <= maxT; T += dT) {
-                PhaseData<EquationOfStateData> data = allocateEOS(components);
-                eos.calculatePhaseState(p, N, T, data);
-
-                boolean oil = data.oil.isPresent();
-                boolean gas = data.gas.isPresent();
-                char state = ' ';
-                if (oil && gas)
-                    state = '2';
-                else if (oil)
-                    state = 'o';
-                else if (gas)
-                    state = 'g';
-
-                System.out.print(state);
+        if (np < 2 || nT < 2)
+            throw new IllegalArgumentException(config.trace()
+                    + "At least two pressures and temperatures are needed");
+
+        p = new double[np];
+        for (int i = 0; i < np; ++i)
+            p[i] = maxP - i * dP;
+
+        T = new double[nT];
+        for (int j = 0; j < nT; ++j)
+            T[j] = T0 + j * dT;
+
+        int nc = components.numComponents();
+        N = new double[nT * nc];
+        NT = new double[nT];
+        for (int j = 0; j < nT; ++j) {
+            for (Component nu : components)
+                N[j * nc + nu.index()] = composition.getMoles(nu);
+            NT[j] = composition.getMoles();
+        }
+
+        xiOil = new double[np][nT];
+        xiGas = new double[np][nT];
+        muOil = new double[np][nT];
+        muGas = new double[np][nT];
+        state = new char[np][nT];
+    }
+
+    /**
+     * Flashes the whole grid
+     */
+    private void calculate(Parallel parallel) {
+        final int numBlocks = (p.length + rowsPerBlock - 1) / rowsPerBlock;
+
+        parallel.execute(numBlocks, new Parallel.Block() {
+            public void run(int block) {
+                int begin = block * rowsPerBlock;
+                int end = Math.min(begin + rowsPerBlock, p.length);
+
+                PhaseStates states = new PhaseStates(T.length, components);
+                double[] row = new double[T.length];
+
+                for (int i = begin; i < end; ++i) {
+                    Arrays.fill(row, p[i]);
+                    eos.calculatePhaseStates(0, T.length, row, T, N, NT,
+                            states);
+                    store(i, states);
+                }
             }
-            System.out.println();
+        });
+    }
+
+    /**
+     * Stores the results of a pressure row
+     */
+    private void store(int i, PhaseStates states) {
+        for (int j = 0; j < T.length; ++j) {
+            int oil = PhaseStates.phase(j, Phase.OIL);
+            int gas = PhaseStates.phase(j, Phase.GAS);
+
+            boolean oilPresent = states.present[oil];
+            boolean gasPresent = states.present[gas];
+
+            xiOil[i][j] = oilPresent ? states.xi[oil] : 0;
+            xiGas[i][j] = gasPresent ? states.xi[gas] : 0;
+            muOil[i][j] = oilPresent ? states.mu[oil] : 0;
+            muGas[i][j] = gasPresent ? states.mu[gas] : 0;
+
+            if (oilPresent && gasPresent)
+                state[i][j] = '2';
+            else if (oilPresent)
+                state[i][j] = 'o';
+            else if (gasPresent)
+                state[i][j] = 'g';
+            else
+                state[i][j] = ' ';
+        }
+    }
+
+    /**
+     * Prints the phase states, with the pressure decreasing downwards and the
+     * temperature increasing to the right
+     */
+    private void print() {
+        System.out.println();
+        for (char[] row : state)
+            System.out.println(row);
+    }
+
+    /**
+     * Writes the phase properties as evenly spaced lookup tables in pressure,
+     * composition and temperature, for inclusion in a black-oil equation of
+     * state section
+     */
+    private void write(String file) throws IOException {
+        double[][] oilMolarDensity = extend(xiOil, 'o', "Oil");
+        double[][] gasMolarDensity = extend(xiGas, 'g', "Gas");
+        double[][] oilViscosity = extend(muOil, 'o', "Oil");
+        double[][] gasViscosity = extend(muGas, 'g', "Gas");
+
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+
+        out.println("% Phase properties calculated by the phase envelope "
+                + "application");
+        out.println("% The flashed composition is fixed, so the tables do not "
+                + "depend on the composition");
+        out.println("% Absent phases take the values of the nearest cell "
+                + "where they are present");
+        out.println();
+
+        writeTable(out, "OilMolarDensity", oilMolarDensity);
+        writeTable(out, "GasMolarDensity", gasMolarDensity);
+        writeTable(out, "OilViscosity", oilViscosity);
+        writeTable(out, "GasViscosity", gasViscosity);
+
+        out.close();
+    }
+
+    /**
+     * Fills in the values of a phase where it is absent, so that the table is
+     * positive everywhere. A cell takes the value of the nearest cell with the
+     * same temperature where the phase is present. If there is none, the
+     * column of the nearest such temperature is used
+     */
+    private double[][] extend(double[][] values, char phase, String name) {
+        int np = p.length, nT = T.length;
+
+        int[][] rows = new int[nT][];
+        boolean[] present = new boolean[np], column = new boolean[nT];
+        for (int j = 0; j < nT; ++j) {
+            for (int i = 0; i < np; ++i)
+                present[i] = state[i][j] == phase || state[i][j] == '2';
+            rows[j] = nearest(present);
+            column[j] = rows[j] != null;
         }
 
+        int[] columns = nearest(column);
+        if (columns == null)
+            throw new IllegalArgumentException(name
+                    + " phase is not present anywhere on the grid");
+
+        double[][] extended = new double[np][nT];
+        for (int j = 0; j < nT; ++j) {
+            int k = columns[j];
+            for (int i = 0; i < np; ++i)
+                extended[i][j] = values[rows[k][i]][k];
+        }
+        return extended;
     }
 
-    private static PhaseData<EquationOfStateData> allocateEOS(
-            Components components) {
-        PhaseData<EquationOfStateData> data = new PhaseData<EquationOfStateData>();
-        for (Phase phase : Phase.values())
-            data.set(phase, new EquationOfStateData(components, phase));
-        return data;
+    /**
+     * For each index, finds the nearest index which is set. Returns null if
+     * none are
+     */
+    private static int[] nearest(boolean[] set) {
+        int n = set.length;
+        int[] nearest = new int[n];
+
+        int k = -1;
+        for (int i = 0; i < n; ++i) {
+            if (set[i])
+                k = i;
+            nearest[i] = k;
+        }
+
+        if (k < 0)
+            return null;
+
+        k = -1;
+        for (int i = n - 1; i >= 0; --i) {
+            if (set[i])
+                k = i;
+            if (k >= 0 && (nearest[i] < 0 || k - i < i - nearest[i]))
+                nearest[i] = k;
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Writes a table of values given with decreasing pressures. The values
+     * are repeated for the two ends of the composition range
+     */
+    private void writeTable(PrintWriter out, String name, double[][] values) {
+        int np = p.length, nT = T.length;
+
+        out.format("begin %s\n", name);
+        out.println("\ttype\t\tEvenLookupTable");
+        out.println("\tdimension\t3");
+        out.println();
+        out.format("\txMin %s xMax %s nx %d %% Pressure\n", p[np - 1], p[0],
+                np);
+        out.println("\tyMin 0 yMax 1 ny 2 % Composition");
+        out.format("\tzMin %s zMax %s nz %d %% Temperature\n", T[0],
+                T[nT - 1], nT);
+        out.println();
+        out.println("\tarray data");
+        for (int k = 0; k < nT; ++k) {
+            out.format("\t\t%% T = %s K\n", T[k]);
+            for (int j = 0; j < 2; ++j) {
+                out.print("\t\t");
+                for (int i = np - 1; i >= 0; --i)
+                    out.format(" %.10g", values[i][k]);
+                out.println();
+            }
+        }
+        out.println("\tend");
+        out.println("end");
+        out.println();
     }
 }
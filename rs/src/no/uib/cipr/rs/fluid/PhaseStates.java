@@ -0,0 +1,188 @@
+package no.uib.cipr.rs.fluid;
+
+import java.io.Serializable;
+
+/**
+ * Equation of state results for a block of cells, stored as one primitive
+ * array per property. Phase quantities are stored cell by cell, with the
+ * phases in the order water, oil, gas. Component quantities of a phase are
+ * stored likewise, with the components innermost.
+ *
+ * @see EquationOfState#calculatePhaseStates(int, int, double[], double[],
+ *      double[], double[], PhaseStates)
+ */
+public class PhaseStates implements Serializable {
+
+    private static final long serialVersionUID = 4716373640436264203L;
+
+    /**
+     * Components database
+     */
+    final Components components;
+
+    /**
+     * Number of cells
+     */
+    public final int numCells;
+
+    /**
+     * Phase presence. Indexed by {@link #phase(int, Phase)}
+     */
+    public final boolean[] present;
+
+    /**
+     * Phase volume [m^3]. Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] V;
+
+    /**
+     * Total moles of the phase [mol]. Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] NT;
+
+    /**
+     * Molar density [mol/m^3]. Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] xi;
+
+    /**
+     * Phase volume derivatives with pressure [m^3/Pa] and temperature [m^3/K].
+     * Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] dVdp, dVdT;
+
+    /**
+     * Enthalpy density [J/m^3] and volumetric heat capacity [J/(K*m^3)].
+     * Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] h, dhdT;
+
+    /**
+     * Viscosity [Pa*s]. Indexed by {@link #phase(int, Phase)}
+     */
+    public final double[] mu;
+
+    /**
+     * Phase composition [mol]. Indexed by
+     * {@link #component(int, Phase, Component)}
+     */
+    public final double[] N;
+
+    /**
+     * Phase volume derivative with the system moles [m^3/mol]. Indexed by
+     * {@link #component(int, Phase, Component)}
+     */
+    public final double[] dVdN;
+
+    /**
+     * K-values of the last hydrocarbon flash of each cell, from which the next
+     * flash of the cell may start. Indexed by cell and component, with the
+     * components innermost. Used by the cubic equation of state
+     */
+    final double[] K;
+
+    /**
+     * Origin of the cached K-values of each cell
+     */
+    final byte[] Ksource;
+
+    /**
+     * No K-values are cached
+     */
+    static final byte NONE = 0;
+
+    /**
+     * The K-values gave a single hydrocarbon phase at the cached pressure and
+     * temperature
+     */
+    static final byte SINGLE = 1;
+
+    /**
+     * The K-values are from the last converged two-phase split
+     */
+    static final byte TIE_LINE = 2;
+
+    /**
+     * Pressure [Pa] and temperature [K] of the cached K-values
+     */
+    final double[] Kp, KT;
+
+    /**
+     * Allocates zeroed storage, in which all phases are absent
+     *
+     * @param numCells
+     *                Number of cells
+     * @param components
+     *                Components database
+     */
+    public PhaseStates(int numCells, Components components) {
+        this.components = components;
+        this.numCells = numCells;
+
+        int numPhases = Phase.values().length;
+        int nc = components.numComponents();
+
+        present = new boolean[numCells * numPhases];
+        V = new double[numCells * numPhases];
+        NT = new double[numCells * numPhases];
+        xi = new double[numCells * numPhases];
+        dVdp = new double[numCells * numPhases];
+        dVdT = new double[numCells * numPhases];
+        h = new double[numCells * numPhases];
+        dhdT = new double[numCells * numPhases];
+        mu = new double[numCells * numPhases];
+
+        N = new double[numCells * numPhases * nc];
+        dVdN = new double[numCells * numPhases * nc];
+
+        K = new double[numCells * nc];
+        Ksource = new byte[numCells];
+        Kp = new double[numCells];
+        KT = new double[numCells];
+    }
+
+    /**
+     * Index of a phase quantity of the given cell
+     */
+    public static int phase(int i, Phase phase) {
+        return 3 * i + phase.ordinal();
+    }
+
+    /**
+     * Index of a component quantity of a phase in the given cell
+     */
+    public int component(int i, Phase phase, Component nu) {
+        return phase(i, phase) * components.numComponents() + nu.index();
+    }
+
+    /**
+     * Gets the mole fraction of a component in a phase of the given cell. If
+     * the phase has no moles, 0 is returned
+     *
+     * @return [-]
+     */
+    public double getMoleFraction(int i, Phase phase, Component nu) {
+        double NTl = NT[phase(i, phase)];
+        return NTl > 0 ? N[component(i, phase, nu)] / NTl : 0;
+    }
+
+    /**
+     * Creates views of the phases of one cell, for use by the equations of
+     * state. They are moved between cells by
+     * {@link #moveTo(PhaseData, int)}
+     */
+    PhaseData<EquationOfStateData> view() {
+        return new PhaseData<EquationOfStateData>(new EquationOfStateData(
+                this, Phase.WATER), new EquationOfStateData(this, Phase.OIL),
+                new EquationOfStateData(this, Phase.GAS));
+    }
+
+    /**
+     * Moves the views of a cell to the given cell
+     */
+    static void moveTo(PhaseData<EquationOfStateData> data, int i) {
+        data.water.moveTo(i);
+        data.oil.moveTo(i);
+        data.gas.moveTo(i);
+    }
+}
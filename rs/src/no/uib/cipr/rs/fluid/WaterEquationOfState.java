@@ -82,7 +82,7 @@ abstract class WaterEquationOfState extends EquationOfState {
              * Phase composition
              */
 
-            double xiw = waterMolarDensity.get(p, T);
+            double xiw = waterMolarDensity.get2(p, T);
             double Vw = Nw / xiw;
 
             water.setMolarDensity(xiw);
@@ -111,7 +111,7 @@ abstract class WaterEquationOfState extends EquationOfState {
              * Enthalpy
              */
 
-            double hw = waterMolarEnthalpy.get(p, T);
+            double hw = waterMolarEnthalpy.get2(p, T);
             water.setEnthalpyDensity(hw * xiw);
 
             double dhw_dT = waterMolarEnthalpy.deriv(1, p, T);
@@ -121,7 +121,7 @@ abstract class WaterEquationOfState extends EquationOfState {
              * Viscosity
              */
 
-            double muw = waterViscosity.get(p, T);
+            double muw = waterViscosity.get2(p, T);
             water.setViscosity(muw);
 
         } else
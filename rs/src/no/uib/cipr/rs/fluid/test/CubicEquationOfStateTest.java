@@ -0,0 +1,305 @@
+package no.uib.cipr.rs.fluid.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import no.uib.cipr.rs.fluid.Component;
+import no.uib.cipr.rs.fluid.Components;
+import no.uib.cipr.rs.fluid.Composition;
+import no.uib.cipr.rs.fluid.CubicEquationOfState;
+import no.uib.cipr.rs.fluid.EquationOfState;
+import no.uib.cipr.rs.fluid.EquationOfStateData;
+import no.uib.cipr.rs.fluid.Phase;
+import no.uib.cipr.rs.fluid.PhaseData;
+import no.uib.cipr.rs.fluid.PhaseStates;
+import no.uib.cipr.rs.util.Configuration;
+
+/**
+ * Tests that one cubic equation of state gives the same flash results when
+ * used concurrently from several threads, or on blocks of cells, as when used
+ * serially on one cell at a time
+ */
+public class CubicEquationOfStateTest extends TestCase {
+
+    private Components components;
+
+    private EquationOfState eos;
+
+    /**
+     * Pressures [Pa], temperatures [K] and compositions [mol] of the tested
+     * states. They cover both single and two phase hydrocarbon systems
+     */
+    private double[] p, T;
+
+    private Composition[] N;
+
+    @Override
+    protected void setUp() throws Exception {
+        eos = createEquationOfState("");
+
+        int n = 200;
+        p = new double[n];
+        T = new double[n];
+        N = new Composition[n];
+        for (int i = 0; i < n; ++i) {
+            p[i] = 1e+6 + 4e+7 * i / n;
+            T[i] = 300 + (i % 7) * 20;
+
+            N[i] = new Composition(components);
+            N[i].setMoles(components.getComponent("H2O"), i % 3);
+            N[i].setMoles(components.getComponent("C1"), 1 + i % 5);
+            N[i].setMoles(components.getComponent("C3"), 0.5 * (i % 4));
+            N[i].setMoles(components.getComponent("C10"), 1 + i % 11);
+        }
+    }
+
+    /**
+     * Creates a cubic equation of state for the test components
+     * 
+     * @param options
+     *                Extra lines of its configuration
+     */
+    private EquationOfState createEquationOfState(String options)
+            throws IOException {
+        File file = File.createTempFile("cubic", null);
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(file));
+            out.println("begin Components");
+            for (String name : new String[] { "H2O", "C1", "C3", "C10" })
+                out.println("begin " + name + "\nend");
+            out.println("end");
+            out.println("begin EquationOfState");
+            out.println("type CubicEquationOfState");
+            out.println("begin WaterMolarDensity\ntype ConstantValue\n"
+                    + "value 55000\nend");
+            out.println("begin WaterViscosity\ntype ConstantValue\n"
+                    + "value 1e-3\nend");
+            out.println(options);
+            out.println("end");
+            out.close();
+
+            Configuration config = new Configuration(file.getPath());
+            components = new Components(config);
+            return new CubicEquationOfState(config
+                    .getConfiguration("EquationOfState"), components);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Flashes each state from the same starting point, and returns the
+     * resulting phase properties
+     */
+    private double[] flash(int i) {
+        return flash(eos, i);
+    }
+
+    private double[] flash(EquationOfState eos, int i) {
+        PhaseData<EquationOfStateData> data = new PhaseData<EquationOfStateData>();
+        for (Phase phase : Phase.values())
+            data.set(phase, new EquationOfStateData(components, phase));
+
+        eos.calculatePhaseState(p[i], N[i], T[i], data);
+
+        List<Double> result = new ArrayList<Double>();
+        for (Phase phase : Phase.values()) {
+            EquationOfStateData d = data.get(phase);
+            result.add(d.isPresent() ? 1. : 0.);
+            result.add(d.getVolume());
+            result.add(d.getMolarDensity());
+            result.add(d.getViscosity());
+            result.add(d.getdVdp());
+            result.add(d.getdVdT());
+            for (Component nu : components) {
+                result.add(d.getdVdN(nu));
+                result.add(d.getComposition().getMoles(nu));
+            }
+        }
+
+        double[] values = new double[result.size()];
+        for (int j = 0; j < values.length; ++j)
+            values[j] = result.get(j);
+        return values;
+    }
+
+    /**
+     * Flashes all the states on several threads at once, each thread in its
+     * own order, and compares with serial flashes
+     */
+    public void testConcurrentFlash() throws Exception {
+        // Values per phase, with the presence flag first
+        int block = 6 + 2 * components.numComponents();
+        int oil = Phase.OIL.ordinal() * block, gas = Phase.GAS.ordinal()
+                * block;
+
+        final double[][] reference = new double[p.length][];
+        int onePhase = 0, twoPhase = 0;
+        for (int i = 0; i < p.length; ++i) {
+            reference[i] = flash(i);
+            if (reference[i][oil] == 1 && reference[i][gas] == 1)
+                twoPhase++;
+            else
+                onePhase++;
+        }
+
+        // Strides coprime to the number of states, so all are visited
+        int[] strides = { 1, 3, 7, 9 };
+        final int rounds = 20;
+        ExecutorService executor = Executors
+                .newFixedThreadPool(strides.length);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (final int stride : strides) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        int mismatches = 0;
+                        for (int r = 0; r < rounds; ++r)
+                            for (int k = 0; k < p.length; ++k) {
+                                int i = (k * stride + r) % p.length;
+                                double[] values = flash(i);
+                                for (int j = 0; j < values.length; ++j)
+                                    if (Double.compare(values[j],
+                                            reference[i][j]) != 0) {
+                                        mismatches++;
+                                        break;
+                                    }
+                            }
+                        return mismatches;
+                    }
+                }));
+            }
+
+            for (Future<Integer> future : futures)
+                assertEquals(0, future.get().intValue());
+        } finally {
+            executor.shutdown();
+        }
+
+        // Both single and two phase states must be covered
+        assertTrue(onePhase > 0);
+        assertTrue(twoPhase > 0);
+    }
+
+    /**
+     * Flashes the states in two blocks, and compares with flashing them one
+     * by one
+     */
+    public void testBatchFlash() {
+        int n = p.length, nc = components.numComponents();
+
+        double[] Nflat = new double[n * nc], NT = new double[n];
+        for (int i = 0; i < n; ++i) {
+            for (Component nu : components)
+                Nflat[i * nc + nu.index()] = N[i].getMoles(nu);
+            NT[i] = N[i].getMoles();
+        }
+
+        PhaseStates states = new PhaseStates(n, components);
+        eos.calculatePhaseStates(0, n / 2, p, T, Nflat, NT, states);
+        eos.calculatePhaseStates(n / 2, n, p, T, Nflat, NT, states);
+
+        for (int i = 0; i < n; ++i) {
+            List<Double> result = new ArrayList<Double>();
+            for (Phase phase : Phase.values()) {
+                int l = PhaseStates.phase(i, phase);
+                result.add(states.present[l] ? 1. : 0.);
+                result.add(states.V[l]);
+                result.add(states.xi[l]);
+                result.add(states.mu[l]);
+                result.add(states.dVdp[l]);
+                result.add(states.dVdT[l]);
+                for (Component nu : components) {
+                    int k = states.component(i, phase, nu);
+                    result.add(states.dVdN[k]);
+                    result.add(states.N[k]);
+                }
+            }
+
+            double[] reference = flash(i);
+            assertEquals(reference.length, result.size());
+            for (int j = 0; j < reference.length; ++j)
+                assertEquals(0, Double.compare(reference[j], result.get(j)));
+        }
+    }
+
+    /**
+     * Flashes the states twice as a block, the second time at a slightly
+     * higher pressure so that the cached K-values are used, and compares with
+     * flashing them one by one from scratch
+     */
+    public void testCachedFlash() {
+        int n = p.length, nc = components.numComponents();
+
+        double[] Nflat = new double[n * nc], NT = new double[n];
+        for (int i = 0; i < n; ++i) {
+            for (Component nu : components)
+                Nflat[i * nc + nu.index()] = N[i].getMoles(nu);
+            NT[i] = N[i].getMoles();
+        }
+
+        PhaseStates states = new PhaseStates(n, components);
+        eos.calculatePhaseStates(0, n, p, T, Nflat, NT, states);
+        for (int i = 0; i < n; ++i)
+            p[i] *= 1.001;
+        eos.calculatePhaseStates(0, n, p, T, Nflat, NT, states);
+
+        for (int i = 0; i < n; ++i) {
+            double[] reference = flash(i);
+            int block = 6 + 2 * nc;
+            for (Phase phase : Phase.values()) {
+                int l = PhaseStates.phase(i, phase);
+                int j = phase.ordinal() * block;
+                assertEquals(reference[j] == 1, states.present[l]);
+                assertEquals(reference[j + 1], states.V[l],
+                        1e-6 * Math.abs(reference[j + 1]));
+                for (Component nu : components) {
+                    int k = states.component(i, phase, nu);
+                    double Nl = reference[j + 7 + 2 * nu.index()];
+                    assertEquals(Nl, states.N[k], 1e-6 * NT[i]);
+                }
+            }
+        }
+
+        assertNotNull(eos.getStatistics());
+    }
+
+    /**
+     * Flashes the states twice through a coarse flash table, and compares
+     * with flashing them from scratch. The phases present must agree, and
+     * the properties to within the flash tolerance
+     */
+    public void testTabulatedFlash() throws IOException {
+        EquationOfState tabulated = createEquationOfState("FlashTable true\n"
+                + "FlashTablePressureStep 2e+6\n"
+                + "FlashTableTemperatureStep 50\n"
+                + "FlashTableCompositionStep 0.2");
+
+        int block = 6 + 2 * components.numComponents();
+        for (int round = 0; round < 2; ++round)
+            for (int i = 0; i < p.length; ++i) {
+                double[] reference = flash(i), values = flash(tabulated, i);
+                for (Phase phase : Phase.values()) {
+                    int j = phase.ordinal() * block;
+                    assertEquals(reference[j], values[j]);
+                    for (int k = j + 1; k < j + block; ++k)
+                        assertEquals(reference[k], values[k], 1e-4 * Math
+                                .abs(reference[k]) + 1e-12);
+                }
+            }
+
+        // Both kinds of tabulated K-values must have been used
+        for (String line : tabulated.getStatistics().split("\n"))
+            if (line.contains("hits"))
+                assertFalse(line.trim().endsWith(" 0"));
+    }
+}
@@ -0,0 +1,30 @@
+package no.uib.cipr.rs.geometry;
+
+import no.uib.cipr.rs.util.Configuration;
+
+/**
+ * BoxCellPicker selects all cells whose center points are inside an axis
+ * aligned box, bounds included.
+ */
+public class BoxCellPicker extends CellPicker {
+
+    private final int[] elements;
+
+    public BoxCellPicker(Configuration config, Mesh mesh) {
+        Point3D lower = new Point3D(config.getDouble("Xmin"), config
+                .getDouble("Ymin"), config.getDouble("Zmin"));
+        Point3D upper = new Point3D(config.getDouble("Xmax"), config
+                .getDouble("Ymax"), config.getDouble("Zmax"));
+
+        elements = mesh.elementIndex().centersWithin(lower, upper);
+
+        if (elements.length == 0)
+            throw new IllegalArgumentException(config.trace()
+                    + "No element centers are inside the box");
+    }
+
+    @Override
+    public int[] elements() {
+        return elements;
+    }
+}
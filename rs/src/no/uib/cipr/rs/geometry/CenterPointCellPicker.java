@@ -22,34 +22,15 @@ public class CenterPointCellPicker extends CellPicker {
         // create a point from these coordinates
         Point3D p = new Point3D(x, y, z);
 
-        // currently closest element found and the associated distance
-        // (cached, instead of reading it again from the point every time)
-        Element closest = null;
-        Double record = Double.POSITIVE_INFINITY;
-
         // find the cell whose center is closest to our point
-        for (Element e : mesh.elements()) {
-            // calculate the distance from the point specified to the
-            // center of this element
-            Double distance = new Vector3D(p, e.center).norm2();
-
-            // if this distance is closer than anything we have seen before
-            // then we've got a new candidate
-            if (distance < record) {
-                closest = e;
-
-                // we've got a new record holder; don't update again until
-                // we find something that is even lower than this
-                record = distance;
-            }
-        }
+        int closest = mesh.elementIndex().nearest(p);
 
         // index of the element we found to be closest
-        if (closest == null)
+        if (closest < 0)
             throw new IllegalArgumentException(config.trace()
                     + "The mesh doesn't appear to contain any elements");
         else
-            element = closest.index;
+            element = closest;
     }
 
     @Override
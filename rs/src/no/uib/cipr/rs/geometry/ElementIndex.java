@@ -0,0 +1,417 @@
+package no.uib.cipr.rs.geometry;
+
+import java.util.Arrays;
+
+import no.uib.cipr.rs.util.Tolerances;
+
+/**
+ * Spatial index over the elements of a mesh. The bounding box of the mesh is
+ * divided into a uniform grid of buckets, about one per element. Each element
+ * centre is stored in the bucket containing it, and each element bounding box
+ * in all the buckets it overlaps. Both are held in compressed row storage.
+ * Built once per mesh, see {@link Mesh#elementIndex()}, and safe for
+ * concurrent queries
+ */
+public final class ElementIndex {
+
+    private final Mesh mesh;
+
+    /**
+     * Lower corner of the bucket grid
+     */
+    private final double[] origin = new double[3];
+
+    /**
+     * Bucket widths along each axis
+     */
+    private final double[] width = new double[3];
+
+    /**
+     * Number of buckets along each axis
+     */
+    private final int[] size = new int[3];
+
+    /**
+     * Element centres, three coordinates per element
+     */
+    private final double[] center;
+
+    /**
+     * Element bounding boxes, three lower followed by three upper coordinates
+     * per element
+     */
+    private final double[] box;
+
+    /**
+     * Offsets and elements of the centres in each bucket
+     */
+    private final int[] centerOffset, centerElement;
+
+    /**
+     * Offsets and elements of the bounding boxes overlapping each bucket
+     */
+    private final int[] boxOffset, boxElement;
+
+    /**
+     * Builds the index over the elements of the given mesh
+     */
+    public ElementIndex(Mesh mesh) {
+        this.mesh = mesh;
+
+        int n = mesh.elements.length;
+        center = new double[3 * n];
+        box = new double[6 * n];
+
+        double[] lo = new double[3], hi = new double[3];
+        Arrays.fill(lo, Double.POSITIVE_INFINITY);
+        Arrays.fill(hi, Double.NEGATIVE_INFINITY);
+
+        for (Element el : mesh.elements) {
+            int e = el.index;
+            for (int k = 0; k < 3; ++k) {
+                center[3 * e + k] = el.center.get(k);
+                box[6 * e + k] = box[6 * e + 3 + k] = el.center.get(k);
+            }
+            for (int p : el.points) {
+                Point3D x = mesh.points[p].coordinate;
+                for (int k = 0; k < 3; ++k) {
+                    box[6 * e + k] = Math.min(box[6 * e + k], x.get(k));
+                    box[6 * e + 3 + k] = Math.max(box[6 * e + 3 + k], x
+                            .get(k));
+                }
+            }
+            for (int k = 0; k < 3; ++k) {
+                lo[k] = Math.min(lo[k], box[6 * e + k]);
+                hi[k] = Math.max(hi[k], box[6 * e + 3 + k]);
+            }
+        }
+
+        setupGrid(n, lo, hi);
+
+        int numBuckets = size[0] * size[1] * size[2];
+        int[] lower = new int[3], upper = new int[3];
+
+        // Count, then fill, the centres of each bucket
+        centerOffset = new int[numBuckets + 1];
+        for (int e = 0; e < n; ++e)
+            centerOffset[bucket(center, 3 * e) + 1]++;
+        for (int b = 0; b < numBuckets; ++b)
+            centerOffset[b + 1] += centerOffset[b];
+        centerElement = new int[n];
+        int[] next = Arrays.copyOf(centerOffset, numBuckets);
+        for (int e = 0; e < n; ++e)
+            centerElement[next[bucket(center, 3 * e)]++] = e;
+
+        // Likewise for the bounding boxes, which may span several buckets
+        boxOffset = new int[numBuckets + 1];
+        for (int e = 0; e < n; ++e) {
+            range(box, 6 * e, 6 * e + 3, lower, upper);
+            for (int i = lower[0]; i <= upper[0]; ++i)
+                for (int j = lower[1]; j <= upper[1]; ++j)
+                    for (int k = lower[2]; k <= upper[2]; ++k)
+                        boxOffset[linear(i, j, k) + 1]++;
+        }
+        for (int b = 0; b < numBuckets; ++b)
+            boxOffset[b + 1] += boxOffset[b];
+        boxElement = new int[boxOffset[numBuckets]];
+        next = Arrays.copyOf(boxOffset, numBuckets);
+        for (int e = 0; e < n; ++e) {
+            range(box, 6 * e, 6 * e + 3, lower, upper);
+            for (int i = lower[0]; i <= upper[0]; ++i)
+                for (int j = lower[1]; j <= upper[1]; ++j)
+                    for (int k = lower[2]; k <= upper[2]; ++k)
+                        boxElement[next[linear(i, j, k)]++] = e;
+        }
+    }
+
+    /**
+     * Chooses the bucket grid so that the buckets are about as wide as they
+     * are long, and about as many as the elements. Flat directions get a
+     * single bucket
+     */
+    private void setupGrid(int n, double[] lo, double[] hi) {
+        double measure = 1;
+        int dimension = 0;
+        for (int k = 0; k < 3; ++k) {
+            origin[k] = n > 0 ? lo[k] : 0;
+            double extent = n > 0 ? hi[k] - lo[k] : 0;
+            if (extent > 0) {
+                measure *= extent;
+                dimension++;
+            }
+        }
+
+        double h = dimension > 0 ? Math.pow(measure / Math.max(n, 1),
+                1. / dimension) : 0;
+
+        for (int k = 0; k < 3; ++k) {
+            double extent = n > 0 ? hi[k] - lo[k] : 0;
+            if (extent > 0) {
+                size[k] = (int) Math.max(1, Math.min(Math.ceil(extent / h),
+                        Math.max(n, 1)));
+                width[k] = extent / size[k];
+            } else {
+                size[k] = 1;
+                width[k] = 1;
+            }
+        }
+    }
+
+    /**
+     * Bucket coordinate along an axis, clamped to the grid
+     */
+    private int coordinate(double x, int k) {
+        double t = (x - origin[k]) / width[k];
+        if (!(t > 0))
+            return 0;
+        return (int) Math.min(t, size[k] - 1);
+    }
+
+    private int linear(int i, int j, int k) {
+        return i + size[0] * (j + size[1] * k);
+    }
+
+    private int bucket(double[] x, int offset) {
+        return linear(coordinate(x[offset], 0), coordinate(x[offset + 1], 1),
+                coordinate(x[offset + 2], 2));
+    }
+
+    /**
+     * Bucket coordinates covered by a box
+     */
+    private void range(double[] x, int lower, int upper, int[] lo, int[] hi) {
+        for (int k = 0; k < 3; ++k) {
+            lo[k] = coordinate(x[lower + k], k);
+            hi[k] = coordinate(x[upper + k], k);
+        }
+    }
+
+    /**
+     * Returns the element whose centre is closest to the given point, or -1 if
+     * the mesh has no elements. Ties are resolved towards the lowest element
+     * index
+     */
+    public int nearest(Point3D p) {
+        double[] x = { p.x(), p.y(), p.z() };
+        int[] c = new int[3];
+        for (int k = 0; k < 3; ++k)
+            c[k] = coordinate(x[k], k);
+
+        int best = -1;
+        double record = Double.POSITIVE_INFINITY;
+
+        // Search shells of buckets around the bucket of the point, until the
+        // closest centre found is nearer than any unsearched bucket
+        int maxRadius = Math.max(size[0], Math.max(size[1], size[2]));
+        for (int r = 0; r < maxRadius; ++r) {
+            for (int i = Math.max(c[0] - r, 0); i <= Math.min(c[0] + r,
+                    size[0] - 1); ++i)
+                for (int j = Math.max(c[1] - r, 0); j <= Math.min(c[1] + r,
+                        size[1] - 1); ++j)
+                    for (int k = Math.max(c[2] - r, 0); k <= Math.min(c[2]
+                            + r, size[2] - 1); ++k) {
+
+                        // Only the buckets on the surface of the shell
+                        if (Math.abs(i - c[0]) != r && Math.abs(j - c[1]) != r
+                                && Math.abs(k - c[2]) != r)
+                            continue;
+
+                        int b = linear(i, j, k);
+                        for (int m = centerOffset[b]; m < centerOffset[b + 1]; ++m) {
+                            int e = centerElement[m];
+                            double d = distance2(x, e);
+                            if (d < record || (d == record && e < best)) {
+                                record = d;
+                                best = e;
+                            }
+                        }
+                    }
+
+            if (best >= 0 && record < Math.pow(clearance(x, c, r), 2))
+                break;
+        }
+
+        return best;
+    }
+
+    /**
+     * Distance from a point to the nearest bucket outside the given shell.
+     * Infinite if the shell covers the grid
+     */
+    private double clearance(double[] x, int[] c, int r) {
+        double d = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < 3; ++k) {
+            if (c[k] - r > 0)
+                d = Math.min(d, x[k] - (origin[k] + (c[k] - r) * width[k]));
+            if (c[k] + r < size[k] - 1)
+                d = Math.min(d, origin[k] + (c[k] + r + 1) * width[k] - x[k]);
+        }
+        return Math.max(d, 0);
+    }
+
+    private double distance2(double[] x, int e) {
+        double dx = x[0] - center[3 * e], dy = x[1] - center[3 * e + 1], dz = x[2]
+                - center[3 * e + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Returns the elements containing the given point, in ascending order. A
+     * point is taken to be inside an element if it is on the inner side of
+     * every interface plane of the element, which is exact for convex
+     * elements. Points on a shared interface belong to both elements
+     */
+    public int[] containing(Point3D p) {
+        double[] x = { p.x(), p.y(), p.z() };
+        Indices found = new Indices();
+
+        int b = bucket(x, 0);
+        for (int m = boxOffset[b]; m < boxOffset[b + 1]; ++m) {
+            int e = boxElement[m];
+            if (inBox(x, e) && inside(p, mesh.elements[e]))
+                found.add(e);
+        }
+
+        return found.sorted();
+    }
+
+    private boolean inBox(double[] x, int e) {
+        for (int k = 0; k < 3; ++k) {
+            double tol = Tolerances.largeEps
+                    * Math.max(1, box[6 * e + 3 + k] - box[6 * e + k]);
+            if (x[k] < box[6 * e + k] - tol || x[k] > box[6 * e + 3 + k] + tol)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * True if the point is on the inner side of all the (outward oriented)
+     * interfaces of the element
+     */
+    private boolean inside(Point3D p, Element el) {
+        double tol = Tolerances.largeEps * Math.max(1, Math.cbrt(el.volume));
+        for (int i : el.interfaces) {
+            Interface intf = mesh.interfaces[i];
+            if (new Vector3D(intf.center, p).dot(intf.normal) > tol)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the elements whose centres are within the given box, bounds
+     * included, in ascending order
+     */
+    public int[] centersWithin(Point3D lower, Point3D upper) {
+        double[] lo = { lower.x(), lower.y(), lower.z() };
+        double[] hi = { upper.x(), upper.y(), upper.z() };
+        int[] bl = new int[3], bu = new int[3];
+        Indices found = new Indices();
+
+        range(lo, hi, bl, bu);
+        for (int i = bl[0]; i <= bu[0]; ++i)
+            for (int j = bl[1]; j <= bu[1]; ++j)
+                for (int k = bl[2]; k <= bu[2]; ++k) {
+                    int b = linear(i, j, k);
+                    for (int m = centerOffset[b]; m < centerOffset[b + 1]; ++m) {
+                        int e = centerElement[m];
+                        if (within(center, 3 * e, 3 * e, lo, hi))
+                            found.add(e);
+                    }
+                }
+
+        return found.sorted();
+    }
+
+    /**
+     * Returns the elements whose bounding boxes intersect the given box,
+     * bounds included, in ascending order
+     */
+    public int[] overlapping(Point3D lower, Point3D upper) {
+        double[] lo = { lower.x(), lower.y(), lower.z() };
+        double[] hi = { upper.x(), upper.y(), upper.z() };
+        int[] bl = new int[3], bu = new int[3], el = new int[3], eu = new int[3];
+        Indices found = new Indices();
+
+        range(lo, hi, bl, bu);
+        for (int i = bl[0]; i <= bu[0]; ++i)
+            for (int j = bl[1]; j <= bu[1]; ++j)
+                for (int k = bl[2]; k <= bu[2]; ++k) {
+                    int b = linear(i, j, k);
+                    for (int m = boxOffset[b]; m < boxOffset[b + 1]; ++m) {
+                        int e = boxElement[m];
+
+                        // Report each element only from the first bucket it
+                        // shares with the query box
+                        range(box, 6 * e, 6 * e + 3, el, eu);
+                        if (i != Math.max(el[0], bl[0])
+                                || j != Math.max(el[1], bl[1])
+                                || k != Math.max(el[2], bl[2]))
+                            continue;
+
+                        if (within(box, 6 * e, 6 * e + 3, lo, hi))
+                            found.add(e);
+                    }
+                }
+
+        return found.sorted();
+    }
+
+    private void range(double[] lo, double[] hi, int[] bl, int[] bu) {
+        for (int k = 0; k < 3; ++k) {
+            bl[k] = coordinate(lo[k], k);
+            bu[k] = coordinate(hi[k], k);
+        }
+    }
+
+    /**
+     * True if the box spanned by the given lower and upper corners intersects
+     * the query box
+     */
+    private static boolean within(double[] x, int lower, int upper,
+            double[] lo, double[] hi) {
+        for (int k = 0; k < 3; ++k)
+            if (x[upper + k] < lo[k] || x[lower + k] > hi[k])
+                return false;
+        return true;
+    }
+
+    /**
+     * Lower corner of the bounding box of an element
+     */
+    public Point3D lower(int element) {
+        return new Point3D(box[6 * element], box[6 * element + 1],
+                box[6 * element + 2]);
+    }
+
+    /**
+     * Upper corner of the bounding box of an element
+     */
+    public Point3D upper(int element) {
+        return new Point3D(box[6 * element + 3], box[6 * element + 4],
+                box[6 * element + 5]);
+    }
+
+    /**
+     * Growable list of element indices
+     */
+    private static class Indices {
+
+        private int[] data = new int[8];
+
+        private int size;
+
+        void add(int e) {
+            if (size == data.length)
+                data = Arrays.copyOf(data, 2 * size);
+            data[size++] = e;
+        }
+
+        int[] sorted() {
+            int[] result = Arrays.copyOf(data, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
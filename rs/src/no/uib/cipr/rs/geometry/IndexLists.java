@@ -0,0 +1,252 @@
+package no.uib.cipr.rs.geometry;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Lists of indices, one list per row, in compressed row storage. The rows may
+ * be added to in any order. Before they are read, they are packed into a
+ * single array with row offsets
+ */
+final class IndexLists implements Serializable {
+
+    private static final long serialVersionUID = 4105745838391227582L;
+
+    /**
+     * Number of rows
+     */
+    private final int numRows;
+
+    /**
+     * Start and length of each row in the index array while building, or null
+     * when packed
+     */
+    private int[] start, length;
+
+    /**
+     * Row offsets into the index array when packed, or null while building
+     */
+    private volatile int[] offset;
+
+    /**
+     * The indices of all the rows
+     */
+    private int[] index;
+
+    /**
+     * Number of used entries in the index array
+     */
+    private int used;
+
+    /**
+     * Sequence number of each entry of the index array, counting the indices
+     * in the order they were added. Null if the entries were added in storage
+     * order
+     */
+    private int[] order;
+
+    /**
+     * Number of indices added
+     */
+    private int count;
+
+    /**
+     * Creates empty rows
+     */
+    IndexLists(int numRows) {
+        this.numRows = numRows;
+        start = new int[numRows];
+        length = new int[numRows];
+        index = new int[0];
+        order = new int[0];
+    }
+
+    /**
+     * Packed rows with the given offsets and indices
+     */
+    private IndexLists(int[] offset, int[] index) {
+        numRows = offset.length - 1;
+        this.index = index;
+        used = index.length;
+        this.offset = offset;
+    }
+
+    /**
+     * Appends the given indices to a row, skipping those already present
+     */
+    synchronized void add(int row, int[] values) {
+        add(row, values, 0, values.length);
+    }
+
+    /**
+     * Appends the indices of a row of another list to a row, skipping those
+     * already present
+     */
+    synchronized void addRow(int row, IndexLists other, int otherRow) {
+        int begin, end;
+        int[] o = other.offset;
+        if (o != null) {
+            begin = o[otherRow];
+            end = o[otherRow + 1];
+        } else {
+            begin = other.start[otherRow];
+            end = begin + other.length[otherRow];
+        }
+        add(row, other.index, begin, end);
+    }
+
+    private void add(int row, int[] values, int begin, int end) {
+        unpack();
+
+        // Move the row to the end of the storage, unless it is already there
+        int s = start[row], n = length[row];
+        if (s + n != used) {
+            reserve(n + end - begin);
+            System.arraycopy(index, s, index, used, n);
+            System.arraycopy(order, s, order, used, n);
+            s = start[row] = used;
+            used += n;
+        } else
+            reserve(end - begin);
+
+        for (int k = begin; k < end; ++k) {
+            int value = values[k];
+            if (!contains(s, s + n, value)) {
+                order[s + n] = count++;
+                index[s + n++] = value;
+                used++;
+            }
+        }
+
+        length[row] = n;
+    }
+
+    private boolean contains(int begin, int end, int value) {
+        for (int k = begin; k < end; ++k)
+            if (index[k] == value)
+                return true;
+        return false;
+    }
+
+    /**
+     * Ensures room for the given number of indices at the end of the storage
+     */
+    private void reserve(int n) {
+        if (used + n > index.length) {
+            int capacity = Math.max(used + n, index.length + index.length / 2);
+            index = Arrays.copyOf(index, capacity);
+            order = Arrays.copyOf(order, capacity);
+        }
+    }
+
+    /**
+     * Returns the number of indices in a row
+     */
+    int size(int row) {
+        int[] o = packed();
+        return o[row + 1] - o[row];
+    }
+
+    /**
+     * Returns a copy of the indices of a row, in the order they were added
+     */
+    int[] get(int row) {
+        int[] o = packed();
+        return Arrays.copyOfRange(index, o[row], o[row + 1]);
+    }
+
+    /**
+     * Returns the transposed lists, in which row j lists the rows containing
+     * the index j. These are given in the order the index was added to them
+     *
+     * @param numColumns
+     *            One more than the largest index
+     */
+    IndexLists transpose(int numColumns) {
+        pack();
+
+        int[] tOffset = new int[numColumns + 1];
+        for (int k = 0; k < used; ++k)
+            tOffset[index[k] + 1]++;
+        for (int j = 0; j < numColumns; ++j)
+            tOffset[j + 1] += tOffset[j];
+
+        // Row and position of each entry, in the order they were added
+        int[] row = new int[used], position = new int[used];
+        for (int i = 0; i < numRows; ++i)
+            for (int k = offset[i]; k < offset[i + 1]; ++k) {
+                int a = order != null ? order[k] : k;
+                row[a] = i;
+                position[a] = k;
+            }
+
+        int[] next = Arrays.copyOf(tOffset, numColumns);
+        int[] tIndex = new int[used];
+        for (int a = 0; a < used; ++a)
+            tIndex[next[index[position[a]]]++] = row[a];
+
+        return new IndexLists(tOffset, tIndex);
+    }
+
+    /**
+     * Returns the row offsets, packing the rows first if needed
+     */
+    private int[] packed() {
+        int[] o = offset;
+        if (o == null) {
+            pack();
+            o = offset;
+        }
+        return o;
+    }
+
+    /**
+     * Packs the rows in order, with no gaps between them
+     */
+    private synchronized void pack() {
+        if (offset != null)
+            return;
+
+        int[] newOffset = new int[numRows + 1];
+        for (int i = 0; i < numRows; ++i)
+            newOffset[i + 1] = newOffset[i] + length[i];
+
+        int[] newIndex = new int[newOffset[numRows]];
+        int[] newOrder = new int[newIndex.length];
+        for (int i = 0; i < numRows; ++i) {
+            System.arraycopy(index, start[i], newIndex, newOffset[i],
+                    length[i]);
+            System.arraycopy(order, start[i], newOrder, newOffset[i],
+                    length[i]);
+        }
+
+        index = newIndex;
+        order = newOrder;
+        used = newIndex.length;
+        start = length = null;
+        offset = newOffset;
+    }
+
+    /**
+     * Prepares the packed rows for additions
+     */
+    private void unpack() {
+        if (offset == null)
+            return;
+
+        if (order == null) {
+            order = new int[used];
+            for (int k = 0; k < used; ++k)
+                order[k] = k;
+            count = used;
+        }
+
+        start = new int[numRows];
+        length = new int[numRows];
+        for (int i = 0; i < numRows; ++i) {
+            start[i] = offset[i];
+            length[i] = offset[i + 1] - offset[i];
+        }
+        offset = null;
+    }
+}
@@ -10,10 +10,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import no.uib.cipr.rs.geometry.flux.Transmissibility;
 import no.uib.cipr.rs.rock.Rock;
 import no.uib.cipr.rs.util.Pair;
+import no.uib.cipr.rs.util.Parallel;
 import no.uib.cipr.rs.util.Tolerances;
 
 /**
@@ -61,6 +63,11 @@ public final class Mesh implements Serializable {
      */
     public Map<String, SourceLocation> sources;
 
+    /**
+     * Spatial index over the elements, built when first needed
+     */
+    private transient volatile ElementIndex elementIndex;
+
     public Mesh(Geometry geometry, Topology topology, Rock[] rocks) {
         points = buildCornerPoints(topology, geometry);
 
@@ -71,13 +78,29 @@ public final class Mesh implements Serializable {
         nonNeighbourConnections = buildNonNeighbourConnections(topology,
                 geometry);
 
-        connections = buildConnections(topology);
+        connections = buildConnections();
 
         elements = buildElements(topology, geometry, rocks);
 
         testMesh();
     }
 
+    /**
+     * Sets up a mesh from its already built, and already verified, parts. Used
+     * when reading a mesh back in
+     */
+    Mesh(CornerPoint[] points, Interface[] interfaces, Element[] elements,
+            NeighbourConnection[] neighbourConnections,
+            Connection[] nonNeighbourConnections) {
+        this.points = points;
+        this.interfaces = interfaces;
+        this.elements = elements;
+        this.neighbourConnections = neighbourConnections;
+        this.nonNeighbourConnections = nonNeighbourConnections;
+
+        connections = buildConnections();
+    }
+
     private CornerPoint[] buildCornerPoints(Topology topology, Geometry geometry) {
         CornerPoint[] pArray = new CornerPoint[topology.getNumPoints()];
 
@@ -172,8 +195,9 @@ public final class Mesh implements Serializable {
         return cArray;
     }
 
-    private Connection[] buildConnections(Topology topology) {
-        Connection[] cArray = new Connection[topology.getNumConnections()];
+    private Connection[] buildConnections() {
+        Connection[] cArray = new Connection[neighbourConnections.length
+                + nonNeighbourConnections.length];
 
         int i = 0;
 
@@ -195,6 +219,21 @@ public final class Mesh implements Serializable {
             sources.put(q.name, q);
     }
 
+    /**
+     * Spatial index over the elements of the mesh. Built on the first call,
+     * and shared thereafter
+     */
+    public ElementIndex elementIndex() {
+        ElementIndex index = elementIndex;
+        if (index == null)
+            synchronized (this) {
+                index = elementIndex;
+                if (index == null)
+                    elementIndex = index = new ElementIndex(this);
+            }
+        return index;
+    }
+
     /**
      * Iterator over the interfaces of the cornerpoint
      */
@@ -412,7 +451,9 @@ public final class Mesh implements Serializable {
         testNeighbouringInterfaceAreas();
         testNeighbouringInterfaceNormals();
         testOutwardNormals();
-        // testElementOverlap();
+
+        // The overlap test is run by the mesh generator, see
+        // testElementOverlap
     }
 
     // --------------- Point tests ---------------
@@ -761,50 +802,55 @@ public final class Mesh implements Serializable {
      * Test if there is any element that is inside of another. Due to the way we
      * do this test, the relation is not symmetric (think of a tetrahedra where
      * the apex is piercing through one of the sides of a hexahedra), so we have
-     * to do test both the lower and the upper triangle of combinations.
+     * to test both orders of each pair of elements.
      * 
      * This test will not immediately detect cases where one element pierces
      * through its neighbour, but it will find the neighbour element at which
      * the corner point finally end (with the exception of the rare corner case
      * where an element pierces through another and then the apex make out the
      * border).
-     */
-    private final void testElementOverlap() {
-        int total = elements.length * elements.length;
-        double reported = Double.NaN;
-        Set<Integer> problematic = new HashSet<Integer>();
-        List<Pair<Integer, Integer>> overlap = new ArrayList<Pair<Integer, Integer>>();
-        for (int i = 0; i < elements.length; i++) {
-            for (int j = 0 /* i+1 */; j < elements.length; j++) {
-                double progress = Math.floor((i * elements.length + j)
-                        / (double) total * 100.);
-                if (progress != reported) {
-                    System.out.printf(
-                            "Overlap    : percent = %2.0f%%, elements = %d\r",
-                            progress, problematic.size());
-                    reported = progress;
-                }
-
-                if (i != j) {
-                    Element elem1 = this.elements[i];
-                    Element elem2 = this.elements[j];
-                    if (elementInsideElement(elem1, elem2)) {
-                        Integer index1 = new Integer(i);
-                        Integer index2 = new Integer(j);
-                        problematic.add(index1);
-                        problematic.add(index2);
-                        overlap.add(new Pair<Integer, Integer>(index1, index2));
-                        /*
-                         * throw new AssertionError(String.format( "Element %d
-                         * overlaps with element %d", i, j));
-                         */
-                    }
-                }
+     * 
+     * Only pairs of elements with overlapping bounding boxes can overlap, and
+     * these are found from the spatial index of the mesh. The elements are
+     * checked in parallel, and the indices of the problematic elements are
+     * written to the file <code>problem.dat</code>.
+     * 
+     * @return Number of problematic elements
+     */
+    public int testElementOverlap(Parallel parallel) {
+        final ElementIndex index = elementIndex();
+
+        // Overlapping pairs found by each range of elements
+        final List<List<Pair<Integer, Integer>>> found = new ArrayList<List<Pair<Integer, Integer>>>();
+        for (int t = 0; t < parallel.numThreads(); ++t)
+            found.add(new ArrayList<Pair<Integer, Integer>>());
+
+        parallel.execute(elements.length, new Parallel.Range() {
+            public void run(int range, int begin, int end) {
+                List<Pair<Integer, Integer>> overlap = found.get(range);
+                for (int i = begin; i < end; ++i)
+                    for (int j : index.overlapping(index.lower(i), index
+                            .upper(i)))
+                        if (i != j
+                                && elementInsideElement(elements[i],
+                                        elements[j]))
+                            overlap.add(new Pair<Integer, Integer>(i, j));
+            }
+        });
+
+        Set<Integer> problematic = new TreeSet<Integer>();
+        int numOverlaps = 0;
+        for (List<Pair<Integer, Integer>> overlap : found) {
+            for (Pair<Integer, Integer> pair : overlap) {
+                problematic.add(pair.x());
+                problematic.add(pair.y());
             }
+            numOverlaps += overlap.size();
         }
+
         // if i overlaps with j, then j overlaps with i (ideally)
         System.out.printf("Overlap    : elements = %8d, connections = %8d%n",
-                problematic.size(), overlap.size() / 2);
+                problematic.size(), numOverlaps / 2);
 
         // dump indices of the problematic cells to file
         if (problematic.size() > 0) {
@@ -820,6 +866,8 @@ public final class Mesh implements Serializable {
                 throw new RuntimeException(e);
             }
         }
+
+        return problematic.size();
     }
 
     // --------------- Connection tests ---------------
@@ -0,0 +1,530 @@
+package no.uib.cipr.rs.geometry;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import no.uib.cipr.rs.geometry.flux.Transmissibility;
+import no.uib.cipr.rs.rock.Rock;
+import no.uib.cipr.rs.util.ArrayOutput;
+import no.uib.cipr.rs.util.MappedInput;
+
+/**
+ * Binary mesh file. The mesh is stored as flat arrays of coordinates,
+ * volumes, rock indices and connection data, and all the index lists
+ * (topology, transmissibilities, sources) are stored in compressed row form:
+ * an array of <code>n+1</code> offsets followed by the concatenated entries.
+ * The file is read back through memory mapping, without the object graph
+ * bookkeeping of Java serialization.
+ * <p>
+ * All numbers are big-endian. The file starts with the magic number and the
+ * format version, followed by the number of points, interfaces, elements,
+ * neighbour connections, non-neighbour connections, distinct rocks and
+ * sources (<code>-1</code> if none are set). The sections then follow in
+ * the order points, interfaces, rocks, elements, connections, and sources.
+ */
+public final class MeshFile {
+
+    /**
+     * Identifies a binary mesh file ("RSMH")
+     */
+    private static final int MAGIC = 0x52534D48;
+
+    /**
+     * Current format version
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Number of integers in the file header
+     */
+    private static final int HEADER = 9;
+
+    /**
+     * Doubles stored for each rock
+     */
+    private static final int ROCK = 15;
+
+    /**
+     * Rock tensors which are the shared zero tensor
+     */
+    private static final byte ZERO_K = 1, ZERO_k = 2;
+
+    private MeshFile() {
+        // No need for an instance
+    }
+
+    /**
+     * Checks if the given file starts with the binary mesh header
+     */
+    public static boolean isMeshFile(File file) throws IOException {
+        if (file.length() < 4)
+            return false;
+
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the mesh to the given file
+     */
+    public static void write(Mesh mesh, File file) throws IOException {
+        ArrayOutput out = new ArrayOutput(file);
+        try {
+            write(mesh, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void write(Mesh mesh, ArrayOutput out)
+            throws IOException {
+
+        // Distinct rocks, in order of first appearance. Elements with
+        // identical rock data will share a single rock when read back in
+        Map<RockKey, Integer> rockIndex = new HashMap<RockKey, Integer>();
+        List<Rock> rocks = new ArrayList<Rock>();
+        int[] elementRock = new int[mesh.elements.length];
+        for (Element el : mesh.elements) {
+            RockKey key = new RockKey(el.rock);
+            Integer index = rockIndex.get(key);
+            if (index == null) {
+                index = rocks.size();
+                rockIndex.put(key, index);
+                rocks.add(el.rock);
+            }
+            elementRock[el.index] = index;
+        }
+
+        int numSources = mesh.sources != null ? mesh.sources.size() : -1;
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mesh.points.length);
+        out.writeInt(mesh.interfaces.length);
+        out.writeInt(mesh.elements.length);
+        out.writeInt(mesh.neighbourConnections.length);
+        out.writeInt(mesh.nonNeighbourConnections.length);
+        out.writeInt(rocks.size());
+        out.writeInt(numSources);
+
+        /*
+         * Points
+         */
+
+        for (CornerPoint p : mesh.points)
+            write(out, p.coordinate);
+
+        int[][] lists = new int[mesh.points.length][];
+        for (CornerPoint p : mesh.points)
+            lists[p.index] = p.interfaces;
+        out.writeLists(lists);
+        for (CornerPoint p : mesh.points)
+            lists[p.index] = p.elements;
+        out.writeLists(lists);
+
+        /*
+         * Interfaces
+         */
+
+        for (Interface intf : mesh.interfaces)
+            write(out, intf.normal);
+        for (Interface intf : mesh.interfaces)
+            out.writeDouble(intf.area);
+        for (Interface intf : mesh.interfaces)
+            write(out, intf.center);
+        for (Interface intf : mesh.interfaces)
+            out.writeByte(intf.boundary ? 1 : 0);
+        for (Interface intf : mesh.interfaces)
+            out.writeInt(intf.element);
+        for (Interface intf : mesh.interfaces)
+            out.writeInt(intf.neighbourConnection);
+
+        lists = new int[mesh.interfaces.length][];
+        for (Interface intf : mesh.interfaces)
+            lists[intf.index] = intf.points;
+        out.writeLists(lists);
+
+        /*
+         * Rocks
+         */
+
+        for (Rock rock : rocks) {
+            out.writeDouble(rock.getInitialPorosity());
+            out.writeDouble(rock.getRockCompaction());
+            write(out, rock.getAbsolutePermeability());
+            write(out, rock.getRockHeatConductivity());
+            out.writeDouble(rock.getRockHeatCapacity());
+        }
+        for (Rock rock : rocks)
+            out.writeByte(zero(rock));
+
+        String[] regions = new String[rocks.size()];
+        for (int i = 0; i < regions.length; ++i)
+            regions[i] = rocks.get(i).getRegion();
+        out.writeStrings(regions);
+
+        /*
+         * Elements
+         */
+
+        for (Element el : mesh.elements)
+            write(out, el.center);
+        for (Element el : mesh.elements)
+            out.writeDouble(el.volume);
+        for (int rock : elementRock)
+            out.writeInt(rock);
+
+        lists = new int[mesh.elements.length][];
+        for (Element el : mesh.elements)
+            lists[el.index] = el.points;
+        out.writeLists(lists);
+        for (Element el : mesh.elements)
+            lists[el.index] = el.interfaces;
+        out.writeLists(lists);
+        for (Element el : mesh.elements)
+            lists[el.index] = el.associatedNonNeighbourConnections;
+        out.writeLists(lists);
+
+        /*
+         * Connections, neighbours first
+         */
+
+        for (Connection c : mesh.connections)
+            out.writeDouble(c.multiplier);
+        for (Connection c : mesh.connections)
+            out.writeInt(c.hereElement);
+        for (Connection c : mesh.connections)
+            out.writeInt(c.thereElement);
+        for (NeighbourConnection c : mesh.neighbourConnections)
+            out.writeInt(c.hereInterface);
+        for (NeighbourConnection c : mesh.neighbourConnections)
+            out.writeInt(c.thereInterface);
+
+        int numConnections = mesh.connections.length;
+        Transmissibility[][] M = new Transmissibility[numConnections][];
+        for (Connection c : mesh.connections)
+            M[c.index] = c.MD;
+        write(out, M);
+        for (Connection c : mesh.connections)
+            M[c.index] = c.MF;
+        write(out, M);
+
+        /*
+         * Sources
+         */
+
+        if (numSources >= 0) {
+            String[] names = new String[numSources];
+            lists = new int[numSources][];
+            int i = 0;
+            for (SourceLocation q : mesh.sources.values()) {
+                names[i] = q.name;
+                lists[i++] = q.elements;
+            }
+            out.writeStrings(names);
+            out.writeLists(lists);
+        }
+    }
+
+    /**
+     * Exact rock data, for finding the distinct rocks
+     */
+    private static class RockKey {
+
+        private final long[] bits = new long[ROCK];
+
+        private final String region;
+
+        private final byte zero;
+
+        public RockKey(Rock rock) {
+            double[] r = new double[ROCK];
+            r[0] = rock.getInitialPorosity();
+            r[1] = rock.getRockCompaction();
+            tensor(rock.getAbsolutePermeability(), r, 2);
+            tensor(rock.getRockHeatConductivity(), r, 8);
+            r[14] = rock.getRockHeatCapacity();
+            for (int i = 0; i < ROCK; ++i)
+                bits[i] = Double.doubleToLongBits(r[i]);
+
+            region = rock.getRegion();
+            zero = zero(rock);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RockKey))
+                return false;
+            RockKey key = (RockKey) obj;
+            return Arrays.equals(bits, key.bits) && region.equals(key.region)
+                    && zero == key.zero;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bits) ^ region.hashCode();
+        }
+    }
+
+    /**
+     * Flags the rock tensors which are the shared zero tensor
+     */
+    private static byte zero(Rock rock) {
+        byte zero = 0;
+        if (rock.getAbsolutePermeability() == Tensor3D.ZERO)
+            zero |= ZERO_K;
+        if (rock.getRockHeatConductivity() == Tensor3D.ZERO)
+            zero |= ZERO_k;
+        return zero;
+    }
+
+    private static void tensor(Tensor3D K, double[] r, int o) {
+        r[o] = K.xx();
+        r[o + 1] = K.yy();
+        r[o + 2] = K.zz();
+        r[o + 3] = K.xy();
+        r[o + 4] = K.xz();
+        r[o + 5] = K.yz();
+    }
+
+    private static void write(DataOutputStream out, Point3D p)
+            throws IOException {
+        out.writeDouble(p.x());
+        out.writeDouble(p.y());
+        out.writeDouble(p.z());
+    }
+
+    private static void write(DataOutputStream out, Vector3D v)
+            throws IOException {
+        out.writeDouble(v.x());
+        out.writeDouble(v.y());
+        out.writeDouble(v.z());
+    }
+
+    private static void write(DataOutputStream out, Tensor3D K)
+            throws IOException {
+        out.writeDouble(K.xx());
+        out.writeDouble(K.yy());
+        out.writeDouble(K.zz());
+        out.writeDouble(K.xy());
+        out.writeDouble(K.xz());
+        out.writeDouble(K.yz());
+    }
+
+    /**
+     * Writes transmissibilities in compressed row form. A missing set is
+     * flagged separately from an empty one
+     */
+    private static void write(DataOutputStream out, Transmissibility[][] M)
+            throws IOException {
+        int offset = 0;
+        out.writeInt(offset);
+        for (Transmissibility[] Mc : M)
+            out.writeInt(offset += Mc != null ? Mc.length : 0);
+
+        for (Transmissibility[] Mc : M)
+            out.writeByte(Mc != null ? 1 : 0);
+
+        for (Transmissibility[] Mc : M)
+            if (Mc != null)
+                for (Transmissibility t : Mc)
+                    out.writeInt(t.element);
+        for (Transmissibility[] Mc : M)
+            if (Mc != null)
+                for (Transmissibility t : Mc)
+                    out.writeDouble(t.k);
+    }
+
+    /**
+     * Reads a mesh from the given file
+     */
+    public static Mesh read(File file) throws IOException {
+        MappedInput in = new MappedInput(file);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Mesh read(MappedInput in) throws IOException {
+        int[] header = in.readInts(HEADER);
+        if (header[0] != MAGIC)
+            throw new IOException("Not a binary mesh file");
+        if (header[1] != VERSION)
+            throw new IOException("Unsupported mesh file version "
+                    + header[1] + ", expected " + VERSION);
+
+        int numPoints = header[2];
+        int numInterfaces = header[3];
+        int numElements = header[4];
+        int numNeighbourConnections = header[5];
+        int numNonNeighbourConnections = header[6];
+        int numRocks = header[7];
+        int numSources = header[8];
+        int numConnections = numNeighbourConnections
+                + numNonNeighbourConnections;
+
+        /*
+         * Points
+         */
+
+        double[] x = in.readDoubles(3 * numPoints);
+        int[][] pointInterfaces = in.readLists(numPoints);
+        int[][] pointElements = in.readLists(numPoints);
+
+        CornerPoint[] points = new CornerPoint[numPoints];
+        for (int i = 0; i < numPoints; ++i)
+            points[i] = new CornerPoint(i, point(x, i), pointInterfaces[i],
+                    pointElements[i]);
+
+        /*
+         * Interfaces
+         */
+
+        double[] normal = in.readDoubles(3 * numInterfaces);
+        double[] area = in.readDoubles(numInterfaces);
+        x = in.readDoubles(3 * numInterfaces);
+        byte[] boundary = in.readBytes(numInterfaces);
+        int[] element = in.readInts(numInterfaces);
+        int[] neighbourConnection = in.readInts(numInterfaces);
+        int[][] interfacePoints = in.readLists(numInterfaces);
+
+        Interface[] interfaces = new Interface[numInterfaces];
+        for (int i = 0; i < numInterfaces; ++i)
+            interfaces[i] = new Interface(i, new Vector3D(normal[3 * i],
+                    normal[3 * i + 1], normal[3 * i + 2]), area[i], point(x,
+                    i), boundary[i] != 0, interfacePoints[i], element[i],
+                    neighbourConnection[i]);
+
+        /*
+         * Rocks
+         */
+
+        double[] r = in.readDoubles(ROCK * numRocks);
+        byte[] zero = in.readBytes(numRocks);
+        String[] regions = in.readStrings(numRocks);
+
+        Rock[] rocks = new Rock[numRocks];
+        for (int i = 0; i < numRocks; ++i) {
+            int o = ROCK * i;
+            Tensor3D K = (zero[i] & ZERO_K) != 0 ? Tensor3D.ZERO : tensor(r,
+                    o + 2);
+            Tensor3D k = (zero[i] & ZERO_k) != 0 ? Tensor3D.ZERO : tensor(r,
+                    o + 8);
+            rocks[i] = new Rock(r[o], r[o + 1], K, k, r[o + 14], regions[i]);
+        }
+
+        /*
+         * Elements
+         */
+
+        x = in.readDoubles(3 * numElements);
+        double[] volume = in.readDoubles(numElements);
+        int[] rock = in.readInts(numElements);
+        int[][] elementPoints = in.readLists(numElements);
+        int[][] elementInterfaces = in.readLists(numElements);
+        int[][] elementConnections = in.readLists(numElements);
+
+        Element[] elements = new Element[numElements];
+        for (int i = 0; i < numElements; ++i)
+            elements[i] = new Element(i, point(x, i), volume[i],
+                    rocks[rock[i]], elementPoints[i], elementInterfaces[i],
+                    elementConnections[i]);
+
+        /*
+         * Connections
+         */
+
+        double[] multiplier = in.readDoubles(numConnections);
+        int[] here = in.readInts(numConnections);
+        int[] there = in.readInts(numConnections);
+        int[] hereInterface = in.readInts(numNeighbourConnections);
+        int[] thereInterface = in.readInts(numNeighbourConnections);
+
+        NeighbourConnection[] neighbourConnections;
+        neighbourConnections = new NeighbourConnection[numNeighbourConnections];
+        for (int i = 0; i < numNeighbourConnections; ++i)
+            neighbourConnections[i] = new NeighbourConnection(i,
+                    multiplier[i], here[i], there[i], hereInterface[i],
+                    thereInterface[i]);
+
+        Connection[] nonNeighbourConnections;
+        nonNeighbourConnections = new Connection[numNonNeighbourConnections];
+        for (int i = 0; i < numNonNeighbourConnections; ++i) {
+            int c = numNeighbourConnections + i;
+            nonNeighbourConnections[i] = new Connection(c, multiplier[c],
+                    here[c], there[c]);
+        }
+
+        Mesh mesh = new Mesh(points, interfaces, elements,
+                neighbourConnections, nonNeighbourConnections);
+
+        Transmissibility[][] M = readTransmissibilities(in, numConnections);
+        for (Connection c : mesh.connections)
+            c.MD = M[c.index];
+        M = readTransmissibilities(in, numConnections);
+        for (Connection c : mesh.connections)
+            c.MF = M[c.index];
+
+        /*
+         * Sources
+         */
+
+        if (numSources >= 0) {
+            String[] names = in.readStrings(numSources);
+            int[][] sourceElements = in.readLists(numSources);
+
+            mesh.sources = new HashMap<String, SourceLocation>();
+            for (int i = 0; i < numSources; ++i)
+                mesh.sources.put(names[i], new SourceLocation(names[i],
+                        sourceElements[i]));
+        }
+
+        return mesh;
+    }
+
+    /**
+     * Reads <code>n</code> sets of transmissibilities in compressed row form.
+     * Missing sets are returned as null
+     */
+    private static Transmissibility[][] readTransmissibilities(
+            MappedInput in, int n) throws IOException {
+        int[] offset = in.readInts(n + 1);
+        byte[] present = in.readBytes(n);
+        int[] element = in.readInts(offset[n]);
+        double[] k = in.readDoubles(offset[n]);
+
+        Transmissibility[][] M = new Transmissibility[n][];
+        for (int i = 0; i < n; ++i) {
+            if (present[i] == 0)
+                continue;
+
+            M[i] = new Transmissibility[offset[i + 1] - offset[i]];
+            for (int j = offset[i]; j < offset[i + 1]; ++j)
+                M[i][j - offset[i]] = new Transmissibility(element[j], k[j]);
+        }
+        return M;
+    }
+
+    private static Point3D point(double[] x, int i) {
+        return new Point3D(x[3 * i], x[3 * i + 1], x[3 * i + 2]);
+    }
+
+    private static Tensor3D tensor(double[] K, int o) {
+        return new Tensor3D(K[o], K[o + 1], K[o + 2], K[o + 3], K[o + 4],
+                K[o + 5]);
+    }
+}
@@ -30,4 +30,12 @@ public class SourceLocation implements Serializable {
         this.elements = cellPicker.elements();
         this.name = name;
     }
+
+    /**
+     * Sets up a source location from known element indices
+     */
+    SourceLocation(String name, int[] elements) {
+        this.elements = elements;
+        this.name = name;
+    }
 }
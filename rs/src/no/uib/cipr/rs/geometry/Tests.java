@@ -18,7 +18,12 @@ import org.junit.runners.Suite;
      */
     Delaunay2D.Tests.class,
     ConstrainedDelaunay2D.Tests.class,
-    Projection.Tests.class
+    Projection.Tests.class,
+    no.uib.cipr.rs.geometry.test.ElementIndexTest.class,
+    no.uib.cipr.rs.geometry.test.ElementOverlapTest.class,
+    no.uib.cipr.rs.geometry.test.MeshFileTest.class,
+    no.uib.cipr.rs.geometry.test.TopologyTest.class,
+    no.uib.cipr.rs.geometry.test.TransmissibilityThreadsTest.class
 } )
 public class Tests {
     public Tests() {}
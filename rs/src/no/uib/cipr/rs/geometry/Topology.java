@@ -1,17 +1,16 @@
 package no.uib.cipr.rs.geometry;
 
 import java.io.Serializable;
-import java.util.List;
-import java.util.Set;
-
-import no.uib.cipr.rs.meshgen.util.ArrayData;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * A graph topology
  */
 public class Topology implements Serializable {
 
-    private static final long serialVersionUID = -4952938414007305641L;
+    private static final long serialVersionUID = -7063524907118542394L;
 
     private static final int HERE = 0, THERE = 1;
 
@@ -22,68 +21,72 @@ public class Topology implements Serializable {
             neighbourConnections, nonNeighbourConnections;
 
     /**
-     * Set of interface indices per point. No duplicates.
+     * Interface indices per point, derived from the interface points when
+     * first needed. No duplicates.
      */
-    private List<Set<Integer>> pointInterfaces;
+    private IndexLists pointInterfaces;
 
     /**
-     * Set of element indices per point. No duplicates.
+     * Element indices per point, derived from the element points when first
+     * needed. No duplicates.
      */
-    private List<Set<Integer>> pointElements;
+    private IndexLists pointElements;
 
     /**
-     * Set of point indices per interface. No duplicates allowed. Set must be
+     * Point indices per interface. No duplicates allowed. Points must be
      * sorted.
      * 
      * TODO implement check for counter-clockwise sorted set of points.
      */
-    private List<Set<Integer>> interfacePoints;
+    private IndexLists interfacePoints;
 
     /**
-     * Set of point indices per element. No duplicates allowed. Set must be
-     * sorted.
+     * Point indices per element. No duplicates allowed. Points must be sorted.
      * 
      * TODO implement check for counter-clockwise sorted set of points.
      */
-    private List<Set<Integer>> elementPoints;
+    private IndexLists elementPoints;
 
     /**
-     * Set of interface indices per element. No duplicates allowed. Set must be
+     * Interface indices per element. No duplicates allowed. Interfaces must be
      * sorted.
      * 
      * TODO implement check for counter-clockwise sorted set of interfaces.
      */
-    private List<Set<Integer>> elementInterfaces;
+    private IndexLists elementInterfaces;
 
     /**
-     * List of element indices per interface.
+     * Element index per interface, or -1.
      */
-    private List<Integer> interfaceElement;
+    private int[] interfaceElement;
 
     /**
-     * List of Connection indices per interface.
+     * Connection index per interface, or -1.
      */
-    private List<Integer> interfaceConnection;
+    private int[] interfaceConnection;
 
     /**
-     * List of boolean values per interface, true if interface is boundary.
+     * True per interface if the interface is at the boundary.
      */
-    private List<Boolean> isBoundaryInterface;
+    private boolean[] isBoundaryInterface;
 
     /**
-     * List of interface here and there indices per neighbour connection.
+     * Interface here and there indices per neighbour connection, stored
+     * pairwise.
      */
-    private List<List<Integer>> neighbourConnectionInterfaces;
+    private int[] neighbourConnectionInterfaces;
 
     /**
-     * List of element here and there indices per non-neighbour connection.
+     * Element here and there indices per non-neighbour connection, stored
+     * pairwise.
      */
-    private List<List<Integer>> nonNeighbourConnectionElements;
+    private int[] nonNeighbourConnectionElements;
 
     /**
-     * List of Connection indices per element.
+     * Non-neighbour connection indices per element, derived from the
+     * connection elements when first needed.
      */
-    private List<Set<Integer>> elementConnection;
+    private IndexLists elementConnection;
 
     public Topology() {
         // subclas constructor
@@ -103,33 +106,38 @@ public class Topology implements Serializable {
     public void setNumPoints(int numPoints) {
         this.numPoints = numPoints;
 
-        points = ArrayData.getLinearListInteger(numPoints);
+        points = new Range(numPoints);
 
-        pointInterfaces = ArrayData.getListSetInteger(numPoints);
-        pointElements = ArrayData.getListSetInteger(numPoints);
+        pointInterfaces = pointElements = null;
     }
 
     public void setNumInterfaces(int numInterfaces) {
         this.numInterfaces = numInterfaces;
 
-        interfaces = ArrayData.getLinearListInteger(numInterfaces);
+        interfaces = new Range(numInterfaces);
 
-        interfacePoints = ArrayData.getListSetInteger(numInterfaces);
-        interfaceElement = ArrayData.getListInteger(numInterfaces);
-        interfaceConnection = ArrayData.getListInteger(numInterfaces);
+        interfacePoints = new IndexLists(numInterfaces);
+        interfaceElement = new int[numInterfaces];
+        Arrays.fill(interfaceElement, -1);
+        interfaceConnection = new int[numInterfaces];
+        Arrays.fill(interfaceConnection, -1);
 
         // array elements set to false for inner interfaces
-        isBoundaryInterface = ArrayData.getListBoolean(numInterfaces, true);
+        isBoundaryInterface = new boolean[numInterfaces];
+        Arrays.fill(isBoundaryInterface, true);
+
+        pointInterfaces = null;
     }
 
     public void setNumElements(int numElements) {
         this.numElements = numElements;
 
-        elements = ArrayData.getLinearListInteger(numElements);
+        elements = new Range(numElements);
 
-        elementPoints = ArrayData.getListSetInteger(numElements);
-        elementInterfaces = ArrayData.getListSetInteger(numElements);
-        elementConnection = ArrayData.getListSetInteger(numElements);
+        elementPoints = new IndexLists(numElements);
+        elementInterfaces = new IndexLists(numElements);
+
+        pointElements = elementConnection = null;
     }
 
     public void setNumConnections(int numNeighbourConnections,
@@ -138,16 +146,14 @@ public class Topology implements Serializable {
         this.numNonNeighbourConnections = numNonNeighbourConnections;
         numConnections = numNeighbourConnections + numNonNeighbourConnections;
 
-        neighbourConnections = ArrayData
-                .getLinearListInteger(numNeighbourConnections);
-        nonNeighbourConnections = ArrayData
-                .getLinearListInteger(numNonNeighbourConnections);
+        neighbourConnections = new Range(numNeighbourConnections);
+        nonNeighbourConnections = new Range(numNonNeighbourConnections);
+
+        connections = new Range(numConnections);
+        neighbourConnectionInterfaces = new int[2 * numNeighbourConnections];
+        nonNeighbourConnectionElements = new int[2 * numNonNeighbourConnections];
 
-        connections = ArrayData.getLinearListInteger(numConnections);
-        neighbourConnectionInterfaces = ArrayData
-                .getListListInteger(numNeighbourConnections);
-        nonNeighbourConnectionElements = ArrayData
-                .getListListInteger(numNonNeighbourConnections);
+        elementConnection = null;
     }
 
     /**
@@ -160,11 +166,10 @@ public class Topology implements Serializable {
      */
     public void buildNonNeighbourConnectionTopology(int connection, int here,
             int there) {
-        nonNeighbourConnectionElements.get(connection).add(here);
-        nonNeighbourConnectionElements.get(connection).add(there);
+        nonNeighbourConnectionElements[2 * connection + HERE] = here;
+        nonNeighbourConnectionElements[2 * connection + THERE] = there;
 
-        elementConnection.get(here).add(connection);
-        elementConnection.get(there).add(connection);
+        elementConnection = null;
     }
 
     /**
@@ -180,24 +185,27 @@ public class Topology implements Serializable {
      */
     public void buildNeighbourConnectionTopology(int connection, int here,
             int there) {
-        neighbourConnectionInterfaces.get(connection).add(here);
-        neighbourConnectionInterfaces.get(connection).add(there);
+        neighbourConnectionInterfaces[2 * connection + HERE] = here;
+        neighbourConnectionInterfaces[2 * connection + THERE] = there;
 
-        if (interfaceConnection.set(here, connection) >= 0)
+        if (interfaceConnection[here] >= 0)
             throw new IllegalArgumentException(
                     "Interface 'here' has already been associated with a connection");
-        if (interfaceConnection.set(there, connection) >= 0)
+        interfaceConnection[here] = connection;
+        if (interfaceConnection[there] >= 0)
             throw new IllegalArgumentException(
                     "Interface 'there' has already been associated with a connection");
+        interfaceConnection[there] = connection;
 
-        isBoundaryInterface.set(here, false);
-        isBoundaryInterface.set(there, false);
+        isBoundaryInterface[here] = false;
+        isBoundaryInterface[there] = false;
     }
 
     /**
      * Associates a set of interfaces with an element, and vice versa. This
      * also associates the element with the interface points, hence this method
-     * should be called after the interface topology has been built.
+     * should be called after the interface topology has been built. The
+     * points are associated with the element when first needed
      * 
      * @param element
      *            Element index
@@ -205,29 +213,22 @@ public class Topology implements Serializable {
      *            Interface indices
      */
     public void buildElementTopology(int element, int[] interfaces) {
-        Set<Integer> ei = elementInterfaces.get(element);
-        Set<Integer> ep = elementPoints.get(element);
+        elementInterfaces.add(element, interfaces);
         for (int interf : interfaces) {
 
-            // Add the point to the interface
-            ei.add(interf);
-
             // Add this element to all the interfaces
-            interfaceElement.set(interf, element);
+            interfaceElement[interf] = element;
 
             // Add all points on the interface to this element
-            Set<Integer> ip = interfacePoints.get(interf);
-            ep.addAll(ip);
-
-            // Add this element to all the interface points
-            for (int point : ip)
-                pointElements.get(point).add(element);
+            elementPoints.addRow(element, interfacePoints, interf);
         }
+
+        pointElements = null;
     }
 
     /**
      * Associates an interface with the given points. The reverse mapping is
-     * also done
+     * done when first needed
      * 
      * @param interf
      *            Interface index
@@ -235,15 +236,9 @@ public class Topology implements Serializable {
      *            Point indices
      */
     public void buildInterfaceTopology(int interf, int[] points) {
-        Set<Integer> ip = interfacePoints.get(interf);
-        for (int point : points) {
+        interfacePoints.add(interf, points);
 
-            // Add the point to the interface
-            ip.add(point);
-
-            // Add this interface to the current point
-            pointInterfaces.get(point).add(interf);
-        }
+        pointInterfaces = null;
     }
 
     /**
@@ -313,7 +308,7 @@ public class Topology implements Serializable {
      * Returns an integer array of element indices for this point.
      */
     public int[] getPointElements(int i) {
-        return ArrayData.integerCollectionToArray(pointElements.get(i));
+        return pointElements().get(i);
     }
 
     /**
@@ -335,32 +330,32 @@ public class Topology implements Serializable {
      * Returns an array of interface indices for this point.
      */
     public int[] getPointInterfaces(int i) {
-        return ArrayData.integerCollectionToArray(pointInterfaces.get(i));
+        return pointInterfaces().get(i);
     }
 
     /**
      * Returns the element index of the given interface.
      */
     public int getInterfaceElement(int i) {
-        return interfaceElement.get(i);
+        return interfaceElement[i];
     }
 
     /**
      * Returns the neighbour connection index of this interface.
      */
     public int getInterfaceConnection(int i) {
-        if (isBoundaryInterface.get(i))
+        if (isBoundaryInterface[i])
             throw new IllegalArgumentException(
                     "No connection for boundary interface.");
 
-        return interfaceConnection.get(i);
+        return interfaceConnection[i];
     }
 
     /**
      * Returns the non-neighbour connection indices of this element.
      */
     public int[] getElementConnection(int i) {
-        return ArrayData.integerSetToSortedArray(elementConnection.get(i));
+        return elementConnection().get(i);
     }
 
     /**
@@ -375,21 +370,21 @@ public class Topology implements Serializable {
      * Returns an integer array of point indices for this element.
      */
     public int[] getElementPoints(int i) {
-        return ArrayData.integerCollectionToArray(elementPoints.get(i));
+        return elementPoints.get(i);
     }
 
     /**
      * Returns an integer array of interface indices for this element.
      */
     public int[] getElementInterfaces(int i) {
-        return ArrayData.integerCollectionToArray(elementInterfaces.get(i));
+        return elementInterfaces.get(i);
     }
 
     /**
      * Returns an array of point indices for this interface.
      */
     public int[] getInterfacePoints(int i) {
-        return ArrayData.integerCollectionToArray(interfacePoints.get(i));
+        return interfacePoints.get(i);
     }
 
     /**
@@ -397,7 +392,7 @@ public class Topology implements Serializable {
      * given index.
      */
     public int getNeighbourConnectionHere(int i) {
-        return neighbourConnectionInterfaces.get(i).get(HERE);
+        return neighbourConnectionInterfaces[2 * i + HERE];
     }
 
     /**
@@ -405,7 +400,7 @@ public class Topology implements Serializable {
      * given index.
      */
     public int getNeighbourConnectionThere(int i) {
-        return neighbourConnectionInterfaces.get(i).get(THERE);
+        return neighbourConnectionInterfaces[2 * i + THERE];
     }
 
     /**
@@ -413,7 +408,7 @@ public class Topology implements Serializable {
      * with the given index.
      */
     public int getNonNeighbourConnectionHere(int i) {
-        return nonNeighbourConnectionElements.get(i).get(HERE);
+        return nonNeighbourConnectionElements[2 * i + HERE];
     }
 
     /**
@@ -421,14 +416,83 @@ public class Topology implements Serializable {
      * with the given index.
      */
     public int getNonNeighbourConnectionThere(int i) {
-        return nonNeighbourConnectionElements.get(i).get(THERE);
+        return nonNeighbourConnectionElements[2 * i + THERE];
     }
 
     /**
      * Returns true if this interface is at boundary.
      */
     public boolean isBoundaryInterface(int i) {
-        return isBoundaryInterface.get(i);
+        return isBoundaryInterface[i];
+    }
+
+    /**
+     * Interfaces of each point, in the order they were associated with it
+     */
+    private synchronized IndexLists pointInterfaces() {
+        if (pointInterfaces == null)
+            pointInterfaces = interfacePoints.transpose(numPoints);
+        return pointInterfaces;
+    }
+
+    /**
+     * Elements of each point, in the order they were associated with it
+     */
+    private synchronized IndexLists pointElements() {
+        if (pointElements == null)
+            pointElements = elementPoints.transpose(numPoints);
+        return pointElements;
+    }
+
+    /**
+     * Non-neighbour connections of each element, in ascending order
+     */
+    private synchronized IndexLists elementConnection() {
+        if (elementConnection == null) {
+            IndexLists connectionElements = new IndexLists(
+                    numNonNeighbourConnections);
+            for (int i = 0; i < numNonNeighbourConnections; ++i)
+                connectionElements.add(i, new int[] {
+                        nonNeighbourConnectionElements[2 * i + HERE],
+                        nonNeighbourConnectionElements[2 * i + THERE] });
+            elementConnection = connectionElements.transpose(numElements);
+        }
+        return elementConnection;
+    }
+
+    /**
+     * The indices from zero up to a given number
+     */
+    private static class Range implements Iterable<Integer>, Serializable {
+
+        private static final long serialVersionUID = -2212519497410452087L;
+
+        private final int n;
+
+        Range(int n) {
+            this.n = n;
+        }
+
+        public Iterator<Integer> iterator() {
+            return new Iterator<Integer>() {
+
+                private int i;
+
+                public boolean hasNext() {
+                    return i < n;
+                }
+
+                public Integer next() {
+                    if (i >= n)
+                        throw new NoSuchElementException();
+                    return i++;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
     }
 
 }
@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -88,7 +89,7 @@ public class L4_MPFA extends MPFA {
             this.primary = primary;
             this.c = c;
 
-            elIntfMap = new HashMap<Element, List<Interface>>();
+            elIntfMap = new LinkedHashMap<Element, List<Interface>>();
 
             // store the primary element interfaces
             elIntfMap.put(primary, elIntfMapFull.get(primary));
@@ -113,7 +114,7 @@ public class L4_MPFA extends MPFA {
             // set up local element indexing
             numElements = 0;
 
-            elMap = new HashMap<Element, Integer>();
+            elMap = new LinkedHashMap<Element, Integer>();
 
             elMap.put(primary, numElements++);
             for (Element secondary : secondaries)
@@ -689,7 +690,7 @@ public class L4_MPFA extends MPFA {
              * Set potential coefficient indices.
              */
 
-            coefficientIndex = new HashMap<Element, int[]>();
+            coefficientIndex = new LinkedHashMap<Element, int[]>();
 
             coefficientIndex.put(here, new int[] { 0, 2, 3 });
             coefficientIndex.put(there, new int[] { 0, 1, 5 });
@@ -700,7 +701,7 @@ public class L4_MPFA extends MPFA {
              * Set potential coefficient coordinates.
              */
 
-            coordinate = new HashMap<Element, Point3D[]>();
+            coordinate = new LinkedHashMap<Element, Point3D[]>();
 
             Interface thereNeighbourIntf = elIntfMap.get(thereNeighbour).get(0);
             Interface hereNeighbourIntf = elIntfMap.get(hereNeighbour).get(0);
@@ -1260,7 +1261,7 @@ public class L4_MPFA extends MPFA {
          * point.
          */
         private Map<Element, List<Interface>> getElementInterfaces(CornerPoint p) {
-            Map<Element, List<Interface>> map = new HashMap<Element, List<Interface>>();
+            Map<Element, List<Interface>> map = new LinkedHashMap<Element, List<Interface>>();
 
             for (Element e : mesh.elements(p))
                 map.put(e, new ArrayList<Interface>());
@@ -1277,7 +1278,7 @@ public class L4_MPFA extends MPFA {
         private Map<Element, List<Interface>> createElementInterfaceMapRegion(
                 List<Element> elements,
                 Map<Element, List<Interface>> elementInterfaces) {
-            Map<Element, List<Interface>> elIntfMap = new HashMap<Element, List<Interface>>();
+            Map<Element, List<Interface>> elIntfMap = new LinkedHashMap<Element, List<Interface>>();
 
             for (Element el : elements) {
                 List<Interface> iList = new ArrayList<Interface>();
@@ -1348,16 +1349,19 @@ public class L4_MPFA extends MPFA {
 
     @Override
     public List<? extends Collection<Transmissibility>> calculateTransmissibilities(
-            Mesh mesh, Conductivity K) {
+            Mesh mesh, final Conductivity K) {
         this.mesh = mesh;
 
         List<List<Transmissibility>> M = allocateM();
 
-        for (CornerPoint p : mesh.points())
-            if (pointOnBoundary(p))
-                calculateBoundaryTransmissibilities(p, K, M);
-            else
-                calculateTransmissibilities(p, K, M);
+        calculatePoints(new PointCalculation() {
+            public void calculate(CornerPoint p, List<List<Transmissibility>> M) {
+                if (pointOnBoundary(p))
+                    calculateBoundaryTransmissibilities(p, K, M);
+                else
+                    calculateTransmissibilities(p, K, M);
+            }
+        }, M);
 
         testUniformFlow(M);
 
@@ -1381,7 +1385,7 @@ public class L4_MPFA extends MPFA {
                     .getInteractionRegions(c);
 
             // Map relating interaction regions to computed transmissibilities.
-            Map<Matrix, InteractionRegion> candidateT = new HashMap<Matrix, InteractionRegion>();
+            Map<Matrix, InteractionRegion> candidateT = new LinkedHashMap<Matrix, InteractionRegion>();
 
             // calculate the T-matrix of transmissibilities for each L-method
             // interaction region
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -50,7 +51,7 @@ public class L_MPFA extends MPFA {
 
     @Override
     public List<? extends Collection<Transmissibility>> calculateTransmissibilities(
-            Mesh mesh, Conductivity K) {
+            Mesh mesh, final Conductivity K) {
         this.mesh = mesh;
 
         if (testAreas)
@@ -58,11 +59,14 @@ public class L_MPFA extends MPFA {
 
         List<List<Transmissibility>> M = allocateM();
 
-        for (CornerPoint p : mesh.points())
-            if (pointOnBoundary(p))
-                calculateBoundaryTransmissibilities(p, K, M);
-            else
-                calculateLTransmissibilities(p, K, M);
+        calculatePoints(new PointCalculation() {
+            public void calculate(CornerPoint p, List<List<Transmissibility>> M) {
+                if (pointOnBoundary(p))
+                    calculateBoundaryTransmissibilities(p, K, M);
+                else
+                    calculateLTransmissibilities(p, K, M);
+            }
+        }, M);
 
         if (test)
             testUniformFlow(M);
@@ -138,7 +142,7 @@ public class L_MPFA extends MPFA {
                     .getLmethodInteractionRegions(c);
 
             // map relating interaction regions to computed transmissibilities.
-            Map<Matrix, LmethodInteractionRegion> candidateT = new HashMap<Matrix, LmethodInteractionRegion>(
+            Map<Matrix, LmethodInteractionRegion> candidateT = new LinkedHashMap<Matrix, LmethodInteractionRegion>(
                     candidateRegions.size());
 
             // calculate the T-matrix of transmissibilities for each L-method
@@ -351,7 +355,7 @@ public class L_MPFA extends MPFA {
          * point.
          */
         private Map<Element, List<Interface>> getElementInterfaces(CornerPoint p) {
-            Map<Element, List<Interface>> map = new HashMap<Element, List<Interface>>();
+            Map<Element, List<Interface>> map = new LinkedHashMap<Element, List<Interface>>();
 
             for (Element e : mesh.elements(p))
                 map.put(e, new ArrayList<Interface>());
@@ -497,7 +501,7 @@ public class L_MPFA extends MPFA {
             this.p = p;
             this.primary = primary;
 
-            elIntfMap = new HashMap<Element, List<Interface>>();
+            elIntfMap = new LinkedHashMap<Element, List<Interface>>();
 
             // store the primary element interfaces
             elIntfMap.put(primary, elIntfMapFull.get(primary));
@@ -522,7 +526,7 @@ public class L_MPFA extends MPFA {
             // set up local element indexing
             numElements = 0;
 
-            elMap = new HashMap<Element, Integer>();
+            elMap = new LinkedHashMap<Element, Integer>();
 
             elMap.put(primary, numElements++);
             for (Element secondary : secondaries)
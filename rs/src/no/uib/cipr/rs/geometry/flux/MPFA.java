@@ -1,11 +1,14 @@
 package no.uib.cipr.rs.geometry.flux;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import no.uib.cipr.matrix.Matrix;
@@ -17,6 +20,7 @@ import no.uib.cipr.rs.geometry.NeighbourConnection;
 import no.uib.cipr.rs.geometry.Point3D;
 import no.uib.cipr.rs.geometry.Tensor3D;
 import no.uib.cipr.rs.geometry.Vector3D;
+import no.uib.cipr.rs.util.Parallel;
 
 /**
  * Baseclass for MPFA transmissibility calculations. Subclasses must create an
@@ -24,6 +28,127 @@ import no.uib.cipr.rs.geometry.Vector3D;
  */
 abstract class MPFA extends TransmissibilityComputer {
 
+    /**
+     * Number of corner points per thread in each batch of a parallel
+     * calculation
+     */
+    private static final int BATCH = 1024;
+
+    /**
+     * Calculation of the transmissibility contributions of the interaction
+     * regions around a corner point
+     */
+    interface PointCalculation {
+
+        /**
+         * Calculates the contributions around the point, and adds them to the
+         * transmissibility lists of the connections
+         */
+        void calculate(CornerPoint p, List<List<Transmissibility>> M);
+    }
+
+    /**
+     * Runs the calculation for every corner point, in order. With worker
+     * threads, batches of points are calculated in parallel into storage
+     * local to each point, which is then added to M in the order of the
+     * points. The transmissibilities are thus the same for any number of
+     * threads
+     */
+    protected void calculatePoints(final PointCalculation calculation,
+            List<List<Transmissibility>> M) {
+        final List<CornerPoint> points = mesh.points();
+
+        if (parallel == null || parallel.numThreads() == 1) {
+            for (CornerPoint p : points)
+                calculation.calculate(p, M);
+            return;
+        }
+
+        final int numConnections = M.size();
+        final PointTransmissibilities[] local = new PointTransmissibilities[Math
+                .min(BATCH * parallel.numThreads(), points.size())];
+
+        for (int start = 0; start < points.size(); start += local.length) {
+            final int offset = start;
+            final int n = Math.min(local.length, points.size() - start);
+
+            parallel.execute(n, new Parallel.Range() {
+                public void run(int range, int begin, int end) {
+                    for (int i = begin; i < end; ++i) {
+                        local[i] = new PointTransmissibilities(numConnections);
+                        calculation.calculate(points.get(offset + i),
+                                local[i]);
+                    }
+                }
+            });
+
+            for (int i = 0; i < n; ++i) {
+                local[i].addTo(M);
+                local[i] = null;
+            }
+        }
+    }
+
+    /**
+     * The transmissibility lists of the connections around a single corner
+     * point. Lists are created when first used
+     */
+    private static class PointTransmissibilities extends
+            AbstractList<List<Transmissibility>> {
+
+        private final int numConnections;
+
+        /**
+         * Connections in the order they were first used
+         */
+        private final List<Integer> used = new ArrayList<Integer>();
+
+        private final Map<Integer, List<Transmissibility>> lists = new HashMap<Integer, List<Transmissibility>>();
+
+        PointTransmissibilities(int numConnections) {
+            this.numConnections = numConnections;
+        }
+
+        @Override
+        public List<Transmissibility> get(int index) {
+            List<Transmissibility> Mi = lists.get(index);
+            if (Mi == null) {
+                if (index < 0 || index >= numConnections)
+                    throw new IndexOutOfBoundsException("" + index);
+                Mi = new ArrayList<Transmissibility>();
+                lists.put(index, Mi);
+                used.add(index);
+            }
+            return Mi;
+        }
+
+        @Override
+        public int size() {
+            return numConnections;
+        }
+
+        /**
+         * Adds the transmissibilities to those already calculated, in the
+         * same way as if they had been calculated directly into M
+         */
+        void addTo(List<List<Transmissibility>> M) {
+            for (int c : used) {
+                List<Transmissibility> Mi = M.get(c);
+                for (Transmissibility t : lists.get(c)) {
+                    boolean found = false;
+                    for (Transmissibility tp : Mi)
+                        if (tp.element == t.element) {
+                            found = true;
+                            tp.add(t.k);
+                            break;
+                        }
+                    if (!found)
+                        Mi.add(t);
+                }
+            }
+        }
+    }
+
     /**
      * Retrives the connections associated with a grid point
      */
@@ -53,13 +53,16 @@ public class O_MPFA extends MPFA {
 
     @Override
     public List<List<Transmissibility>> calculateTransmissibilities(Mesh mesh,
-            Conductivity K) {
+            final Conductivity K) {
         this.mesh = mesh;
 
         List<List<Transmissibility>> M = allocateM();
 
-        for (CornerPoint p : mesh.points())
-            calculateTransmissibilities(p, K, M);
+        calculatePoints(new PointCalculation() {
+            public void calculate(CornerPoint p, List<List<Transmissibility>> M) {
+                calculateTransmissibilities(p, K, M);
+            }
+        }, M);
 
         if (test)
             testUniformFlow(M);
@@ -8,6 +8,7 @@ import no.uib.cipr.rs.geometry.Element;
 import no.uib.cipr.rs.geometry.Mesh;
 import no.uib.cipr.rs.geometry.Tensor3D;
 import no.uib.cipr.rs.util.Configuration;
+import no.uib.cipr.rs.util.Parallel;
 
 /**
  * Computes transmissibility coefficients
@@ -19,6 +20,19 @@ public abstract class TransmissibilityComputer {
      */
     protected Mesh mesh;
 
+    /**
+     * Worker threads, or null to calculate on the calling thread
+     */
+    protected Parallel parallel;
+
+    /**
+     * Sets the worker threads used for calculating the transmissibilities.
+     * Methods which cannot use them calculate on the calling thread
+     */
+    public void setParallel(Parallel parallel) {
+        this.parallel = parallel;
+    }
+
     /**
      * Calculates new transmissibilities
      * 
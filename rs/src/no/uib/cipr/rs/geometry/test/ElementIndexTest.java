@@ -0,0 +1,135 @@
+package no.uib.cipr.rs.geometry.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import no.uib.cipr.rs.geometry.Element;
+import no.uib.cipr.rs.geometry.ElementIndex;
+import no.uib.cipr.rs.geometry.Mesh;
+import no.uib.cipr.rs.geometry.Point3D;
+import no.uib.cipr.rs.geometry.Vector3D;
+import no.uib.cipr.rs.meshgen.MeshGenerator;
+import no.uib.cipr.rs.util.Configuration;
+
+/**
+ * Compares the spatial index queries against a search over all the elements
+ * of an unevenly spaced structured mesh
+ */
+public class ElementIndexTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    private Mesh mesh;
+
+    private ElementIndex index;
+
+    @Override
+    protected void setUp() throws IOException {
+        File file = File.createTempFile("mesh", null);
+        try {
+            PrintWriter out = new PrintWriter(file);
+            out.println("begin MeshGenerator");
+            out.println("  type StructuredMeshGenerator");
+            out.println("  dimension 3");
+            out.println("  begin Geometry");
+            out.println("    X0 0.0  Y0 0.0  Z0 0.0");
+            out.println("    array Nx 4 3 end  array Dx 0.5 2.0 end");
+            out.println("    array Ny 5 end  array Dy 0.3 end");
+            out.println("    array Nz 2 4 end  array Dz -1.0 -0.25 end");
+            out.println("    RegionMappingType uniform");
+            out.println("  end");
+            out.println("  begin RockRegionMap array Rock 1 end end");
+            out.println("  begin RockData");
+            out.println("    type Global");
+            out.println("    array poro 0.2 end");
+            out.println("    array permx 1 end");
+            out.println("    array permy 1 end");
+            out.println("    array permz 1 end");
+            out.println("  end");
+            out.println("end");
+            out.close();
+
+            mesh = MeshGenerator.generate(new Configuration(file.getPath()));
+        } finally {
+            file.delete();
+        }
+        index = mesh.elementIndex();
+    }
+
+    /**
+     * A random point in a box somewhat larger than the mesh
+     */
+    private Point3D point() {
+        return new Point3D(-1 + 10 * random.nextDouble(),
+                -0.5 + 2.5 * random.nextDouble(), -3.5 + 4
+                        * random.nextDouble());
+    }
+
+    public void testNearest() {
+        for (int n = 0; n < 2000; ++n) {
+            Point3D p = n % 4 == 0 ? mesh.elements[random
+                    .nextInt(mesh.elements.length)].center : point();
+
+            int closest = -1;
+            double record = Double.POSITIVE_INFINITY;
+            for (Element e : mesh.elements()) {
+                double distance = new Vector3D(p, e.center).norm2();
+                if (distance < record) {
+                    closest = e.index;
+                    record = distance;
+                }
+            }
+
+            assertEquals(closest, index.nearest(p));
+        }
+    }
+
+    public void testContaining() {
+        for (Element e : mesh.elements()) {
+            int[] found = index.containing(e.center);
+            assertEquals(1, found.length);
+            assertEquals(e.index, found[0]);
+        }
+
+        // Outside the mesh
+        assertEquals(0, index.containing(new Point3D(-1, -1, 1)).length);
+    }
+
+    public void testBoxes() {
+        for (int n = 0; n < 500; ++n) {
+            Point3D a = point(), b = point();
+            Point3D lower = new Point3D(Math.min(a.x(), b.x()), Math.min(a
+                    .y(), b.y()), Math.min(a.z(), b.z()));
+            Point3D upper = new Point3D(Math.max(a.x(), b.x()), Math.max(a
+                    .y(), b.y()), Math.max(a.z(), b.z()));
+
+            int[] centers = new int[mesh.elements.length];
+            int[] boxes = new int[mesh.elements.length];
+            int numCenters = 0, numBoxes = 0;
+            for (Element e : mesh.elements()) {
+                if (inside(e.center, e.center, lower, upper))
+                    centers[numCenters++] = e.index;
+                if (inside(index.lower(e.index), index.upper(e.index), lower,
+                        upper))
+                    boxes[numBoxes++] = e.index;
+            }
+
+            assertTrue(Arrays.equals(Arrays.copyOf(centers, numCenters), index
+                    .centersWithin(lower, upper)));
+            assertTrue(Arrays.equals(Arrays.copyOf(boxes, numBoxes), index
+                    .overlapping(lower, upper)));
+        }
+    }
+
+    private static boolean inside(Point3D a, Point3D b, Point3D lower,
+            Point3D upper) {
+        for (int k = 0; k < Point3D.DIMENSIONS; ++k)
+            if (b.get(k) < lower.get(k) || a.get(k) > upper.get(k))
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,112 @@
+package no.uib.cipr.rs.geometry.test;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import no.uib.cipr.rs.geometry.Geometry;
+import no.uib.cipr.rs.geometry.Mesh;
+import no.uib.cipr.rs.geometry.Point3D;
+import no.uib.cipr.rs.geometry.Tensor3D;
+import no.uib.cipr.rs.geometry.Topology;
+import no.uib.cipr.rs.geometry.Vector3D;
+import no.uib.cipr.rs.rock.Rock;
+import no.uib.cipr.rs.util.Parallel;
+
+/**
+ * Checks the element overlap test on unconnected unit cubes, some of which
+ * are moved into others
+ */
+public class ElementOverlapTest extends TestCase {
+
+    /**
+     * Corners of the unit cube, and the corners of each of its sides
+     */
+    private static final int[][] CORNERS = { { 0, 0, 0 }, { 1, 0, 0 },
+            { 0, 1, 0 }, { 1, 1, 0 }, { 0, 0, 1 }, { 1, 0, 1 }, { 0, 1, 1 },
+            { 1, 1, 1 } };
+
+    private static final int[][] SIDES = { { 0, 2, 6, 4 }, { 1, 3, 7, 5 },
+            { 0, 1, 5, 4 }, { 2, 3, 7, 6 }, { 0, 1, 3, 2 }, { 4, 5, 7, 6 } };
+
+    private static final double[][] NORMALS = { { -1, 0, 0 }, { 1, 0, 0 },
+            { 0, -1, 0 }, { 0, 1, 0 }, { 0, 0, -1 }, { 0, 0, 1 } };
+
+    /**
+     * A mesh of unit cubes with the given lower corners
+     */
+    private Mesh cubes(Point3D... origin) {
+        int n = origin.length;
+
+        Topology topology = new Topology();
+        topology.setNumPoints(8 * n);
+        topology.setNumInterfaces(6 * n);
+        topology.setNumElements(n);
+        topology.setNumConnections(0, 0);
+
+        Geometry geometry = new Geometry();
+        geometry.setSizes(topology);
+
+        Rock[] rocks = new Rock[n];
+
+        for (int e = 0; e < n; ++e) {
+            Point3D o = origin[e];
+            for (int p = 0; p < 8; ++p)
+                geometry.buildPoint(8 * e + p, new Point3D(o.x()
+                        + CORNERS[p][0], o.y() + CORNERS[p][1], o.z()
+                        + CORNERS[p][2]));
+
+            int[] interfaces = new int[6];
+            for (int s = 0; s < 6; ++s) {
+                int[] points = new int[4];
+                for (int k = 0; k < 4; ++k)
+                    points[k] = 8 * e + SIDES[s][k];
+                interfaces[s] = 6 * e + s;
+                topology.buildInterfaceTopology(interfaces[s], points);
+
+                double[] v = NORMALS[s];
+                geometry.buildInterface(interfaces[s], 1, new Point3D(o.x()
+                        + 0.5 + 0.5 * v[0], o.y() + 0.5 + 0.5 * v[1], o.z()
+                        + 0.5 + 0.5 * v[2]), new Vector3D(v[0], v[1], v[2]));
+            }
+            topology.buildElementTopology(e, interfaces);
+            geometry.buildElement(e, 1, new Point3D(o.x() + 0.5, o.y() + 0.5,
+                    o.z() + 0.5));
+
+            rocks[e] = new Rock(0.2, 0, new Tensor3D(1), "rock");
+        }
+
+        return new Mesh(geometry, topology, rocks);
+    }
+
+    @Override
+    protected void tearDown() {
+        new File("problem.dat").delete();
+    }
+
+    public void testSeparate() {
+        Mesh mesh = cubes(new Point3D(0, 0, 0), new Point3D(1, 0, 0),
+                new Point3D(0, 1, 0), new Point3D(3, 3, 3));
+        assertEquals(0, overlaps(mesh, 1));
+        assertEquals(0, overlaps(mesh, 3));
+    }
+
+    public void testOverlapping() {
+        Mesh mesh = cubes(new Point3D(0, 0, 0), new Point3D(1, 0, 0),
+                new Point3D(0.5, 0.5, 0.5), new Point3D(5, 5, 5), new Point3D(
+                        5.25, 4.5, 5.75), new Point3D(8, 0, 0));
+        assertEquals(5, overlaps(mesh, 1));
+        assertEquals(5, overlaps(mesh, 4));
+    }
+
+    /**
+     * Number of overlapping elements found with the given number of threads
+     */
+    private int overlaps(Mesh mesh, int numThreads) {
+        Parallel parallel = new Parallel(numThreads);
+        try {
+            return mesh.testElementOverlap(parallel);
+        } finally {
+            parallel.shutdown();
+        }
+    }
+}
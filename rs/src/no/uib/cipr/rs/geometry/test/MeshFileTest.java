@@ -0,0 +1,270 @@
+package no.uib.cipr.rs.geometry.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import no.uib.cipr.rs.Paths;
+import no.uib.cipr.rs.geometry.Connection;
+import no.uib.cipr.rs.geometry.CornerPoint;
+import no.uib.cipr.rs.geometry.Element;
+import no.uib.cipr.rs.geometry.Interface;
+import no.uib.cipr.rs.geometry.Mesh;
+import no.uib.cipr.rs.geometry.MeshFile;
+import no.uib.cipr.rs.geometry.NeighbourConnection;
+import no.uib.cipr.rs.geometry.Point3D;
+import no.uib.cipr.rs.geometry.SourceLocation;
+import no.uib.cipr.rs.geometry.Tensor3D;
+import no.uib.cipr.rs.geometry.Vector3D;
+import no.uib.cipr.rs.geometry.flux.AbsolutePermeability;
+import no.uib.cipr.rs.geometry.flux.Transmissibility;
+import no.uib.cipr.rs.geometry.flux.TransmissibilityComputer;
+import no.uib.cipr.rs.meshgen.MeshGenerator;
+import no.uib.cipr.rs.rock.Rock;
+import no.uib.cipr.rs.util.Configuration;
+import no.uib.cipr.rs.util.MappedInput;
+
+/**
+ * Writes a small generated mesh in the binary format, reads it back, and
+ * compares the geometry, topology, rocks, transmissibilities and sources
+ */
+public class MeshFileTest extends TestCase {
+
+    /**
+     * Elements along each direction
+     */
+    private static final int nx = 3, ny = 2, nz = 2;
+
+    private Mesh mesh;
+
+    private File file;
+
+    private int chunkSize;
+
+    @Override
+    protected void setUp() throws IOException {
+        int n = nx * ny * nz;
+        double[] poro = new double[n], perm = new double[n];
+        for (int i = 0; i < n; ++i) {
+            // Every other element shares its rock with another one
+            poro[i] = 0.1 + 0.01 * (i / 2);
+            perm[i] = 1e-13 * (1 + i / 2);
+        }
+
+        File config = File.createTempFile("mesh", null);
+        try {
+            PrintWriter out = new PrintWriter(config);
+            out.println("begin MeshGenerator");
+            out.println("  type StructuredMeshGenerator");
+            out.println("  dimension 3");
+            out.println("  begin Geometry");
+            out.println("    X0 0.0  Y0 0.0  Z0 0.0");
+            out.format("    array Nx %d end  array Dx 0.5 end\n", nx);
+            out.format("    array Ny %d end  array Dy 0.3 end\n", ny);
+            out.format("    array Nz %d end  array Dz -1.0 end\n", nz);
+            out.println("    RegionMappingType uniform");
+            out.println("  end");
+            out.println("  begin RockRegionMap array Rock 1 end end");
+            out.println("  begin RockData");
+            out.println("    type Global");
+            write(out, "poro", poro);
+            write(out, "permx", perm);
+            write(out, "permy", perm);
+            out.println("    array permz 1e-14 end");
+            out.println("  end");
+            out.println("end");
+            out.println("begin TransmissibilityMethod type O_MPFA end");
+            out.println("begin Sources");
+            out.println("  begin Injector array elements 1 end end");
+            out.println("  begin Producer array elements 6 12 end end");
+            out.println("end");
+            out.close();
+
+            Configuration configuration = new Configuration(config.getPath());
+            mesh = MeshGenerator.generate(configuration);
+
+            TransmissibilityComputer tc = TransmissibilityComputer
+                    .create(configuration);
+            List<? extends Collection<Transmissibility>> M = tc
+                    .calculateTransmissibilities(mesh,
+                            new AbsolutePermeability());
+            for (Connection c : mesh.neighbourConnections())
+                c.setDarcyTransmissibilities(M.get(c.index));
+
+            Configuration sources = configuration.getConfiguration("Sources");
+            Map<String, SourceLocation> sourceMap = new HashMap<String, SourceLocation>();
+            for (String key : sources.keys())
+                sourceMap.put(key, new SourceLocation(sources, key, mesh));
+            mesh.sources = sourceMap;
+        } finally {
+            config.delete();
+        }
+
+        file = File.createTempFile("mesh", null);
+        chunkSize = MappedInput.getChunkSize();
+    }
+
+    private static void write(PrintWriter out, String name, double[] values) {
+        out.format("    array %s\n", name);
+        for (double value : values)
+            out.format("      %s\n", value);
+        out.println("    end");
+    }
+
+    @Override
+    protected void tearDown() {
+        MappedInput.setChunkSize(chunkSize);
+        file.delete();
+    }
+
+    public void testRoundTrip() throws IOException {
+        MeshFile.write(mesh, file);
+        assertTrue(MeshFile.isMeshFile(file));
+        compare(mesh, Paths.readMesh(file));
+    }
+
+    /**
+     * Maps the file in chunks smaller than most of the arrays, and not a
+     * multiple of the size of a double
+     */
+    public void testRoundTripChunked() throws IOException {
+        MappedInput.setChunkSize(100);
+        MeshFile.write(mesh, file);
+        compare(mesh, Paths.readMesh(file));
+    }
+
+    private static void compare(Mesh expected, Mesh actual) {
+        assertEquals(expected.points.length, actual.points.length);
+        for (CornerPoint e : expected.points()) {
+            CornerPoint a = actual.points[e.index];
+            assertEquals(e.index, a.index);
+            compare(e.coordinate, a.coordinate);
+            assertEquals(indices(expected.interfaces(e)), indices(actual
+                    .interfaces(a)));
+            assertEquals(indices(expected.elements(e)), indices(actual
+                    .elements(a)));
+        }
+
+        assertEquals(expected.interfaces.length, actual.interfaces.length);
+        for (Interface e : expected.interfaces()) {
+            Interface a = actual.interfaces[e.index];
+            assertEquals(e.index, a.index);
+            compare(e.normal, a.normal);
+            assertEquals(e.area, a.area, 0);
+            compare(e.center, a.center);
+            assertEquals(e.boundary, a.boundary);
+            assertEquals(indices(expected.points(e)), indices(actual.points(a)));
+            assertEquals(expected.element(e).index, actual.element(a).index);
+            if (!e.boundary)
+                assertEquals(expected.connection(e).index, actual
+                        .connection(a).index);
+        }
+
+        assertEquals(expected.elements.length, actual.elements.length);
+        for (Element e : expected.elements()) {
+            Element a = actual.elements[e.index];
+            assertEquals(e.index, a.index);
+            compare(e.center, a.center);
+            assertEquals(e.volume, a.volume, 0);
+            compare(e.rock, a.rock);
+            assertEquals(indices(expected.points(e)), indices(actual.points(a)));
+            assertEquals(indices(expected.interfaces(e)), indices(actual
+                    .interfaces(a)));
+            assertEquals(indices(expected.nonNeighbourConnections(e)),
+                    indices(actual.nonNeighbourConnections(a)));
+        }
+
+        assertEquals(expected.neighbourConnections.length,
+                actual.neighbourConnections.length);
+        assertEquals(expected.nonNeighbourConnections.length,
+                actual.nonNeighbourConnections.length);
+        assertEquals(expected.connections.length, actual.connections.length);
+        for (Connection e : expected.connections()) {
+            Connection a = actual.connections[e.index];
+            assertEquals(e.index, a.index);
+            assertEquals(e.multiplier, a.multiplier, 0);
+            assertEquals(e.hereElement, a.hereElement);
+            assertEquals(e.thereElement, a.thereElement);
+            compare(e.MD, a.MD);
+            compare(e.MF, a.MF);
+        }
+        for (NeighbourConnection e : expected.neighbourConnections()) {
+            NeighbourConnection a = actual.neighbourConnections[e.index];
+            assertEquals(e.hereInterface, a.hereInterface);
+            assertEquals(e.thereInterface, a.thereInterface);
+        }
+
+        assertEquals(expected.sources(), actual.sources());
+        for (String q : expected.sources())
+            assertEquals(indices(expected.elements(q)), indices(actual
+                    .elements(q)));
+    }
+
+    private static void compare(Point3D e, Point3D a) {
+        assertEquals(e.x(), a.x(), 0);
+        assertEquals(e.y(), a.y(), 0);
+        assertEquals(e.z(), a.z(), 0);
+    }
+
+    private static void compare(Vector3D e, Vector3D a) {
+        assertEquals(e.x(), a.x(), 0);
+        assertEquals(e.y(), a.y(), 0);
+        assertEquals(e.z(), a.z(), 0);
+    }
+
+    private static void compare(Tensor3D e, Tensor3D a) {
+        assertEquals(e.xx(), a.xx(), 0);
+        assertEquals(e.yy(), a.yy(), 0);
+        assertEquals(e.zz(), a.zz(), 0);
+        assertEquals(e.xy(), a.xy(), 0);
+        assertEquals(e.xz(), a.xz(), 0);
+        assertEquals(e.yz(), a.yz(), 0);
+    }
+
+    private static void compare(Rock e, Rock a) {
+        assertEquals(e.getInitialPorosity(), a.getInitialPorosity(), 0);
+        assertEquals(e.getRockCompaction(), a.getRockCompaction(), 0);
+        compare(e.getAbsolutePermeability(), a.getAbsolutePermeability());
+        compare(e.getRockHeatConductivity(), a.getRockHeatConductivity());
+        assertEquals(e.getRockHeatCapacity(), a.getRockHeatCapacity(), 0);
+        assertEquals(e.getRegion(), a.getRegion());
+    }
+
+    private static void compare(Transmissibility[] e, Transmissibility[] a) {
+        assertEquals(e == null, a == null);
+        if (e == null)
+            return;
+
+        assertEquals(e.length, a.length);
+        for (int i = 0; i < e.length; ++i) {
+            assertEquals(e[i].element, a[i].element);
+            assertEquals(e[i].k, a[i].k, 0);
+        }
+    }
+
+    /**
+     * Indices of the given points, interfaces, elements or connections, in
+     * the order given
+     */
+    private static String indices(List<?> list) {
+        StringBuilder indices = new StringBuilder();
+        for (Object o : list) {
+            int index;
+            if (o instanceof CornerPoint)
+                index = ((CornerPoint) o).index;
+            else if (o instanceof Interface)
+                index = ((Interface) o).index;
+            else if (o instanceof Element)
+                index = ((Element) o).index;
+            else
+                index = ((Connection) o).index;
+            indices.append(index).append(' ');
+        }
+        return indices.toString();
+    }
+}
@@ -0,0 +1,269 @@
+package no.uib.cipr.rs.geometry.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+import no.uib.cipr.rs.geometry.Topology;
+
+/**
+ * Builds the topology of a small two-dimensional mesh of quadrilaterals, and
+ * compares its incidences with those of a construction by sets of indices.
+ * The incidences must be given in the same order, as the interaction regions
+ * of the MPFA methods are built from the point incidences
+ */
+public class TopologyTest extends TestCase {
+
+    /**
+     * Elements along each direction
+     */
+    private static final int nx = 3, ny = 2;
+
+    /**
+     * Element pairs of the non-neighbour connections
+     */
+    private static final int[][] NNC = { { 0, 5 }, { 2, 3 }, { 0, 3 } };
+
+    private Topology topology;
+
+    private Reference reference;
+
+    @Override
+    protected void setUp() {
+        int numPoints = (nx + 1) * (ny + 1);
+        int numElements = nx * ny;
+        int numNeighbours = (nx - 1) * ny + nx * (ny - 1);
+
+        topology = new Topology();
+        topology.setSizes(numPoints, 4 * numElements, numElements,
+                numNeighbours, NNC.length);
+        reference = new Reference(numPoints, 4 * numElements, numElements);
+
+        // Interfaces, with the sides ordered left, right, bottom and top. The
+        // elements are visited backwards, so that the incidences are not
+        // added in ascending order
+        for (int j = ny - 1; j >= 0; --j)
+            for (int i = nx - 1; i >= 0; --i) {
+                int e = element(i, j);
+                buildInterface(4 * e, point(i, j + 1), point(i, j));
+                buildInterface(4 * e + 1, point(i + 1, j), point(i + 1, j + 1));
+                buildInterface(4 * e + 2, point(i, j), point(i + 1, j));
+                buildInterface(4 * e + 3, point(i + 1, j + 1), point(i, j + 1));
+            }
+
+        // Reads in between builds must not disturb the later results
+        compare();
+
+        // The first element is built in two parts, with an interface given
+        // twice, and the rest in between
+        buildElement(0, 0, 1);
+        for (int e = numElements - 1; e > 0; --e)
+            buildElement(e, 4 * e, 4 * e + 1, 4 * e + 2, 4 * e + 3);
+        compare();
+        buildElement(0, 1, 2, 3);
+
+        int c = 0;
+        for (int j = 0; j < ny; ++j)
+            for (int i = 0; i < nx; ++i) {
+                if (i + 1 < nx)
+                    buildNeighbour(c++, 4 * element(i, j) + 1,
+                            4 * element(i + 1, j));
+                if (j + 1 < ny)
+                    buildNeighbour(c++, 4 * element(i, j) + 3,
+                            4 * element(i, j + 1) + 2);
+            }
+
+        for (c = 0; c < NNC.length; ++c) {
+            topology.buildNonNeighbourConnectionTopology(c, NNC[c][0],
+                    NNC[c][1]);
+            reference.buildNonNeighbourConnectionTopology(c, NNC[c][0],
+                    NNC[c][1]);
+        }
+    }
+
+    private static int point(int i, int j) {
+        return i + j * (nx + 1);
+    }
+
+    private static int element(int i, int j) {
+        return i + j * nx;
+    }
+
+    private void buildInterface(int interf, int... points) {
+        topology.buildInterfaceTopology(interf, points);
+        reference.buildInterfaceTopology(interf, points);
+    }
+
+    private void buildElement(int element, int... interfaces) {
+        topology.buildElementTopology(element, interfaces);
+        reference.buildElementTopology(element, interfaces);
+    }
+
+    private void buildNeighbour(int connection, int here, int there) {
+        topology.buildNeighbourConnectionTopology(connection, here, there);
+        reference.buildNeighbourConnectionTopology(connection, here, there);
+    }
+
+    public void testIncidences() {
+        compare();
+        compareConnections();
+    }
+
+    public void testSerialized() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(topology);
+        out.close();
+
+        topology = (Topology) new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray())).readObject();
+
+        compare();
+        compareConnections();
+    }
+
+    /**
+     * Compares the point, interface and element incidences
+     */
+    private void compare() {
+        for (int i = 0; i < reference.interfacePoints.size(); ++i)
+            assertEquals(reference.interfacePoints.get(i), list(topology
+                    .getInterfacePoints(i)));
+
+        for (int i = 0; i < reference.elementPoints.size(); ++i) {
+            assertEquals(reference.elementPoints.get(i), list(topology
+                    .getElementPoints(i)));
+            assertEquals(reference.elementInterfaces.get(i), list(topology
+                    .getElementInterfaces(i)));
+        }
+
+        for (int i = 0; i < reference.pointInterfaces.size(); ++i) {
+            assertEquals(reference.pointInterfaces.get(i), list(topology
+                    .getPointInterfaces(i)));
+            assertEquals(reference.pointElements.get(i), list(topology
+                    .getPointElements(i)));
+        }
+
+        for (int i = 0; i < reference.interfaceElement.length; ++i)
+            assertEquals(reference.interfaceElement[i], topology
+                    .getInterfaceElement(i));
+    }
+
+    /**
+     * Compares the connections of the interfaces and elements
+     */
+    private void compareConnections() {
+        for (int i = 0; i < reference.interfaceConnection.length; ++i) {
+            boolean boundary = reference.interfaceConnection[i] < 0;
+            assertEquals(boundary, topology.isBoundaryInterface(i));
+            if (!boundary)
+                assertEquals(reference.interfaceConnection[i], topology
+                        .getInterfaceConnection(i));
+        }
+
+        for (int i = 0; i < reference.neighbourInterfaces.size(); ++i) {
+            assertEquals(reference.neighbourInterfaces.get(i).get(0)
+                    .intValue(), topology.getNeighbourConnectionHere(i));
+            assertEquals(reference.neighbourInterfaces.get(i).get(1)
+                    .intValue(), topology.getNeighbourConnectionThere(i));
+        }
+
+        for (int i = 0; i < NNC.length; ++i) {
+            assertEquals(NNC[i][0], topology.getNonNeighbourConnectionHere(i));
+            assertEquals(NNC[i][1], topology.getNonNeighbourConnectionThere(i));
+        }
+
+        for (int i = 0; i < reference.elementConnection.size(); ++i)
+            assertEquals(new ArrayList<Integer>(new TreeSet<Integer>(
+                    reference.elementConnection.get(i))), list(topology
+                    .getElementConnection(i)));
+    }
+
+    private static List<Integer> list(int[] values) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int value : values)
+            list.add(value);
+        return list;
+    }
+
+    private static List<List<Integer>> lists(int n) {
+        List<List<Integer>> lists = new ArrayList<List<Integer>>();
+        for (int i = 0; i < n; ++i)
+            lists.add(new ArrayList<Integer>());
+        return lists;
+    }
+
+    /**
+     * The incidences built as ordered sets, the way the topology used to
+     */
+    private static class Reference {
+
+        final List<List<Integer>> interfacePoints, elementPoints,
+                elementInterfaces, pointInterfaces, pointElements,
+                elementConnection, neighbourInterfaces;
+
+        final int[] interfaceElement, interfaceConnection;
+
+        Reference(int numPoints, int numInterfaces, int numElements) {
+            interfacePoints = lists(numInterfaces);
+            elementPoints = lists(numElements);
+            elementInterfaces = lists(numElements);
+            pointInterfaces = lists(numPoints);
+            pointElements = lists(numPoints);
+            elementConnection = lists(numElements);
+            neighbourInterfaces = new ArrayList<List<Integer>>();
+
+            interfaceElement = new int[numInterfaces];
+            interfaceConnection = new int[numInterfaces];
+            Arrays.fill(interfaceElement, -1);
+            Arrays.fill(interfaceConnection, -1);
+        }
+
+        void buildInterfaceTopology(int interf, int[] points) {
+            for (int point : points) {
+                add(interfacePoints.get(interf), point);
+                add(pointInterfaces.get(point), interf);
+            }
+        }
+
+        void buildElementTopology(int element, int[] interfaces) {
+            for (int interf : interfaces) {
+                add(elementInterfaces.get(element), interf);
+                interfaceElement[interf] = element;
+                for (int point : interfacePoints.get(interf)) {
+                    add(elementPoints.get(element), point);
+                    add(pointElements.get(point), element);
+                }
+            }
+        }
+
+        void buildNeighbourConnectionTopology(int connection, int here,
+                int there) {
+            neighbourInterfaces.add(Arrays.asList(here, there));
+            interfaceConnection[here] = connection;
+            interfaceConnection[there] = connection;
+        }
+
+        void buildNonNeighbourConnectionTopology(int connection, int here,
+                int there) {
+            add(elementConnection.get(here), connection);
+            add(elementConnection.get(there), connection);
+        }
+
+        /**
+         * Appends an index unless already present, as an insertion-ordered
+         * set would
+         */
+        private static void add(List<Integer> list, int value) {
+            if (!list.contains(value))
+                list.add(value);
+        }
+    }
+}
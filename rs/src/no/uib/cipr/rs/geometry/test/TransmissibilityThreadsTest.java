@@ -0,0 +1,147 @@
+package no.uib.cipr.rs.geometry.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import no.uib.cipr.rs.geometry.Mesh;
+import no.uib.cipr.rs.geometry.flux.AbsolutePermeability;
+import no.uib.cipr.rs.geometry.flux.Transmissibility;
+import no.uib.cipr.rs.geometry.flux.TransmissibilityComputer;
+import no.uib.cipr.rs.meshgen.MeshGenerator;
+import no.uib.cipr.rs.util.Configuration;
+import no.uib.cipr.rs.util.Parallel;
+
+/**
+ * Compares the MPFA transmissibilities calculated on one thread with those
+ * calculated on several, on a skewed mesh with heterogeneous and anisotropic
+ * permeabilities. They must be identical, as the contributions of the corner
+ * points are merged in the same order
+ */
+public class TransmissibilityThreadsTest extends TestCase {
+
+    /**
+     * Elements along each direction. There are more corner points than fit
+     * in one batch of two threads
+     */
+    private static final int nx = 48, ny = 44;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        Random random = new Random(42);
+        int n = nx * ny;
+        double[] kx = new double[n], ky = new double[n], kxy = new double[n];
+        for (int i = 0; i < n; ++i) {
+            kx[i] = 1e-13 * (1 + 99 * random.nextDouble());
+            ky[i] = 1e-13 * (1 + 99 * random.nextDouble());
+            kxy[i] = 0.3 * Math.min(kx[i], ky[i])
+                    * (2 * random.nextDouble() - 1);
+        }
+
+        file = File.createTempFile("mesh", null);
+        PrintWriter out = new PrintWriter(file);
+        out.println("begin MeshGenerator");
+        out.println("  type StructuredMeshGenerator");
+        out.println("  dimension 2");
+        out.println("  begin Geometry");
+        out.println("    X0 0.0  Y0 0.0");
+        out.format("    array Nx %d end  array Dx %s end\n", nx, 1. / nx);
+        out.format("    array Ny %d end  array Dy %s end\n", ny, 1. / ny);
+        out.println("    RegionMappingType uniform");
+        out.println("    begin StructuredTransform");
+        out.println("      type BilinearTransform");
+        out.println("      array x 0.0 105.0 20.0 125.0 end");
+        out.println("      array y 0.0 0.0 10.0 10.0 end");
+        out.println("    end");
+        out.println("  end");
+        out.println("  begin RockRegionMap array Rock 1 end end");
+        out.println("  begin RockData");
+        out.println("    type Global");
+        out.println("    array poro 0.2 end");
+        write(out, "permx", kx);
+        write(out, "permy", ky);
+        write(out, "permxy", kxy);
+        out.println("    array permz 1e-13 end");
+        out.println("  end");
+        out.println("end");
+        out.close();
+    }
+
+    private static void write(PrintWriter out, String name, double[] values) {
+        out.format("    array %s\n", name);
+        for (double value : values)
+            out.format("      %s\n", value);
+        out.println("    end");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testO_MPFA() throws IOException {
+        compare("O_MPFA");
+    }
+
+    private void compare(String method) throws IOException {
+        List<? extends Collection<Transmissibility>> expected = calculate(
+                method, 1);
+
+        for (int numThreads : new int[] { 2, 3 }) {
+            List<? extends Collection<Transmissibility>> M = calculate(method,
+                    numThreads);
+
+            assertEquals(expected.size(), M.size());
+            for (int c = 0; c < M.size(); ++c) {
+                List<Transmissibility> e = new ArrayList<Transmissibility>(
+                        expected.get(c));
+                List<Transmissibility> t = new ArrayList<Transmissibility>(M
+                        .get(c));
+
+                assertEquals(e.size(), t.size());
+                for (int i = 0; i < t.size(); ++i) {
+                    assertEquals(e.get(i).element, t.get(i).element);
+                    assertEquals(e.get(i).k, t.get(i).k, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Transmissibilities of each connection of the mesh, calculated by the
+     * given method on the given number of threads
+     */
+    private List<? extends Collection<Transmissibility>> calculate(
+            String method, int numThreads) throws IOException {
+        Mesh mesh = MeshGenerator.generate(new Configuration(file.getPath()));
+
+        File methodFile = File.createTempFile("method", null);
+        TransmissibilityComputer tc;
+        try {
+            PrintWriter out = new PrintWriter(methodFile);
+            out.format("begin TransmissibilityMethod type %s end\n", method);
+            out.close();
+
+            tc = TransmissibilityComputer.create(new Configuration(methodFile
+                    .getPath()));
+        } finally {
+            methodFile.delete();
+        }
+
+        Parallel parallel = new Parallel(numThreads);
+        try {
+            tc.setParallel(parallel);
+            return tc.calculateTransmissibilities(mesh,
+                    new AbsolutePermeability());
+        } finally {
+            parallel.shutdown();
+        }
+    }
+}
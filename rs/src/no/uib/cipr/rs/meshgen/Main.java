@@ -1,12 +1,8 @@
 package no.uib.cipr.rs.meshgen;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -20,6 +16,7 @@ import no.uib.cipr.rs.Paths;
 import no.uib.cipr.rs.geometry.Connection;
 import no.uib.cipr.rs.geometry.Element;
 import no.uib.cipr.rs.geometry.Mesh;
+import no.uib.cipr.rs.geometry.MeshFile;
 import no.uib.cipr.rs.geometry.SourceLocation;
 import no.uib.cipr.rs.geometry.flux.AbsolutePermeability;
 import no.uib.cipr.rs.geometry.flux.Conductivity;
@@ -27,6 +24,7 @@ import no.uib.cipr.rs.geometry.flux.RockHeatConductivity;
 import no.uib.cipr.rs.geometry.flux.Transmissibility;
 import no.uib.cipr.rs.geometry.flux.TransmissibilityComputer;
 import no.uib.cipr.rs.util.Configuration;
+import no.uib.cipr.rs.util.Parallel;
 
 /**
  * Mesh generator main class
@@ -63,22 +61,40 @@ public class Main {
             sourceMap.put(key, new SourceLocation(sources, key, mesh));
         mesh.sources = sourceMap;
 
+        // Elements are checked for overlap unless disabled. Both this and the
+        // transmissibilities may be calculated with several threads
+        boolean checkOverlap = config.getBoolean("CheckOverlap", true);
+        int numThreads = config.getInt("NumberOfThreads", 1);
+        if (numThreads < 1)
+            throw new IllegalArgumentException(config.trace()
+                    + "NumberOfThreads must be positive");
+
         // Ensure we're done with the configuration file
         config.ensureEmpty();
 
-        // Create the output directory
-        File gridding = new File(Paths.GRIDDING_OUTPUT);
-        gridding.mkdirs();
+        Parallel parallel = new Parallel(numThreads);
+        try {
+            tc.setParallel(parallel);
+
+            if (checkOverlap)
+                mesh.testElementOverlap(parallel);
 
-        // Calculate transmissibilities on the mesh
-        calculateTransmissibilities(mesh, tc);
+            // Create the output directory
+            File gridding = new File(Paths.GRIDDING_OUTPUT);
+            gridding.mkdirs();
+
+            // Calculate transmissibilities on the mesh
+            calculateTransmissibilities(mesh, tc);
+        } finally {
+            parallel.shutdown();
+        }
 
         // Name for the mesh output file
         String meshFile = Paths.GRIDDING_OUTPUT + "/" + Paths.MESH_FILE;
 
         // Output the fine mesh
         System.out.print("Writing the mesh ... ");
-        writeObjects(meshFile, mesh);
+        MeshFile.write(mesh, new File(meshFile));
         System.out.println("done");
     }
 
@@ -102,17 +118,6 @@ public class Main {
         System.out.println();
     }
 
-    private static void writeObjects(String file, Object... objects)
-            throws IOException {
-        ObjectOutput out = new ObjectOutputStream(new BufferedOutputStream(
-                new FileOutputStream(file)));
-
-        for (Object o : objects)
-            out.writeObject(o);
-
-        out.close();
-    }
-
     protected static void calculateTransmissibilities(Mesh mesh,
             TransmissibilityComputer tc) {
 
@@ -0,0 +1,115 @@
+package no.uib.cipr.rs.numerics;
+
+import no.uib.cipr.rs.geometry.Connection;
+import no.uib.cipr.rs.geometry.Mesh;
+
+/**
+ * Partitions the elements into contiguous blocks of rows, one per thread, and
+ * lists the connections touching each block. A connection between two blocks
+ * is visited by both, and each block only adds into the rows it owns. The rows
+ * are thus filled without any locking, and as every row receives its
+ * contributions in increasing connection order, the assembled system is
+ * identical to the one from a serial assembly
+ */
+class ConnectionPartition {
+
+    /**
+     * First row of each block. The last entry is the number of rows
+     */
+    private final int[] rowBegin;
+
+    /**
+     * Indices of the connections touching each block, in increasing order
+     */
+    private final int[][] connections;
+
+    /**
+     * Sets up the partitioning
+     *
+     * @param mesh
+     *                Computational mesh
+     * @param numBlocks
+     *                Number of blocks to create
+     */
+    public ConnectionPartition(Mesh mesh, int numBlocks) {
+        int numElements = mesh.elements.length;
+        numBlocks = Math.max(1, Math.min(numBlocks, numElements));
+
+        /*
+         * Balance the blocks on the number of transmissibilities coupling into
+         * their rows, as this is what the assembly cost is proportional to
+         */
+
+        long[] weight = new long[numElements];
+        long total = 0;
+        for (Connection c : mesh.connections) {
+            weight[c.hereElement] += c.MD.length;
+            weight[c.thereElement] += c.MD.length;
+            total += 2 * c.MD.length;
+        }
+
+        rowBegin = new int[numBlocks + 1];
+        int[] block = new int[numElements];
+        long sum = 0;
+        for (int i = 0, b = 0; i < numElements; ++i) {
+            while (b < numBlocks - 1 && sum >= total * (b + 1) / numBlocks)
+                rowBegin[++b] = i;
+            block[i] = b;
+            sum += weight[i];
+        }
+        rowBegin[numBlocks] = numElements;
+
+        /*
+         * Count, then fill in the connections of each block
+         */
+
+        int[] count = new int[numBlocks];
+        for (Connection c : mesh.connections) {
+            int bHere = block[c.hereElement], bThere = block[c.thereElement];
+            count[bHere]++;
+            if (bThere != bHere)
+                count[bThere]++;
+        }
+
+        connections = new int[numBlocks][];
+        for (int b = 0; b < numBlocks; ++b)
+            connections[b] = new int[count[b]];
+
+        int[] next = new int[numBlocks];
+        for (Connection c : mesh.connections) {
+            int bHere = block[c.hereElement], bThere = block[c.thereElement];
+            connections[bHere][next[bHere]++] = c.index;
+            if (bThere != bHere)
+                connections[bThere][next[bThere]++] = c.index;
+        }
+    }
+
+    /**
+     * Number of blocks
+     */
+    public int numBlocks() {
+        return connections.length;
+    }
+
+    /**
+     * First row owned by a block
+     */
+    public int rowBegin(int block) {
+        return rowBegin[block];
+    }
+
+    /**
+     * One past the last row owned by a block
+     */
+    public int rowEnd(int block) {
+        return rowBegin[block + 1];
+    }
+
+    /**
+     * Indices of the connections touching the rows of the given block, in
+     * increasing order
+     */
+    public int[] connections(int block) {
+        return connections[block];
+    }
+}
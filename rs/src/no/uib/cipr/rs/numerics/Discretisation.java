@@ -8,6 +8,7 @@ import java.util.Set;
 
 import no.uib.cipr.rs.field.CS;
 import no.uib.cipr.rs.field.CV;
+import no.uib.cipr.rs.field.CVState;
 import no.uib.cipr.rs.field.Field;
 import no.uib.cipr.rs.field.Source;
 import no.uib.cipr.rs.field.Source.OutletSource;
@@ -15,13 +16,14 @@ import no.uib.cipr.rs.field.Source.RegularSource;
 import no.uib.cipr.rs.fluid.Component;
 import no.uib.cipr.rs.fluid.Components;
 import no.uib.cipr.rs.fluid.Composition;
-import no.uib.cipr.rs.fluid.EquationOfStateData;
 import no.uib.cipr.rs.fluid.Phase;
 import no.uib.cipr.rs.geometry.Connection;
 import no.uib.cipr.rs.geometry.Element;
 import no.uib.cipr.rs.geometry.Mesh;
 import no.uib.cipr.rs.geometry.flux.Transmissibility;
 import no.uib.cipr.rs.meshgen.util.ArrayData;
+import no.uib.cipr.rs.numerics.Telemetry.Stage;
+import no.uib.cipr.rs.util.Parallel;
 
 /**
  * Discretisation of the fluid flow. Performs flow couplings in time and space
@@ -44,6 +46,11 @@ class Discretisation {
      */
     final Field field;
 
+    /**
+     * Numerical state of the control volumes, read directly by the assembly
+     */
+    final CVState state;
+
     /**
      * Elements which state are locked
      */
@@ -69,6 +76,21 @@ class Discretisation {
      */
     final LinearSolver solver;
 
+    /**
+     * Timings of the timestep stages
+     */
+    final Telemetry telemetry;
+
+    /**
+     * Worker threads for the assembly
+     */
+    final Parallel parallel;
+
+    /**
+     * Partitioning of the rows and connections among the worker threads
+     */
+    final ConnectionPartition partition;
+
     /**
      * Thermal run?
      */
@@ -131,6 +153,7 @@ class Discretisation {
         this.mesh = field.getMesh();
         this.field = field;
         this.components = field.getComponents();
+        this.state = field.getState();
 
         /*
          * Copy parameters from the run specification
@@ -193,7 +216,16 @@ class Discretisation {
          * Linear system solver
          */
 
-        solver = runSpec.createSolver(mesh, locked);
+        telemetry = new Telemetry(runSpec);
+        solver = runSpec.createSolver(mesh, locked, telemetry);
+
+        /*
+         * Threads for the assembly and the flash calculations
+         */
+
+        parallel = new Parallel(runSpec.getNumberOfThreads());
+        partition = new ConnectionPartition(mesh, parallel.numThreads());
+        field.setParallel(parallel);
     }
 
     /**
@@ -219,9 +251,27 @@ class Discretisation {
             temperature.solve(dt);
 
         // Solve for the components
+        long start = telemetry.start();
         molarMass.solve(dt);
+        telemetry.stop(Stage.MOLAR_MASS, start);
 
+        calculateSecondaries();
+    }
+
+    /**
+     * Calculates the secondary variables of the field
+     */
+    private void calculateSecondaries() {
+        long start = telemetry.start();
         field.calculateSecondaries();
+        telemetry.stop(Stage.SECONDARIES, start);
+    }
+
+    /**
+     * Number of Newton iterations on the pressure in the last timestep
+     */
+    int getNewtonIterations() {
+        return pressure.pressureIterations;
     }
 
     /**
@@ -284,20 +334,24 @@ class Discretisation {
             do {
 
                 // Assembles the flux part of the Jacobian matrix
+                long start = telemetry.start();
                 assemblePressureJacobianFlux();
+                telemetry.stop(Stage.FLUX, start);
 
                 // Assembles the diagonal part of the Jacobian matrix
+                start = telemetry.start();
                 assemblePressureJacobianDiagonal(dt);
+                telemetry.stop(Stage.DIAGONAL, start);
 
                 // Solve J * dx = -r for dx
-                solver.solve();
+                solver.solve(LinearSolver.Equation.PRESSURE);
 
                 // Apply the pressure update, and get the largest change
                 dpMax_prev = dpMax;
                 dpMax = updatePressure(solver.getCorrection(dp));
 
                 // Flash calculations, but only for positive pressures
-                field.calculateSecondaries();
+                calculateSecondaries();
 
                 // Difference in the relative pressure changes
                 diff = Math.abs(dpMax_prev - dpMax);
@@ -319,7 +373,12 @@ class Discretisation {
         private boolean converged(double dpMax, int pressureIterations)
                 throws SolverFailure {
 
-            System.out.format("%3d %6e\n", pressureIterations, dpMax);
+            if (solver.reusesPreconditioner())
+                System.out.format("%3d %6e %5d %s\n", pressureIterations,
+                        dpMax, solver.getIterations(), solver
+                                .reusedPreconditioner() ? "reused" : "updated");
+            else
+                System.out.format("%3d %6e\n", pressureIterations, dpMax);
 
             if (dp[0] < pressureTolerance)
                 return true;
@@ -363,16 +422,12 @@ class Discretisation {
          * residual vector for the pressure calculations
          */
         private void assemblePressureJacobianDiagonal(double dt) {
-            for (Element el : mesh.elements()) {
-                int i = el.index;
-
-                CV cv = field.getControlVolume(el);
-
-                double dp = cv.getPressure() - p[i];
-                double dRdp = cv.getResidualVolumeDerivativePressure();
+            for (int i = 0; i < state.numElements; ++i) {
+                double dp = state.p[i] - p[i];
+                double dRdp = state.dRdp[i];
 
                 solver.addToResidual(i, (R[i] + dRdp * dp) / dt);
-                solver.addToJacobian(i, i, dRdp / dt);
+                solver.addToJacobianDiagonal(i, dRdp / dt);
             }
 
             for (Source source : field.sources()) {
@@ -454,62 +509,77 @@ class Discretisation {
 
         /**
          * Builds the flux part of the Jacobian matrix and residual vector for
-         * the pressure calculations
+         * the pressure calculations. The blocks of the row partitioning are
+         * assembled concurrently
          */
         private void assemblePressureJacobianFlux() {
-            for (Connection c : mesh.connections()) {
+            parallel.execute(partition.numBlocks(), new Parallel.Block() {
+                public void run(int block) {
+                    assemblePressureJacobianFlux(block);
+                }
+            });
+        }
 
-                Element here = mesh.here(c), there = mesh.there(c);
-                int i = here.index, j = there.index;
+        /**
+         * Builds the flux part of the pressure system for the rows of a single
+         * block. Connections to other blocks are assembled here too, but only
+         * the rows owned by this block are added into
+         */
+        private void assemblePressureJacobianFlux(int block) {
+            int begin = partition.rowBegin(block);
+            int end = partition.rowEnd(block);
+
+            int nc = state.numComponents;
+            double[] dRdN = state.dRdN, compMob = state.compMob;
+
+            for (int index : partition.connections(block)) {
+
+                Connection c = mesh.connections[index];
+                int i = c.hereElement, j = c.thereElement;
+
+                boolean ownHere = i >= begin && i < end;
+                boolean ownThere = j >= begin && j < end;
 
-                CV cvHere = field.getControlVolume(here);
-                CV cvThere = field.getControlVolume(there);
                 CS cs = field.getControlSurface(c);
 
                 // Heat capacities on either side of the connection
-                double deltaHere = cvHere.getHeatCapacity();
-                double deltaThere = cvThere.getHeatCapacity();
+                double deltaHere = state.delta[i];
+                double deltaThere = state.delta[j];
 
-                double dRdT_here = cvHere
-                        .getResidualVolumeDerivativeTemperature();
-                double dRdT_there = cvThere
-                        .getResidualVolumeDerivativeTemperature();
+                double dRdT_here = state.dRdT[i];
+                double dRdT_there = state.dRdT[j];
 
                 double ri = 0, rj = 0;
 
                 // Darcy flux
-                for (Transmissibility t : c.MD) {
+                for (int k = 0; k < c.MD.length; ++k) {
 
+                    Transmissibility t = c.MD[k];
                     Element ek = mesh.element(t);
-                    int ik = ek.index;
                     double tk = t.k;
                     double b = cs.bodyForce(ek);
-                    CV ck = field.getControlVolume(ek);
 
                     double Ji = 0, Jj = 0;
 
                     for (Phase phase : Phase.all()) {
 
-                        Element up = cs.getUpstream(phase);
-                        CV cvUp = field.getControlVolume(up);
+                        int up = CVState.phase(cs.getUpstream(phase).index,
+                                phase);
 
                         // See if the phase is present upstream
-                        if (!cvUp.isPhasePresent(phase))
+                        if (!state.present[up])
                             continue;
 
                         // Phase potential
-                        double psi = ck.getPhasePressure(phase)
+                        double psi = state.getPhasePressure(ek.index, phase)
                                 + cs.getRho(phase) * b;
 
                         // Assemble component fluxes
-                        for (Component nu : components.all()) {
-                            double phaseCompMob = cvUp.getComponentMobility(
-                                    phase, nu);
+                        for (int nu = 0; nu < nc; ++nu) {
+                            double phaseCompMob = compMob[up * nc + nu];
 
-                            double dRdNhere = cvHere
-                                    .getResidualVolumeDerivativeMolarMass(nu);
-                            double dRdNthere = cvThere
-                                    .getResidualVolumeDerivativeMolarMass(nu);
+                            double dRdNhere = dRdN[i * nc + nu];
+                            double dRdNthere = dRdN[j * nc + nu];
 
                             double dNdt = -phaseCompMob * tk * psi;
                             double d2Ndtp = -phaseCompMob * tk;
@@ -523,8 +593,7 @@ class Discretisation {
 
                         // Assemble convective thermal fluxes
                         if (thermal) {
-                            double phaseEnergyMob = cvUp
-                                    .getEnergyMobility(phase);
+                            double phaseEnergyMob = state.energyMob[up];
 
                             double dTdt = -phaseEnergyMob * tk * psi;
                             double d2Tdtp = -phaseEnergyMob * tk;
@@ -537,26 +606,28 @@ class Discretisation {
                         }
                     }
 
-                    solver.addToJacobian(i, ik, Ji);
-                    solver.addToJacobian(j, ik, Jj);
+                    if (ownHere)
+                        solver.addToJacobianDarcy(index, k, true, Ji);
+                    if (ownThere)
+                        solver.addToJacobianDarcy(index, k, false, Jj);
                 }
 
                 // Fourier flux
                 if (thermal)
                     for (Transmissibility t : c.MF) {
 
-                        Element ek = mesh.element(t);
                         double tk = t.k;
-                        CV ck = field.getControlVolume(ek);
 
-                        double F = tk * ck.getTemperature();
+                        double F = tk * state.T[mesh.element(t).index];
 
                         ri += -dRdT_here * F / deltaHere;
                         rj += dRdT_there * F / deltaThere;
                     }
 
-                solver.addToResidual(i, ri);
-                solver.addToResidual(j, rj);
+                if (ownHere)
+                    solver.addToResidual(i, ri);
+                if (ownThere)
+                    solver.addToResidual(j, rj);
             }
         }
     }
@@ -577,16 +648,20 @@ class Discretisation {
         public void solve(double dt) throws SolverFailure {
 
             // Assembles the advective flux part
+            long start = telemetry.start();
             assembleTemperatureJacobianAdvectiveFlux();
 
             // Assembles the conductive flux part of the Jacobian matrix
             assembleTemperatureJacobianConductiveFlux();
+            telemetry.stop(Stage.FLUX, start);
 
             // Assembles the diagonal (elementwise) part of the Jacobian matrix
+            start = telemetry.start();
             assembleTemperatureJacobianDiagonal(dt);
+            telemetry.stop(Stage.DIAGONAL, start);
 
             // Solve J * dx = -r for dx
-            solver.solve();
+            solver.solve(LinearSolver.Equation.TEMPERATURE);
 
             // Apply the temperature update
             updateTemperature(solver.getCorrection(dT));
@@ -631,24 +706,22 @@ class Discretisation {
                 for (Phase phase : Phase.all()) {
 
                     // Upstream direction
-                    Element up = cs.getUpstream(phase);
-                    CV cvUp = field.getControlVolume(up);
+                    int up = CVState.phase(cs.getUpstream(phase).index, phase);
 
                     // Check for phase presence
-                    if (!cvUp.isPhasePresent(phase))
+                    if (!state.present[up])
                         continue;
 
-                    double energyMob = cvUp.getEnergyMobility(phase);
+                    double energyMob = state.energyMob[up];
 
                     for (Transmissibility t : c.MD) {
 
                         Element ek = mesh.element(t);
                         double tk = t.k;
                         double b = cs.bodyForce(ek);
-                        CV ck = field.getControlVolume(ek);
 
                         // Phase potential
-                        double psi = ck.getPhasePressure(phase)
+                        double psi = state.getPhasePressure(ek.index, phase)
                                 + cs.getRho(phase) * b;
 
                         // Energy flux
@@ -670,20 +743,18 @@ class Discretisation {
                 Element here = mesh.here(c), there = mesh.there(c);
                 int i = here.index, j = there.index;
 
-                for (Transmissibility t : c.MF) {
+                for (int k = 0; k < c.MF.length; ++k) {
 
-                    Element ek = mesh.element(t);
-                    int ik = ek.index;
+                    Transmissibility t = c.MF[k];
                     double tk = t.k;
-                    CV ck = field.getControlVolume(ek);
 
-                    double T = ck.getTemperature();
+                    double T = state.T[mesh.element(t).index];
 
                     solver.addToResidual(i, tk * T);
                     solver.addToResidual(j, -tk * T);
 
-                    solver.addToJacobian(i, ik, tk);
-                    solver.addToJacobian(j, ik, -tk);
+                    solver.addToJacobianFourier(c.index, k, true, tk);
+                    solver.addToJacobianFourier(c.index, k, false, -tk);
                 }
             }
         }
@@ -692,16 +763,12 @@ class Discretisation {
          * Builds the diagonal (elementwise) part of the temperature system
          */
         private void assembleTemperatureJacobianDiagonal(double dt) {
-            for (Element el : mesh.elements()) {
-                int i = el.index;
-
-                CV cv = field.getControlVolume(el);
-
-                double delta = cv.getHeatCapacity();
-                double dT = cv.getTemperature() - T[i];
+            for (int i = 0; i < state.numElements; ++i) {
+                double delta = state.delta[i];
+                double dT = state.T[i] - T[i];
 
                 solver.addToResidual(i, delta * dT / dt);
-                solver.addToJacobian(i, i, delta / dt);
+                solver.addToJacobianDiagonal(i, delta / dt);
             }
 
             for (Source source : field.sources()) {
@@ -841,14 +908,10 @@ class Discretisation {
 
                     double D = cs.getDarcyFlux(phase);
 
-                    EquationOfStateData eos = cvUp
-                            .getEquationOfStateData(phase);
-
-                    Composition N = eos.getComposition();
-                    double xi = eos.getMolarDensity();
+                    double xi = cvUp.getMolarDensity(phase);
 
                     for (Component nu : components.all()) {
-                        double C = N.getMoleFraction(nu);
+                        double C = cvUp.getMoleFraction(phase, nu);
                         compFlux[nu.index()] += C * xi * D;
                     }
                 }
@@ -1008,6 +1071,8 @@ class Discretisation {
      *                The timestep which failed
      */
     public void retractField(double dt) {
+        long start = telemetry.start();
         field.retract(field.getTime() - dt, p, T, N);
+        telemetry.stop(Stage.RETRACTION, start);
     }
 }
@@ -0,0 +1,222 @@
+package no.uib.cipr.rs.numerics;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * Initial guess for the Krylov solver, based on the solutions of earlier
+ * linear systems of the same equation. The pressure and temperature systems
+ * therefore have one each. A guess is only used if the zero vector is not already
+ * converged, and if the guess has a smaller residual than the zero vector.
+ * Otherwise, the Krylov solver could accept a guess as converged when the
+ * right hand side is small, giving a spurious Newton correction
+ */
+abstract class InitialGuess {
+
+    /**
+     * Earlier solutions, the most recent first
+     */
+    final DenseVector[] history;
+
+    /**
+     * Number of solutions stored so far
+     */
+    int stored;
+
+    /**
+     * Residual of the guess
+     */
+    private final DenseVector r;
+
+    /**
+     * Absolute convergence tolerance of the Krylov solver
+     */
+    private double absoluteTolerance;
+
+    /**
+     * Sets up storage for the given number of earlier solutions
+     */
+    InitialGuess(int size, int length) {
+        history = new DenseVector[length];
+        for (int i = 0; i < length; ++i)
+            history[i] = new DenseVector(size);
+        r = new DenseVector(length > 0 ? size : 0);
+    }
+
+    /**
+     * Forms the initial guess for the system <code>Ax=b</code>
+     */
+    void guess(Matrix A, Vector b, DenseVector x) {
+        double bnorm = b.norm(Vector.Norm.Two);
+        if (stored == 0 || bnorm <= absoluteTolerance) {
+            x.zero();
+            return;
+        }
+
+        extrapolate(A, b, x);
+
+        A.multAdd(-1, x, r.set(b));
+        if (r.norm(Vector.Norm.Two) >= bnorm)
+            x.zero();
+    }
+
+    /**
+     * Forms a guess from the earlier solutions. At least one is stored
+     */
+    abstract void extrapolate(Matrix A, Vector b, DenseVector x);
+
+    /**
+     * Adds a new solution to the history
+     */
+    void store(DenseVector x) {
+        DenseVector last = history[history.length - 1];
+        System.arraycopy(history, 0, history, 1, history.length - 1);
+        last.set(x);
+        history[0] = last;
+
+        stored = Math.min(stored + 1, history.length);
+    }
+
+    /**
+     * Creates the initial guess strategy given in the run specification
+     */
+    static InitialGuess create(RunSpec runSpec, int size) {
+        InitialGuess guess = create(runSpec.getInitialGuess(), size, runSpec
+                .getProjectionVectors());
+        guess.absoluteTolerance = runSpec.getAbsoluteTolerance();
+        return guess;
+    }
+
+    private static InitialGuess create(String name, int size, int vectors) {
+        if (name.equalsIgnoreCase("Zero"))
+            return new Zero();
+        if (name.equalsIgnoreCase("Previous"))
+            return new Previous(size);
+        if (name.equalsIgnoreCase("Extrapolation"))
+            return new Extrapolation(size);
+        if (name.equalsIgnoreCase("Projection"))
+            return new Projection(size, vectors);
+
+        throw new IllegalArgumentException("Unknown initial guess " + name);
+    }
+
+    /**
+     * Always starts from zero
+     */
+    private static class Zero extends InitialGuess {
+
+        public Zero() {
+            super(0, 0);
+        }
+
+        @Override
+        void guess(Matrix A, Vector b, DenseVector x) {
+            x.zero();
+        }
+
+        @Override
+        void extrapolate(Matrix A, Vector b, DenseVector x) {
+            x.zero();
+        }
+
+        @Override
+        void store(DenseVector x) {
+            // Nothing to remember
+        }
+    }
+
+    /**
+     * Starts from the previous solution
+     */
+    private static class Previous extends InitialGuess {
+
+        public Previous(int size) {
+            super(size, 1);
+        }
+
+        @Override
+        void extrapolate(Matrix A, Vector b, DenseVector x) {
+            x.set(history[0]);
+        }
+    }
+
+    /**
+     * Linear extrapolation from the two previous solutions
+     */
+    private static class Extrapolation extends InitialGuess {
+
+        public Extrapolation(int size) {
+            super(size, 2);
+        }
+
+        @Override
+        void extrapolate(Matrix A, Vector b, DenseVector x) {
+            if (stored == 1)
+                x.set(history[0]);
+            else
+                x.set(2, history[0]).add(-1, history[1]);
+        }
+    }
+
+    /**
+     * Projects the right hand side onto the span of the images of the earlier
+     * solutions, as in the method of Fischer (1998). This gives the
+     * combination of the earlier solutions with the smallest residual
+     */
+    private static class Projection extends InitialGuess {
+
+        /**
+         * Basis for the earlier solutions, and the orthonormal images of the
+         * basis vectors
+         */
+        private final DenseVector[] X, AX;
+
+        public Projection(int size, int length) {
+            super(size, length);
+
+            X = new DenseVector[length];
+            AX = new DenseVector[length];
+            for (int i = 0; i < length; ++i) {
+                X[i] = new DenseVector(size);
+                AX[i] = new DenseVector(size);
+            }
+        }
+
+        @Override
+        void extrapolate(Matrix A, Vector b, DenseVector x) {
+            x.zero();
+
+            /*
+             * The matrix changes between the solves, so the images are formed
+             * anew, and orthonormalised by modified Gram-Schmidt. X is
+             * transformed along with them
+             */
+
+            int k = 0;
+            for (int i = 0; i < stored; ++i) {
+                X[k].set(history[i]);
+                A.mult(X[k], AX[k]);
+
+                double norm0 = AX[k].norm(Vector.Norm.Two);
+
+                for (int j = 0; j < k; ++j) {
+                    double r = AX[j].dot(AX[k]);
+                    AX[k].add(-r, AX[j]);
+                    X[k].add(-r, X[j]);
+                }
+
+                // Skip vectors which are nearly linearly dependent
+                double norm = AX[k].norm(Vector.Norm.Two);
+                if (norm <= 1e-10 * norm0 || norm == 0)
+                    continue;
+
+                AX[k].scale(1 / norm);
+                X[k].scale(1 / norm);
+
+                x.add(AX[k].dot(b), X[k]);
+                k++;
+            }
+        }
+    }
+}
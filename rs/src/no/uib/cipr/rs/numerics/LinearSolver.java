@@ -32,12 +32,22 @@ import no.uib.cipr.rs.geometry.Element;
 import no.uib.cipr.rs.geometry.Mesh;
 import no.uib.cipr.rs.geometry.flux.Transmissibility;
 import no.uib.cipr.rs.meshgen.util.ArrayData;
+import no.uib.cipr.rs.numerics.Telemetry.Stage;
 
 /**
- * Linear solver using a sparse matrix and a Krylov method
+ * Linear solver using a sparse matrix and a Krylov method. The pressure and
+ * temperature systems share the matrix storage, but each has its own
+ * preconditioner and history of corrections for the initial guess
  */
 class LinearSolver {
 
+    /**
+     * The linear systems which are solved
+     */
+    enum Equation {
+        PRESSURE, TEMPERATURE
+    }
+
     /**
      * Compressed row matrix
      */
@@ -63,8 +73,84 @@ class LinearSolver {
      */
     private final int[] locked;
 
-    public LinearSolver(RunSpec runSpec, Mesh mesh, int[] locked) {
+    /**
+     * Internal storage of the Jacobian matrix
+     */
+    private final double[] data;
+
+    /**
+     * Offsets into the matrix storage of the diagonal entries
+     */
+    private final int[] diagonal;
+
+    /**
+     * Offsets into the matrix storage of the Darcy couplings. For connection
+     * <code>c</code>, entry <code>2k</code> is the entry in the row of the
+     * here-element and the column of transmissibility <code>k</code>, while
+     * entry <code>2k+1</code> is the same in the row of the there-element
+     */
+    private final int[][] darcy;
+
+    /**
+     * Offsets into the matrix storage of the Fourier couplings. Same layout as
+     * for the Darcy couplings
+     */
+    private final int[][] fourier;
+
+    /**
+     * Run specification, for creating the preconditioners
+     */
+    private final RunSpec runSpec;
+
+    /**
+     * Preconditioner and initial guess of each equation. Created at its first
+     * solve
+     */
+    private final Setup[] setups = new Setup[Equation.values().length];
+
+    /**
+     * Growth in iterations which makes the AMG hierarchy stale
+     */
+    private final double amgIterationGrowth;
+
+    /**
+     * The preconditioner is reused as long as the previous solve of the same
+     * equation needed at most this many iterations. Zero to update it for
+     * every solve
+     */
+    private final int reuseIterations;
+
+    /**
+     * Was the preconditioner reused in the last solve?
+     */
+    private boolean reused;
+
+    /**
+     * Number of iterations in the last solve
+     */
+    private int iterations;
+
+    /**
+     * Total number of solves and preconditioner updates
+     */
+    private int solves, updates;
+
+    /**
+     * Number of solves which tried a reused preconditioner, and how many of
+     * those had to be redone with an updated one
+     */
+    private int reuses, retries;
+
+    /**
+     * Timings of the preconditioner setups and Krylov solves
+     */
+    private final Telemetry telemetry;
+
+    public LinearSolver(RunSpec runSpec, Mesh mesh, int[] locked,
+            Telemetry telemetry) {
+        this.runSpec = runSpec;
         this.locked = locked;
+        this.telemetry = telemetry;
         int size = mesh.elements().size();
 
         // Determine sparsity pattern
@@ -73,6 +159,19 @@ class LinearSolver {
         // Create the sparse matrix
         A = new CompRowMatrix(size, size, nz);
 
+        // Map the couplings to their matrix entries
+        data = A.getData();
+        diagonal = new int[size];
+        for (int i = 0; i < size; ++i)
+            diagonal[i] = offset(i, i);
+        darcy = new int[mesh.connections().size()][];
+        fourier = new int[darcy.length][];
+        for (Connection c : mesh.connections()) {
+            darcy[c.index] = offsets(mesh, c, c.MD);
+            if (c.MF != null)
+                fourier[c.index] = offsets(mesh, c, c.MF);
+        }
+
         // Create the vectors
         b = new DenseVector(size);
         x = b.copy();
@@ -83,7 +182,8 @@ class LinearSolver {
         // Set iteration parameters
         setIterationParameters(runSpec);
 
-        solver.setPreconditioner(createPreconditioner(runSpec));
+        amgIterationGrowth = runSpec.getAMGIterationGrowth();
+        reuseIterations = runSpec.getPreconditionerReuseIterations();
     }
 
     /**
@@ -154,6 +254,39 @@ class LinearSolver {
         return convertToArray(nz);
     }
 
+    /**
+     * Finds the offsets into the matrix storage of the couplings of the given
+     * transmissibilities into the rows of the here- and there-elements
+     */
+    private int[] offsets(Mesh mesh, Connection c, Transmissibility[] M) {
+        int rowHere = mesh.here(c).index;
+        int rowThere = mesh.there(c).index;
+
+        int[] offset = new int[2 * M.length];
+        for (int k = 0; k < M.length; ++k) {
+            int column = mesh.element(M[k]).index;
+            offset[2 * k] = offset(rowHere, column);
+            offset[2 * k + 1] = offset(rowThere, column);
+        }
+
+        return offset;
+    }
+
+    /**
+     * Finds the offset into the matrix storage of the given entry
+     */
+    private int offset(int row, int column) {
+        int[] rowPointer = A.getRowPointers();
+        int[] columnIndex = A.getColumnIndices();
+
+        for (int index = rowPointer[row]; index < rowPointer[row + 1]; ++index)
+            if (columnIndex[index] == column)
+                return index;
+
+        throw new IllegalStateException("Entry (" + row + ", " + column
+                + ") is not in the sparsity pattern");
+    }
+
     /**
      * Converts the dynamic structure into a fixed size array
      */
@@ -194,7 +327,7 @@ class LinearSolver {
     /**
      * Creates a preconditioner
      */
-    private Preconditioner createPreconditioner(RunSpec runSpec) {
+    private Preconditioner createPreconditioner() {
         String name = runSpec.getPreconditioner();
 
         if (!name.equalsIgnoreCase("none")) {
@@ -207,11 +340,15 @@ class LinearSolver {
             else if (name.equalsIgnoreCase("ICC"))
                 return new ICC(new CompRowMatrix(A));
             else if (name.equalsIgnoreCase("ILU"))
-                return new ILU(new CompRowMatrix(A));
+                return new ILU(new CompRowMatrix(A), runSpec
+                        .getILUFillLevel());
             else if (name.equalsIgnoreCase("ILUT"))
                 return new ILUT(new FlexCompRowMatrix(A));
-            else if (name.equalsIgnoreCase("AMG"))
-                return new AMG();
+            else if (name.equalsIgnoreCase("AMG")) {
+                AMG amg = new AMG();
+                amg.setRebuildInterval(runSpec.getAMGRebuildInterval());
+                return amg;
+            }
             else
                 throw new IllegalArgumentException("Unknown preconditioner "
                         + name);
@@ -221,30 +358,49 @@ class LinearSolver {
     }
 
     /**
-     * Adds to the Jacobian matrix
+     * Adds to a diagonal entry of the Jacobian matrix
      */
-    public void addToJacobian(int row, int column, double value) {
-        A.add(row, column, value);
+    public void addToJacobianDiagonal(int row, double value) {
+        data[diagonal[row]] += value;
     }
 
     /**
-     * Adds to the residual vector
+     * Adds a Darcy coupling to the Jacobian matrix. The entry is in the column
+     * of transmissibility <code>k</code> of the connection, and in the row of
+     * either the here- or the there-element
+     */
+    public void addToJacobianDarcy(int connection, int k, boolean here,
+            double value) {
+        data[darcy[connection][here ? 2 * k : 2 * k + 1]] += value;
+    }
+
+    /**
+     * Adds a Fourier coupling to the Jacobian matrix. The entry is in the
+     * column of transmissibility <code>k</code> of the connection, and in the
+     * row of either the here- or the there-element
+     */
+    public void addToJacobianFourier(int connection, int k, boolean here,
+            double value) {
+        data[fourier[connection][here ? 2 * k : 2 * k + 1]] += value;
+    }
+
+    /**
+     * Adds to the residual vector. Distinct indices may be added into
+     * concurrently
      */
     public void addToResidual(int index, double value) {
         b.add(index, value);
     }
 
     /**
-     * Solves the assembled Jacobian system. It moves the residual to the right
-     * hand side (multiplies by -1), and solves for the correction vector. If
-     * any cells are locked, the correction and residual in those cells will be
-     * zero. After the iterative solver has finished, the Jacobian and residual
-     * vector are zeroed
+     * Solves the assembled Jacobian system of the given equation. It moves the
+     * residual to the right hand side (multiplies by -1), and solves for the
+     * correction vector, starting from an initial guess based on earlier
+     * corrections. If any cells are locked, the correction and residual in
+     * those cells will be zero. After the iterative solver has finished, the
+     * Jacobian and residual vector are zeroed
      */
-    public void solve() throws SolverFailure {
-        // Start with a zero correction vector
-        x.zero();
-
+    public void solve(Equation equation) throws SolverFailure {
         // Change the sign of the right-hand side vector
         b.scale(-1);
 
@@ -259,15 +415,53 @@ class LinearSolver {
         for (int lock : locked)
             b.set(lock, 0);
 
-        // Update preconditioner
-        solver.getPreconditioner().setMatrix(A);
+        // Only the corrections and preconditioner of the same equation apply
+        Setup setup = setup(equation);
+        solver.setPreconditioner(setup.M);
+
+        // Starting correction vector
+        setup.initialGuess.guess(A, b, x);
+        for (int lock : locked)
+            x.set(lock, 0);
+
+        solves++;
+        reused = reuseIterations > 0 && !setup.stale;
+        if (reused)
+            reuses++;
 
         // Start the iterative solver
         try {
-            solver.solve(A, b, x);
+            if (!reused)
+                updatePreconditioner(setup);
+
+            try {
+                iterate();
+            } catch (IterativeSolverNotConvergedException e) {
+                if (!reused)
+                    throw e;
+
+                // The old preconditioner is too poor, so try a fresh one
+                reused = false;
+                retries++;
+                x.zero();
+                updatePreconditioner(setup);
+                iterate();
+            }
+
+            iterations = solver.getIterationMonitor().iterations();
+            setup.stale = iterations > reuseIterations;
+
+            if (!reused && setup.M instanceof AMG)
+                checkAMG(setup);
         } catch (IterativeSolverNotConvergedException e) {
             String reason = null;
 
+            setup.stale = true;
+
+            // Retry with a fresh hierarchy
+            if (setup.M instanceof AMG)
+                ((AMG) setup.M).invalidate();
+
             switch (e.getReason()) {
             case Breakdown:
                 reason = "Iterative solver breakdown";
@@ -291,6 +485,113 @@ class LinearSolver {
         // In case of round-offs, explicitly lock x
         for (int lock : locked)
             x.set(lock, 0);
+
+        setup.initialGuess.store(x);
+    }
+
+    /**
+     * Runs the Krylov solver, and records its time and iterations
+     */
+    private void iterate() throws IterativeSolverNotConvergedException {
+        long start = telemetry.start();
+        try {
+            solver.solve(A, b, x);
+        } finally {
+            telemetry.stop(Stage.KRYLOV, start);
+            telemetry.addIterations(solver.getIterationMonitor()
+                    .iterations());
+        }
+    }
+
+    /**
+     * Gets the setup of the given equation, creating it if needed
+     */
+    private Setup setup(Equation equation) {
+        Setup setup = setups[equation.ordinal()];
+        if (setup == null)
+            setup = setups[equation.ordinal()] = new Setup(
+                    createPreconditioner(), InitialGuess.create(runSpec, x
+                            .size()));
+        return setup;
+    }
+
+    /**
+     * Updates the preconditioner for the current matrix
+     */
+    private void updatePreconditioner(Setup setup) {
+        if (setup.M instanceof AMG)
+            setup.amgBuilds = ((AMG) setup.M).getNumberOfBuilds();
+
+        long start = telemetry.start();
+        setup.M.setMatrix(A);
+        telemetry.stop(Stage.PRECONDITIONER, start);
+        updates++;
+    }
+
+    /**
+     * Marks the AMG hierarchy as stale if the number of iterations has grown
+     * too much since it was built
+     */
+    private void checkAMG(Setup setup) {
+        AMG amg = (AMG) setup.M;
+        if (amg.getNumberOfBuilds() > setup.amgBuilds)
+            setup.amgIterations = iterations;
+        else if (iterations > amgIterationGrowth
+                * Math.max(setup.amgIterations, 1))
+            amg.invalidate();
+    }
+
+    /**
+     * Gets the number of iterations of the last solve
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns true if the last solve reused the preconditioner of an earlier
+     * solve
+     */
+    public boolean reusedPreconditioner() {
+        return reused;
+    }
+
+    /**
+     * Returns true if the preconditioner may be reused between solves
+     */
+    public boolean reusesPreconditioner() {
+        return reuseIterations > 0;
+    }
+
+    /**
+     * Total number of solves
+     */
+    public int getNumberOfSolves() {
+        return solves;
+    }
+
+    /**
+     * Total number of preconditioner updates, including those after a failed
+     * reuse
+     */
+    public int getNumberOfPreconditionerUpdates() {
+        return updates;
+    }
+
+    /**
+     * Number of solves which tried to reuse the preconditioner, whether or
+     * not they succeeded
+     */
+    public int getNumberOfPreconditionerReuses() {
+        return reuses;
+    }
+
+    /**
+     * Number of solves which failed with a reused preconditioner, and were
+     * redone with an updated one
+     */
+    public int getNumberOfReuseRetries() {
+        return retries;
     }
 
     /**
@@ -300,4 +601,35 @@ class LinearSolver {
         System.arraycopy(x.getData(), 0, dx, 0, dx.length);
         return dx;
     }
+
+    /**
+     * Preconditioner of one equation, the state of its reuse, and the initial
+     * guess from the earlier corrections of the same equation
+     */
+    private static class Setup {
+
+        final Preconditioner M;
+
+        final InitialGuess initialGuess;
+
+        /**
+         * True if the preconditioner must be updated at the next solve
+         */
+        boolean stale = true;
+
+        /**
+         * Number of linear iterations just after the AMG hierarchy was built
+         */
+        int amgIterations;
+
+        /**
+         * Number of AMG hierarchy builds before the last preconditioner update
+         */
+        int amgBuilds;
+
+        Setup(Preconditioner M, InitialGuess initialGuess) {
+            this.M = M;
+            this.initialGuess = initialGuess;
+        }
+    }
 }
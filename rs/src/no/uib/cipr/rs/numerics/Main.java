@@ -1,16 +1,12 @@
 package no.uib.cipr.rs.numerics;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 import no.uib.cipr.rs.Paths;
 import no.uib.cipr.rs.field.Field;
+import no.uib.cipr.rs.field.Snapshot;
+import no.uib.cipr.rs.field.SnapshotWriter;
 import no.uib.cipr.rs.geometry.Mesh;
 import no.uib.cipr.rs.util.Configuration;
 
@@ -19,8 +15,7 @@ import no.uib.cipr.rs.util.Configuration;
  */
 public class Main {
 
-    public static void main(String[] args) throws IOException,
-            ClassNotFoundException {
+    public static void main(String[] args) throws IOException {
         System.out.println("\tReservoir flow simulator\n");
 
         if (args.length > 1) {
@@ -58,13 +53,10 @@ public class Main {
                     runSpec.restartTime());
 
             // Read in the restart data
-            ObjectInput in = new ObjectInputStream(new BufferedInputStream(
-                    new FileInputStream(file)));
-            Field restartField = (Field) in.readObject();
-            in.close();
+            Snapshot restart = Snapshot.read(new File(file));
 
             // Create a new field, using only the restart primary data
-            field = new Field(restartField, config, mesh, runSpec.isThermal());
+            field = new Field(restart, config, mesh, runSpec.isThermal());
         }
 
         // Starting from scratch
@@ -80,28 +72,58 @@ public class Main {
                 discretisation);
 
         /*
-         * Run the simulation
+         * Run the simulation. The reports are written in the background while
+         * the timestepping continues
          */
 
-        for (double time : runSpec.getReportTimes()) {
-            if (!timeStepper.stepTo(time)) {
-                System.err.println("\n\tSimulation is stopping ...");
-                return;
-            }
+        Telemetry telemetry = discretisation.telemetry;
+        SnapshotWriter writer = new SnapshotWriter();
+        try {
+            for (double time : runSpec.getReportTimes()) {
+                if (!timeStepper.stepTo(time)) {
+                    System.err.println("\n\tSimulation is stopping ...");
+                    break;
+                }
+
+                // User-time
+                double t = runSpec.getTimeUnit().inSeconds(field.getTime());
 
-            // User-time
-            double t = runSpec.getTimeUnit().inSeconds(field.getTime());
+                // Save to "simulation/time"
+                File file = new File(Paths.SIMULATION_OUTPUT, Paths
+                        .restart(t));
 
-            // Save to "simulation/time"
-            File file = new File(Paths.SIMULATION_OUTPUT, Paths.restart(t));
+                System.out.println("\n\tSaving to output file ... ");
 
-            System.out.println("\n\tSaving to output file ... ");
+                long start = telemetry.start();
+                writer.write(field, file);
+                telemetry.stop(Telemetry.Stage.OUTPUT, start);
+            }
+        } finally {
+            long start = telemetry.start();
+            writer.close();
+            telemetry.stop(Telemetry.Stage.OUTPUT, start);
 
-            // Use serialization to save
-            ObjectOutputStream out = new ObjectOutputStream(
-                    new FileOutputStream(file));
-            out.writeObject(field);
-            out.close();
+            discretisation.parallel.shutdown();
         }
+
+        // Preconditioner reuse statistics
+        LinearSolver solver = discretisation.solver;
+        if (solver.reusesPreconditioner()) {
+            int solves = solver.getNumberOfSolves();
+            int updates = solver.getNumberOfPreconditionerUpdates();
+            int reuses = solver.getNumberOfPreconditionerReuses();
+            int retries = solver.getNumberOfReuseRetries();
+            System.out.format("\n\tPreconditioner updated %d times in %d "
+                    + "linear solves (%d reused, %d retried after a failed "
+                    + "reuse)\n", updates, solves, reuses - retries, retries);
+        }
+
+        // Flash statistics
+        String flash = field.getEquationOfState().getStatistics();
+        if (flash != null)
+            System.out.print(flash);
+
+        // Time spent in each stage
+        telemetry.close();
     }
 }
@@ -30,6 +30,11 @@ class RunSpec {
      */
     private final boolean reportAlways;
 
+    /**
+     * If true, the timings of each timestep are written
+     */
+    private final boolean telemetry;
+
     /**
      * Time unit used externally. Internally seconds are used
      */
@@ -100,6 +105,42 @@ class RunSpec {
      */
     private final int maxNumberOfLinearIterations;
 
+    /**
+     * Number of threads used for the flash calculations and assembly
+     */
+    private final int numberOfThreads;
+
+    /**
+     * Initial guess for the linear solver
+     */
+    private final String initialGuess;
+
+    /**
+     * Number of earlier solutions used by the projection initial guess
+     */
+    private final int projectionVectors;
+
+    /**
+     * Reuse the preconditioner while the linear solves need at most this many
+     * iterations
+     */
+    private final int preconditionerReuseIterations;
+
+    /**
+     * Level of fill of the ILU preconditioner
+     */
+    private final int iluFillLevel;
+
+    /**
+     * Maximum number of setups between rebuilds of the AMG hierarchy
+     */
+    private final int amgRebuildInterval;
+
+    /**
+     * Growth in linear iterations which triggers a rebuild of the AMG hierarchy
+     */
+    private final double amgIterationGrowth;
+
     /**
      * Relative convergence tolerance for the linear solver
      */
@@ -157,6 +198,8 @@ class RunSpec {
 
         reportAlways = runSpec.getBoolean("ReportAlways", false);
 
+        telemetry = runSpec.getBoolean("Telemetry", true);
+
         // The specified times to output current state
         double[] rt = runSpec.getDoubleArray("ReportTimes");
         reportTimes = new TreeSet<Double>();
@@ -213,6 +256,36 @@ class RunSpec {
         linearSolver = runSpec.getString("LinearSolver", "BiCGstab");
         preconditioner = runSpec.getString("Preconditioner", "ILU");
 
+        initialGuess = runSpec.getString("InitialGuess", "Zero");
+        projectionVectors = runSpec.getInt("ProjectionVectors", 5);
+
+        if (projectionVectors < 1)
+            throw new IllegalArgumentException(runSpec.trace()
+                    + "ProjectionVectors must be positive");
+
+        preconditionerReuseIterations = runSpec.getInt(
+                "PreconditionerReuseIterations", 0);
+
+        if (preconditionerReuseIterations < 0)
+            throw new IllegalArgumentException(runSpec.trace()
+                    + "PreconditionerReuseIterations cannot be negative");
+
+        iluFillLevel = runSpec.getInt("ILUFillLevel", 0);
+
+        if (iluFillLevel < 0)
+            throw new IllegalArgumentException(runSpec.trace()
+                    + "ILUFillLevel cannot be negative");
+
+        amgRebuildInterval = runSpec.getInt("AMGRebuildInterval", 1);
+        amgIterationGrowth = runSpec.getDouble("AMGIterationGrowth", 2);
+
+        if (amgRebuildInterval < 1)
+            throw new IllegalArgumentException(runSpec.trace()
+                    + "AMGRebuildInterval must be positive");
+        if (amgIterationGrowth < 1)
+            throw new IllegalArgumentException(runSpec.trace()
+                    + "AMGIterationGrowth must be at least one");
+
         maxNumberOfLinearIterations = runSpec
                 .getInt("NumberOfIterations", 5000);
         relativeTolerance = runSpec.getDouble("RelativeTolerance", 1e-50);
@@ -220,6 +293,12 @@ class RunSpec {
         divergenceTolerance = runSpec.getDouble("DivergenceTolerance", 1e+5);
         reportIterations = runSpec.getBoolean("ReportIterations", false);
 
+        numberOfThreads = runSpec.getInt("NumberOfThreads", 1);
+
+        if (numberOfThreads < 1)
+            throw new IllegalArgumentException(runSpec.trace()
+                    + "NumberOfThreads must be positive");
+
         /*
          * I/O streams and files
          */
@@ -299,6 +378,13 @@ class RunSpec {
         return reportAlways;
     }
 
+    /**
+     * True if the timestep telemetry should be written
+     */
+    public boolean telemetry() {
+        return telemetry;
+    }
+
     /**
      * Returns the timeunit of the run
      */
@@ -390,6 +476,59 @@ class RunSpec {
         return preconditioner;
     }
 
+    /**
+     * Name of the initial guess strategy for the linear solver
+     */
+    public String getInitialGuess() {
+        return initialGuess;
+    }
+
+    /**
+     * Number of earlier solutions used by the projection initial guess
+     */
+    public int getProjectionVectors() {
+        return projectionVectors;
+    }
+
+    /**
+     * The preconditioner is reused as long as the previous linear solve of the
+     * same equation needed at most this many iterations. Zero updates it for
+     * every solve
+     */
+    public int getPreconditionerReuseIterations() {
+        return preconditionerReuseIterations;
+    }
+
+    /**
+     * Level of fill of the ILU preconditioner. Zero keeps the sparsity pattern
+     * of the system matrix
+     */
+    public int getILUFillLevel() {
+        return iluFillLevel;
+    }
+
+    /**
+     * Maximum number of setups between rebuilds of the AMG hierarchy
+     */
+    public int getAMGRebuildInterval() {
+        return amgRebuildInterval;
+    }
+
+    /**
+     * Rebuild the AMG hierarchy once the number of linear iterations exceeds
+     * this factor times the number just after the last rebuild
+     */
+    public double getAMGIterationGrowth() {
+        return amgIterationGrowth;
+    }
+
+    /**
+     * Number of threads used for the flash calculations and assembly
+     */
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
     /**
      * Maximum number of linear iterations per non-linear iteration
      */
@@ -437,8 +576,11 @@ class RunSpec {
      * 
      * @param locked
      *                Indices to cells whose state is locked
+     * @param telemetry
+     *                Records the solver timings
      */
-    public LinearSolver createSolver(Mesh mesh, int[] locked) {
-        return new LinearSolver(this, mesh, locked);
+    public LinearSolver createSolver(Mesh mesh, int[] locked,
+            Telemetry telemetry) {
+        return new LinearSolver(this, mesh, locked, telemetry);
     }
 }
@@ -0,0 +1,258 @@
+package no.uib.cipr.rs.numerics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+import no.uib.cipr.rs.Paths;
+
+/**
+ * Records the wall time and number of calls of the main stages of each
+ * timestep. One line per timestep attempt is written to a semi-colon
+ * separated file in the simulation output directory, and a summary is
+ * printed at the end of the run. The cost is two clock readings per timed
+ * call.
+ */
+class Telemetry {
+
+    /**
+     * The timed stages
+     */
+    enum Stage {
+        FLUX("flux", "Flux assembly"),
+
+        DIAGONAL("diagonal", "Diagonal assembly"),
+
+        PRECONDITIONER("preconditioner", "Preconditioner setup"),
+
+        KRYLOV("krylov", "Krylov solve"),
+
+        SECONDARIES("secondaries", "Flash and secondaries"),
+
+        MOLAR_MASS("molarmass", "Molar mass update"),
+
+        RETRACTION("retraction", "Retraction"),
+
+        OUTPUT("output", "Report output");
+
+        /**
+         * Column name in the log file
+         */
+        final String key;
+
+        /**
+         * Description in the summary
+         */
+        final String description;
+
+        private Stage(String key, String description) {
+            this.key = key;
+            this.description = description;
+        }
+    }
+
+    /**
+     * Time unit of the run
+     */
+    private final TimeUnit timeUnit;
+
+    /**
+     * Log file. Null if not written
+     */
+    private final PrintWriter out;
+
+    /**
+     * Clock reading at the start of the run [ns]
+     */
+    private final long start;
+
+    /**
+     * Time and calls of each stage in the current timestep
+     */
+    private final long[] time = new long[Stage.values().length];
+
+    private final int[] calls = new int[time.length];
+
+    /**
+     * Time and calls of each stage over the whole run
+     */
+    private final long[] totalTime = new long[time.length];
+
+    private final int[] totalCalls = new int[time.length];
+
+    /**
+     * Krylov iterations in the current timestep and over the run
+     */
+    private int iterations, totalIterations;
+
+    /**
+     * Newton iterations over the run
+     */
+    private int totalNewton;
+
+    /**
+     * Number of accepted and failed timesteps
+     */
+    private int accepted, failed;
+
+    /**
+     * True if a finished timestep has not yet been written. It is written
+     * when the next timestep starts, so that the output following it is
+     * included
+     */
+    private boolean pending;
+
+    /**
+     * The finished timestep
+     */
+    private double t, dt;
+
+    private int newton;
+
+    private boolean success;
+
+    /**
+     * Sets up the telemetry, and opens the log file if requested. A restart
+     * run appends to the log
+     */
+    public Telemetry(RunSpec runSpec) {
+        timeUnit = runSpec.getTimeUnit();
+        start = System.nanoTime();
+
+        if (!runSpec.telemetry()) {
+            out = null;
+            return;
+        }
+
+        File file = new File(Paths.SIMULATION_OUTPUT, Paths.TELEMETRY_FILE);
+        boolean append = runSpec.restart() && file.length() > 0;
+        try {
+            out = new PrintWriter(new BufferedWriter(new FileWriter(file,
+                    append)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (!append) {
+            out.print("step;t;dt;accepted;newton;iterations");
+            for (Stage stage : Stage.values())
+                out.print(";" + stage.key + ";" + stage.key + "Calls");
+            out.println();
+        }
+    }
+
+    /**
+     * Reads the clock, for passing to {@link #stop(Stage, long)}
+     */
+    long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since the given clock reading to a stage
+     */
+    void stop(Stage stage, long start) {
+        long elapsed = System.nanoTime() - start;
+        int s = stage.ordinal();
+
+        time[s] += elapsed;
+        calls[s]++;
+        totalTime[s] += elapsed;
+        totalCalls[s]++;
+    }
+
+    /**
+     * Adds Krylov iterations to the current timestep
+     */
+    void addIterations(int n) {
+        iterations += n;
+        totalIterations += n;
+    }
+
+    /**
+     * Starts a timestep attempt, writing out the previous one
+     */
+    void beginStep() {
+        flush();
+    }
+
+    /**
+     * Finishes a timestep attempt
+     *
+     * @param t
+     *                Time at the end of the attempt [s]
+     * @param dt
+     *                Attempted step size [s]
+     * @param newton
+     *                Number of Newton iterations on the pressure
+     * @param success
+     *                False if the step failed and was retracted
+     */
+    void endStep(double t, double dt, int newton, boolean success) {
+        this.t = t;
+        this.dt = dt;
+        this.newton = newton;
+        this.success = success;
+        pending = true;
+
+        totalNewton += newton;
+        if (success)
+            accepted++;
+        else
+            failed++;
+    }
+
+    /**
+     * Writes the finished timestep, and clears the current counters
+     */
+    private void flush() {
+        if (pending && out != null) {
+            out.format(Locale.US, "%d;%e;%e;%d;%d;%d", accepted + failed,
+                    timeUnit.inSeconds(t), timeUnit.inSeconds(dt),
+                    success ? 1 : 0, newton, iterations);
+            for (int s = 0; s < time.length; ++s)
+                out.format(Locale.US, ";%.6f;%d", time[s] * 1e-9, calls[s]);
+            out.println();
+        }
+
+        pending = false;
+        iterations = 0;
+        for (int s = 0; s < time.length; ++s) {
+            time[s] = 0;
+            calls[s] = 0;
+        }
+    }
+
+    /**
+     * Writes out the last timestep, closes the log and prints a summary
+     */
+    void close() {
+        flush();
+        if (out != null)
+            out.close();
+
+        double wall = (System.nanoTime() - start) * 1e-9;
+
+        System.out.format("\n\t%-24s%12s%8s%10s\n", "Stage", "Time [s]",
+                "Share", "Calls");
+        double timed = 0;
+        for (Stage stage : Stage.values()) {
+            int s = stage.ordinal();
+            double seconds = totalTime[s] * 1e-9;
+            timed += seconds;
+            System.out.format("\t%-24s%12.3f%7.1f%%%10d\n",
+                    stage.description, seconds, 100 * seconds / wall,
+                    totalCalls[s]);
+        }
+        System.out.format("\t%-24s%12.3f%7.1f%%\n", "Other", wall - timed,
+                100 * (wall - timed) / wall);
+        System.out.format("\t%-24s%12.3f\n", "Total", wall);
+
+        System.out.format("\n\t%d timesteps (%d failed), %d Newton "
+                + "iterations, %d Krylov iterations\n", accepted, failed,
+                totalNewton, totalIterations);
+    }
+}
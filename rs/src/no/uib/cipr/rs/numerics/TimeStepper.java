@@ -13,6 +13,11 @@ class TimeStepper {
      */
     private final Discretisation discretisation;
 
+    /**
+     * Timings of each timestep
+     */
+    private final Telemetry telemetry;
+
     /**
      * The system field state
      */
@@ -40,6 +45,7 @@ class TimeStepper {
             Discretisation discretisation) {
         this.field = field;
         this.discretisation = discretisation;
+        telemetry = discretisation.telemetry;
 
         timeUnit = runSpec.getTimeUnit();
 
@@ -67,10 +73,15 @@ class TimeStepper {
 
             // Advance a single time step, halving the timestep on failure
             while (true) {
+                telemetry.beginStep();
                 try {
                     discretisation.solve(dt);
+                    telemetry.endStep(field.getTime(), dt, discretisation
+                            .getNewtonIterations(), true);
                     break;
                 } catch (SolverFailure e) {
+                    telemetry.endStep(field.getTime(), dt, discretisation
+                            .getNewtonIterations(), false);
 
                     System.err.println("\n\t" + e.getMessage() + "\n");
 
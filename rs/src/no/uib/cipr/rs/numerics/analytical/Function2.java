@@ -1,7 +1,7 @@
 package no.uib.cipr.rs.numerics.analytical;
 
+import no.uib.cipr.rs.util.AbstractFunction;
 import no.uib.cipr.rs.util.Configuration;
-import no.uib.cipr.rs.util.Function;
 
 /**
  * Analytical potential function:
@@ -12,7 +12,7 @@ import no.uib.cipr.rs.util.Function;
  * 
  * @author nmaeo
  */
-public class Function2 implements Function {
+public class Function2 extends AbstractFunction {
 
     private static final long serialVersionUID = -4197173940710118726L;
 
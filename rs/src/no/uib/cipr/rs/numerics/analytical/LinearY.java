@@ -1,14 +1,14 @@
 package no.uib.cipr.rs.numerics.analytical;
 
+import no.uib.cipr.rs.util.AbstractFunction;
 import no.uib.cipr.rs.util.Configuration;
-import no.uib.cipr.rs.util.Function;
 
 /**
  * Linear potential in the y-direction
  * 
  * @author nmaeo
  */
-public class LinearY implements Function {
+public class LinearY extends AbstractFunction {
 
     private static final long serialVersionUID = -4197173940710118726L;
 
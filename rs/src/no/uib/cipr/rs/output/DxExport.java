@@ -1,12 +1,8 @@
 package no.uib.cipr.rs.output;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -14,7 +10,7 @@ import java.util.Collections;
 import java.util.List;
 
 import no.uib.cipr.rs.Paths;
-import no.uib.cipr.rs.field.Field;
+import no.uib.cipr.rs.field.Snapshot;
 import no.uib.cipr.rs.fluid.Phase;
 import no.uib.cipr.rs.geometry.Element;
 import no.uib.cipr.rs.geometry.Interface;
@@ -107,11 +103,7 @@ public class DxExport {
 
         // construct a mesh from the array included in configuration, and other
         // parameters that regulates the construction of the grid.
-        ObjectInput in = new ObjectInputStream(new BufferedInputStream(
-                new FileInputStream(Paths.GRIDDING_OUTPUT + "/"
-                        + Paths.MESH_FILE)));
-        Mesh mesh = (Mesh) in.readObject();
-        in.close();
+        Mesh mesh = Paths.readMesh();
 
         // setup a data file in the same output directory as the rest of the
         // scratch files. if this file already exists, it will be overwritten.
@@ -335,30 +327,14 @@ public class DxExport {
             System.err.printf("dx: Field checkpoint: '%s'%n", checkpoint);
 
             // load the field from this checkpoint
-            ObjectInputStream ois = null;
+            Snapshot field = null;
             try {
-                ois = new ObjectInputStream(new BufferedInputStream(
-                        new FileInputStream(checkpoint)));
+                field = Snapshot.read(checkpoint);
             } catch (IOException ioe) {
                 System.err.printf("dx: Could not load checkpoint '%s': %s%n",
                         checkpoint, ioe.getMessage());
                 System.exit(5);
             }
-            Field field = null;
-            try {
-                field = (Field) ois.readObject();
-            } catch (ClassNotFoundException cnfe) {
-                System.err
-                        .printf(
-                                "dx: Error loading field class from checkpoint: '%s'%n",
-                                checkpoint);
-                System.exit(6);
-            } catch (IOException ioe) {
-                System.err
-                        .printf(
-                                "dx: Error reading all field data from file '%s': %s%n",
-                                checkpoint, ioe.getMessage());
-            }
 
             // for which point in time was this field created?
             double time = field.getTime();
@@ -378,7 +354,7 @@ public class DxExport {
             // the saturation of water for each element in this field. as before
             // we write the element index in a comment behind the real data.
             for (Element el : elements) {
-                double saturation = field.getControlVolume(el).getSaturation(
+                double saturation = field.getSaturation(el.index,
                         Phase.WATER);
                 out.printf("\t%f\t# [%d]%n", saturation, el.index);
             }
@@ -407,7 +383,7 @@ public class DxExport {
             // section, since we know the number of bytes required for each
             // block when using binary encoding).
             for (Element el : elements) {
-                double pressure = field.getControlVolume(el).getPressure();
+                double pressure = field.getPressure(el.index);
                 out.printf("\t%f\t# [%d]%n", pressure, el.index);
             }
 
@@ -8,7 +8,6 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -17,10 +16,7 @@ import java.util.TreeMap;
 import java.util.regex.Pattern;
 
 import no.uib.cipr.rs.Paths;
-import no.uib.cipr.rs.field.CS;
-import no.uib.cipr.rs.field.Field;
-import no.uib.cipr.rs.fluid.Component;
-import no.uib.cipr.rs.fluid.Components;
+import no.uib.cipr.rs.field.Snapshot;
 import no.uib.cipr.rs.fluid.Phase;
 import no.uib.cipr.rs.geometry.Element;
 import no.uib.cipr.rs.geometry.Interface;
@@ -35,7 +31,7 @@ public class GMVFieldExport extends GMVExport {
      * Current field data for all the ranks. Stored here for easy access from
      * the CellVariable subclasses
      */
-    Field field;
+    Snapshot field;
 
     /**
      * Directory to read data from
@@ -145,19 +141,13 @@ public class GMVFieldExport extends GMVExport {
     }
 
     /**
-     * De-serializes a field
+     * Reads a field snapshot. Returns null if the file is not a snapshot
      */
-    private Field readField(File file) throws IOException,
-            FileNotFoundException, ClassNotFoundException {
-        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
-                new FileInputStream(file)));
-
+    private Snapshot readField(File file) {
         try {
-            return (Field) in.readObject();
+            return Snapshot.read(file);
         } catch (IOException e) {
             return null;
-        } finally {
-            in.close();
         }
     }
 
@@ -176,9 +166,9 @@ public class GMVFieldExport extends GMVExport {
             list.add(new CellDarcyFluxZ(phase));
         }
 
-        Components components = field.getComponents();
-        for (Component nu : components)
-            list.add(new MoleFraction(nu));
+        String[] names = field.getComponentNames();
+        for (int nu = 0; nu < names.length; ++nu)
+            list.add(new MoleFraction(nu, names[nu]));
         list.add(new Moles());
 
         list.add(new ResidualVolume());
@@ -230,21 +220,24 @@ public class GMVFieldExport extends GMVExport {
 
         @Override
         public double get(Element el) {
-            return field.getControlVolume(el).getComposition().getMoles();
+            return field.getMoles(el.index);
         }
     }
 
     private class MoleFraction extends CellVariable {
 
-        private final Component nu;
+        private final int nu;
+
+        private final String name;
 
-        public MoleFraction(Component nu) {
+        public MoleFraction(int nu, String name) {
             this.nu = nu;
+            this.name = name;
         }
 
         @Override
         public String getName() {
-            return nu.name();
+            return name;
         }
 
         @Override
@@ -259,8 +252,7 @@ public class GMVFieldExport extends GMVExport {
 
         @Override
         public double get(Element el) {
-            return field.getControlVolume(el).getComposition().getMoleFraction(
-                    nu);
+            return field.getMoleFraction(el.index, nu);
         }
     }
 
@@ -284,7 +276,7 @@ public class GMVFieldExport extends GMVExport {
 
         @Override
         public double get(Element el) {
-            return field.getControlVolume(el).getPhasePressure(phase);
+            return field.getPhasePressure(el.index, phase);
         }
     }
 
@@ -313,7 +305,7 @@ public class GMVFieldExport extends GMVExport {
 
         @Override
         public double get(Element el) {
-            return field.getControlVolume(el).getSaturation(phase);
+            return field.getSaturation(el.index, phase);
         }
     }
 
@@ -337,7 +329,7 @@ public class GMVFieldExport extends GMVExport {
 
         @Override
         public double get(Element el) {
-            return field.getControlVolume(el).getPhaseMobility(phase);
+            return field.getPhaseMobility(el.index, phase);
         }
     }
 
@@ -361,8 +353,7 @@ public class GMVFieldExport extends GMVExport {
 
         @Override
         public double get(Element el) {
-            return field.getControlVolume(el).getEquationOfStateData(phase)
-                    .getMolarDensity();
+            return field.getMolarDensity(el.index, phase);
         }
     }
 
@@ -379,7 +370,7 @@ public class GMVFieldExport extends GMVExport {
 
         @Override
         public double get(Element el) {
-            return field.getControlVolume(el).getTemperature();
+            return field.getTemperature(el.index);
         }
     }
 
@@ -405,7 +396,7 @@ public class GMVFieldExport extends GMVExport {
                     continue;
 
                 NeighbourConnection c = mesh.connection(intf);
-                flux += field.getControlSurface(c).getDarcyFlux(phase)
+                flux += field.getDarcyFlux(c.index, phase)
                         * mesh.hereInterface(c).normal.x() / intf.area;
             }
 
@@ -435,7 +426,7 @@ public class GMVFieldExport extends GMVExport {
                     continue;
 
                 NeighbourConnection c = mesh.connection(intf);
-                flux += field.getControlSurface(c).getDarcyFlux(phase)
+                flux += field.getDarcyFlux(c.index, phase)
                         * mesh.hereInterface(c).normal.y() / intf.area;
             }
 
@@ -465,7 +456,7 @@ public class GMVFieldExport extends GMVExport {
                     continue;
 
                 NeighbourConnection c = mesh.connection(intf);
-                flux += field.getControlSurface(c).getDarcyFlux(phase)
+                flux += field.getDarcyFlux(c.index, phase)
                         * mesh.hereInterface(c).normal.z() / intf.area;
             }
 
@@ -493,9 +484,7 @@ public class GMVFieldExport extends GMVExport {
             NeighbourConnection c = mesh.connection(intf);
             Interface here = mesh.hereInterface(c);
 
-            CS cs = field.getControlSurface(c);
-
-            return cs.getDarcyFlux(phase) * here.normal.x() / here.area;
+            return field.getDarcyFlux(c.index, phase) * here.normal.x() / here.area;
         }
     }
 
@@ -519,9 +508,7 @@ public class GMVFieldExport extends GMVExport {
             NeighbourConnection c = mesh.connection(intf);
             Interface here = mesh.hereInterface(c);
 
-            CS cs = field.getControlSurface(c);
-
-            return cs.getDarcyFlux(phase) * here.normal.y() / here.area;
+            return field.getDarcyFlux(c.index, phase) * here.normal.y() / here.area;
         }
     }
 
@@ -545,9 +532,7 @@ public class GMVFieldExport extends GMVExport {
             NeighbourConnection c = mesh.connection(intf);
             Interface here = mesh.hereInterface(c);
 
-            CS cs = field.getControlSurface(c);
-
-            return cs.getDarcyFlux(phase) * here.normal.z() / here.area;
+            return field.getDarcyFlux(c.index, phase) * here.normal.z() / here.area;
         }
     }
 
@@ -564,7 +549,7 @@ public class GMVFieldExport extends GMVExport {
 
         @Override
         public double get(Element el) {
-            return field.getControlVolume(el).getResidualVolume();
+            return field.getResidualVolume(el.index);
         }
     }
 }
@@ -69,25 +69,25 @@ public class TabularRockFluid extends RockFluid {
     @Override
     public void calculateRelativePermeability(PhaseDataDouble S, Element el,
             PhaseDataDouble kr) {
-        kr.water = krw.get(S.water);
-        kr.gas = krg.get(S.gas);
+        kr.water = krw.get1(S.water);
+        kr.gas = krg.get1(S.gas);
 
         // Water must always be present
         if (S.water <= 0)
             throw new RuntimeException("Water is not present");
 
-        kr.oil = (S.gas * krog.get(S.oil + S.water) + S.water * krow.get(S.oil))
-                / (S.gas + S.water);
+        kr.oil = (S.gas * krog.get1(S.oil + S.water) + S.water
+                * krow.get1(S.oil)) / (S.gas + S.water);
     }
 
     @Override
     public double calculateOilWaterCapillaryPressure(PhaseDataDouble S,
             Element el) {
-        return pcow.get(S.water);
+        return pcow.get1(S.water);
     }
 
     @Override
     public double calculateGasOilCapillaryPressure(PhaseDataDouble S, Element el) {
-        return pcgo.get(S.gas);
+        return pcgo.get1(S.gas);
     }
 }
@@ -61,20 +61,20 @@ public class ThreePhaseTabularRockFluid extends RockFluid {
 
     @Override
     public double calculateGasOilCapillaryPressure(PhaseDataDouble S, Element el) {
-        return pcgo.get(S.water, S.gas);
+        return pcgo.get2(S.water, S.gas);
     }
 
     @Override
     public double calculateOilWaterCapillaryPressure(PhaseDataDouble S,
             Element el) {
-        return pcow.get(S.water, S.gas);
+        return pcow.get2(S.water, S.gas);
     }
 
     @Override
     public void calculateRelativePermeability(PhaseDataDouble S, Element el,
             PhaseDataDouble kr) {
-        kr.water = krw.get(S.water, S.gas);
-        kr.gas = krg.get(S.water, S.gas);
-        kr.oil = kro.get(S.water, S.gas);
+        kr.water = krw.get2(S.water, S.gas);
+        kr.gas = krg.get2(S.water, S.gas);
+        kr.oil = kro.get2(S.water, S.gas);
     }
 }
@@ -61,11 +61,11 @@ public class TwoPhaseRockFluid extends RockFluid {
     @Override
     public double calculateOilWaterCapillaryPressure(PhaseDataDouble S,
             Element el) {
-        return pcow.get(S.water);
+        return pcow.get1(S.water);
     }
 
     @Override
     public double calculateGasOilCapillaryPressure(PhaseDataDouble S, Element el) {
-        return pcgo.get(S.gas);
+        return pcgo.get1(S.gas);
     }
 }
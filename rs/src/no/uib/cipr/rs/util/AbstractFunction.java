@@ -0,0 +1,34 @@
+package no.uib.cipr.rs.util;
+
+/**
+ * Function which implements the fixed-arity methods by the general ones.
+ * Suitable for functions which are seldom evaluated
+ */
+public abstract class AbstractFunction implements Function {
+
+    private static final long serialVersionUID = -2740384421963417350L;
+
+    public double get1(double x) {
+        return get(x);
+    }
+
+    public double get2(double x, double y) {
+        return get(x, y);
+    }
+
+    public double get3(double x, double y, double z) {
+        return get(x, y, z);
+    }
+
+    public double deriv(int n, double x) {
+        return deriv(n, new double[] { x });
+    }
+
+    public double deriv(int n, double x, double y) {
+        return deriv(n, new double[] { x, y });
+    }
+
+    public double deriv(int n, double x, double y, double z) {
+        return deriv(n, new double[] { x, y, z });
+    }
+}
@@ -0,0 +1,75 @@
+package no.uib.cipr.rs.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes whole arrays to a big-endian binary file, to be read back by
+ * {@link MappedInput}. Index lists and strings are written in compressed row
+ * form: the <code>n+1</code> offsets into the concatenated entries, followed
+ * by the entries.
+ */
+public class ArrayOutput extends DataOutputStream {
+
+    /**
+     * Conversion buffer for the array writes
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+    /**
+     * Creates the given file, overwriting any earlier contents
+     */
+    public ArrayOutput(File file) throws IOException {
+        super(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    public void writeInts(int[] data) throws IOException {
+        for (int i = 0; i < data.length;) {
+            int m = Math.min(data.length - i, buffer.capacity() / 4);
+            buffer.clear();
+            buffer.asIntBuffer().put(data, i, m);
+            write(buffer.array(), 0, 4 * m);
+            i += m;
+        }
+    }
+
+    public void writeDoubles(double[] data) throws IOException {
+        for (int i = 0; i < data.length;) {
+            int m = Math.min(data.length - i, buffer.capacity() / 8);
+            buffer.clear();
+            buffer.asDoubleBuffer().put(data, i, m);
+            write(buffer.array(), 0, 8 * m);
+            i += m;
+        }
+    }
+
+    /**
+     * Writes index lists in compressed row form
+     */
+    public void writeLists(int[][] lists) throws IOException {
+        int offset = 0;
+        writeInt(offset);
+        for (int[] list : lists)
+            writeInt(offset += list.length);
+
+        for (int[] list : lists)
+            writeInts(list);
+    }
+
+    /**
+     * Writes strings in compressed row form, as UTF-16 characters
+     */
+    public void writeStrings(String[] strings) throws IOException {
+        int offset = 0;
+        writeInt(offset);
+        for (String string : strings)
+            writeInt(offset += string.length());
+
+        for (String string : strings)
+            writeChars(string);
+    }
+}
@@ -77,6 +77,30 @@ public class ConstantValue implements Function {
         return 0;
     }
 
+    public double get1(double x) {
+        return value;
+    }
+
+    public double get2(double x, double y) {
+        return value;
+    }
+
+    public double get3(double x, double y, double z) {
+        return value;
+    }
+
+    public double deriv(int n, double x) {
+        return 0;
+    }
+
+    public double deriv(int n, double x, double y) {
+        return 0;
+    }
+
+    public double deriv(int n, double x, double y, double z) {
+        return 0;
+    }
+
     public double maxOutput() {
         return value;
     }
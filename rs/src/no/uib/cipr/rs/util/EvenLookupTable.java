@@ -161,8 +161,16 @@ public class EvenLookupTable extends LookupTable {
         }
     }
 
+    /**
+     * The index is computed directly, so no search hints are needed
+     */
+    @Override
+    int[] hints() {
+        return null;
+    }
+
     @Override
-    int getIndex(int d, double x) {
+    int getIndex(int[] last, int d, double x) {
         int index = (int) ((x - offset[d]) / delta[d]);
 
         if (index < 0)
@@ -33,6 +33,36 @@ public interface Function extends Serializable {
      */
     double deriv(int n, double... x);
 
+    /**
+     * Evaluates a function of one variable, without allocating
+     */
+    double get1(double x);
+
+    /**
+     * Evaluates a function of two variables, without allocating
+     */
+    double get2(double x, double y);
+
+    /**
+     * Evaluates a function of three variables, without allocating
+     */
+    double get3(double x, double y, double z);
+
+    /**
+     * Differentiates a function of one variable, without allocating
+     */
+    double deriv(int n, double x);
+
+    /**
+     * Differentiates a function of two variables, without allocating
+     */
+    double deriv(int n, double x, double y);
+
+    /**
+     * Differentiates a function of three variables, without allocating
+     */
+    double deriv(int n, double x, double y, double z);
+
     /**
      * Largest output value of the function
      */
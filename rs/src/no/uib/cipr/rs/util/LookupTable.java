@@ -1,11 +1,14 @@
 package no.uib.cipr.rs.util;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 /**
  * Lookup table for 1D, 2D, and 3D tabular data arranged in a regular grid
  */
 public class LookupTable implements Function {
 
-    private static final long serialVersionUID = -422987096072643117L;
+    private static final long serialVersionUID = 5617345928214387603L;
 
     /**
      * Name of the lookup table
@@ -38,9 +41,39 @@ public class LookupTable implements Function {
      */
     double[][][] data3;
 
+    /**
+     * Index found by the last look-up of the calling thread along each
+     * dimension, where its next search starts. The tables are shared between
+     * threads, so each thread keeps its own
+     */
+    private transient ThreadLocal<int[]> last;
+
     LookupTable(String name, int dimension) {
         this.name = name;
         this.dimension = dimension;
+        last = createLast();
+    }
+
+    private ThreadLocal<int[]> createLast() {
+        return new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[dimension];
+            }
+        };
+    }
+
+    /**
+     * Gets the search hints of the calling thread
+     */
+    int[] hints() {
+        return last.get();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        last = createLast();
     }
 
     public LookupTable(String name, double[] xcoord, double[] data) {
@@ -207,6 +240,30 @@ public class LookupTable implements Function {
         return evaluate(n, x);
     }
 
+    public double get1(double x) {
+        return evaluate1(-1, x);
+    }
+
+    public double get2(double x, double y) {
+        return evaluate2(-1, x, y);
+    }
+
+    public double get3(double x, double y, double z) {
+        return evaluate3(-1, x, y, z);
+    }
+
+    public double deriv(int n, double x) {
+        return evaluate1(n, x);
+    }
+
+    public double deriv(int n, double x, double y) {
+        return evaluate2(n, x, y);
+    }
+
+    public double deriv(int n, double x, double y, double z) {
+        return evaluate3(n, x, y, z);
+    }
+
     /**
      * Internal table look-up and differentiation.
      * 
@@ -218,142 +275,179 @@ public class LookupTable implements Function {
         if (x.length != dimension)
             throw new IllegalArgumentException("x.length != dimension");
 
+        switch (dimension) {
+        case 1:
+            return evaluate1(n, x[0]);
+        case 2:
+            return evaluate2(n, x[0], x[1]);
+        case 3:
+            return evaluate3(n, x[0], x[1], x[2]);
+        default:
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Look-up and differentiation of a 1D table
+     */
+    private double evaluate1(int n, double x) {
+        if (dimension != 1)
+            throw new IllegalArgumentException("x.length != dimension");
+
         // Derivatives outside the bounds are zero
-        if (n >= 0 && !inBounds(x[n], n))
+        if (n >= 0 && !inBounds(x, n))
             return 0;
 
-        int xi = 0, yi = 0, zi = 0;
-        double xw = 0, yw = 0, zw = 0;
-        double phi1 = 0, phi2 = 0, phi3 = 0, phi4 = 0, phi5 = 0, phi6 = 0, phi7 = 0, phi8 = 0;
-        double delta = 0;
+        int xi = getIndex(hints(), 0, x);
 
-        switch (dimension) {
-        case 1:
+        double xw = getWeight(0, xi, x);
 
-            xi = getIndex(0, x[0]);
-
-            xw = getWeight(0, xi, x[0]);
-
-            switch (n) {
-            case -1: // evaluate
-                phi1 = 1 - xw;
-                phi2 = xw;
-                break;
-            case 0: // x-derivative
-                delta = coordinate[0][xi + 1] - coordinate[0][xi];
-                phi1 = -1 / delta;
-                phi2 = 1 / delta;
-                break;
-            default:
-                throw new IllegalArgumentException();
-            }
+        double phi1 = 0, phi2 = 0;
+
+        switch (n) {
+        case -1: // evaluate
+            phi1 = 1 - xw;
+            phi2 = xw;
+            break;
+        case 0: // x-derivative
+            double delta = coordinate[0][xi + 1] - coordinate[0][xi];
+            phi1 = -1 / delta;
+            phi2 = 1 / delta;
+            break;
+        default:
+            throw new IllegalArgumentException();
+        }
 
-            return phi1 * data1[xi] + phi2 * data1[xi + 1];
+        return phi1 * data1[xi] + phi2 * data1[xi + 1];
+    }
 
-        case 2:
+    /**
+     * Look-up and differentiation of a 2D table
+     */
+    private double evaluate2(int n, double x, double y) {
+        if (dimension != 2)
+            throw new IllegalArgumentException("x.length != dimension");
 
-            xi = getIndex(0, x[0]);
-            yi = getIndex(1, x[1]);
-
-            xw = getWeight(0, xi, x[0]);
-            yw = getWeight(1, yi, x[1]);
-
-            switch (n) {
-            case -1: // evaluate
-                phi1 = (1 - xw) * (1 - yw);
-                phi2 = xw * (1 - yw);
-                phi3 = (1 - xw) * yw;
-                phi4 = xw * yw;
-                break;
-            case 0: // x-derivative
-                delta = coordinate[0][xi + 1] - coordinate[0][xi];
-                phi1 = (-1 + yw) / delta;
-                phi2 = (1 - yw) / delta;
-                phi3 = -yw / delta;
-                phi4 = yw / delta;
-                break;
-            case 1: // y-derivative
-                delta = coordinate[1][yi + 1] - coordinate[1][yi];
-                phi1 = (-1 + xw) / delta;
-                phi2 = -xw / delta;
-                phi3 = (1 - xw) / delta;
-                phi4 = xw / delta;
-                break;
-            default:
-                throw new IllegalArgumentException();
-            }
+        // Derivatives outside the bounds are zero
+        if (n >= 0 && !inBounds(n == 0 ? x : y, n))
+            return 0;
 
-            return phi1 * data2[xi][yi] + phi2 * data2[xi + 1][yi] + phi3
-                    * data2[xi][yi + 1] + phi4 * data2[xi + 1][yi + 1];
+        int[] hint = hints();
+        int xi = getIndex(hint, 0, x);
+        int yi = getIndex(hint, 1, y);
 
-        case 3:
+        double xw = getWeight(0, xi, x);
+        double yw = getWeight(1, yi, y);
 
-            xi = getIndex(0, x[0]);
-            yi = getIndex(1, x[1]);
-            zi = getIndex(2, x[2]);
-
-            xw = getWeight(0, xi, x[0]);
-            yw = getWeight(1, yi, x[1]);
-            zw = getWeight(2, zi, x[2]);
-
-            switch (n) {
-            case -1: // evaluate
-                phi1 = (1 - xw) * (1 - yw) * (1 - zw);
-                phi2 = xw * (1 - yw) * (1 - zw);
-                phi3 = (1 - xw) * yw * (1 - zw);
-                phi4 = xw * yw * (1 - zw);
-                phi5 = (1 - xw) * (1 - yw) * zw;
-                phi6 = xw * (1 - yw) * zw;
-                phi7 = (1 - xw) * yw * zw;
-                phi8 = xw * yw * zw;
-                break;
-            case 0: // x-derivative
-                delta = coordinate[0][xi + 1] - coordinate[0][xi];
-                phi1 = -(1 - yw) * (1 - zw) / delta;
-                phi2 = (1 - yw) * (1 - zw) / delta;
-                phi3 = -yw * (1 - zw) / delta;
-                phi4 = yw * (1 - zw) / delta;
-                phi5 = -(1 - yw) * zw / delta;
-                phi6 = (1 - yw) * zw / delta;
-                phi7 = -yw * zw / delta;
-                phi8 = yw * zw / delta;
-                break;
-            case 1: // y-derivative
-                delta = coordinate[1][yi + 1] - coordinate[1][yi];
-                phi1 = -(1 - xw) * (1 - zw) / delta;
-                phi2 = -xw * (1 - zw) / delta;
-                phi3 = (1 - xw) * (1 - zw) / delta;
-                phi4 = xw * (1 - zw) / delta;
-                phi5 = -(1 - xw) * zw / delta;
-                phi6 = -xw * zw / delta;
-                phi7 = (1 - xw) * zw / delta;
-                phi8 = xw * zw / delta;
-                break;
-            case 2: // z-derivative
-                delta = coordinate[2][zi + 1] - coordinate[2][zi];
-                phi1 = -(1 - xw) * (1 - yw) / delta;
-                phi2 = -xw * (1 - yw) / delta;
-                phi3 = -(1 - xw) * yw / delta;
-                phi4 = -xw * yw / delta;
-                phi5 = (1 - xw) * (1 - yw) / delta;
-                phi6 = xw * (1 - yw) / delta;
-                phi7 = (1 - xw) * yw / delta;
-                phi8 = xw * yw / delta;
-                break;
-            default:
-                throw new IllegalArgumentException();
-            }
+        double phi1 = 0, phi2 = 0, phi3 = 0, phi4 = 0;
+        double delta = 0;
+
+        switch (n) {
+        case -1: // evaluate
+            phi1 = (1 - xw) * (1 - yw);
+            phi2 = xw * (1 - yw);
+            phi3 = (1 - xw) * yw;
+            phi4 = xw * yw;
+            break;
+        case 0: // x-derivative
+            delta = coordinate[0][xi + 1] - coordinate[0][xi];
+            phi1 = (-1 + yw) / delta;
+            phi2 = (1 - yw) / delta;
+            phi3 = -yw / delta;
+            phi4 = yw / delta;
+            break;
+        case 1: // y-derivative
+            delta = coordinate[1][yi + 1] - coordinate[1][yi];
+            phi1 = (-1 + xw) / delta;
+            phi2 = -xw / delta;
+            phi3 = (1 - xw) / delta;
+            phi4 = xw / delta;
+            break;
+        default:
+            throw new IllegalArgumentException();
+        }
+
+        return phi1 * data2[xi][yi] + phi2 * data2[xi + 1][yi] + phi3
+                * data2[xi][yi + 1] + phi4 * data2[xi + 1][yi + 1];
+    }
 
-            return phi1 * data3[xi][yi][zi] + phi2 * data3[xi + 1][yi][zi]
-                    + phi3 * data3[xi][yi + 1][zi] + phi4
-                    * data3[xi + 1][yi + 1][zi] + phi5 * data3[xi][yi][zi + 1]
-                    + phi6 * data3[xi + 1][yi][zi + 1] + phi7
-                    * data3[xi][yi + 1][zi + 1] + phi8
-                    * data3[xi + 1][yi + 1][zi + 1];
+    /**
+     * Look-up and differentiation of a 3D table
+     */
+    private double evaluate3(int n, double x, double y, double z) {
+        if (dimension != 3)
+            throw new IllegalArgumentException("x.length != dimension");
+
+        // Derivatives outside the bounds are zero
+        if (n >= 0 && !inBounds(n == 0 ? x : n == 1 ? y : z, n))
+            return 0;
 
+        int[] hint = hints();
+        int xi = getIndex(hint, 0, x);
+        int yi = getIndex(hint, 1, y);
+        int zi = getIndex(hint, 2, z);
+
+        double xw = getWeight(0, xi, x);
+        double yw = getWeight(1, yi, y);
+        double zw = getWeight(2, zi, z);
+
+        double phi1 = 0, phi2 = 0, phi3 = 0, phi4 = 0;
+        double phi5 = 0, phi6 = 0, phi7 = 0, phi8 = 0;
+        double delta = 0;
+
+        switch (n) {
+        case -1: // evaluate
+            phi1 = (1 - xw) * (1 - yw) * (1 - zw);
+            phi2 = xw * (1 - yw) * (1 - zw);
+            phi3 = (1 - xw) * yw * (1 - zw);
+            phi4 = xw * yw * (1 - zw);
+            phi5 = (1 - xw) * (1 - yw) * zw;
+            phi6 = xw * (1 - yw) * zw;
+            phi7 = (1 - xw) * yw * zw;
+            phi8 = xw * yw * zw;
+            break;
+        case 0: // x-derivative
+            delta = coordinate[0][xi + 1] - coordinate[0][xi];
+            phi1 = -(1 - yw) * (1 - zw) / delta;
+            phi2 = (1 - yw) * (1 - zw) / delta;
+            phi3 = -yw * (1 - zw) / delta;
+            phi4 = yw * (1 - zw) / delta;
+            phi5 = -(1 - yw) * zw / delta;
+            phi6 = (1 - yw) * zw / delta;
+            phi7 = -yw * zw / delta;
+            phi8 = yw * zw / delta;
+            break;
+        case 1: // y-derivative
+            delta = coordinate[1][yi + 1] - coordinate[1][yi];
+            phi1 = -(1 - xw) * (1 - zw) / delta;
+            phi2 = -xw * (1 - zw) / delta;
+            phi3 = (1 - xw) * (1 - zw) / delta;
+            phi4 = xw * (1 - zw) / delta;
+            phi5 = -(1 - xw) * zw / delta;
+            phi6 = -xw * zw / delta;
+            phi7 = (1 - xw) * zw / delta;
+            phi8 = xw * zw / delta;
+            break;
+        case 2: // z-derivative
+            delta = coordinate[2][zi + 1] - coordinate[2][zi];
+            phi1 = -(1 - xw) * (1 - yw) / delta;
+            phi2 = -xw * (1 - yw) / delta;
+            phi3 = -(1 - xw) * yw / delta;
+            phi4 = -xw * yw / delta;
+            phi5 = (1 - xw) * (1 - yw) / delta;
+            phi6 = xw * (1 - yw) / delta;
+            phi7 = (1 - xw) * yw / delta;
+            phi8 = xw * yw / delta;
+            break;
         default:
-            throw new UnsupportedOperationException();
+            throw new IllegalArgumentException();
         }
+
+        return phi1 * data3[xi][yi][zi] + phi2 * data3[xi + 1][yi][zi] + phi3
+                * data3[xi][yi + 1][zi] + phi4 * data3[xi + 1][yi + 1][zi]
+                + phi5 * data3[xi][yi][zi + 1] + phi6
+                * data3[xi + 1][yi][zi + 1] + phi7 * data3[xi][yi + 1][zi + 1]
+                + phi8 * data3[xi + 1][yi + 1][zi + 1];
     }
 
     /**
@@ -394,8 +488,15 @@ public class LookupTable implements Function {
 
     /**
      * Gets the coordinate index into the coordinate-array for the given
-     * coordinate along the given dimension
+     * coordinate along the given dimension. The search starts from the index
+     * last found along the dimension by the calling thread, and hunts
+     * outwards from it in steps of increasing length before bisecting. This
+     * is much faster than a binary search over the whole table when
+     * consecutive look-ups are close.
      * 
+     * @param last
+     *            Indices last found by the calling thread, updated with the
+     *            new one
      * @param d
      *            Dimension to search
      * @param x
@@ -405,7 +506,7 @@ public class LookupTable implements Function {
      *         zero'th index is returned, or if x is too great, the second last
      *         index is returned.
      */
-    int getIndex(int d, double x) {
+    int getIndex(int[] last, int d, double x) {
         double[] index = coordinate[d];
 
         if (x <= index[0])
@@ -413,20 +514,56 @@ public class LookupTable implements Function {
         else if (x >= index[index.length - 2])
             return index.length - 2;
 
-        int begin = 0, end = index.length - 1;
-        int mid = (end + begin) / 2;
+        // Here index[0] < x < index[index.length - 2]
+        int hint = last[d];
+        int lo, hi;
+
+        if (index[hint] < x) {
 
-        // The usual binary search
-        while (begin <= end) {
-            mid = (end + begin) / 2;
+            // The last interval still holds
+            if (x <= index[hint + 1])
+                return hint;
 
+            // Hunt upwards
+            lo = hint + 1;
+            int step = 1;
+            hi = lo + step;
+            while (hi < index.length - 2 && index[hi] < x) {
+                lo = hi;
+                step *= 2;
+                hi = lo + step;
+            }
+            if (hi > index.length - 2)
+                hi = index.length - 2;
+
+        } else {
+
+            // Hunt downwards
+            hi = hint;
+            int step = 1;
+            lo = hi - step;
+            while (lo > 0 && index[lo] >= x) {
+                hi = lo;
+                step *= 2;
+                lo = hi - step;
+            }
+            if (lo < 0)
+                lo = 0;
+        }
+
+        // Bisect with index[lo] < x <= index[hi]
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
             if (index[mid] < x)
-                begin = mid + 1;
+                lo = mid;
             else
-                end = mid - 1;
+                hi = mid;
         }
 
-        return begin - 1;
+        if (lo != hint)
+            last[d] = lo;
+
+        return lo;
     }
 
     public double maxOutput() {
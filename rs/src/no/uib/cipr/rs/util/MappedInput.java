@@ -0,0 +1,147 @@
+package no.uib.cipr.rs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads arrays sequentially from a memory mapped file, as written by
+ * {@link ArrayOutput}. Large arrays are mapped in chunks, so files and
+ * arrays may exceed the size of a single mapping.
+ */
+public class MappedInput {
+
+    /**
+     * Largest region mapped at once [bytes]
+     */
+    private static volatile int chunk = 1 << 28;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    /**
+     * Current position in the file [bytes]
+     */
+    private long position;
+
+    /**
+     * Opens the given file for reading from its start
+     */
+    public MappedInput(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        channel = this.file.getChannel();
+    }
+
+    /**
+     * Sets the largest region mapped at once. Small regions are mainly of use
+     * for testing reads which span several mappings
+     * 
+     * @param bytes
+     *            At least the size of a double
+     */
+    public static void setChunkSize(int bytes) {
+        if (bytes < 8)
+            throw new IllegalArgumentException(
+                    "The chunk size must be at least 8 bytes");
+        chunk = bytes;
+    }
+
+    /**
+     * Returns the largest region mapped at once [bytes]
+     */
+    public static int getChunkSize() {
+        return chunk;
+    }
+
+    /**
+     * Closes the file. Arrays already read remain valid
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Maps the next bytes of the file
+     */
+    private ByteBuffer map(int bytes) throws IOException {
+        if (position + bytes > channel.size())
+            throw new IOException("Truncated file");
+
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                position, bytes);
+        position += bytes;
+        return buffer;
+    }
+
+    public byte[] readBytes(int n) throws IOException {
+        byte[] data = new byte[n];
+        for (int i = 0; i < n;) {
+            int m = Math.min(n - i, chunk);
+            map(m).get(data, i, m);
+            i += m;
+        }
+        return data;
+    }
+
+    public int[] readInts(int n) throws IOException {
+        int[] data = new int[n];
+        for (int i = 0; i < n;) {
+            int m = Math.min(n - i, chunk / 4);
+            map(4 * m).asIntBuffer().get(data, i, m);
+            i += m;
+        }
+        return data;
+    }
+
+    public double[] readDoubles(int n) throws IOException {
+        double[] data = new double[n];
+        for (int i = 0; i < n;) {
+            int m = Math.min(n - i, chunk / 8);
+            map(8 * m).asDoubleBuffer().get(data, i, m);
+            i += m;
+        }
+        return data;
+    }
+
+    public char[] readChars(int n) throws IOException {
+        char[] data = new char[n];
+        for (int i = 0; i < n;) {
+            int m = Math.min(n - i, chunk / 2);
+            map(2 * m).asCharBuffer().get(data, i, m);
+            i += m;
+        }
+        return data;
+    }
+
+    /**
+     * Reads <code>n</code> index lists in compressed row form
+     */
+    public int[][] readLists(int n) throws IOException {
+        int[] offset = readInts(n + 1);
+        int[] entries = readInts(offset[n]);
+
+        int[][] lists = new int[n][];
+        for (int i = 0; i < n; ++i) {
+            lists[i] = new int[offset[i + 1] - offset[i]];
+            System.arraycopy(entries, offset[i], lists[i], 0, lists[i].length);
+        }
+        return lists;
+    }
+
+    /**
+     * Reads <code>n</code> strings in compressed row form
+     */
+    public String[] readStrings(int n) throws IOException {
+        int[] offset = readInts(n + 1);
+        char[] chars = readChars(offset[n]);
+
+        String[] strings = new String[n];
+        for (int i = 0; i < n; ++i)
+            strings[i] = new String(chars, offset[i], offset[i + 1]
+                    - offset[i]);
+        return strings;
+    }
+}
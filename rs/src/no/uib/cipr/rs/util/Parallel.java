@@ -0,0 +1,169 @@
+package no.uib.cipr.rs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs independent blocks of work on a fixed pool of worker threads. The
+ * calling thread waits until every block has completed. With a single thread,
+ * no workers are started, and all the work is done by the calling thread.
+ * <p>
+ * The pool is not re-entrant: a block must not itself submit work to the same
+ * pool. The worker threads run until {@link #shutdown()} is called.
+ */
+public class Parallel {
+
+    /**
+     * A numbered block of work
+     */
+    public interface Block {
+
+        /**
+         * Runs the given block
+         */
+        void run(int block);
+    }
+
+    /**
+     * A contiguous range of loop indices
+     */
+    public interface Range {
+
+        /**
+         * Runs the loop from <code>begin</code> (inclusive) to
+         * <code>end</code> (exclusive). The ranges are numbered from zero,
+         * and no two ranges with the same number run at the same time, so
+         * the number may be used to select a per-thread workspace
+         */
+        void run(int range, int begin, int end);
+    }
+
+    /**
+     * Number of worker threads
+     */
+    private final int numThreads;
+
+    /**
+     * The worker threads. Null for a single thread
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Sets up the worker threads
+     *
+     * @param numThreads
+     *                Number of threads, at least one
+     */
+    public Parallel(int numThreads) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("numThreads < 1");
+
+        this.numThreads = numThreads;
+
+        // Daemon threads do not keep the program alive after main has exited
+        if (numThreads > 1)
+            executor = Executors.newFixedThreadPool(numThreads,
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        else
+            executor = null;
+    }
+
+    /**
+     * Gets the number of worker threads
+     */
+    public int numThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Stops the worker threads. The pool may not be used afterwards
+     */
+    public void shutdown() {
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * Runs the blocks <code>0</code> to <code>numBlocks-1</code>, and
+     * waits for all of them to finish. If any block fails, its exception is
+     * rethrown once all the blocks are done
+     */
+    public void execute(int numBlocks, final Block block) {
+        if (executor == null || numBlocks < 2) {
+            for (int b = 0; b < numBlocks; ++b)
+                block.run(b);
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(numBlocks);
+        for (int b = 0; b < numBlocks; ++b) {
+            final int current = b;
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    block.run(current);
+                }
+            }));
+        }
+
+        join(futures);
+    }
+
+    /**
+     * Splits the loop from <code>0</code> to <code>n-1</code> into one
+     * contiguous range per thread, and runs the ranges in parallel
+     */
+    public void execute(final int n, final Range range) {
+        final int numBlocks = Math.max(1, Math.min(numThreads, n));
+
+        execute(numBlocks, new Block() {
+            public void run(int block) {
+                range.run(block, begin(block, numBlocks, n), begin(
+                        block + 1, numBlocks, n));
+            }
+        });
+    }
+
+    /**
+     * Start of a block when splitting <code>n</code> items evenly into
+     * <code>numBlocks</code> blocks
+     */
+    private static int begin(int block, int numBlocks, int n) {
+        return (int) ((long) block * n / numBlocks);
+    }
+
+    /**
+     * Waits on all the submitted blocks, and rethrows the first failure
+     */
+    private void join(List<Future<?>> futures) {
+        Throwable failure = null;
+
+        for (Future<?> future : futures)
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        else if (failure instanceof Error)
+            throw (Error) failure;
+        else if (failure != null)
+            throw new RuntimeException(failure);
+    }
+}
@@ -17,7 +17,9 @@ import org.junit.runners.Suite;
      * have an inner class called 'Tests'.
      */
     no.uib.cipr.rs.util.PriorityQueue.Tests.class,
-    no.uib.cipr.rs.util.test.CubicEquationTest.class
+    no.uib.cipr.rs.util.test.CubicEquationTest.class,
+    no.uib.cipr.rs.util.test.ArrayFileTest.class,
+    no.uib.cipr.rs.util.test.LookupTableSearchTest.class
     //no.uib.cipr.rs.util.test.LookupTable1DTest.class,
     //no.uib.cipr.rs.util.test.LookupTable2DTest.class,
     //no.uib.cipr.rs.util.test.LookupTable3DTest.class,
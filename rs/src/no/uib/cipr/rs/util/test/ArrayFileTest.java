@@ -0,0 +1,86 @@
+package no.uib.cipr.rs.util.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import no.uib.cipr.rs.util.ArrayOutput;
+import no.uib.cipr.rs.util.MappedInput;
+
+/**
+ * Tests that arrays written by ArrayOutput are read back by MappedInput
+ */
+public class ArrayFileTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("array", null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    /**
+     * Writes arrays of each kind, larger than the conversion buffer, and reads
+     * them back
+     */
+    public void testRoundTrip() throws IOException {
+        Random random = new Random(0);
+
+        int[] ints = new int[50000];
+        for (int i = 0; i < ints.length; ++i)
+            ints[i] = random.nextInt();
+
+        double[] doubles = new double[50000];
+        for (int i = 0; i < doubles.length; ++i)
+            doubles[i] = random.nextDouble();
+
+        int[][] lists = { { 1, 2, 3 }, {}, { 4 } };
+        String[] strings = { "WATER", "", "C1" };
+
+        ArrayOutput out = new ArrayOutput(file);
+        out.writeInt(7);
+        out.writeInts(ints);
+        out.writeDoubles(doubles);
+        out.writeLists(lists);
+        out.writeStrings(strings);
+        out.close();
+
+        MappedInput in = new MappedInput(file);
+        assertEquals(7, in.readInts(1)[0]);
+        assertTrue(Arrays.equals(ints, in.readInts(ints.length)));
+        assertTrue(Arrays.equals(doubles, in.readDoubles(doubles.length)));
+
+        int[][] readLists = in.readLists(lists.length);
+        for (int i = 0; i < lists.length; ++i)
+            assertTrue(Arrays.equals(lists[i], readLists[i]));
+
+        assertTrue(Arrays.equals(strings, in.readStrings(strings.length)));
+        in.close();
+    }
+
+    /**
+     * Reading past the end of the file must fail
+     */
+    public void testTruncated() throws IOException {
+        ArrayOutput out = new ArrayOutput(file);
+        out.writeInts(new int[] { 1, 2 });
+        out.close();
+
+        MappedInput in = new MappedInput(file);
+        try {
+            in.readInts(3);
+            fail("Read past the end of the file");
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            in.close();
+        }
+    }
+}
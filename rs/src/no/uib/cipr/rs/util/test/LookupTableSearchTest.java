@@ -0,0 +1,115 @@
+package no.uib.cipr.rs.util.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import no.uib.cipr.rs.util.Function;
+import no.uib.cipr.rs.util.LookupTable;
+
+/**
+ * Tests that the table search gives the same intervals whatever the order of
+ * the look-ups, and that the fixed-arity methods agree with the general ones
+ */
+public class LookupTableSearchTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    /**
+     * Sorted, unevenly spaced coordinates on [0, 1]
+     */
+    private double[] coordinates(int n) {
+        double[] coord = new double[n];
+        coord[n - 1] = 1;
+        for (int i = 1; i < n - 1; ++i)
+            coord[i] = random.nextDouble();
+        Arrays.sort(coord);
+        return coord;
+    }
+
+    /**
+     * Look-up points: a random walk with small and large steps, passing
+     * through the table coordinates and beyond either end
+     */
+    private double[] points(double[] coord, int n) {
+        double[] x = new double[n];
+        double xi = 0.5;
+        for (int i = 0; i < n; ++i) {
+            switch (i % 5) {
+            case 0:
+                xi = coord[random.nextInt(coord.length)];
+                break;
+            case 1:
+                xi = 1.4 * random.nextDouble() - 0.2;
+                break;
+            default:
+                xi += 0.01 * random.nextGaussian();
+            }
+            x[i] = xi;
+        }
+        return x;
+    }
+
+    public void testSearch1D() {
+        double[] coord = coordinates(500), data = new double[coord.length];
+        for (int i = 0; i < data.length; ++i)
+            data[i] = random.nextDouble();
+
+        Function f = new LookupTable("1D", coord, data);
+
+        for (double x : points(coord, 20000)) {
+
+            // Reference interval by a linear scan, with coord[i] < x <=
+            // coord[i+1], and clamped to the table
+            int i = 0;
+            if (x >= coord[coord.length - 2])
+                i = coord.length - 2;
+            else
+                while (i < coord.length - 2 && coord[i + 1] < x)
+                    i++;
+
+            double delta = coord[i + 1] - coord[i];
+            double w = Math.min(Math.max((x - coord[i]) / delta, 0), 1);
+            double v = (1 - w) * data[i] + w * data[i + 1];
+            double dvdx = 0;
+            if (x >= coord[0] && x <= coord[coord.length - 1])
+                dvdx = -1 / delta * data[i] + 1 / delta * data[i + 1];
+
+            assertEquals(0, Double.compare(v, f.get1(x)));
+            assertEquals(0, Double.compare(v, f.get(x)));
+            assertEquals(0, Double.compare(dvdx, f.deriv(0, x)));
+        }
+    }
+
+    public void testSearch3D() {
+        double[] xc = coordinates(40), yc = coordinates(30), zc = coordinates(
+                20);
+        double[][][] data = new double[xc.length][yc.length][zc.length];
+        for (double[][] a : data)
+            for (double[] b : a)
+                for (int k = 0; k < b.length; ++k)
+                    b[k] = random.nextDouble();
+
+        // One table is searched in the order of the walk, the other in
+        // reverse order
+        Function f = new LookupTable("3D", xc, yc, zc, data);
+        Function g = new LookupTable("3D", xc, yc, zc, data);
+
+        int n = 5000;
+        double[] x = points(xc, n), y = points(yc, n), z = points(zc, n);
+        double[][] forward = new double[n][4];
+        for (int i = 0; i < n; ++i) {
+            forward[i][0] = f.get3(x[i], y[i], z[i]);
+            for (int d = 0; d < 3; ++d)
+                forward[i][d + 1] = f.deriv(d, x[i], y[i], z[i]);
+        }
+
+        for (int i = n - 1; i >= 0; --i) {
+            double[] xi = { x[i], y[i], z[i] };
+            assertEquals(0, Double.compare(forward[i][0], g.get(xi)));
+            for (int d = 0; d < 3; ++d)
+                assertEquals(0, Double.compare(forward[i][d + 1], g.deriv(d,
+                        xi)));
+        }
+    }
+}